@@ -0,0 +1,74 @@
+package xyz.benanderson.nanopay;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import uk.oczadly.karl.jnano.model.NanoAmount;
+import xyz.benanderson.nanopay.wallet.Transaction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays recorded confirmation payloads through {@link ConfirmationDecoder}, compared against building the full JSON
+ * tree for every message. Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfirmationDecoderBenchmark {
+
+    private static final Set<String> WATCHED_ACCOUNTS = Set.of(
+            "nano_1nqk6skte51ktc6jiqeo3una4fib4sqpp6bx4y8pr5ymk1hz6gf33gye8tji",
+            "nano_3a6oya9s97d73mwmi4wguej6nts6jahb6mnht4q4w8nnkcjm1qrrmemieayz"
+    );
+
+    private List<String> payloads;
+    private ConfirmationDecoder confirmationDecoder;
+
+    @Setup
+    public void setup() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Objects.requireNonNull(
+                getClass().getResourceAsStream("/confirmations.jsonl")), StandardCharsets.UTF_8))) {
+            payloads = reader.lines().filter(line -> !line.isBlank()).toList();
+        }
+        confirmationDecoder = new ConfirmationDecoder(WATCHED_ACCOUNTS::contains);
+    }
+
+    @Benchmark
+    public void streamingDecoder(Blackhole blackhole) {
+        for (String payload : payloads) {
+            blackhole.consume(confirmationDecoder.decode(payload));
+        }
+    }
+
+    @Benchmark
+    public void jsonTree(Blackhole blackhole) {
+        for (String payload : payloads) {
+            JsonObject message = JsonParser.parseString(payload).getAsJsonObject().getAsJsonObject("message");
+            JsonObject block = message.getAsJsonObject("block");
+            if (!block.get("subtype").getAsString().equalsIgnoreCase("send")) continue;
+            NanoAccount receiver = NanoAccount.parse(block.get("link_as_account").getAsString());
+            Transaction transaction = new Transaction(
+                    NanoAccount.parse(message.get("account").getAsString()),
+                    receiver,
+                    NanoAmount.valueOfRaw(new BigInteger(message.get("amount").getAsString()))
+            );
+            if (!WATCHED_ACCOUNTS.contains(receiver.toAddress())) continue;
+            blackhole.consume(transaction);
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package xyz.benanderson.nanopay.storage;
+
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.*;
+import xyz.benanderson.nanopay.hibernate.HibernateWalletStorage;
+import xyz.benanderson.nanopay.wallet.Wallet;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures each {@link WalletStorage} implementation holding a given amount of wallets. Lookups and full scans are
+ * measured as average times. Saves and deletes change the storage, so they are measured in fixed batches of
+ * {@link #BATCH_SIZE} operations, with the wallets for each batch prepared (and cleaned up) outside the measurement
+ * so the storage stays at its parameterised size. The {@code contended} variants run the same operations on
+ * {@link #THREADS} threads at once.
+ * <p>
+ * File-backed storages are slow to populate with a million wallets, and {@link SingleFileWalletStorage} rewrites the
+ * whole file on each save and delete. Pass e.g. {@code -p walletCount=1000} to limit a run to the smaller sizes.
+ * {@link SingleFileWalletStorage} is skipped above {@link #SINGLE_FILE_WALLET_LIMIT} wallets unless a higher limit is
+ * given with {@code -jvmArgsAppend -Dnanopay.benchmark.singleFileWalletLimit=1000000}.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WalletStorageBenchmark {
+
+    static final int BATCH_SIZE = 100, THREADS = 4, SINGLE_FILE_WALLET_LIMIT = 100_000;
+    private static final String SINGLE_FILE_WALLET_LIMIT_PROPERTY = "nanopay.benchmark.singleFileWalletLimit";
+    private static final Duration EXPIRY = Duration.ofDays(1);
+    private static final int SETUP_CHUNK_SIZE = 10_000;
+    private static final ThreadLocal<SecureRandom> SECURE_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    public enum StorageType {
+        MEMORY, SINGLE_FILE, MULTIPLE_FILE, CACHE_WRAPPED, HIBERNATE
+    }
+
+    @Param
+    private StorageType storageType;
+
+    @Param({"1000", "100000", "1000000"})
+    private int walletCount;
+
+    private WalletStorage walletStorage;
+    private List<Wallet> storedWallets;
+    private Path storagePath;
+    private ExecutorService backingOperationService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int singleFileWalletLimit = Integer.getInteger(SINGLE_FILE_WALLET_LIMIT_PROPERTY, SINGLE_FILE_WALLET_LIMIT);
+        if (storageType == StorageType.SINGLE_FILE && walletCount > singleFileWalletLimit) {
+            //JMH reports the failed trial and moves on to the next parameter combination
+            throw new IllegalStateException("Skipping SINGLE_FILE with " + walletCount + " wallets, set -D"
+                    + SINGLE_FILE_WALLET_LIMIT_PROPERTY + "=" + walletCount + " to run it");
+        }
+        walletStorage = createStorage();
+        storedWallets = generateWallets(walletCount);
+        for (int i = 0; i < storedWallets.size(); i += SETUP_CHUNK_SIZE) {
+            walletStorage.saveWallets(storedWallets.subList(i, Math.min(i + SETUP_CHUNK_SIZE, storedWallets.size())));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (backingOperationService != null) {
+            backingOperationService.shutdown();
+            //noinspection ResultOfMethodCallIgnored
+            backingOperationService.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (walletStorage instanceof AutoCloseable closeable) closeable.close();
+        if (storagePath != null) {
+            try (Stream<Path> paths = Files.walk(storagePath)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private WalletStorage createStorage() throws IOException {
+        return switch (storageType) {
+            case MEMORY -> new MemoryWalletStorage(EXPIRY);
+            case SINGLE_FILE -> {
+                storagePath = Files.createTempDirectory("nanopay-benchmark");
+                yield new SingleFileWalletStorage(storagePath.resolve("wallets.json"), EXPIRY);
+            }
+            case MULTIPLE_FILE -> {
+                storagePath = Files.createTempDirectory("nanopay-benchmark");
+                yield new MultipleFileWalletStorage(storagePath, EXPIRY);
+            }
+            case CACHE_WRAPPED -> {
+                storagePath = Files.createTempDirectory("nanopay-benchmark");
+                backingOperationService = Executors.newSingleThreadExecutor();
+                yield new CacheWrappedWalletStorage(new MultipleFileWalletStorage(storagePath, EXPIRY),
+                        backingOperationService);
+            }
+            case HIBERNATE -> new HibernateWalletStorage(WalletType.ACTIVE, EXPIRY, new Configuration()
+                    .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+                    .setProperty("hibernate.connection.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1")
+                    .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                    .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect"));
+        };
+    }
+
+    static List<Wallet> generateWallets(int count) {
+        Instant creationTime = Instant.now();
+        return IntStream.range(0, count).parallel().mapToObj(i -> {
+            WalletKeyPool.WalletKey walletKey = WalletKeyPool.generateKey(SECURE_RANDOM.get());
+            return new Wallet(walletKey.address(), walletKey.privateKey(), creationTime, new BigDecimal("0.1"));
+        }).toList();
+    }
+
+    private Wallet randomStoredWallet() {
+        return storedWallets.get(ThreadLocalRandom.current().nextInt(storedWallets.size()));
+    }
+
+    /**
+     * Wallets which aren't stored, saved one per invocation and deleted again after each iteration.
+     */
+    @State(Scope.Thread)
+    public static class SaveBatch {
+
+        private final Deque<Wallet> pending = new ArrayDeque<>();
+        private final List<Wallet> saved = new ArrayList<>();
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            pending.addAll(generateWallets(BATCH_SIZE));
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(WalletStorageBenchmark benchmark) {
+            saved.forEach(benchmark.walletStorage::deleteWallet);
+            saved.clear();
+            pending.clear();
+        }
+
+        private Wallet next() {
+            Wallet wallet = pending.pop();
+            saved.add(wallet);
+            return wallet;
+        }
+
+    }
+
+    /**
+     * Wallets saved before each iteration, deleted one per invocation.
+     */
+    @State(Scope.Thread)
+    public static class DeleteBatch {
+
+        private final Deque<Wallet> pending = new ArrayDeque<>();
+
+        @Setup(Level.Iteration)
+        public void setup(WalletStorageBenchmark benchmark) {
+            List<Wallet> wallets = generateWallets(BATCH_SIZE);
+            benchmark.walletStorage.saveWallets(wallets);
+            pending.addAll(wallets);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(WalletStorageBenchmark benchmark) {
+            pending.forEach(benchmark.walletStorage::deleteWallet);
+            pending.clear();
+        }
+
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Optional<Wallet> find() {
+        return walletStorage.findWalletByAddress(randomStoredWallet().address());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(THREADS)
+    public Optional<Wallet> findContended() {
+        return walletStorage.findWalletByAddress(randomStoredWallet().address());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Collection<Wallet> getAllWallets() {
+        return walletStorage.getAllWallets();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(THREADS)
+    public Collection<Wallet> getAllWalletsContended() {
+        return walletStorage.getAllWallets();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5, batchSize = BATCH_SIZE)
+    @Warmup(iterations = 2, batchSize = BATCH_SIZE)
+    public void save(SaveBatch saveBatch) {
+        walletStorage.saveWallet(saveBatch.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5, batchSize = BATCH_SIZE)
+    @Warmup(iterations = 2, batchSize = BATCH_SIZE)
+    @Threads(THREADS)
+    public void saveContended(SaveBatch saveBatch) {
+        walletStorage.saveWallet(saveBatch.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5, batchSize = BATCH_SIZE)
+    @Warmup(iterations = 2, batchSize = BATCH_SIZE)
+    public void delete(DeleteBatch deleteBatch) {
+        walletStorage.deleteWallet(deleteBatch.pending.pop());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5, batchSize = BATCH_SIZE)
+    @Warmup(iterations = 2, batchSize = BATCH_SIZE)
+    @Threads(THREADS)
+    public void deleteContended(DeleteBatch deleteBatch) {
+        walletStorage.deleteWallet(deleteBatch.pending.pop());
+    }
+
+}
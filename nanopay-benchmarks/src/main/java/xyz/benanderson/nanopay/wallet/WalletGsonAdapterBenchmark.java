@@ -0,0 +1,71 @@
+package xyz.benanderson.nanopay.wallet;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encode and decode throughput of {@link WalletGsonAdapter} and {@link DeadWalletGsonAdapter}, which
+ * serialize every wallet written to or read from the file-backed storages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletGsonAdapterBenchmark {
+
+    private final WalletGsonAdapter walletAdapter = new WalletGsonAdapter();
+    private final DeadWalletGsonAdapter deadWalletAdapter = new DeadWalletGsonAdapter();
+    private Wallet wallet, derivedWallet;
+    private DeadWallet deadWallet;
+    private String walletJson, derivedWalletJson, deadWalletJson;
+
+    @Setup
+    public void setup() {
+        wallet = new Wallet("nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                "B18852DAB11E34B4C0BEE3C53FCABF75560791E13EC7A5D5F9B7670277DD4643",
+                Instant.ofEpochMilli(1649247684032L), new BigDecimal("0.1"));
+        derivedWallet = Wallet.derived("nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto", 42,
+                Instant.ofEpochMilli(1649281447828L), new BigDecimal("1.2"));
+        deadWallet = DeadWallet.kill(wallet, true);
+        walletJson = walletAdapter.toJson(wallet);
+        derivedWalletJson = walletAdapter.toJson(derivedWallet);
+        deadWalletJson = deadWalletAdapter.toJson(deadWallet);
+    }
+
+    @Benchmark
+    public String encodeWallet() {
+        return walletAdapter.toJson(wallet);
+    }
+
+    @Benchmark
+    public Wallet decodeWallet() throws IOException {
+        return walletAdapter.fromJson(walletJson);
+    }
+
+    @Benchmark
+    public String encodeDerivedWallet() {
+        return walletAdapter.toJson(derivedWallet);
+    }
+
+    @Benchmark
+    public Wallet decodeDerivedWallet() throws IOException {
+        return walletAdapter.fromJson(derivedWalletJson);
+    }
+
+    @Benchmark
+    public String encodeDeadWallet() {
+        return deadWalletAdapter.toJson(deadWallet);
+    }
+
+    @Benchmark
+    public DeadWallet decodeDeadWallet() throws IOException {
+        return deadWalletAdapter.fromJson(deadWalletJson);
+    }
+
+}
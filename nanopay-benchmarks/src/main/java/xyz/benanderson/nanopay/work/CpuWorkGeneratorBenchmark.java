@@ -0,0 +1,59 @@
+package xyz.benanderson.nanopay.work;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the local proof of work search. {@code hash} reports the hashes per second of a single core, whilst
+ * {@code search} reports the time taken to find work at a low difficulty with the given thread budget, so scaling
+ * across cores can be compared against the single core rate.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CpuWorkGeneratorBenchmark {
+
+    //roughly one in a million nonces meets this threshold
+    private static final long SEARCH_THRESHOLD = 0xfffff00000000000L;
+
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    private byte[] root;
+    private WorkHasher workHasher;
+    private CpuWorkGenerator workGenerator;
+    private long nonce;
+
+    @Setup
+    public void setup() {
+        root = new byte[32];
+        ThreadLocalRandom.current().nextBytes(root);
+        workHasher = new WorkHasher(root);
+        workGenerator = new CpuWorkGenerator(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workGenerator.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long hash() {
+        return workHasher.hash(nonce++);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long search() throws ExecutionException, InterruptedException {
+        return workGenerator.search(root, SEARCH_THRESHOLD).get();
+    }
+
+}
@@ -0,0 +1,113 @@
+package xyz.benanderson.nanopay;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import uk.oczadly.karl.jnano.model.NanoAmount;
+import xyz.benanderson.nanopay.wallet.Transaction;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.function.Predicate;
+
+/**
+ * Decodes confirmation messages sent by the node's WebSocket without building a JSON tree. The message is streamed
+ * and rejected as soon as it is known to be irrelevant - when it isn't a confirmation, the block isn't a send, or the
+ * block sends to an account which isn't watched. {@link NanoAccount} and {@link NanoAmount} objects are only created
+ * for accepted messages.
+ */
+final class ConfirmationDecoder {
+
+    private final Predicate<String> watchedAccount;
+
+    /**
+     * @param watchedAccount tests whether an address (the destination of a send block) is being watched
+     */
+    ConfirmationDecoder(Predicate<String> watchedAccount) {
+        this.watchedAccount = watchedAccount;
+    }
+
+    /**
+     * @param message raw JSON message received from the node's WebSocket
+     * @return the decoded {@link Confirmation}, or {@code null} if the message was rejected
+     */
+    Confirmation decode(String message) {
+        try (JsonReader jsonReader = new JsonReader(new StringReader(message))) {
+            return decode(jsonReader);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            NanoPay.LOGGER.debug("Failed to decode WebSocket message: " + message, e);
+            return null;
+        }
+    }
+
+    private Confirmation decode(JsonReader jsonReader) throws IOException {
+        String hash = null, sender = null, receiver = null, amount = null;
+        boolean isConfirmation = false;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "topic" -> {
+                    if (!"confirmation".equals(jsonReader.nextString())) return null;
+                    isConfirmation = true;
+                }
+                case "message" -> {
+                    if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) return null;
+                    jsonReader.beginObject();
+                    while (jsonReader.hasNext()) {
+                        switch (jsonReader.nextName()) {
+                            case "account" -> sender = jsonReader.nextString();
+                            case "amount" -> amount = jsonReader.nextString();
+                            case "hash" -> hash = jsonReader.nextString();
+                            case "block" -> {
+                                receiver = decodeBlock(jsonReader);
+                                if (receiver == null) return null;
+                            }
+                            default -> jsonReader.skipValue();
+                        }
+                    }
+                    jsonReader.endObject();
+                }
+                default -> jsonReader.skipValue();
+            }
+        }
+        if (!isConfirmation || hash == null || sender == null || receiver == null || amount == null) return null;
+        return new Confirmation(hash, new Transaction(
+                NanoAccount.parseAddress(sender),
+                NanoAccount.parseAddress(receiver),
+                NanoAmount.valueOfRaw(new BigInteger(amount))
+        ));
+    }
+
+    /**
+     * @return the watched account the block sends to, or {@code null} if the block should be rejected
+     */
+    private String decodeBlock(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) return null;
+        String receiver = null;
+        boolean isSend = false;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "subtype" -> {
+                    if (!"send".equalsIgnoreCase(jsonReader.nextString())) return null;
+                    isSend = true;
+                }
+                case "link_as_account" -> {
+                    receiver = jsonReader.nextString();
+                    if (!watchedAccount.test(receiver)) return null;
+                }
+                default -> jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return isSend ? receiver : null;
+    }
+
+    /**
+     * @param hash hash of the confirmed send block, identifying the confirmation across WebSocket feeds
+     * @param transaction the funds sent by the block
+     */
+    record Confirmation(String hash, Transaction transaction) {}
+
+}
@@ -0,0 +1,94 @@
+package xyz.benanderson.nanopay;
+
+import xyz.benanderson.nanopay.rpc.LatencyHistogram;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Merges the confirmations received from several WebSocket feeds, so each block is handled once, from whichever feed
+ * delivers it first. Recently seen block hashes are kept in a bounded map, with the oldest evicted first. Each later
+ * delivery of a block records how far the feed lagged behind the first feed, and how far the first feed led it.
+ */
+final class ConfirmationDeduplicator {
+
+    static final int DEFAULT_CAPACITY = 65_536;
+
+    private final List<Feed> feeds;
+    private final LongSupplier nanoTime;
+    private final Map<String, Delivery> firstDeliveries;
+
+    ConfirmationDeduplicator(List<URI> feedAddresses) {
+        this(feedAddresses, DEFAULT_CAPACITY, System::nanoTime);
+    }
+
+    /**
+     * @param feedAddresses addresses of the feeds, confirmations are attributed to a feed by its index in this list
+     * @param capacity maximum amount of block hashes remembered
+     * @param nanoTime source of the time each confirmation is received
+     * @throws IllegalArgumentException if {@code capacity} is not positive.
+     */
+    ConfirmationDeduplicator(List<URI> feedAddresses, int capacity, LongSupplier nanoTime) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.feeds = feedAddresses.stream().map(Feed::new).toList();
+        this.nanoTime = nanoTime;
+        this.firstDeliveries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Delivery> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param feedIndex index of the feed the confirmation was received from
+     * @param hash hash of the confirmed block
+     * @return true if this is the first delivery of the block, so it should be handled
+     */
+    boolean accept(int feedIndex, String hash) {
+        long receivedTime = nanoTime.getAsLong();
+        Delivery firstDelivery;
+        synchronized (firstDeliveries) {
+            firstDelivery = firstDeliveries.putIfAbsent(hash, new Delivery(feedIndex, receivedTime));
+        }
+        Feed feed = feeds.get(feedIndex);
+        if (firstDelivery == null) {
+            feed.firstDeliveries.increment();
+            return true;
+        }
+        //a feed may repeat a confirmation (e.g. after reconnecting), which says nothing about its lag
+        if (firstDelivery.feedIndex() == feedIndex) return false;
+        long lagNanos = Math.max(0, receivedTime - firstDelivery.receivedTime());
+        feed.lateDeliveries.increment();
+        feed.lag.record(lagNanos);
+        feeds.get(firstDelivery.feedIndex()).lead.record(lagNanos);
+        return false;
+    }
+
+    /**
+     * @return the delivery statistics of each feed, in the order their addresses were given
+     */
+    List<NanoPay.WebSocketFeedStats> getFeedStats() {
+        return feeds.stream().map(feed -> new NanoPay.WebSocketFeedStats(feed.address,
+                feed.firstDeliveries.sum(), feed.lateDeliveries.sum(), feed.lead, feed.lag)).toList();
+    }
+
+    private record Delivery(int feedIndex, long receivedTime) {}
+
+    private static final class Feed {
+
+        private final URI address;
+        private final LongAdder firstDeliveries = new LongAdder(), lateDeliveries = new LongAdder();
+        private final LatencyHistogram lead = new LatencyHistogram(), lag = new LatencyHistogram();
+
+        private Feed(URI address) {
+            this.address = address;
+        }
+
+    }
+
+}
@@ -5,44 +5,117 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.model.block.StateBlock;
+import uk.oczadly.karl.jnano.rpc.HttpRequestExecutor;
+import uk.oczadly.karl.jnano.rpc.JsonRpcRequestSerializer;
+import uk.oczadly.karl.jnano.rpc.JsonRpcResponseDeserializer;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
 import uk.oczadly.karl.jnano.rpc.exception.RpcException;
+import uk.oczadly.karl.jnano.rpc.request.node.RequestAccountBalance;
 import uk.oczadly.karl.jnano.rpc.request.node.RequestMultiAccountBalances;
+import uk.oczadly.karl.jnano.rpc.response.ResponseBalance;
 import uk.oczadly.karl.jnano.rpc.response.ResponseMultiAccountBalances;
 import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import uk.oczadly.karl.jnano.util.wallet.WalletActionException;
+import uk.oczadly.karl.jnano.util.workgen.NodeWorkGenerator;
+import uk.oczadly.karl.jnano.util.workgen.WorkGenerator;
 import xyz.benanderson.nanopay.death.*;
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.event.PaymentEventPublisher;
+import xyz.benanderson.nanopay.execution.ExecutionModel;
+import xyz.benanderson.nanopay.execution.InterruptibleTask;
+import xyz.benanderson.nanopay.execution.MonitoredExecutor;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
+import xyz.benanderson.nanopay.metrics.SlowCallLogger;
+import xyz.benanderson.nanopay.rpc.CachingRpcTransport;
+import xyz.benanderson.nanopay.rpc.CoalescingRpcTransport;
+import xyz.benanderson.nanopay.rpc.InstrumentedRpcTransport;
+import xyz.benanderson.nanopay.rpc.LatencyHistogram;
+import xyz.benanderson.nanopay.rpc.PooledRpcTransport;
+import xyz.benanderson.nanopay.rpc.RoutingRpcTransport;
+import xyz.benanderson.nanopay.storage.CacheWrappedWalletStorage;
+import xyz.benanderson.nanopay.storage.InstrumentedWalletStorage;
 import xyz.benanderson.nanopay.storage.MemoryWalletStorage;
 import xyz.benanderson.nanopay.storage.ReadOnlyWalletStorage;
 import xyz.benanderson.nanopay.storage.WalletStorage;
 import xyz.benanderson.nanopay.storage.WalletStorageProvider;
+import xyz.benanderson.nanopay.storage.WalletType;
+import xyz.benanderson.nanopay.wallet.Transaction;
 import xyz.benanderson.nanopay.wallet.Wallet;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
+import xyz.benanderson.nanopay.wallet.WalletSeed;
+import xyz.benanderson.nanopay.work.CpuWorkGenerator;
+import xyz.benanderson.nanopay.work.PrecachingWorkGenerator;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
-public final class NanoPay {
+public final class NanoPay implements AutoCloseable {
 
     public static final Logger LOGGER = LoggerFactory.getLogger(NanoPay.class);
+    public static final Duration DEFAULT_ASYNC_TIMEOUT = Duration.ofSeconds(30);
     private final WalletManager walletManager;
-
-    private NanoPay(NanoPay.Builder builder) {
-        WebSocketListener webSocketListener = new WebSocketListener(
-                URI.create(builder.webSocketAddress), builder.webSocketReconnect);
-
-        RpcQueryNode rpcClient = new RpcQueryNode(builder.rpcAddress);
+    private final WalletCheckPipeline walletCheckPipeline;
+    private final RpcRequestExecutor rpcTransport;
+    private final boolean ownsRpcTransport;
+    private final CachingRpcTransport accountStateCache;
+    private final RoutingRpcTransport rpcRouter;
+    private final CoalescingRpcTransport rpcCoalescer;
+    private final WebSocketListener webSocketListener;
+    private final ExecutionModel executionModel;
+    private final boolean ownsExecutionModel;
+    private final WalletKeyPool ownedWalletKeyPool;
+    private final WorkGenerator ownedWorkGenerator;
+    private final Duration asyncTimeout;
+    private final PaymentEventPublisher paymentEventPublisher;
+
+    private NanoPay(NanoPay.Builder builder, boolean ownsExecutionModel) {
+        executionModel = builder.executionModel;
+        this.ownsExecutionModel = ownsExecutionModel;
+        asyncTimeout = builder.asyncTimeout;
+        webSocketListener = new WebSocketListener(builder.webSocketAddresses.stream().map(URI::create).toList(),
+                builder.webSocketReconnect, builder.webSocketFilterUpdateWindow);
+        webSocketListener.setOpenCallbackExecutor(executionModel.getWebSocketExecutor());
+        Instrumentation instrumentation = builder.slowCallThreshold == null && builder.slowCallThresholds.isEmpty()
+                ? builder.instrumentation
+                : new SlowCallLogger(builder.instrumentation, builder.slowCallThreshold, builder.slowCallThresholds);
+        boolean instrumented = instrumentation != Instrumentation.NOOP;
+        paymentEventPublisher = new PaymentEventPublisher(executionModel.getEventExecutor(),
+                builder.paymentEventBufferCapacity, builder.paymentEventOverflowPolicy, instrumentation);
+
+        rpcTransport = builder.rpcTransport == null && (builder.rpcCoalesceWindow != null
+                || builder.accountStateCacheCapacity > 0 || builder.rpcAddresses.size() > 1)
+                ? new PooledRpcTransport() : builder.rpcTransport;
+        ownsRpcTransport = rpcTransport != builder.rpcTransport || builder.ownsRpcTransport;
+        rpcRouter = builder.rpcAddresses.size() > 1
+                ? new RoutingRpcTransport(builder.rpcAddresses, rpcTransport, builder.rpcHedgePercentile) : null;
+        RpcRequestExecutor rpcExecutor = rpcRouter != null ? rpcRouter : rpcTransport;
+        rpcCoalescer = builder.rpcCoalesceWindow == null ? null
+                : new CoalescingRpcTransport(rpcExecutor, builder.rpcCoalesceWindow, builder.rpcCoalesceMaxBatchSize);
+        if (rpcCoalescer != null) rpcExecutor = rpcCoalescer;
+        accountStateCache = builder.accountStateCacheCapacity > 0 ? new CachingRpcTransport(rpcExecutor,
+                builder.accountStateCacheCapacity, builder.accountStateCacheTimeToLive) : null;
+        if (accountStateCache != null) rpcExecutor = accountStateCache;
+        //recording metrics mustn't change how requests are sent, so jNano's default transport is wrapped if none is set
+        if (instrumented) rpcExecutor = new InstrumentedRpcTransport(
+                rpcExecutor != null ? rpcExecutor : new HttpRequestExecutor(), instrumentation);
+        //requests are submitted to the first address, which is overridden by the router when there are several
+        URL rpcAddress = builder.rpcAddresses.get(0);
+        RpcQueryNode rpcClient = rpcExecutor == null ? new RpcQueryNode(rpcAddress)
+                : new RpcQueryNode(rpcAddress, new JsonRpcRequestSerializer(),
+                        new JsonRpcResponseDeserializer(), rpcExecutor);
         if (builder.walletDeathLogger == null) {
             builder.walletDeathLogger = new DefaultWalletDeathLogger();
         }
@@ -50,8 +123,14 @@ public final class NanoPay {
             builder.walletDeathHandler = new DefaultWalletDeathHandler(builder.paymentSuccessListener,
                     builder.paymentFailureListener, builder.storageWallet, rpcClient);
         }
+        WalletStorageProvider walletStorageProvider = !instrumented ? builder.walletStorageProvider
+                : new WalletStorageProvider(
+                        new InstrumentedWalletStorage(builder.walletStorageProvider.activeWalletStorage(),
+                                WalletType.ACTIVE, instrumentation),
+                        new InstrumentedWalletStorage(builder.walletStorageProvider.deadWalletStorage(),
+                                WalletType.DEAD, instrumentation));
         walletManager = new WalletManager(
-                builder.walletStorageProvider,
+                walletStorageProvider,
                 builder.walletDeathHandler,
                 builder.walletDeathLogger,
                 webSocketListener,
@@ -59,25 +138,80 @@ public final class NanoPay {
                 builder.representativeWallet,
                 builder.clock
         );
+        walletManager.setInstrumentation(instrumentation);
+        walletManager.setPaymentEventListener(paymentEventPublisher::publish);
+        walletManager.setDeathExecutor(executionModel.getDeathExecutor());
+        walletManager.setWalletKeyPool(builder.walletKeyPool);
+        ownedWalletKeyPool = builder.ownsWalletKeyPool ? builder.walletKeyPool : null;
+        walletManager.setWalletSeed(builder.walletSeed);
+        WorkGenerator workGenerator = builder.workGenerator;
+        boolean ownsWorkGenerator = builder.ownsWorkGenerator;
+        if (builder.workPrecacheCapacity > 0) {
+            //a generator given to the builder is left running when the precaching generator is shut down
+            workGenerator = new PrecachingWorkGenerator(workGenerator != null ? workGenerator
+                    : new NodeWorkGenerator(rpcClient), builder.workPrecacheCapacity, builder.workPrecacheThreads,
+                    builder.workGenerator == null || ownsWorkGenerator);
+            ownsWorkGenerator = true;
+        }
+        walletManager.setWorkGenerator(workGenerator);
+        ownedWorkGenerator = ownsWorkGenerator ? workGenerator : null;
         if (builder.walletPruneServiceEnabled) {
-            walletManager.startWalletPruneService(builder.walletPruneService, builder.walletPruneDelay);
+            walletManager.startWalletPruneService(builder.walletPruneService);
         }
         if (builder.refundServiceEnabled) {
             walletManager.startWalletRefundService(builder.refundWalletService, builder.walletRefundDelay);
         }
 
-        webSocketListener.connectWebSocket(transaction -> {
+        walletCheckPipeline = new WalletCheckPipeline(builder.walletCheckWorkers, builder.walletCheckQueueDepth,
+                builder.walletCheckOverflowPolicy);
+        //gauges read the storages directly, so sampling them doesn't add to the storage timers
+        instrumentation.registerGauge(MetricNames.ACTIVE_WALLETS,
+                () -> builder.walletStorageProvider.activeWalletStorage().countWallets());
+        instrumentation.registerGauge(MetricNames.DEAD_WALLETS,
+                () -> builder.walletStorageProvider.deadWalletStorage().countWallets());
+        instrumentation.registerGauge(MetricNames.WALLET_CHECK_QUEUE_DEPTH, walletCheckPipeline::getQueueDepth);
+        instrumentation.registerGauge(MetricNames.PAYMENT_EVENTS_BUFFERED, paymentEventPublisher::getMaxBufferedEvents);
+        for (MonitoredExecutor executor : executionModel.getExecutors()) {
+            String executorName = MetricNames.EXECUTOR_PREFIX + executor.getName();
+            instrumentation.registerGauge(executorName + MetricNames.QUEUE_DEPTH_SUFFIX, executor::getQueueDepth);
+            instrumentation.registerGauge(executorName + MetricNames.ACTIVE_SUFFIX, executor::getActiveCount);
+        }
+        webSocketListener.connectWebSocket(confirmation -> {
+            Transaction transaction = confirmation.transaction();
             NanoPay.LOGGER.debug("Listened to transaction: " + transaction);
+            long confirmationTime = instrumentation.startTimer();
+            if (accountStateCache != null) {
+                accountStateCache.invalidate(transaction.sender().toAddress());
+                accountStateCache.invalidate(transaction.receiver().toAddress());
+            }
+            submitWalletCheck(transaction.receiver().toAddress(), confirmation, confirmationTime);
+        }, () -> {
+            //confirmations may have been missed whilst the WebSocket was disconnected, the initial connection is
+            //covered by loading the wallets below instead
+            if (accountStateCache != null) accountStateCache.invalidateAll();
+            walletManager.refreshReceivedAmounts()
+                    .forEach(wallet -> submitWalletCheck(wallet.address(), null, 0));
+        });
+        walletManager.loadWallets(builder.walletRecoveryThreads);
+    }
+
+    /**
+     * @param confirmation the confirmation of a payment to the wallet, or {@code null} to check the wallet's tally
+     * @param confirmationTime time the confirmation was received, from {@link Instrumentation#startTimer()}
+     */
+    private void submitWalletCheck(String address, ConfirmationDecoder.Confirmation confirmation,
+                                   long confirmationTime) {
+        walletCheckPipeline.submit(address, () -> {
             try {
-                Optional<Wallet> walletOptional = walletManager.getWallet(transaction.receiver().toAddress());
+                Optional<Wallet> walletOptional = walletManager.getWallet(address);
                 if (walletOptional.isEmpty()) return;
-                Wallet wallet = walletOptional.get();
-                walletManager.checkWallet(walletManager.getLocalRpcWallet(wallet), wallet);
+                if (confirmation != null)
+                    walletManager.handleConfirmation(walletOptional.get(), confirmation, confirmationTime);
+                else walletManager.handleTransaction(walletOptional.get(), BigDecimal.ZERO);
             } catch (WalletActionException e) {
-                NanoPay.LOGGER.error("Exception occurred checking wallet (" + transaction.receiver().toAddress() + ")", e);
+                NanoPay.LOGGER.error("Exception occurred checking wallet (" + address + ")", e);
             }
         });
-        walletManager.loadWallets();
     }
 
     /**
@@ -94,21 +228,79 @@ public final class NanoPay {
         return walletManager.requestPayment(amount);
     }
 
+    /**
+     * Asynchronous variant of {@link #requestPayment(BigDecimal)}, run on the request executor of the
+     * {@link ExecutionModel}.
+     *
+     * @param amount The amount of NANO to receive for the payment to be considered completed
+     * @return future completed with the NANO wallet address the payment should be sent to, or exceptionally with an
+     * {@link IllegalArgumentException} if the amount requested is zero. See
+     * {@link Builder#setAsyncTimeout(Duration)} for timeouts and cancellation.
+     */
+    public CompletableFuture<String> requestPaymentAsync(BigDecimal amount) {
+        return supplyAsync(() -> requestPayment(amount), false);
+    }
+
+    /**
+     * Creates a batch of NANO wallets to receive funds. Keys are generated in parallel, all wallets are written to the
+     * active storage of the WalletStorageProvider in a single batch and all wallets are added to the internal
+     * monitoring system with a single subscription update.
+     *
+     * @param amounts The amounts of NANO to receive for each payment to be considered completed
+     * @return NANO wallet addresses the payments should be sent to, in the same order as {@code amounts}
+     * @throws IllegalArgumentException if any amount requested is zero.
+     */
+    public List<String> requestPayments(List<BigDecimal> amounts) {
+        if (amounts.stream().anyMatch(amount -> amount.compareTo(BigDecimal.ZERO) <= 0))
+            throw new IllegalArgumentException("Required amount cannot be zero");
+        if (amounts.isEmpty()) return Collections.emptyList();
+        return walletManager.requestPayments(amounts);
+    }
+
+    /**
+     * Asynchronous variant of {@link #requestPayments(List)}, run on the request executor of the
+     * {@link ExecutionModel}.
+     *
+     * @param amounts The amounts of NANO to receive for each payment to be considered completed
+     * @return future completed with the NANO wallet addresses the payments should be sent to, or exceptionally with an
+     * {@link IllegalArgumentException} if any amount requested is zero. See
+     * {@link Builder#setAsyncTimeout(Duration)} for timeouts and cancellation.
+     */
+    public CompletableFuture<List<String>> requestPaymentsAsync(List<BigDecimal> amounts) {
+        return supplyAsync(() -> requestPayments(amounts), false);
+    }
+
     /**
      * Attempts to kill the active {@link Wallet} waiting for payment. Any funds in the {@link Wallet} will be acted
      * on according to the {@link WalletDeathHandler} used by {@link NanoPay}, the {@link Wallet} will then be moved
      * to dead storage.
      * @param address Address of {@link Wallet} waiting for payment (equivalent to a transaction identifier)
-     * @return boolean denoting whether the {@link Wallet} could be retrieved from active storage and cancel attempted
+     * @return boolean denoting whether the {@link Wallet} was killed by this call, false if it could not be retrieved
+     * from active storage or was concurrently killed elsewhere (e.g. by receiving payment)
      */
     public boolean cancelPayment(String address) {
         Optional<Wallet> walletOptional = walletManager.getWallet(address);
         if (walletOptional.isEmpty()) return false;
         Wallet wallet = walletOptional.get();
-        walletManager.killWallet(walletManager.getLocalRpcWallet(wallet), wallet, WalletDeathState.failure());
+        if (!walletManager.killWallet(walletManager.getLocalRpcWallet(wallet), wallet, WalletDeathState.failure()))
+            return false;
+        paymentEventPublisher.publish(PaymentEvent.cancelled(address));
         return true;
     }
 
+    /**
+     * Asynchronous variant of {@link #cancelPayment(String)}, run on the request executor of the
+     * {@link ExecutionModel}. Cancelling the future, or letting it time out, doesn't interrupt the cancellation once it
+     * has started - the {@link Wallet}'s death is always handled in full and it is moved to dead storage. Call
+     * {@link #cancelPayment(String)} again to find out whether a timed out cancellation killed the {@link Wallet}.
+     * @param address Address of {@link Wallet} waiting for payment (equivalent to a transaction identifier)
+     * @return future completed with a boolean denoting whether the {@link Wallet} was killed by this call. See
+     * {@link Builder#setAsyncTimeout(Duration)} for timeouts and cancellation.
+     */
+    public CompletableFuture<Boolean> cancelPaymentAsync(String address) {
+        return supplyAsync(() -> cancelPayment(address), false);
+    }
+
     /**
      * @return A read only view of the {@link WalletStorageProvider} used by the underlying {@link WalletManager}. All
      * returned data in the {@link WalletStorage}s is immutable, with {@link WalletStorage#saveWallet(Wallet)} and
@@ -125,6 +317,86 @@ public final class NanoPay {
         return walletManager.getWalletDeathLogger();
     }
 
+    /**
+     * @return {@link Optional} containing the {@link WalletKeyPool} used to create wallets (for inspecting the pool
+     * depth and refill rate), empty if no key pool has been enabled.
+     */
+    public Optional<WalletKeyPool> getWalletKeyPool() {
+        return Optional.ofNullable(walletManager.getWalletKeyPool());
+    }
+
+    /**
+     * @return {@link Optional} containing the {@link PrecachingWorkGenerator} (for inspecting the cache hit and miss
+     * counts), empty if work precaching has not been enabled.
+     */
+    public Optional<PrecachingWorkGenerator> getWorkPrecache() {
+        return Optional.ofNullable(walletManager.getWorkPrecache());
+    }
+
+    /**
+     * @return {@link Optional} containing the counters of the last completed run of the dead wallet refund service,
+     * empty if the service hasn't completed a run.
+     */
+    public Optional<RefundCycle> getLastRefundCycle() {
+        return Optional.ofNullable(walletManager.getLastRefundCycle());
+    }
+
+    /**
+     * @return latency histograms of RPC requests keyed by RPC action, empty if RPC requests are not sent using a
+     * {@link PooledRpcTransport}.
+     */
+    public Map<String, LatencyHistogram> getRpcLatencies() {
+        if (rpcTransport instanceof PooledRpcTransport pooledRpcTransport)
+            return pooledRpcTransport.getLatencyHistograms();
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return routing statistics of each RPC node, empty if only one RPC address is used
+     */
+    public List<RoutingRpcTransport.EndpointStats> getRpcEndpointStats() {
+        return rpcRouter == null ? Collections.emptyList() : rpcRouter.getEndpointStats();
+    }
+
+    /**
+     * @return delivery statistics of each WebSocket, showing which node delivers confirmations first
+     */
+    public List<WebSocketFeedStats> getWebSocketFeedStats() {
+        return webSocketListener.getFeedStats();
+    }
+
+    /**
+     * @return {@link Optional} containing the {@link CachingRpcTransport} caching the state of accounts (for inspecting
+     * the cache hit and miss counts), empty if the account state cache has not been enabled.
+     */
+    public Optional<CachingRpcTransport> getAccountStateCache() {
+        return Optional.ofNullable(accountStateCache);
+    }
+
+    /**
+     * Subscribers are sent a {@link PaymentEvent} for each step of every payment (creation, partial and full payment,
+     * sweeping, refunds, expiry and cancellation). Events are delivered on the event executor of the
+     * {@link ExecutionModel}, and only events published after subscribing are received.
+     * @return the {@link PaymentEventPublisher} of payment events, which also reports dropped events
+     */
+    public PaymentEventPublisher getPaymentEvents() {
+        return paymentEventPublisher;
+    }
+
+    /**
+     * @return the {@link ExecutionModel} supplying NanoPay's executors (for inspecting their queue depths)
+     */
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    /**
+     * @return amount of wallet checks (triggered by transactions received over the WebSocket) waiting to be run
+     */
+    public int getWalletCheckQueueDepth() {
+        return walletCheckPipeline.getQueueDepth();
+    }
+
     /**
      * Attempts to get the balance of a {@link Wallet}
      * @param wallet {@link Wallet} to retrieve the balance of
@@ -165,8 +437,112 @@ public final class NanoPay {
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #getBalance(Wallet)}, run on the request executor of the {@link ExecutionModel}.
+     * Unlike {@link #getBalance(Wallet)}, the wallet's receivable funds are added to its balance rather than received,
+     * so the call is read-only and can be interrupted without leaving a receive half done.
+     * @param wallet {@link Wallet} to retrieve the balance of
+     * @return future completed with an {@link Optional} denoting the retrieved balance of the {@link Wallet}. See
+     * {@link Builder#setAsyncTimeout(Duration)} for timeouts and cancellation.
+     */
+    public CompletableFuture<Optional<BigDecimal>> getBalanceAsync(Wallet wallet) {
+        return supplyAsync(() -> fetchBalance(wallet), true);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getBalances(Collection)}, run on the request executor of the
+     * {@link ExecutionModel}.
+     * @param walletCollection collection of {@link Wallet}s to batch process
+     * @return future completed with a {@link HashMap} of {@link Wallet} addresses and their respective balance. See
+     * {@link Builder#setAsyncTimeout(Duration)} for timeouts and cancellation.
+     */
+    public CompletableFuture<Map<String, Optional<BigDecimal>>> getBalancesAsync(Collection<Wallet> walletCollection) {
+        return supplyAsync(() -> getBalances(walletCollection), true);
+    }
+
+    /**
+     * Stops NanoPay, disconnecting from the WebSockets and discarding wallet checks which haven't started. Wallet
+     * expiries, dead wallet deletions and refunds which haven't started are cancelled, so wallets are never killed
+     * after closing. Subscribers of {@link #getPaymentEvents()} are completed once they've been sent the events already
+     * buffered for them. The {@link ExecutionModel}, RPC transport, {@link WalletKeyPool} and {@link WorkGenerator}
+     * are only shut down if NanoPay created them, as ones given to the builder may be shared.
+     */
+    @Override
+    public void close() {
+        walletManager.close();
+        webSocketListener.close();
+        walletCheckPipeline.close();
+        paymentEventPublisher.close();
+        if (ownedWalletKeyPool != null) ownedWalletKeyPool.close();
+        if (ownedWorkGenerator != null) ownedWorkGenerator.shutdown();
+        if (rpcCoalescer != null) rpcCoalescer.close();
+        if (rpcRouter != null) rpcRouter.close();
+        if (ownsRpcTransport && rpcTransport instanceof PooledRpcTransport pooledRpcTransport)
+            pooledRpcTransport.close();
+        if (ownsExecutionModel) executionModel.close();
+    }
+
+    /**
+     * @return {@link Optional} denoting the balance of the {@link Wallet} including its receivable funds, fetched
+     * without receiving them.
+     */
+    private Optional<BigDecimal> fetchBalance(Wallet wallet) {
+        try {
+            ResponseBalance responseBalance = walletManager.getRpcClient()
+                    .processRequest(new RequestAccountBalance(wallet.address()));
+            return Optional.of(responseBalance.getTotal().getAsNano());
+        } catch (IOException | RpcException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Runs a call on the request executor of the {@link ExecutionModel}.
+     * @param interruptible whether the call is interrupted if its future is cancelled or times out, which must only be
+     *                      true for read-only calls - an interrupt fails the call's later RPC requests and storage
+     *                      writes
+     */
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> call, boolean interruptible) {
+        return interruptible
+                ? InterruptibleTask.supply(call, executionModel.getRequestExecutor(), asyncTimeout)
+                : InterruptibleTask.supplyUninterruptibly(call, executionModel.getRequestExecutor(), asyncTimeout);
+    }
+
     public record RepeatingDelay(int initialDelayAmount, int repeatingDelayAmount, TimeUnit delayUnit) {}
 
+    /**
+     * Counters for a single run of the dead wallet refund service.
+     * @param scanned amount of dead wallets whose balance was checked
+     * @param skipped amount of dead wallets skipped as they had no funds
+     * @param refunded amount of dead wallets which were received and refunded
+     */
+    public record RefundCycle(int scanned, int skipped, int refunded) {}
+
+    /**
+     * Delivery statistics of a single WebSocket, when confirmations are received from several.
+     * @param address address of the WebSocket
+     * @param firstDeliveries amount of confirmations this WebSocket delivered before any other
+     * @param lateDeliveries amount of confirmations this WebSocket delivered after another had already delivered them
+     * @param lead how far this WebSocket was ahead of the others, for confirmations it delivered first
+     * @param lag how far this WebSocket was behind the first, for confirmations it delivered late
+     */
+    public record WebSocketFeedStats(URI address, long firstDeliveries, long lateDeliveries,
+                                     LatencyHistogram lead, LatencyHistogram lag) {}
+
+    /**
+     * Action to take when work is submitted to a queue which is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space in the queue, applying backpressure to the submitter.
+         */
+        BLOCK,
+        /**
+         * Discard the submitted work.
+         */
+        DISCARD
+    }
+
     /**
      * Builder class used to construct a NanoPay object
      */
@@ -176,16 +552,39 @@ public final class NanoPay {
         private final NanoAccount storageWallet;
         private WalletDeathHandler walletDeathHandler;
         private WalletDeathLogger walletDeathLogger;
-        private URL rpcAddress;
-        private String webSocketAddress = "wss://socket.nanos.cc/";
+        private List<URL> rpcAddresses;
+        private double rpcHedgePercentile;
+        private List<String> webSocketAddresses = List.of("wss://socket.nanos.cc/");
         private NanoAccount representativeWallet
                 = NanoAccount.parseAddress("nano_1natrium1o3z5519ifou7xii8crpxpk8y65qmkih8e8bpsjri651oza8imdd");
         private WalletStorageProvider walletStorageProvider;
         private ScheduledExecutorService walletPruneService, refundWalletService;
         private boolean webSocketReconnect = true, walletPruneServiceEnabled = true, refundServiceEnabled = true;
         private RepeatingDelay walletRefundDelay = new RepeatingDelay(1, 1, TimeUnit.MINUTES);
-        private RepeatingDelay walletPruneDelay = new RepeatingDelay(5, 5, TimeUnit.MINUTES);
         private Clock clock = Clock.systemDefaultZone();
+        private Duration webSocketFilterUpdateWindow = WebSocketListener.DEFAULT_FILTER_UPDATE_WINDOW;
+        private WalletKeyPool walletKeyPool;
+        private boolean ownsWalletKeyPool;
+        private WalletSeed walletSeed;
+        private int walletCheckWorkers = WalletCheckPipeline.DEFAULT_WORKERS,
+                walletCheckQueueDepth = WalletCheckPipeline.DEFAULT_QUEUE_DEPTH;
+        private OverflowPolicy walletCheckOverflowPolicy = OverflowPolicy.BLOCK;
+        private int walletRecoveryThreads = WalletManager.DEFAULT_RECOVERY_THREADS;
+        private WorkGenerator workGenerator;
+        private boolean ownsWorkGenerator;
+        private int workPrecacheCapacity, workPrecacheThreads;
+        private RpcRequestExecutor rpcTransport;
+        private boolean ownsRpcTransport;
+        private Duration rpcCoalesceWindow, accountStateCacheTimeToLive;
+        private int accountStateCacheCapacity;
+        private int rpcCoalesceMaxBatchSize;
+        private Instrumentation instrumentation = Instrumentation.NOOP;
+        private Duration slowCallThreshold;
+        private final Map<String, Duration> slowCallThresholds = new HashMap<>();
+        private ExecutionModel executionModel;
+        private Duration asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+        private int paymentEventBufferCapacity = PaymentEventPublisher.DEFAULT_BUFFER_CAPACITY;
+        private OverflowPolicy paymentEventOverflowPolicy = OverflowPolicy.DISCARD;
 
         /**
          * @param storageWallet Wallet address for the funds of a payment to be transferred to,
@@ -196,13 +595,25 @@ public final class NanoPay {
          * @param paymentFailureListener Called when a payment is failed due to expiry time being met, the argument to the consumer
          *                              is the address of the NANO wallet that the funds were meant to be sent to
          *                              - can be used as a unique identifier for the payment (as wallets are not re-used).
+         * Both listeners are called on the thread handling the wallet's death, so they should return quickly. Subscribe
+         * to {@link NanoPay#getPaymentEvents()} to receive payment outcomes without holding up their handling.
          */
         @SneakyThrows
         public Builder(String storageWallet, Consumer<String> paymentSuccessListener, Consumer<String> paymentFailureListener) {
             this.storageWallet = NanoAccount.parseAddress(storageWallet);
             this.paymentSuccessListener = paymentSuccessListener;
             this.paymentFailureListener = paymentFailureListener;
-            this.rpcAddress = new URL("https://proxy.nanos.cc/proxy");
+            this.rpcAddresses = List.of(new URL("https://proxy.nanos.cc/proxy"));
+        }
+
+        /**
+         * Creates a builder without payment listeners, for receiving payment outcomes by subscribing to
+         * {@link NanoPay#getPaymentEvents()}.
+         * @param storageWallet Wallet address for the funds of a payment to be transferred to,
+         *                     after the payment has been processed and completed.
+         */
+        public Builder(String storageWallet) {
+            this(storageWallet, address -> {}, address -> {});
         }
 
         /**
@@ -240,13 +651,76 @@ public final class NanoPay {
         }
 
         public Builder setWebSocketAddress(String webSocketAddress) {
-            this.webSocketAddress = webSocketAddress;
+            this.webSocketAddresses = List.of(webSocketAddress);
+            return this;
+        }
+
+        /**
+         * Listens to several WebSockets at once, each subscribed to the same wallets. Each payment is handled once,
+         * from whichever WebSocket confirms it first, so a slow or disconnected node doesn't delay payments.
+         * @param webSocketAddresses addresses of the WebSockets
+         * @throws IllegalArgumentException if {@code webSocketAddresses} is empty.
+         */
+        public Builder setWebSocketAddresses(List<String> webSocketAddresses) {
+            if (webSocketAddresses.isEmpty()) throw new IllegalArgumentException("At least one WebSocket address is required");
+            this.webSocketAddresses = List.copyOf(webSocketAddresses);
             return this;
         }
 
         @SneakyThrows
         public Builder setRpcAddress(String rpcAddress) {
-            this.rpcAddress = new URL(rpcAddress);
+            this.rpcAddresses = List.of(new URL(rpcAddress));
+            return this;
+        }
+
+        /**
+         * Sends RPC requests using a {@link PooledRpcTransport}, which reuses keep-alive connections and records
+         * the latency of each RPC action. The transport is closed when NanoPay is closed.
+         * @param connectTimeout maximum time to wait for a connection to the node to be established
+         * @param requestTimeout maximum time to wait for a response from the node
+         * @param maxInFlight maximum amount of requests sent to the node at once
+         */
+        public Builder enablePooledRpcTransport(Duration connectTimeout, Duration requestTimeout, int maxInFlight) {
+            setRpcTransport(new PooledRpcTransport(connectTimeout, requestTimeout, maxInFlight));
+            this.ownsRpcTransport = true;
+            return this;
+        }
+
+        /**
+         * @param rpcTransport transport used to send RPC requests to the node at the RPC address, a new connection is
+         *                     opened for each request by default. It isn't closed when NanoPay is closed, as it may be
+         *                     shared
+         */
+        public Builder setRpcTransport(RpcRequestExecutor rpcTransport) {
+            this.rpcTransport = rpcTransport;
+            this.ownsRpcTransport = false;
+            return this;
+        }
+
+        /**
+         * Coalesces balance requests for single accounts (e.g. whilst many wallets are checked at once) into
+         * multi-account requests, sent using the RPC transport.
+         * @param window time to wait for further requests after the first request of a batch arrives
+         * @param maxBatchSize maximum amount of requests in a batch, a full batch is sent without waiting
+         */
+        public Builder enableRpcCoalescing(Duration window, int maxBatchSize) {
+            if (maxBatchSize <= 0) throw new IllegalArgumentException("Max batch size must be positive");
+            this.rpcCoalesceWindow = window;
+            this.rpcCoalesceMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Caches the state (frontier, balance and receivable balance) of accounts fetched over RPC, so repeated
+         * operations on the same wallet don't re-fetch it. Cached state is updated by the blocks NanoPay publishes and
+         * discarded when a confirmation for the wallet is received over the WebSocket.
+         * @param capacity maximum amount of accounts whose state is cached
+         * @param timeToLive maximum time an account's state is cached for
+         */
+        public Builder enableAccountStateCache(int capacity, Duration timeToLive) {
+            if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+            this.accountStateCacheCapacity = capacity;
+            this.accountStateCacheTimeToLive = timeToLive;
             return this;
         }
 
@@ -256,7 +730,44 @@ public final class NanoPay {
         }
 
         public Builder setRpcAddress(URL rpcAddress) {
-            this.rpcAddress = rpcAddress;
+            this.rpcAddresses = List.of(rpcAddress);
+            return this;
+        }
+
+        /**
+         * Routes RPC requests between several nodes, preferring the node with the lowest recent latency and error
+         * rate. Requests fail over to the next node if the transport to a node fails.
+         * @param rpcAddresses RPC addresses of the nodes
+         * @throws IllegalArgumentException if {@code rpcAddresses} is empty.
+         */
+        @SneakyThrows
+        public Builder setRpcAddresses(List<String> rpcAddresses) {
+            if (rpcAddresses.isEmpty()) throw new IllegalArgumentException("At least one RPC address is required");
+            List<URL> urls = new ArrayList<>();
+            for (String rpcAddress : rpcAddresses) {
+                urls.add(new URL(rpcAddress));
+            }
+            this.rpcAddresses = List.copyOf(urls);
+            return this;
+        }
+
+        /**
+         * Hedges read-only RPC requests when several RPC addresses are set: if the fastest node hasn't answered within
+         * the given percentile of its latency, the request is also sent to the next node and the first answer is used.
+         * @param percentile percentile of the fastest node's latency, between 0 and 100
+         */
+        public Builder enableRpcHedging(double percentile) {
+            if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            this.rpcHedgePercentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param webSocketFilterUpdateWindow window within which wallets being added to or removed from the
+         *                                    WebSocket account filter are coalesced into a single update message
+         */
+        public Builder setWebSocketFilterUpdateWindow(Duration webSocketFilterUpdateWindow) {
+            this.webSocketFilterUpdateWindow = webSocketFilterUpdateWindow;
             return this;
         }
 
@@ -280,8 +791,12 @@ public final class NanoPay {
             return this;
         }
 
+        /**
+         * @deprecated wallets are now killed (and deleted from dead storage) at their expiry deadlines rather than by
+         * periodically scanning storage, so the prune delay has no effect.
+         */
+        @Deprecated
         public Builder setWalletPruneDelay(RepeatingDelay repeatingDelay) {
-            this.walletPruneDelay = repeatingDelay;
             return this;
         }
 
@@ -290,20 +805,214 @@ public final class NanoPay {
             return this;
         }
 
+        /**
+         * Enables a pool of pre-generated wallet keys, so that requesting a payment only has to take a key from
+         * the pool rather than generate one on the caller's thread. The pool is closed when NanoPay is closed.
+         * @param lowWatermark pool depth below which background threads start refilling the pool
+         * @param highWatermark pool depth at which background threads stop refilling the pool
+         * @param producerThreads amount of background threads generating keys
+         */
+        public Builder enableWalletKeyPool(int lowWatermark, int highWatermark, int producerThreads) {
+            setWalletKeyPool(new WalletKeyPool(lowWatermark, highWatermark, producerThreads));
+            this.ownsWalletKeyPool = true;
+            return this;
+        }
+
+        /**
+         * @param walletKeyPool pool wallet keys are taken from, which isn't closed when NanoPay is closed as it may be
+         *                      shared
+         */
+        public Builder setWalletKeyPool(WalletKeyPool walletKeyPool) {
+            this.walletKeyPool = walletKeyPool;
+            this.ownsWalletKeyPool = false;
+            return this;
+        }
+
+        /**
+         * Enables deterministic wallet derivation. New wallets will have their private key derived from the seed
+         * and an increasing index, so only the index is stored. Existing wallets with random private keys continue
+         * to function as normal. The seed must be kept secret and must not change whilst derived wallets exist.
+         * The highest index issued is persisted to the index file, so indexes (and so payment addresses) are never
+         * re-used, even once their wallets have been deleted from storage.
+         * @param walletSeed 64 character hex string denoting the 32 byte master seed
+         * @param indexFile file storing the seed's high-water mark
+         */
+        public Builder setWalletSeed(String walletSeed, Path indexFile) {
+            return setWalletSeed(new WalletSeed(walletSeed, indexFile));
+        }
+
+        /**
+         * Enables deterministic wallet derivation with a seed which may not persist its high-water mark (see
+         * {@link WalletSeed}). A seed without an index file can't be used with {@link MemoryWalletStorage}, as the
+         * indexes of its wallets are forgotten on restart.
+         */
+        public Builder setWalletSeed(WalletSeed walletSeed) {
+            this.walletSeed = walletSeed;
+            return this;
+        }
+
+        /**
+         * Configures the pipeline which checks wallets when transactions to them are received over the WebSocket.
+         * Checks for the same wallet are run in order, whilst checks for different wallets are run in parallel.
+         * @param workers amount of threads checking wallets
+         * @param queueDepth maximum amount of checks waiting per worker
+         * @param overflowPolicy action to take when a worker's queue is full. {@link OverflowPolicy#BLOCK} (the
+         *                       default) stops reading from the WebSocket until there is space. With
+         *                       {@link OverflowPolicy#DISCARD}, a wallet whose check was discarded isn't paid until
+         *                       another payment to it is checked, the WebSocket reconnects, or the wallet expires - an
+         *                       expiring wallet's balance is checked, so it dies as a success if it was paid. Without
+         *                       the wallet prune service, the last of these never happens.
+         */
+        public Builder setWalletCheckPipeline(int workers, int queueDepth, OverflowPolicy overflowPolicy) {
+            this.walletCheckWorkers = workers;
+            this.walletCheckQueueDepth = queueDepth;
+            this.walletCheckOverflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * @param walletRecoveryThreads maximum amount of active wallets checked in parallel on startup. Only wallets
+         *                              which have received funds are checked.
+         */
+        public Builder setWalletRecoveryThreads(int walletRecoveryThreads) {
+            if (walletRecoveryThreads <= 0) throw new IllegalArgumentException("Recovery thread count must be positive");
+            this.walletRecoveryThreads = walletRecoveryThreads;
+            return this;
+        }
+
+        /**
+         * Generates proof of work locally on the CPU, rather than requesting it from the node. The generator is shut
+         * down when NanoPay is closed.
+         * @param workGeneratorThreads amount of threads searching for work in parallel
+         */
+        public Builder enableCpuWorkGenerator(int workGeneratorThreads) {
+            setWorkGenerator(new CpuWorkGenerator(workGeneratorThreads));
+            this.ownsWorkGenerator = true;
+            return this;
+        }
+
+        /**
+         * @param workGenerator generator used to create proof of work when receiving and sending funds, work is
+         *                      requested from the node by default. It isn't shut down when NanoPay is closed, as it
+         *                      may be shared
+         */
+        public Builder setWorkGenerator(WorkGenerator workGenerator) {
+            this.workGenerator = workGenerator;
+            this.ownsWorkGenerator = false;
+            return this;
+        }
+
+        /**
+         * Enables precaching of proof of work, so that work for each wallet's next block is generated in the
+         * background when the wallet is first paid and whenever it receives or refunds funds, rather than when the
+         * block is created. Work is generated at the difficulty the work generator's policy gives for any block.
+         * The precache's threads are stopped when NanoPay is closed.
+         * @param capacity maximum amount of cached solutions
+         * @param threads amount of threads precaching work
+         */
+        public Builder enableWorkPrecache(int capacity, int threads) {
+            if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+            if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+            this.workPrecacheCapacity = capacity;
+            this.workPrecacheThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param instrumentation receives counters, timers and gauges of payments, wallet checks, wallet deaths,
+         *                        storage calls and RPC requests. Nothing is recorded by default.
+         */
+        public Builder setInstrumentation(Instrumentation instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        /**
+         * Logs a warning whenever a timed call (see {@link MetricNames}) takes longer than the threshold. Works with
+         * or without an {@link Instrumentation} set.
+         * @param threshold threshold of all timers which haven't been given their own threshold
+         */
+        public Builder setSlowCallThreshold(Duration threshold) {
+            this.slowCallThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * @param name name of a timer, or a parent name (e.g. {@code nanopay.rpc}) to cover all timers below it
+         * @param threshold duration after which a call to the timer is logged as slow
+         */
+        public Builder setSlowCallThreshold(String name, Duration threshold) {
+            this.slowCallThresholds.put(name, threshold);
+            return this;
+        }
+
+        /**
+         * Sets the executors NanoPay hands asynchronous calls, WebSocket catch-ups, wallet deaths and scheduled scans
+         * to, see {@link ExecutionModel}. Its storage executor isn't used by NanoPay itself, but should be passed to
+         * any {@link CacheWrappedWalletStorage} given to {@link #setWalletStorageProvider(WalletStorageProvider)}.
+         * Defaults to {@link ExecutionModel#platformThreads()}, which is shut down when NanoPay is closed.
+         */
+        public Builder setExecutionModel(ExecutionModel executionModel) {
+            this.executionModel = executionModel;
+            return this;
+        }
+
+        /**
+         * Read-only asynchronous calls (e.g. {@link NanoPay#getBalanceAsync(Wallet)}) are interrupted when their
+         * future is cancelled or times out, including timeouts added with
+         * {@link CompletableFuture#orTimeout(long, TimeUnit)}. This aborts any RPC request the call is waiting on,
+         * rather than leaving it to finish with nobody waiting. Calls which create or kill wallets are never
+         * interrupted once started, they run to completion with only their future completing early.
+         * @param asyncTimeout maximum time for an asynchronous call to complete, after which its future completes
+         *                     exceptionally with a {@link java.util.concurrent.TimeoutException}. Null for no timeout,
+         *                     defaults to {@link NanoPay#DEFAULT_ASYNC_TIMEOUT}.
+         */
+        public Builder setAsyncTimeout(Duration asyncTimeout) {
+            this.asyncTimeout = asyncTimeout;
+            return this;
+        }
+
+        /**
+         * Configures the buffering of {@link PaymentEvent}s for each subscriber of {@link NanoPay#getPaymentEvents()}.
+         * @param bufferCapacity maximum amount of events buffered per subscriber, defaults to
+         *                       {@link PaymentEventPublisher#DEFAULT_BUFFER_CAPACITY}
+         * @param overflowPolicy action to take when a subscriber's buffer is full. {@link OverflowPolicy#DISCARD}
+         *                       (the default) drops the event for that subscriber and counts it.
+         *                       {@link OverflowPolicy#BLOCK} never loses events, but the thread which raised the event
+         *                       (a wallet check worker or a wallet's death) waits until the subscriber catches up.
+         *                       Events are never published whilst a wallet is locked, so other wallets aren't held up
+         *                       by a blocked thread.
+         */
+        public Builder setPaymentEventBuffer(int bufferCapacity, OverflowPolicy overflowPolicy) {
+            this.paymentEventBufferCapacity = bufferCapacity;
+            this.paymentEventOverflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if both a wallet seed and a wallet key pool are set, or a wallet seed without
+         * an index file is set whilst wallets are stored in memory.
+         */
         public NanoPay build() {
             if (walletStorageProvider == null) walletStorageProvider = new WalletStorageProvider(
                     new MemoryWalletStorage(Duration.ofMinutes(15)), new MemoryWalletStorage(Duration.ofMinutes(60)));
-            if ((walletPruneServiceEnabled || refundServiceEnabled)
-                    && (walletPruneService == null || refundWalletService == null)) {
-                ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-                if (walletPruneService == null && walletPruneServiceEnabled) {
-                    walletPruneService = scheduledExecutorService;
-                }
-                if (refundWalletService == null && refundServiceEnabled) {
-                    refundWalletService = scheduledExecutorService;
-                }
+            if (walletSeed != null && walletKeyPool != null)
+                throw new IllegalStateException("Wallets can be derived from a seed or taken from a key pool, "
+                        + "not both");
+            if (walletSeed != null && !walletSeed.isDurable()
+                    && (walletStorageProvider.activeWalletStorage() instanceof MemoryWalletStorage
+                    || walletStorageProvider.deadWalletStorage() instanceof MemoryWalletStorage))
+                throw new IllegalStateException("A wallet seed without an index file would re-use indexes after a "
+                        + "restart with memory wallet storage");
+            boolean ownsExecutionModel = executionModel == null;
+            if (ownsExecutionModel) executionModel = ExecutionModel.platformThreads();
+            if (walletPruneService == null && walletPruneServiceEnabled) {
+                walletPruneService = executionModel.getScheduledExecutor();
+            }
+            if (refundWalletService == null && refundServiceEnabled) {
+                refundWalletService = executionModel.getScheduledExecutor();
             }
-            return new NanoPay(this);
+            return new NanoPay(this, ownsExecutionModel);
         }
 
     }
@@ -0,0 +1,108 @@
+package xyz.benanderson.nanopay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pipeline which runs wallet checks away from the WebSocket thread. Each worker owns a lane with its own
+ * bounded queue and every wallet address is always assigned to the same lane, so checks for the same wallet run in
+ * the order they were submitted whilst checks for different wallets run in parallel.
+ */
+final class WalletCheckPipeline implements AutoCloseable {
+
+    static final int DEFAULT_WORKERS = 4, DEFAULT_QUEUE_DEPTH = 1024;
+
+    private final List<BlockingQueue<Runnable>> lanes;
+    private final ExecutorService workerService;
+    private final NanoPay.OverflowPolicy overflowPolicy;
+    private final LongAdder discardedChecks = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param workers amount of worker threads (and lanes) checking wallets
+     * @param queueDepth maximum amount of checks waiting in each lane
+     * @param overflowPolicy action to take when a check is submitted to a full lane
+     * @throws IllegalArgumentException if {@code workers} or {@code queueDepth} is not positive.
+     */
+    WalletCheckPipeline(int workers, int queueDepth, NanoPay.OverflowPolicy overflowPolicy) {
+        if (workers <= 0) throw new IllegalArgumentException("Worker count must be positive");
+        if (queueDepth <= 0) throw new IllegalArgumentException("Queue depth must be positive");
+        this.overflowPolicy = overflowPolicy;
+        this.lanes = new ArrayList<>(workers);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workerService = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-wallet-check-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Runnable> lane = new ArrayBlockingQueue<>(queueDepth);
+            lanes.add(lane);
+            workerService.submit(() -> runLane(lane));
+        }
+    }
+
+    /**
+     * @param address address of the wallet being checked, used to assign the check to a lane
+     * @param check the check to run
+     * @return boolean denoting whether the check was queued, false if it was discarded due to the overflow policy
+     */
+    boolean submit(String address, Runnable check) {
+        BlockingQueue<Runnable> lane = lanes.get(Math.floorMod(address.hashCode(), lanes.size()));
+        if (!running) {
+            discardedChecks.increment();
+            return false;
+        }
+        if (overflowPolicy == NanoPay.OverflowPolicy.BLOCK) {
+            try {
+                lane.put(check);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (lane.offer(check)) {
+            return true;
+        }
+        discardedChecks.increment();
+        NanoPay.LOGGER.warn("Wallet check queue is full, discarded check for wallet (" + address + ")");
+        return false;
+    }
+
+    /**
+     * @return total amount of checks waiting across all lanes
+     */
+    int getQueueDepth() {
+        return lanes.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    long getDiscardedChecks() {
+        return discardedChecks.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        workerService.shutdownNow();
+    }
+
+    private void runLane(BlockingQueue<Runnable> lane) {
+        while (running) {
+            try {
+                lane.take().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.error("Exception occurred running wallet check", e);
+            }
+        }
+    }
+
+}
@@ -3,10 +3,18 @@ package xyz.benanderson.nanopay;
 import xyz.benanderson.nanopay.death.WalletDeathHandler;
 import xyz.benanderson.nanopay.death.WalletDeathLogger;
 import xyz.benanderson.nanopay.death.WalletDeathState;
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
 import xyz.benanderson.nanopay.storage.WalletStorageProvider;
 import xyz.benanderson.nanopay.wallet.DeadWallet;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.SecureRandomUtil;
+import xyz.benanderson.nanopay.wallet.Transaction;
 import xyz.benanderson.nanopay.wallet.Wallet;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
+import xyz.benanderson.nanopay.wallet.WalletSeed;
+import xyz.benanderson.nanopay.work.PrecachingWorkGenerator;
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
 import uk.oczadly.karl.jnano.model.HexData;
@@ -14,26 +22,64 @@ import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.model.block.StateBlock;
 import uk.oczadly.karl.jnano.model.block.factory.StateBlockFactory;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
-import uk.oczadly.karl.jnano.util.WalletUtil;
+import uk.oczadly.karl.jnano.rpc.exception.RpcException;
+import uk.oczadly.karl.jnano.rpc.request.node.RequestMultiAccountBalances;
+import uk.oczadly.karl.jnano.rpc.response.ResponseMultiAccountBalances;
 import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import uk.oczadly.karl.jnano.util.wallet.WalletActionException;
 import uk.oczadly.karl.jnano.util.workgen.NodeWorkGenerator;
+import uk.oczadly.karl.jnano.util.workgen.WorkGenerator;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.security.SecureRandom;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Optional;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 final class WalletManager {
 
+    static final int DEFAULT_RECOVERY_THREADS = 8;
+    private static final int WALLET_LOCK_STRIPES = 256, BALANCE_REQUEST_CHUNK_SIZE = 1000;
+
     private final WalletStorageProvider walletStorageProvider;
     private final WalletDeathHandler walletDeathHandler;
     private final WalletDeathLogger walletDeathLogger;
     private final RpcQueryNode rpcClient;
-    private final StateBlockFactory blockFactory;
+    private final NanoAccount nanoRepresentative;
+    private volatile StateBlockFactory blockFactory;
+    private volatile PrecachingWorkGenerator workPrecache;
     private final WebSocketListener webSocketListener;
     private final Clock clock;
+    private final ThreadLocal<SecureRandom> secureRandom = ThreadLocal.withInitial(WalletManager::newSecureRandom);
+    private final ReentrantLock[] walletLocks = new ReentrantLock[WALLET_LOCK_STRIPES];
+    private final Map<String, BigDecimal> receivedAmounts = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> walletExpiryTasks = new ConcurrentHashMap<>();
+    //start times of the detection timer, keyed by the address of the wallet the first confirmation was sent to
+    private final Map<String, Long> confirmationTimes = new ConcurrentHashMap<>();
+    private volatile Instrumentation instrumentation = Instrumentation.NOOP;
+    private volatile Consumer<PaymentEvent> paymentEventListener = paymentEvent -> {};
+    //wallet locks held by each thread, and the events they raised whilst holding them (see unlockWallet)
+    private final ThreadLocal<int[]> heldWalletLocks = ThreadLocal.withInitial(() -> new int[1]);
+    private final ThreadLocal<List<PaymentEvent>> deferredEvents = ThreadLocal.withInitial(ArrayList::new);
+    //wallets are killed on the calling thread unless a death executor is set
+    private volatile Executor deathExecutor = Runnable::run;
+    //addresses of paid and expired wallets handed to the death executor, but not yet killed
+    private final Set<String> dyingWallets = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService walletPruneService;
+    private ScheduledFuture<?> walletRefundTask;
+    private volatile boolean closed;
+    private volatile NanoPay.RefundCycle lastRefundCycle;
+    private WalletKeyPool walletKeyPool;
+    private WalletSeed walletSeed;
+
     WalletManager(@NotNull WalletStorageProvider walletStorageProvider,
                   @NotNull WalletDeathHandler walletDeathHandler,
                   @NotNull WalletDeathLogger walletDeathLogger,
@@ -46,8 +92,12 @@ final class WalletManager {
         this.walletDeathLogger = walletDeathLogger;
         this.webSocketListener = webSocketListener;
         this.rpcClient = rpcClient;
+        this.nanoRepresentative = nanoRepresentative;
         this.blockFactory = new StateBlockFactory(nanoRepresentative, new NodeWorkGenerator(this.rpcClient));
         this.clock = clock;
+        for (int i = 0; i < walletLocks.length; i++) {
+            walletLocks[i] = new ReentrantLock();
+        }
     }
 
     WalletDeathLogger getWalletDeathLogger() {
@@ -62,75 +112,404 @@ final class WalletManager {
         return rpcClient;
     }
 
+    WalletKeyPool getWalletKeyPool() {
+        return walletKeyPool;
+    }
+
+    void setWalletKeyPool(WalletKeyPool walletKeyPool) {
+        this.walletKeyPool = walletKeyPool;
+    }
+
+    /**
+     * Sets the generator used to create proof of work for the blocks of wallets, which is requested from the node
+     * by default. If the generator is a {@link PrecachingWorkGenerator}, work for a wallet's open block is precached
+     * when it's first paid (most wallets are never paid, so precaching on creation mostly wastes work), and work for
+     * its next block whenever it receives funds or sends funds before a refund.
+     */
+    void setWorkGenerator(WorkGenerator workGenerator) {
+        if (workGenerator == null) return;
+        this.blockFactory = new StateBlockFactory(nanoRepresentative, workGenerator);
+        this.workPrecache = workGenerator instanceof PrecachingWorkGenerator precachingWorkGenerator
+                ? precachingWorkGenerator : null;
+        this.walletDeathHandler.setSentBlockListener(sentBlock -> {
+            if (sentBlock != null) precacheNextBlock(List.of(sentBlock));
+        });
+    }
+
+    PrecachingWorkGenerator getWorkPrecache() {
+        return workPrecache;
+    }
+
+    /**
+     * Sets the executor which kills paid and expired wallets. Their deaths are RPC-bound, so handing them off stops
+     * them holding up wallet checks and the prune service. Cancelled wallets are still killed on the calling thread,
+     * as the caller is told whether the wallet was killed.
+     */
+    void setDeathExecutor(Executor deathExecutor) {
+        if (deathExecutor == null) return;
+        this.deathExecutor = deathExecutor;
+    }
+
+    /**
+     * Sets the instrumentation receiving timers of payment requests, wallet checks and wallet deaths (including each
+     * step of the {@link WalletDeathHandler}).
+     */
+    void setInstrumentation(Instrumentation instrumentation) {
+        if (instrumentation == null) return;
+        this.instrumentation = instrumentation;
+        this.walletDeathHandler.setInstrumentation(instrumentation);
+    }
+
+    /**
+     * Sets the listener receiving the {@link PaymentEvent}s of payments, including the sweeps and refunds made by the
+     * {@link WalletDeathHandler}. Events are never passed to the listener whilst a wallet lock is held (see
+     * {@link #unlockWallet(ReentrantLock)}), so a listener which blocks only holds up the thread handling the payment.
+     */
+    void setPaymentEventListener(Consumer<PaymentEvent> paymentEventListener) {
+        this.paymentEventListener = paymentEventListener;
+        this.walletDeathHandler.setPaymentEventListener(this::publishEvent);
+    }
+
+    /**
+     * Starts the detection timer of the wallet a confirmed transaction was sent to, unless it is already running. The
+     * timer is stopped once the wallet's death has been handled, so it must only be started whilst the wallet's lock
+     * is held and the wallet is still active - otherwise the timer of a dead wallet would never be removed.
+     */
+    private void recordConfirmation(String address, long confirmationTime) {
+        if (instrumentation == Instrumentation.NOOP) return;
+        confirmationTimes.putIfAbsent(address, confirmationTime);
+    }
+
+    /**
+     * Sets the seed used to derive new wallets, advancing it past the highest derivation index in both the active
+     * and dead wallet storages. This only guards against a seed whose first index is too low - the highest stored
+     * index goes backwards as wallets are deleted, so the seed's own high-water mark is what stops indexes being
+     * re-used.
+     */
+    void setWalletSeed(WalletSeed walletSeed) {
+        this.walletSeed = walletSeed;
+        if (walletSeed == null) return;
+        Stream.concat(this.walletStorageProvider.activeWalletStorage().getAllWallets().stream(),
+                        this.walletStorageProvider.deadWalletStorage().getAllWallets().stream())
+                .map(Wallet::derivationIndex)
+                .filter(Objects::nonNull)
+                .max(Integer::compare)
+                .ifPresent(walletSeed::advancePast);
+    }
+
     String requestPayment(BigDecimal requiredAmount) {
+        Instrumentation instrumentation = this.instrumentation;
+        long startTime = instrumentation.startTimer();
         Wallet wallet = createWallet(requiredAmount);
         addWallet(wallet);
+        instrumentation.stopTimer(MetricNames.PAYMENT_REQUEST, startTime);
+        instrumentation.incrementCounter(MetricNames.PAYMENTS_REQUESTED);
+        publishEvent(PaymentEvent.created(wallet.address(), wallet.requiredAmount()));
         return wallet.address();
     }
 
-    void startWalletPruneService(ScheduledExecutorService walletPruneService, NanoPay.RepeatingDelay walletPruneDelay) {
-        walletPruneService.scheduleWithFixedDelay(this::pruneWallets, walletPruneDelay.initialDelayAmount(),
-                walletPruneDelay.repeatingDelayAmount(), walletPruneDelay.delayUnit());
+    List<String> requestPayments(List<BigDecimal> requiredAmounts) {
+        Instrumentation instrumentation = this.instrumentation;
+        long startTime = instrumentation.startTimer();
+        List<Wallet> wallets = requiredAmounts.parallelStream().map(this::createWallet).toList();
+        addWallets(wallets);
+        instrumentation.stopTimer(MetricNames.PAYMENT_REQUEST, startTime);
+        instrumentation.incrementCounter(MetricNames.PAYMENTS_REQUESTED, wallets.size());
+        wallets.forEach(wallet -> publishEvent(PaymentEvent.created(wallet.address(), wallet.requiredAmount())));
+        return wallets.stream().map(Wallet::address).toList();
+    }
+
+    /**
+     * Starts killing active wallets, and deleting dead wallets, at their expiry deadlines. Rather than periodically
+     * scanning storage, a task is scheduled for each wallet on the prune service when it is added (or loaded). The
+     * dead wallet storage is read once here, to schedule the deletion of dead wallets which already exist. Their death
+     * times aren't stored, but a wallet dies by its expiry deadline in active storage, so they're treated as having
+     * died then. Their deletion deadlines are then fixed across restarts, so a node which restarts more often than the
+     * dead storage's expiration time still deletes them.
+     */
+    void startWalletPruneService(ScheduledExecutorService walletPruneService) {
+        this.walletPruneService = walletPruneService;
+        Duration activeExpirationTime = this.walletStorageProvider.activeWalletStorage().getWalletExpirationTime();
+        this.walletStorageProvider.deadWalletStorage().getAllWallets().forEach(
+                wallet -> scheduleDeadWalletDeletion(wallet, wallet.creationTime().plus(activeExpirationTime)));
     }
 
     void startWalletRefundService(ScheduledExecutorService refundDeadWalletService, NanoPay.RepeatingDelay walletPruneDelay) {
-        refundDeadWalletService.scheduleWithFixedDelay(this::refundDeadWallets, walletPruneDelay.initialDelayAmount(),
-                walletPruneDelay.repeatingDelayAmount(), walletPruneDelay.delayUnit());
+        walletRefundTask = refundDeadWalletService.scheduleWithFixedDelay(this::refundDeadWallets,
+                walletPruneDelay.initialDelayAmount(), walletPruneDelay.repeatingDelayAmount(),
+                walletPruneDelay.delayUnit());
+    }
+
+    /**
+     * Cancels the scheduled wallet expiries and refunds, and stops wallets being killed or deleted by tasks which
+     * were already due. The prune and refund services may be shared, so their tasks can't be left to run once the
+     * WebSockets and RPC transport they rely on have been closed.
+     */
+    void close() {
+        closed = true;
+        if (walletRefundTask != null) walletRefundTask.cancel(false);
+        walletExpiryTasks.values().forEach(walletExpiryTask -> walletExpiryTask.cancel(false));
+        walletExpiryTasks.clear();
     }
 
-    void loadWallets() {
-        this.walletStorageProvider.activeWalletStorage().getAllWallets().forEach(wallet -> {
-            this.webSocketListener.addWalletFilter(wallet.address());
+    /**
+     * Recovers the active wallets on startup. All wallets are added to the WebSocket filter at once and their balances
+     * are fetched in chunks, so only wallets with funds (or whose balance couldn't be fetched) are fully checked.
+     * Those checks are spread over a bounded amount of threads.
+     * @param recoveryThreads maximum amount of wallets to check in parallel
+     */
+    void loadWallets(int recoveryThreads) {
+        List<Wallet> wallets = List.copyOf(this.walletStorageProvider.activeWalletStorage().getAllWallets());
+        if (wallets.isEmpty()) return;
+        long startTime = System.currentTimeMillis();
+        NanoPay.LOGGER.info("Recovering " + wallets.size() + " active wallets");
+        this.webSocketListener.addWalletFilters(wallets.stream().map(Wallet::address).toList());
+        wallets.forEach(this::scheduleWalletExpiry);
+
+        Map<String, BigDecimal> balances = fetchBalances(wallets);
+        balances.forEach((address, balance) -> receivedAmounts.merge(address, balance, BigDecimal::max));
+        List<Wallet> fundedWallets = wallets.stream()
+                .filter(wallet -> !balances.containsKey(wallet.address())
+                        || balances.get(wallet.address()).compareTo(BigDecimal.ZERO) > 0)
+                .toList();
+        NanoPay.LOGGER.info(fundedWallets.size() + " of " + wallets.size() + " active wallets require checking");
+        checkWallets(fundedWallets, recoveryThreads);
+        NanoPay.LOGGER.info("Recovered " + wallets.size() + " active wallets in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private void checkWallets(List<Wallet> wallets, int threads) {
+        if (wallets.isEmpty()) return;
+        AtomicInteger threadCount = new AtomicInteger(), checkedCount = new AtomicInteger();
+        ExecutorService recoveryService = Executors.newFixedThreadPool(Math.min(threads, wallets.size()), runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-recovery-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int progressInterval = Math.max(1, wallets.size() / 10);
+        wallets.forEach(wallet -> recoveryService.execute(() -> {
             try {
                 checkWallet(getLocalRpcWallet(wallet), wallet);
-            } catch (WalletActionException e) {
+            } catch (WalletActionException | RuntimeException e) {
                 NanoPay.LOGGER.error("Failed to check up on receiving wallet (" + wallet + ").", e);
             }
-        });
+            int checked = checkedCount.incrementAndGet();
+            if (checked % progressInterval == 0 || checked == wallets.size())
+                NanoPay.LOGGER.info("Checked " + checked + "/" + wallets.size() + " wallets");
+        }));
+        recoveryService.shutdown();
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            recoveryService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            recoveryService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void addWallet(Wallet wallet) {
         this.walletStorageProvider.activeWalletStorage().saveWallet(wallet);
         this.webSocketListener.addWalletFilter(wallet.address());
+        scheduleWalletExpiry(wallet);
     }
 
-    void killWallet(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet, WalletDeathState walletDeathState) {
-        this.walletDeathLogger.log(DeadWallet.kill(wallet, walletDeathState.success()));
-        this.walletDeathHandler.handleDeath(walletAccount, wallet, walletDeathState);
-        this.walletStorageProvider.deadWalletStorage().saveWallet(wallet);
-        this.walletStorageProvider.activeWalletStorage().deleteWallet(wallet);
+    private void addWallets(List<Wallet> wallets) {
+        this.walletStorageProvider.activeWalletStorage().saveWallets(wallets);
+        this.webSocketListener.addWalletFilters(wallets.stream().map(Wallet::address).toList());
+        wallets.forEach(this::scheduleWalletExpiry);
     }
 
-    private void refundDeadWallets() {
-        this.walletStorageProvider.deadWalletStorage().getAllWallets()
-                .forEach(wallet -> {
-                    LocalRpcWalletAccount<StateBlock> walletAccount = getLocalRpcWallet(wallet);
-                    try {
-                        walletAccount.receiveAll();
-                    } catch (WalletActionException ignored) {}
-                    walletDeathHandler.refundAllBalance(walletAccount);
-                });
+    private void precacheOpenBlock(Wallet wallet) {
+        PrecachingWorkGenerator workPrecache = this.workPrecache;
+        if (workPrecache != null) workPrecache.precacheOpenBlock(NanoAccount.parseAddress(wallet.address()));
     }
 
-    private void pruneWallets() {
-        Instant currentTime = clock.instant();
-        this.walletStorageProvider.activeWalletStorage().getAllWallets()
-                .stream()
-                .filter(wallet -> wallet.creationTime().isBefore(
-                        currentTime.minus(this.walletStorageProvider.activeWalletStorage().getWalletExpirationTime())))
-                .forEach(wallet -> killWallet(getLocalRpcWallet(wallet), wallet, WalletDeathState.failure()));
-        this.walletStorageProvider.deadWalletStorage().getAllWallets()
-                .stream()
-                .filter(wallet -> wallet.creationTime().isBefore(
-                        currentTime.minus(this.walletStorageProvider.activeWalletStorage().getWalletExpirationTime())))
-                .forEach(this.walletStorageProvider.deadWalletStorage()::deleteWallet);
+    private void precacheNextBlock(Collection<StateBlock> receivedBlocks) {
+        PrecachingWorkGenerator workPrecache = this.workPrecache;
+        if (workPrecache != null && receivedBlocks != null) workPrecache.precacheNextBlock(receivedBlocks);
+    }
+
+    private void scheduleWalletExpiry(Wallet wallet) {
+        if (walletPruneService == null || closed) return;
+        Instant deadline = wallet.creationTime()
+                .plus(this.walletStorageProvider.activeWalletStorage().getWalletExpirationTime());
+        walletExpiryTasks.put(wallet.address(), scheduleAt(deadline, () -> expireWallet(wallet)));
+    }
+
+    /**
+     * Schedules the deletion of a dead wallet once it has been dead for the dead storage's expiration time.
+     */
+    private void scheduleDeadWalletDeletion(Wallet wallet, Instant deathTime) {
+        if (walletPruneService == null || closed) return;
+        Instant deadline = deathTime.plus(this.walletStorageProvider.deadWalletStorage().getWalletExpirationTime());
+        scheduleAt(deadline, () -> {
+            if (closed) return;
+            try {
+                this.walletStorageProvider.deadWalletStorage().deleteWallet(wallet);
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.error("Failed to delete expired dead wallet (" + wallet.address() + ")", e);
+            }
+        });
+    }
+
+    private ScheduledFuture<?> scheduleAt(Instant deadline, Runnable task) {
+        long delay = Math.max(0, Duration.between(clock.instant(), deadline).toMillis());
+        return walletPruneService.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kills the wallet as a failure, unless its balance shows it was paid without being checked (e.g. its check was
+     * discarded from a full wallet check queue), in which case it's killed as a success.
+     */
+    void expireWallet(Wallet wallet) {
+        walletExpiryTasks.remove(wallet.address());
+        submitDeath(wallet, () -> getLocalRpcWallet(wallet), WalletDeathState.failure());
+    }
+
+    /**
+     * Receives the funds of an expiring wallet and checks its balance, publishing {@link PaymentEvent.Type#PAID} if
+     * it has received the required amount.
+     * @return the state the wallet should die in, a failure if its balance couldn't be checked
+     */
+    private WalletDeathState checkExpiringWallet(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) {
+        ReentrantLock walletLock = lockWallet(wallet.address());
+        try {
+            if (!isActive(wallet)) return WalletDeathState.failure();
+            precacheNextBlock(walletAccount.receiveAll());
+            BigDecimal balance = walletAccount.getBalance().getAsNano();
+            int comparisonResult = balance.compareTo(wallet.requiredAmount());
+            if (comparisonResult < 0) return WalletDeathState.failure();
+            NanoPay.LOGGER.info("Expiring wallet (" + wallet.address() + ") has been paid, killing it as a success");
+            publishEvent(PaymentEvent.paid(wallet.address(), balance));
+            return WalletDeathState.success(comparisonResult > 0);
+        } catch (WalletActionException | RuntimeException e) {
+            NanoPay.LOGGER.warn("Failed to check balance of expiring wallet (" + wallet.address() + ")", e);
+            return WalletDeathState.failure();
+        } finally {
+            unlockWallet(walletLock);
+        }
+    }
+
+    /**
+     * Kills the wallet on the death executor, unless it's already waiting to be killed.
+     */
+    private void submitDeath(Wallet wallet, Supplier<LocalRpcWalletAccount<StateBlock>> walletAccount,
+                             WalletDeathState walletDeathState) {
+        if (closed || !dyingWallets.add(wallet.address())) return;
+        Runnable death = () -> {
+            try {
+                //only expired wallets are submitted to die as failures, paid wallets publish PAID when checked
+                LocalRpcWalletAccount<StateBlock> account = walletAccount.get();
+                WalletDeathState deathState = walletDeathState.success() ? walletDeathState
+                        : checkExpiringWallet(account, wallet);
+                if (killWallet(account, wallet, deathState) && !deathState.success())
+                    publishEvent(PaymentEvent.expired(wallet.address()));
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.error("Failed to kill wallet (" + wallet.address() + ")", e);
+            } finally {
+                dyingWallets.remove(wallet.address());
+            }
+        };
+        try {
+            deathExecutor.execute(death);
+        } catch (RejectedExecutionException e) {
+            NanoPay.LOGGER.warn("Death executor rejected wallet (" + wallet.address() + "), killing it on this thread");
+            death.run();
+        }
+    }
+
+    /**
+     * Kills the wallet if it is still in active storage. The wallet's lock is held for the whole death sequence, so
+     * concurrent calls for the same wallet (e.g. from cancellation, pruning and checking) only handle its death once.
+     * @return boolean denoting whether this call killed the wallet, false if it had already been killed
+     */
+    boolean killWallet(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet, WalletDeathState walletDeathState) {
+        Instrumentation instrumentation = this.instrumentation;
+        long startTime = instrumentation.startTimer();
+        ReentrantLock walletLock = lockWallet(wallet.address());
+        try {
+            //the stored copy holds the inbound payments recorded since the caller read the wallet
+            Wallet storedWallet = this.walletStorageProvider.activeWalletStorage()
+                    .findWalletByAddress(wallet.address()).orElse(null);
+            if (storedWallet == null) return false;
+            this.walletDeathLogger.log(DeadWallet.kill(storedWallet, walletDeathState.success()));
+            long handleStartTime = instrumentation.startTimer();
+            this.walletDeathHandler.handleDeath(walletAccount, storedWallet, walletDeathState);
+            instrumentation.stopTimer(MetricNames.DEATH_HANDLE, handleStartTime);
+            Long confirmationTime = this.confirmationTimes.remove(wallet.address());
+            if (walletDeathState.success()) {
+                instrumentation.incrementCounter(MetricNames.PAYMENTS_SUCCEEDED);
+                if (confirmationTime != null) instrumentation.stopTimer(MetricNames.PAYMENT_DETECTION, confirmationTime);
+            } else {
+                instrumentation.incrementCounter(MetricNames.PAYMENTS_FAILED);
+            }
+            this.walletStorageProvider.deadWalletStorage().saveWallet(storedWallet);
+            this.walletStorageProvider.activeWalletStorage().deleteWallet(storedWallet);
+            this.webSocketListener.removeWalletFilter(wallet.address());
+            this.receivedAmounts.remove(wallet.address());
+            ScheduledFuture<?> walletExpiryTask = this.walletExpiryTasks.remove(wallet.address());
+            if (walletExpiryTask != null) walletExpiryTask.cancel(false);
+            scheduleDeadWalletDeletion(wallet, clock.instant());
+            return true;
+        } finally {
+            unlockWallet(walletLock);
+            instrumentation.stopTimer(MetricNames.WALLET_KILL, startTime);
+        }
+    }
+
+    /**
+     * Refunds funds sent to dead wallets. The balances (including receivable funds) of all dead wallets are fetched
+     * in chunks first, so only wallets which have funds (or whose balance couldn't be fetched) are received and
+     * refunded. The stored wallet is passed to the {@link WalletDeathHandler}, so funds left behind by a death which
+     * failed to send them can be refunded from the wallet's recorded payments.
+     */
+    NanoPay.RefundCycle refundDeadWallets() {
+        List<Wallet> wallets = List.copyOf(this.walletStorageProvider.deadWalletStorage().getAllWallets());
+        Map<String, BigDecimal> balances = fetchBalances(wallets);
+        int skipped = 0, refunded = 0;
+        for (Wallet wallet : wallets) {
+            BigDecimal balance = balances.get(wallet.address());
+            if (balance != null && balance.compareTo(BigDecimal.ZERO) <= 0) {
+                skipped++;
+                continue;
+            }
+            ReentrantLock walletLock = lockWallet(wallet.address());
+            try {
+                LocalRpcWalletAccount<StateBlock> walletAccount = getLocalRpcWallet(wallet);
+                try {
+                    precacheNextBlock(walletAccount.receiveAll());
+                } catch (WalletActionException ignored) {}
+                walletDeathHandler.refundAllBalance(walletAccount, wallet);
+                refunded++;
+            } finally {
+                unlockWallet(walletLock);
+            }
+        }
+        NanoPay.RefundCycle refundCycle = new NanoPay.RefundCycle(wallets.size(), skipped, refunded);
+        this.lastRefundCycle = refundCycle;
+        NanoPay.LOGGER.debug("Refund cycle complete: " + refundCycle);
+        return refundCycle;
+    }
+
+    NanoPay.RefundCycle getLastRefundCycle() {
+        return lastRefundCycle;
     }
 
-    @SneakyThrows
     Wallet createWallet(BigDecimal requiredAmount) {
-        HexData privateKey = WalletUtil.generateRandomKey(SecureRandomUtil.getSecureRandom());
-        String address = NanoAccount.fromPrivateKey(privateKey).toAddress();
-        return new Wallet(address, privateKey.toString(), clock.instant(), requiredAmount);
+        if (walletSeed != null) {
+            int derivationIndex = walletSeed.reserveIndex();
+            String address = NanoAccount.fromPrivateKey(walletSeed.deriveKey(derivationIndex)).toAddress();
+            return Wallet.derived(address, derivationIndex, clock.instant(), requiredAmount);
+        }
+        WalletKeyPool.WalletKey walletKey = walletKeyPool != null
+                ? walletKeyPool.takeKey()
+                : WalletKeyPool.generateKey(secureRandom.get());
+        return new Wallet(walletKey.address(), walletKey.privateKey(), clock.instant(), requiredAmount);
+    }
+
+    @SneakyThrows
+    private static SecureRandom newSecureRandom() {
+        return SecureRandomUtil.getSecureRandom();
     }
 
     Optional<Wallet> getWallet(String address) {
@@ -138,16 +517,177 @@ final class WalletManager {
     }
 
     LocalRpcWalletAccount<StateBlock> getLocalRpcWallet(Wallet wallet) {
-        return new LocalRpcWalletAccount<>(new HexData(wallet.privateKey()), rpcClient, blockFactory);
+        return new LocalRpcWalletAccount<>(getPrivateKey(wallet), rpcClient, blockFactory);
+    }
+
+    private HexData getPrivateKey(Wallet wallet) {
+        if (!wallet.isDerived()) return new HexData(wallet.privateKey());
+        if (walletSeed == null)
+            throw new IllegalStateException("Wallet (" + wallet.address() + ") is derived from a seed but no seed is set");
+        return walletSeed.deriveKey(wallet.derivationIndex());
+    }
+
+    /**
+     * Records a confirmed payment (listened to over the WebSocket) in the wallet's inbound payments, saving the wallet
+     * to active storage so that its refunds can later be worked out without fetching its account history. The payment
+     * is then handled as a transaction. Payments which have already been recorded are ignored.
+     */
+    void handleConfirmation(Wallet wallet, ConfirmationDecoder.Confirmation confirmation) throws WalletActionException {
+        handleConfirmation(wallet, confirmation, instrumentation.startTimer());
+    }
+
+    /**
+     * @param confirmationTime time the confirmation was received, from {@link Instrumentation#startTimer()}, which
+     *                         starts the wallet's detection timer
+     * @see #handleConfirmation(Wallet, ConfirmationDecoder.Confirmation)
+     */
+    void handleConfirmation(Wallet wallet, ConfirmationDecoder.Confirmation confirmation, long confirmationTime)
+            throws WalletActionException {
+        ReentrantLock walletLock = lockWallet(wallet.address());
+        try {
+            //re-read under the lock, so concurrent payments to the wallet are all recorded
+            Optional<Wallet> storedWallet = getWallet(wallet.address());
+            if (storedWallet.isEmpty()) return;
+            recordConfirmation(wallet.address(), confirmationTime);
+            Transaction transaction = confirmation.transaction();
+            BigDecimal amount = transaction.amount().getAsNano();
+            Wallet updatedWallet = storedWallet.get().withInboundPayment(new InboundPayment(
+                    transaction.sender().toAddress(), amount, confirmation.hash(), clock.instant()));
+            if (updatedWallet == storedWallet.get()) return;
+            this.walletStorageProvider.activeWalletStorage().saveWallet(updatedWallet);
+            handleTransaction(updatedWallet, amount);
+        } finally {
+            unlockWallet(walletLock);
+        }
+    }
+
+    /**
+     * Adds the amount of a transaction (listened to over the WebSocket) to the wallet's received tally. The wallet is
+     * only checked over RPC once the tally reaches the required amount, so payments made in several parts don't each
+     * cost a receive and balance check.
+     */
+    void handleTransaction(Wallet wallet, BigDecimal amount) throws WalletActionException {
+        ReentrantLock walletLock = lockWallet(wallet.address());
+        try {
+            BigDecimal receivedAmount = receivedAmounts.merge(wallet.address(), amount, BigDecimal::add);
+            //the first payment to the wallet, whose receive will be its open block
+            if (amount.compareTo(BigDecimal.ZERO) > 0 && receivedAmount.compareTo(amount) == 0)
+                precacheOpenBlock(wallet);
+            if (receivedAmount.compareTo(wallet.requiredAmount()) < 0) {
+                NanoPay.LOGGER.debug("Wallet (" + wallet.address() + ") has received " + receivedAmount + " of "
+                        + wallet.requiredAmount() + " NANO");
+                if (amount.compareTo(BigDecimal.ZERO) > 0)
+                    publishEvent(PaymentEvent.partiallyPaid(wallet.address(), receivedAmount));
+                return;
+            }
+            checkWallet(getLocalRpcWallet(wallet), wallet);
+        } finally {
+            unlockWallet(walletLock);
+        }
+    }
+
+    /**
+     * Re-seeds the received tallies of all active wallets from their balances (including receivable funds) in a
+     * single request, as transactions may have been missed whilst the WebSocket was disconnected. Tallies are never
+     * lowered, so transactions handled concurrently aren't lost.
+     * @return active wallets whose received tally has reached their required amount
+     */
+    List<Wallet> refreshReceivedAmounts() {
+        List<Wallet> wallets = List.copyOf(this.walletStorageProvider.activeWalletStorage().getAllWallets());
+        if (wallets.isEmpty()) return Collections.emptyList();
+        fetchBalances(wallets).forEach((address, balance) -> receivedAmounts.merge(address, balance, BigDecimal::max));
+        return wallets.stream()
+                .filter(wallet -> getReceivedAmount(wallet.address()).compareTo(wallet.requiredAmount()) >= 0)
+                .toList();
+    }
+
+    /**
+     * Fetches the balances (including receivable funds) of the wallets using chunked {@link RequestMultiAccountBalances}
+     * requests.
+     * @return map of wallet addresses to balances, without the wallets whose balance couldn't be fetched
+     */
+    private Map<String, BigDecimal> fetchBalances(List<Wallet> wallets) {
+        Map<String, BigDecimal> balances = new HashMap<>();
+        for (int i = 0; i < wallets.size(); i += BALANCE_REQUEST_CHUNK_SIZE) {
+            String[] addresses = wallets.subList(i, Math.min(i + BALANCE_REQUEST_CHUNK_SIZE, wallets.size()))
+                    .stream().map(Wallet::address).toArray(String[]::new);
+            try {
+                ResponseMultiAccountBalances responseMultiAccountBalances = rpcClient
+                        .processRequest(new RequestMultiAccountBalances(addresses));
+                responseMultiAccountBalances.getBalances().forEach(
+                        (account, balance) -> balances.put(account.toAddress(), balance.getTotal().getAsNano()));
+            } catch (IOException | RpcException e) {
+                NanoPay.LOGGER.error("Failed to fetch balances of " + addresses.length + " wallets", e);
+            }
+            NanoPay.LOGGER.debug("Fetched balances of " + Math.min(i + BALANCE_REQUEST_CHUNK_SIZE, wallets.size())
+                    + "/" + wallets.size() + " wallets");
+        }
+        return balances;
+    }
+
+    boolean hasDetectionTimer(String address) {
+        return confirmationTimes.containsKey(address);
+    }
+
+    BigDecimal getReceivedAmount(String address) {
+        return receivedAmounts.getOrDefault(address, BigDecimal.ZERO);
     }
 
     void checkWallet(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) throws WalletActionException {
-        walletAccount.receiveAll();
-        BigDecimal extraToRefund = walletAccount.getBalance().getAsNano().subtract(wallet.requiredAmount());
-        int comparisonResult = extraToRefund.compareTo(BigDecimal.ZERO);
-        if (comparisonResult >= 0) {
-            killWallet(walletAccount, wallet, WalletDeathState.success(comparisonResult > 0));
+        Instrumentation instrumentation = this.instrumentation;
+        long startTime = instrumentation.startTimer();
+        ReentrantLock walletLock = lockWallet(wallet.address());
+        try {
+            if (!isActive(wallet) || dyingWallets.contains(wallet.address())) return;
+            //the next block is usually the send to the storage wallet, so its work is started straight away
+            precacheNextBlock(walletAccount.receiveAll());
+            BigDecimal balance = walletAccount.getBalance().getAsNano();
+            receivedAmounts.put(wallet.address(), balance);
+            BigDecimal extraToRefund = balance.subtract(wallet.requiredAmount());
+            int comparisonResult = extraToRefund.compareTo(BigDecimal.ZERO);
+            if (comparisonResult >= 0) {
+                publishEvent(PaymentEvent.paid(wallet.address(), balance));
+                submitDeath(wallet, () -> walletAccount, WalletDeathState.success(comparisonResult > 0));
+            }
+        } finally {
+            unlockWallet(walletLock);
+            instrumentation.stopTimer(MetricNames.WALLET_CHECK, startTime);
         }
     }
 
+    private boolean isActive(Wallet wallet) {
+        return this.walletStorageProvider.activeWalletStorage().findWalletByAddress(wallet.address()).isPresent();
+    }
+
+    private ReentrantLock getWalletLock(String address) {
+        return walletLocks[Math.floorMod(address.hashCode(), walletLocks.length)];
+    }
+
+    private ReentrantLock lockWallet(String address) {
+        ReentrantLock walletLock = getWalletLock(address);
+        walletLock.lock();
+        heldWalletLocks.get()[0]++;
+        return walletLock;
+    }
+
+    /**
+     * Releases the wallet lock, then publishes the events raised whilst the thread held it once the thread holds no
+     * other wallet lock. A subscriber with a full buffer can then only hold up this thread, not every wallet on the
+     * lock's stripe.
+     */
+    private void unlockWallet(ReentrantLock walletLock) {
+        walletLock.unlock();
+        if (--heldWalletLocks.get()[0] > 0) return;
+        List<PaymentEvent> events = deferredEvents.get();
+        if (events.isEmpty()) return;
+        List<PaymentEvent> eventsToPublish = List.copyOf(events);
+        events.clear();
+        eventsToPublish.forEach(paymentEventListener);
+    }
+
+    private void publishEvent(PaymentEvent paymentEvent) {
+        if (heldWalletLocks.get()[0] > 0) deferredEvents.get().add(paymentEvent);
+        else paymentEventListener.accept(paymentEvent);
+    }
+
 }
@@ -1,95 +1,228 @@
 package xyz.benanderson.nanopay;
 
-import xyz.benanderson.nanopay.wallet.Transaction;
-import uk.oczadly.karl.jnano.model.NanoAccount;
-import uk.oczadly.karl.jnano.websocket.NanoWebSocketClient;
-import uk.oczadly.karl.jnano.websocket.WsObserver;
-import uk.oczadly.karl.jnano.websocket.topic.TopicConfirmation;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
+/**
+ * Listens for confirmations of transactions to watched wallets over one or more node WebSockets. Each WebSocket is
+ * subscribed to the same set of wallets, and confirmations are de-duplicated by block hash so each transaction is
+ * passed on once, from whichever WebSocket delivers it first.
+ * <p>
+ * Transactions are passed on from the thread of the WebSocket which delivered them, in the order they were delivered.
+ * If the callback blocks (e.g. on a full wallet check queue), the WebSocket stops reading, so the node is slowed down
+ * rather than confirmations being queued without bound.
+ */
 final class WebSocketListener {
 
-    private final NanoWebSocketClient webSocketClient;
-    private Consumer<Transaction> webSocketCallback;
+    static final Duration DEFAULT_FILTER_UPDATE_WINDOW = Duration.ofMillis(250);
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    private final List<ConfirmationWebSocketClient> webSocketClients;
+    private final ScheduledExecutorService scheduledService;
+    private final ConfirmationDeduplicator confirmationDeduplicator;
+    private final boolean reconnect;
+    private volatile Consumer<ConfirmationDecoder.Confirmation> webSocketCallback;
+    private volatile Runnable openCallback;
+    private volatile Executor openCallbackExecutor;
+    private volatile boolean connecting, closed;
 
     WebSocketListener(URI webSocketURI) {
         this (webSocketURI, true);
     }
 
-    WebSocketListener(NanoWebSocketClient nanoWebSocketClient) {
-        this (nanoWebSocketClient, true);
-    }
-
     WebSocketListener(URI webSocketURI, boolean reconnect) {
-        this(new NanoWebSocketClient(webSocketURI), reconnect);
+        this(webSocketURI, reconnect, DEFAULT_FILTER_UPDATE_WINDOW);
     }
 
-    WebSocketListener(NanoWebSocketClient nanoWebSocketClient, boolean reconnect) {
-        this.webSocketClient = nanoWebSocketClient;
-        this.webSocketClient.setObserver(new WsObserver() {
-            @Override
-            public void onOpen(int i) {
-                NanoPay.LOGGER.debug("WebSocket opened. Code: " + i);
-            }
-
-            @Override
-            public void onClose(int i, String s, boolean b) {
-                NanoPay.LOGGER.info("WebSocket closed. Code: " + i + ". Reason: " + s);
-                if (reconnect) {
-                    NanoPay.LOGGER.info("Attempting to reconnect to WebSocket");
-                    connectWebSocket(webSocketCallback);
-                }
-            }
+    WebSocketListener(URI webSocketURI, boolean reconnect, Duration filterUpdateWindow) {
+        this(List.of(webSocketURI), reconnect, filterUpdateWindow);
+    }
 
-            @Override
-            public void onSocketError(Exception e) {
-                NanoPay.LOGGER.error("WebSocket error.", e);
-                if (reconnect) {
-                    NanoPay.LOGGER.info("Attempting to reconnect to WebSocket");
-                    connectWebSocket(webSocketCallback);
-                }
-            }
+    /**
+     * @param webSocketURIs addresses of the node WebSockets to listen to
+     * @throws IllegalArgumentException if {@code webSocketURIs} is empty.
+     */
+    WebSocketListener(List<URI> webSocketURIs, boolean reconnect, Duration filterUpdateWindow) {
+        if (webSocketURIs.isEmpty()) throw new IllegalArgumentException("At least one WebSocket address is required");
+        this.reconnect = reconnect;
+        this.scheduledService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-websocket-filter");
+            thread.setDaemon(true);
+            return thread;
         });
+        this.confirmationDeduplicator = new ConfirmationDeduplicator(webSocketURIs);
+        List<ConfirmationWebSocketClient> webSocketClients = new ArrayList<>();
+        for (int i = 0; i < webSocketURIs.size(); i++) {
+            webSocketClients.add(new ConfirmationWebSocketClient(i, webSocketURIs.get(i), filterUpdateWindow));
+        }
+        this.webSocketClients = List.copyOf(webSocketClients);
+    }
+
+    /**
+     * @param openCallbackExecutor executor the open callback is run on, or {@code null} to run it on the thread which
+     *                             schedules reconnections
+     */
+    void setOpenCallbackExecutor(Executor openCallbackExecutor) {
+        this.openCallbackExecutor = openCallbackExecutor;
     }
 
-    void connectWebSocket(Consumer<Transaction> webSocketCallback) {
+    /**
+     * @param webSocketCallback called with each confirmed transaction to a watched wallet, on the thread of the
+     *                          WebSocket which delivered it first
+     * @param openCallback called whenever a WebSocket (re)connects whilst no other WebSocket is connected, off the
+     *                     WebSocket's thread, as transactions may have been missed whilst all were disconnected. It
+     *                     isn't called for connections made before this method returns, as the wallets are checked
+     *                     once connected anyway
+     */
+    void connectWebSocket(Consumer<ConfirmationDecoder.Confirmation> webSocketCallback, Runnable openCallback) {
         this.webSocketCallback = webSocketCallback;
+        this.openCallback = openCallback;
+        connecting = true;
         try {
-            if (!webSocketClient.connect()) {
-                NanoPay.LOGGER.error("Could not connect to WebSocket");
-                return;
+            for (ConfirmationWebSocketClient webSocketClient : webSocketClients) {
+                try {
+                    if (!webSocketClient.connectBlocking()) {
+                        NanoPay.LOGGER.error("Could not connect to WebSocket (" + webSocketClient.getURI() + ")");
+                    }
+                } catch (InterruptedException e) {
+                    NanoPay.LOGGER.error("Exception occurred connecting to WebSocket ("
+                            + webSocketClient.getURI() + ")", e);
+                }
             }
-        } catch (InterruptedException e) {
-            NanoPay.LOGGER.error("Exception occurred connecting to WebSocket", e);
-            return;
+        } finally {
+            connecting = false;
         }
-        webSocketClient.getTopics().topicConfirmedBlocks().registerListener((message, context) -> {
-            if (!message.getBlock().toJsonObject().get("subtype").getAsString().equalsIgnoreCase("send")) return;
-            String toAddress = message.getBlock().toJsonObject().get("link_as_account").getAsString();
-            webSocketCallback.accept(new Transaction(
-                    message.getAccount(),
-                    NanoAccount.parse(toAddress),
-                    message.getAmount()
-            ));
-        });
-//        webSocketClient.getTopics().topicConfirmedBlocks().subscribe();
     }
 
     void addWalletFilter(String address) {
-        webSocketClient.getTopics().topicConfirmedBlocks()
-                .subscribe(new TopicConfirmation.SubArgs().filterAccounts(address).includeBlockContents());
+        addWalletFilters(List.of(address));
+    }
+
+    void addWalletFilters(Collection<String> addresses) {
+        webSocketClients.forEach(webSocketClient -> webSocketClient.subscriptionManager.addAccounts(addresses));
+    }
+
+    void removeWalletFilter(String address) {
+        List<String> addresses = List.of(address);
+        webSocketClients.forEach(webSocketClient -> webSocketClient.subscriptionManager.removeAccounts(addresses));
+    }
+
+    /**
+     * Disconnects every WebSocket without reconnecting.
+     */
+    void close() {
+        closed = true;
+        webSocketClients.forEach(WebSocketClient::close);
+        scheduledService.shutdownNow();
     }
 
-//    void addWalletFilter(String address) {
-//        webSocketClient.getTopics().topicConfirmedBlocks()
-//                .update(new TopicConfirmation.UpdateArgs().addAccountsFilter(address));
-//    }
-//
-//    void removeWalletFilter(String address) {
-//        webSocketClient.getTopics().topicConfirmedBlocks()
-//                .update(new TopicConfirmation.UpdateArgs().removeAccountsFilter(address));
-//    }
+    /**
+     * @return delivery statistics of each WebSocket, in the order their addresses were given
+     */
+    List<NanoPay.WebSocketFeedStats> getFeedStats() {
+        return confirmationDeduplicator.getFeedStats();
+    }
+
+    private final class ConfirmationWebSocketClient extends WebSocketClient {
+
+        private final int index;
+        private final WebSocketSubscriptionManager subscriptionManager;
+        private final ConfirmationDecoder confirmationDecoder;
+        private final AtomicBoolean reconnectScheduled = new AtomicBoolean();
+
+        private ConfirmationWebSocketClient(int index, URI webSocketURI, Duration filterUpdateWindow) {
+            super(webSocketURI);
+            this.index = index;
+            this.subscriptionManager = new WebSocketSubscriptionManager(this::sendMessage, scheduledService,
+                    filterUpdateWindow);
+            this.confirmationDecoder = new ConfirmationDecoder(subscriptionManager::isWatched);
+        }
+
+        private void sendMessage(String message) {
+            if (!isOpen()) throw new IllegalStateException("WebSocket is not connected");
+            send(message);
+        }
+
+        private void scheduleReconnect() {
+            //the client can't reconnect from its own thread, so reconnection is handed off to the scheduled service
+            if (closed || !reconnectScheduled.compareAndSet(false, true)) return;
+            scheduledService.schedule(() -> {
+                reconnectScheduled.set(false);
+                NanoPay.LOGGER.info("Attempting to reconnect to WebSocket (" + getURI() + ")");
+                try {
+                    if (!reconnectBlocking()) {
+                        NanoPay.LOGGER.error("Could not reconnect to WebSocket (" + getURI() + ")");
+                    }
+                } catch (InterruptedException e) {
+                    NanoPay.LOGGER.error("Exception occurred reconnecting to WebSocket (" + getURI() + ")", e);
+                }
+            }, RECONNECT_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake serverHandshake) {
+            NanoPay.LOGGER.debug("WebSocket (" + getURI() + ") opened. Code: " + serverHandshake.getHttpStatus());
+            subscriptionManager.resubscribe();
+            Runnable callback = openCallback;
+            //the initial connections are made before the wallets are loaded, which checks them anyway
+            if (callback == null || connecting) return;
+            //whilst another WebSocket stayed connected, no confirmations were missed
+            if (webSocketClients.stream().anyMatch(client -> client != this && client.isOpen())) return;
+            Executor executor = openCallbackExecutor;
+            dispatch(executor != null ? executor : scheduledService, callback,
+                    "Exception occurred handling WebSocket connection");
+        }
+
+        @Override
+        public void onMessage(String message) {
+            ConfirmationDecoder.Confirmation confirmation = confirmationDecoder.decode(message);
+            if (confirmation == null || webSocketCallback == null) return;
+            if (!confirmationDeduplicator.accept(index, confirmation.hash())) return;
+            Consumer<ConfirmationDecoder.Confirmation> callback = webSocketCallback;
+            runEvent(() -> callback.accept(confirmation), "Exception occurred handling WebSocket transaction");
+        }
+
+        private void dispatch(Executor executor, Runnable event, String failureMessage) {
+            try {
+                executor.execute(() -> runEvent(event, failureMessage));
+            } catch (RejectedExecutionException e) {
+                NanoPay.LOGGER.error("WebSocket event executor rejected event (" + getURI() + ")", e);
+            }
+        }
+
+        private void runEvent(Runnable event, String failureMessage) {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.error(failureMessage, e);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            NanoPay.LOGGER.info("WebSocket (" + getURI() + ") closed. Code: " + code + ". Reason: " + reason);
+            if (reconnect) scheduleReconnect();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            //the connection is closed after an error, so reconnection is left to onClose
+            NanoPay.LOGGER.error("WebSocket (" + getURI() + ") error.", e);
+        }
+
+    }
 
 }
@@ -0,0 +1,124 @@
+package xyz.benanderson.nanopay;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Maintains the set of accounts the confirmation topic is filtered to. Changes made within the coalescing window are
+ * merged into a single {@code update} message (using the node's {@code accounts_add} and {@code accounts_del}
+ * options), rather than sending a new subscription for every wallet. The full set of
+ * accounts is only re-sent when the WebSocket (re)connects.
+ */
+final class WebSocketSubscriptionManager {
+
+    private final Consumer<String> messageSender;
+    private final ScheduledExecutorService flushService;
+    private final Duration coalescingWindow;
+    private final Set<String> watchedAccounts = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingAdditions = new HashSet<>(), pendingRemovals = new HashSet<>();
+    private boolean subscribed, flushScheduled;
+
+    /**
+     * @param messageSender sends a message over the WebSocket, throwing a {@link RuntimeException} if it can't be sent
+     */
+    WebSocketSubscriptionManager(Consumer<String> messageSender,
+                                 ScheduledExecutorService flushService,
+                                 Duration coalescingWindow) {
+        this.messageSender = messageSender;
+        this.flushService = flushService;
+        this.coalescingWindow = coalescingWindow;
+    }
+
+    void addAccounts(Collection<String> accounts) {
+        synchronized (this) {
+            for (String account : accounts) {
+                if (!watchedAccounts.add(account)) continue;
+                if (!pendingRemovals.remove(account)) pendingAdditions.add(account);
+            }
+            scheduleFlush();
+        }
+    }
+
+    void removeAccounts(Collection<String> accounts) {
+        synchronized (this) {
+            for (String account : accounts) {
+                if (!watchedAccounts.remove(account)) continue;
+                if (!pendingAdditions.remove(account)) pendingRemovals.add(account);
+            }
+            scheduleFlush();
+        }
+    }
+
+    boolean isWatched(String account) {
+        return watchedAccounts.contains(account);
+    }
+
+    int getWatchedAccountCount() {
+        return watchedAccounts.size();
+    }
+
+    /**
+     * Discards the current subscription state and subscribes to the full set of watched accounts. Must be called
+     * whenever the WebSocket (re)connects, as the node forgets subscriptions when a connection closes.
+     */
+    synchronized void resubscribe() {
+        subscribed = false;
+        pendingAdditions.clear();
+        pendingRemovals.clear();
+        flush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || (pendingAdditions.isEmpty() && pendingRemovals.isEmpty())) return;
+        flushScheduled = true;
+        flushService.schedule(this::flush, coalescingWindow.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        try {
+            if (!subscribed) {
+                //subscribing without an accounts filter would deliver every confirmation on the network
+                if (watchedAccounts.isEmpty()) return;
+                JsonObject options = new JsonObject();
+                options.addProperty("include_block", true);
+                options.add("accounts", toJsonArray(watchedAccounts));
+                messageSender.accept(createMessage("subscribe", options));
+                subscribed = true;
+            } else if (!pendingAdditions.isEmpty() || !pendingRemovals.isEmpty()) {
+                JsonObject options = new JsonObject();
+                if (!pendingAdditions.isEmpty()) options.add("accounts_add", toJsonArray(pendingAdditions));
+                if (!pendingRemovals.isEmpty()) options.add("accounts_del", toJsonArray(pendingRemovals));
+                messageSender.accept(createMessage("update", options));
+            }
+            pendingAdditions.clear();
+            pendingRemovals.clear();
+        } catch (RuntimeException e) {
+            //the full set of accounts will be re-sent when the WebSocket reconnects
+            NanoPay.LOGGER.error("Failed to update WebSocket account filters", e);
+            subscribed = false;
+        }
+    }
+
+    private static String createMessage(String action, JsonObject options) {
+        JsonObject message = new JsonObject();
+        message.addProperty("action", action);
+        message.addProperty("topic", "confirmation");
+        message.add("options", options);
+        return message.toString();
+    }
+
+    private static JsonArray toJsonArray(Collection<String> accounts) {
+        JsonArray jsonArray = new JsonArray(accounts.size());
+        accounts.forEach(jsonArray::add);
+        return jsonArray;
+    }
+
+}
@@ -1,7 +1,12 @@
 package xyz.benanderson.nanopay.death;
 
 import xyz.benanderson.nanopay.NanoPay;
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.Wallet;
+import uk.oczadly.karl.jnano.model.HexData;
 import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.model.NanoAmount;
 import uk.oczadly.karl.jnano.model.block.BlockType;
@@ -9,18 +14,22 @@ import uk.oczadly.karl.jnano.model.block.StateBlock;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
 import uk.oczadly.karl.jnano.rpc.exception.RpcException;
 import uk.oczadly.karl.jnano.rpc.request.node.RequestAccountHistory;
+import uk.oczadly.karl.jnano.rpc.request.node.RequestAccountInfo;
 import uk.oczadly.karl.jnano.rpc.response.ResponseAccountHistory;
 import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import uk.oczadly.karl.jnano.util.wallet.WalletActionException;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 
 public class DefaultWalletDeathHandler extends WalletDeathHandler {
 
+    private static final int HISTORY_PAGE_SIZE = 100, MAX_HISTORY_PAGES = 10;
+
     public DefaultWalletDeathHandler(Consumer<String> paymentSuccessListener,
                                      Consumer<String> paymentFailListener,
                                      NanoAccount storageWallet,
@@ -32,97 +41,182 @@ public class DefaultWalletDeathHandler extends WalletDeathHandler {
     public void handleDeath(LocalRpcWalletAccount<StateBlock> walletAccount,
                             Wallet wallet,
                             WalletDeathState walletDeathState) {
+        Instrumentation instrumentation = this.instrumentation;
         if (walletDeathState.success()) {
+            long startTime = instrumentation.startTimer();
             try {
-                walletAccount.send(storageWallet, NanoAmount.valueOfNano(wallet.requiredAmount()));
+                StateBlock sentBlock = walletAccount.send(storageWallet,
+                        NanoAmount.valueOfNano(wallet.requiredAmount()));
+                //the extra balance is refunded next
+                if (walletDeathState.receivedExtra()) sentBlockListener.accept(sentBlock);
+                paymentEventListener.accept(PaymentEvent.swept(wallet.address(), wallet.requiredAmount(),
+                        storageWallet.toAddress()));
             } catch (WalletActionException e) {
                 NanoPay.LOGGER.error("Couldn't send funds from receiving wallet (" + wallet.address() + ")" +
                         " to storage wallet (" + storageWallet + ").", e);
             }
+            instrumentation.stopTimer(MetricNames.DEATH_SEND_TO_STORAGE, startTime);
             if (walletDeathState.receivedExtra()) {
-                refundExtraBalance(walletAccount, wallet.requiredAmount());
+                refundExtraBalance(walletAccount, wallet);
             }
+            startTime = instrumentation.startTimer();
             getPaymentSuccessListener().accept(wallet.address());
+            instrumentation.stopTimer(MetricNames.DEATH_CALLBACK, startTime);
         } else {
             try {
                 if (walletAccount.getBalance().compareTo(NanoAmount.ZERO) > 0) {
-                    refundAllBalance(walletAccount);
+                    refundAllBalance(walletAccount, wallet);
                 }
             } catch (WalletActionException e) {
                 NanoPay.LOGGER.error("Couldn't get balance of receiving wallet (" + wallet + ").", e);
             }
+            long startTime = instrumentation.startTimer();
             getPaymentFailListener().accept(wallet.address());
+            instrumentation.stopTimer(MetricNames.DEATH_CALLBACK, startTime);
         }
     }
 
+    @Override
     public void refundExtraBalance(LocalRpcWalletAccount<StateBlock> walletAccount, BigDecimal requiredAmount) {
+        refundExtraBalance(walletAccount, requiredAmount, List.of());
+    }
+
+    /**
+     * Refunds the extra balance using the payments recorded for the wallet, if they account for the whole amount it
+     * received. Otherwise, the payments are fetched from the wallet's account history.
+     */
+    @Override
+    public void refundExtraBalance(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) {
+        refundExtraBalance(walletAccount, wallet.requiredAmount(), wallet.inboundPayments());
+    }
+
+    private void refundExtraBalance(LocalRpcWalletAccount<StateBlock> walletAccount, BigDecimal requiredAmount,
+                                    List<InboundPayment> recordedPayments) {
+        long startTime = instrumentation.startTimer();
+        String address = walletAccount.getAccount().toAddress();
         try {
-            RequestAccountHistory requestAccountHistory = new RequestAccountHistory(walletAccount.getAccount().toAddress());
-            ResponseAccountHistory responseAccountHistory = rpcClient.processRequest(requestAccountHistory);
-            List<ResponseAccountHistory.BlockInfo> receivedPayments = responseAccountHistory.getHistory()
-                    .stream()
-                    .filter(blockInfo -> blockInfo.getType() == BlockType.RECEIVE)
-                    .sorted(Comparator.comparing(ResponseAccountHistory.BlockInfo::getTimestamp))
-                    .toList();
-            BigDecimal totalNano = BigDecimal.ZERO;
-            boolean surpassedRequired = false;
-            for (ResponseAccountHistory.BlockInfo payment : receivedPayments) {
-                totalNano = totalNano.add(payment.getAmount().getAsNano());
-                if (!surpassedRequired && totalNano.compareTo(requiredAmount) > 0) {
-                    surpassedRequired = true;
-                    BigDecimal totalExtra = totalNano.subtract(requiredAmount);
-                    try {
-                        walletAccount.send(payment.getAccount(), NanoAmount.valueOfNano(totalExtra));
-                    } catch (WalletActionException e) {
-                        NanoPay.LOGGER.error("Couldn't refund NANO to sender of NANO to wallet ("
-                                + walletAccount.getAccount().toAddress() + ").", e);
-                    }
-                } else if (surpassedRequired) {
-                    try {
-                        walletAccount.send(payment.getAccount(), payment.getAmount());
-                    } catch (WalletActionException e) {
-                        NanoPay.LOGGER.error("Couldn't refund NANO to sender of NANO to wallet ("
-                                + walletAccount.getAccount().toAddress() + ").", e);
-                    }
-                }
-            }
+            //the required amount has already been sent to the storage wallet, so it's no longer in the balance
+            List<InboundPayment> payments = !recordedPayments.isEmpty()
+                    && isRecordedBalance(recordedPayments, walletAccount.getBalance().getAsNano().add(requiredAmount))
+                    ? recordedPayments : fetchInboundPayments(address);
+            sendRefunds(walletAccount, RefundPlan.forExtra(payments, requiredAmount));
         } catch (IOException | RpcException e) {
-            e.printStackTrace();
+            NanoPay.LOGGER.error("Couldn't fetch account history of wallet (" + address + ") to refund extra NANO.", e);
+        } catch (WalletActionException e) {
+            NanoPay.LOGGER.error("Couldn't get balance of receiving wallet (" + address + ").", e);
+        } finally {
+            instrumentation.stopTimer(MetricNames.DEATH_REFUND_EXTRA, startTime);
         }
     }
 
+    @Override
     public void refundAllBalance(LocalRpcWalletAccount<StateBlock> walletAccount) {
+        refundAllBalance(walletAccount, List.of());
+    }
+
+    /**
+     * Refunds the whole balance using the payments recorded for the wallet, if they account for the whole balance and
+     * the wallet has never sent any funds. Otherwise, the payments are fetched from the wallet's account history, as
+     * the balance may be made up of payments received after the recorded ones were sent on.
+     */
+    @Override
+    public void refundAllBalance(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) {
+        refundAllBalance(walletAccount, wallet.inboundPayments());
+    }
+
+    private void refundAllBalance(LocalRpcWalletAccount<StateBlock> walletAccount,
+                                  List<InboundPayment> recordedPayments) {
+        long startTime = instrumentation.startTimer();
+        String address = walletAccount.getAccount().toAddress();
         try {
-            RequestAccountHistory requestAccountHistory = new RequestAccountHistory(walletAccount.getAccount().toAddress());
-            ResponseAccountHistory responseAccountHistory = rpcClient.processRequest(requestAccountHistory);
-            responseAccountHistory.getHistory()
-                    .stream()
-                    .filter(blockInfo -> blockInfo.getType() == BlockType.RECEIVE)
-                    .sorted(Comparator.comparing(ResponseAccountHistory.BlockInfo::getTimestamp).reversed())
-                    .forEach(blockInfo -> {
-                        try {
-                            if (walletAccount.getBalance().compareTo(blockInfo.getAmount()) < 0) {
-                                return;
-                            }
-                        } catch (WalletActionException e) {
-                            return;
-                        }
-                        try {
-                            walletAccount.send(blockInfo.getAccount(), blockInfo.getAmount());
-                        } catch (WalletActionException e) {
-                            NanoPay.LOGGER.error("Couldn't refund NANO to sender of NANO to wallet ("
-                                    + walletAccount.getAccount().toAddress() + ").", e);
-                        }
-                    });
+            BigDecimal balance = walletAccount.getBalance().getAsNano();
+            List<InboundPayment> payments = isRecordedBalance(recordedPayments, balance)
+                    && isRecordedHistory(recordedPayments, address)
+                    ? recordedPayments : fetchInboundPayments(address);
+            sendRefunds(walletAccount, RefundPlan.forAll(payments, balance));
         } catch (RpcException | IOException e) {
-            NanoPay.LOGGER.error("Couldn't refund NANO to senders of NANO to wallet ("
-                    + walletAccount.getAccount().toAddress() + ").", e);
+            NanoPay.LOGGER.error("Couldn't refund NANO to senders of NANO to wallet (" + address + ").", e);
             try {
+                NanoAmount balance = walletAccount.getBalance();
                 walletAccount.sendAll(storageWallet);
+                paymentEventListener.accept(PaymentEvent.swept(address, balance.getAsNano(),
+                        storageWallet.toAddress()));
             } catch (WalletActionException ex) {
-                NanoPay.LOGGER.error("Couldn't send unwanted NANO from receiving wallet ("
-                        + walletAccount.getAccount().toAddress() + ")" + " to storage wallet ("
-                        + this.storageWallet + ") after failing to refund.", e);
+                NanoPay.LOGGER.error("Couldn't send unwanted NANO from receiving wallet (" + address + ")"
+                        + " to storage wallet (" + this.storageWallet + ") after failing to refund.", e);
+            }
+        } catch (WalletActionException e) {
+            NanoPay.LOGGER.error("Couldn't get balance of receiving wallet (" + address + ").", e);
+        } finally {
+            instrumentation.stopTimer(MetricNames.DEATH_REFUND_ALL, startTime);
+        }
+    }
+
+    /**
+     * @return boolean denoting whether the recorded payments add up to the amount, i.e. no payment is missing from them
+     */
+    private static boolean isRecordedBalance(List<InboundPayment> recordedPayments, BigDecimal amount) {
+        if (recordedPayments.isEmpty()) return false;
+        return recordedPayments.stream()
+                .map(InboundPayment::amount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add)
+                .compareTo(amount) == 0;
+    }
+
+    /**
+     * @return boolean denoting whether the account's only blocks are the receipts of the recorded payments, i.e. it
+     * has never sent any funds which the recorded payments would no longer account for
+     */
+    private boolean isRecordedHistory(List<InboundPayment> recordedPayments, String address)
+            throws IOException, RpcException {
+        return rpcClient.processRequest(new RequestAccountInfo(address)).getBlockCount() == recordedPayments.size();
+    }
+
+    /**
+     * Fetches the payments received by the account a page of its history at a time, newest first, returning them
+     * oldest first. At most {@link #MAX_HISTORY_PAGES} pages are fetched, so an account sent a flood of payments can't
+     * hold up its death.
+     *
+     * @throws IOException if the history is longer than {@link #MAX_HISTORY_PAGES} pages, as refunds planned from only
+     * part of the payments could be sent to the wrong senders
+     */
+    private List<InboundPayment> fetchInboundPayments(String address) throws IOException, RpcException {
+        List<InboundPayment> payments = new ArrayList<>();
+        HexData head = null;
+        for (int page = 0; page < MAX_HISTORY_PAGES; page++) {
+            List<ResponseAccountHistory.BlockInfo> history = rpcClient
+                    .processRequest(new RequestAccountHistory(address, HISTORY_PAGE_SIZE, head))
+                    .getHistory();
+            //pages after the first start with the last block of the previous page
+            history.stream()
+                    .skip(head == null ? 0 : 1)
+                    .filter(blockInfo -> blockInfo.getType() == BlockType.RECEIVE)
+                    .map(blockInfo -> new InboundPayment(blockInfo.getAccount().toAddress(),
+                            blockInfo.getAmount().getAsNano(), blockInfo.getHash().toString(),
+                            blockInfo.getTimestamp()))
+                    .forEach(payments::add);
+            if (history.size() < HISTORY_PAGE_SIZE) {
+                Collections.reverse(payments);
+                return payments;
+            }
+            head = history.get(history.size() - 1).getHash();
+        }
+        throw new IOException("Account history of wallet (" + address + ") is longer than "
+                + (MAX_HISTORY_PAGES * (HISTORY_PAGE_SIZE - 1)) + " blocks, so its payments can't all be fetched");
+    }
+
+    private void sendRefunds(LocalRpcWalletAccount<StateBlock> walletAccount, RefundPlan refundPlan) {
+        String address = walletAccount.getAccount().toAddress();
+        List<RefundPlan.Refund> refunds = refundPlan.refunds();
+        for (int i = 0; i < refunds.size(); i++) {
+            RefundPlan.Refund refund = refunds.get(i);
+            try {
+                StateBlock sentBlock = walletAccount.send(NanoAccount.parseAddress(refund.recipient()),
+                        NanoAmount.valueOfNano(refund.amount()));
+                if (i < refunds.size() - 1) sentBlockListener.accept(sentBlock);
+                paymentEventListener.accept(PaymentEvent.refunded(address, refund.amount(), refund.recipient()));
+            } catch (WalletActionException e) {
+                NanoPay.LOGGER.error("Couldn't refund NANO to sender of NANO to wallet (" + address + ").", e);
             }
         }
     }
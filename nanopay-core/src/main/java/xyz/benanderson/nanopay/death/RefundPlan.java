@@ -0,0 +1,75 @@
+package xyz.benanderson.nanopay.death;
+
+import xyz.benanderson.nanopay.wallet.InboundPayment;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The refunds to make from a wallet, worked out from the payments it received. Plans are worked out without any RPC
+ * calls, so they can be made from a wallet's recorded {@link InboundPayment}s as well as from its account history.
+ * Payments are given in the order they arrived at the wallet, oldest first, rather than being sorted by their
+ * timestamps, which record when each payment was handled and can disagree with the ledger.
+ * @param refunds refunds to make, in the order they should be sent
+ */
+public record RefundPlan(List<Refund> refunds) {
+
+    public RefundPlan {
+        refunds = List.copyOf(refunds);
+    }
+
+    /**
+     * Refunds whatever was paid on top of the required amount. Payments are counted oldest first - the payment which
+     * took the total past the required amount has the excess refunded, and every later payment is refunded in full.
+     * @param payments payments received by the wallet, oldest first
+     * @param requiredAmount amount of NANO the wallet required
+     */
+    public static RefundPlan forExtra(List<InboundPayment> payments, BigDecimal requiredAmount) {
+        List<Refund> refunds = new ArrayList<>();
+        BigDecimal total = BigDecimal.ZERO;
+        boolean surpassedRequired = false;
+        for (InboundPayment payment : payments) {
+            total = total.add(payment.amount());
+            if (surpassedRequired) {
+                refunds.add(new Refund(payment.sender(), payment.amount()));
+            } else if (total.compareTo(requiredAmount) > 0) {
+                surpassedRequired = true;
+                refunds.add(new Refund(payment.sender(), total.subtract(requiredAmount)));
+            }
+        }
+        return new RefundPlan(refunds);
+    }
+
+    /**
+     * Refunds every payment, newest first, for as long as the balance covers them. Payments which the remaining
+     * balance can't cover in full are skipped.
+     * @param payments payments received by the wallet, oldest first
+     * @param balance amount of NANO held by the wallet
+     */
+    public static RefundPlan forAll(List<InboundPayment> payments, BigDecimal balance) {
+        List<Refund> refunds = new ArrayList<>();
+        BigDecimal remaining = balance;
+        for (int i = payments.size() - 1; i >= 0; i--) {
+            InboundPayment payment = payments.get(i);
+            if (remaining.compareTo(payment.amount()) < 0) continue;
+            refunds.add(new Refund(payment.sender(), payment.amount()));
+            remaining = remaining.subtract(payment.amount());
+        }
+        return new RefundPlan(refunds);
+    }
+
+    /**
+     * @return total amount of NANO refunded by the plan
+     */
+    public BigDecimal total() {
+        return refunds.stream().map(Refund::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    /**
+     * @param recipient address of the account to refund
+     * @param amount amount of NANO to refund
+     */
+    public record Refund(String recipient, BigDecimal amount) {}
+
+}
@@ -1,8 +1,10 @@
 package xyz.benanderson.nanopay.death;
 
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
 import xyz.benanderson.nanopay.wallet.Wallet;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.model.block.StateBlock;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
@@ -11,13 +13,40 @@ import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import java.math.BigDecimal;
 import java.util.function.Consumer;
 
-@AllArgsConstructor
 public abstract class WalletDeathHandler {
 
     @Getter
     private final Consumer<String> paymentSuccessListener, paymentFailListener;
     protected final NanoAccount storageWallet;
     protected final RpcQueryNode rpcClient;
+    /**
+     * Receives timers of each step of the handler, set by {@link xyz.benanderson.nanopay.NanoPay} when
+     * instrumentation is enabled.
+     */
+    @Setter
+    protected volatile Instrumentation instrumentation = Instrumentation.NOOP;
+    /**
+     * Receives a {@link PaymentEvent} for each sweep and refund made by the handler, set by
+     * {@link xyz.benanderson.nanopay.NanoPay} to publish them to subscribers of its payment events.
+     */
+    @Setter
+    protected volatile Consumer<PaymentEvent> paymentEventListener = paymentEvent -> {};
+    /**
+     * Receives each block sent by the handler which will be followed by another send from the same wallet, set by
+     * {@link xyz.benanderson.nanopay.NanoPay} to precache the work of the following block.
+     */
+    @Setter
+    protected volatile Consumer<StateBlock> sentBlockListener = block -> {};
+
+    public WalletDeathHandler(Consumer<String> paymentSuccessListener,
+                              Consumer<String> paymentFailListener,
+                              NanoAccount storageWallet,
+                              RpcQueryNode rpcClient) {
+        this.paymentSuccessListener = paymentSuccessListener;
+        this.paymentFailListener = paymentFailListener;
+        this.storageWallet = storageWallet;
+        this.rpcClient = rpcClient;
+    }
 
     public abstract void handleDeath(LocalRpcWalletAccount<StateBlock> walletAccount,
                                      Wallet wallet,
@@ -27,4 +56,20 @@ public abstract class WalletDeathHandler {
 
     public abstract void refundAllBalance(LocalRpcWalletAccount<StateBlock> walletAccount);
 
+    /**
+     * Refunds the extra balance of the wallet, which may use the {@link Wallet#inboundPayments()} recorded for it
+     * rather than asking the node for its account history. By default, the recorded payments are ignored.
+     */
+    public void refundExtraBalance(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) {
+        refundExtraBalance(walletAccount, wallet.requiredAmount());
+    }
+
+    /**
+     * Refunds the whole balance of the wallet, which may use the {@link Wallet#inboundPayments()} recorded for it
+     * rather than asking the node for its account history. By default, the recorded payments are ignored.
+     */
+    public void refundAllBalance(LocalRpcWalletAccount<StateBlock> walletAccount, Wallet wallet) {
+        refundAllBalance(walletAccount);
+    }
+
 }
@@ -0,0 +1,78 @@
+package xyz.benanderson.nanopay.event;
+
+import java.math.BigDecimal;
+
+/**
+ * A step in the lifecycle of a payment, published by {@link PaymentEventPublisher}.
+ * @param type what happened to the payment
+ * @param address address of the payment's wallet (equivalent to a transaction identifier)
+ * @param amount amount of NANO the event concerns (see {@link Type}), null for {@link Type#EXPIRED} and
+ *               {@link Type#CANCELLED}
+ * @param counterparty address the funds were sent to, for {@link Type#SWEPT} and {@link Type#REFUNDED}, otherwise null
+ */
+public record PaymentEvent(Type type, String address, BigDecimal amount, String counterparty) {
+
+    public static PaymentEvent created(String address, BigDecimal requiredAmount) {
+        return new PaymentEvent(Type.CREATED, address, requiredAmount, null);
+    }
+
+    public static PaymentEvent partiallyPaid(String address, BigDecimal receivedAmount) {
+        return new PaymentEvent(Type.PARTIALLY_PAID, address, receivedAmount, null);
+    }
+
+    public static PaymentEvent paid(String address, BigDecimal balance) {
+        return new PaymentEvent(Type.PAID, address, balance, null);
+    }
+
+    public static PaymentEvent swept(String address, BigDecimal amount, String storageWallet) {
+        return new PaymentEvent(Type.SWEPT, address, amount, storageWallet);
+    }
+
+    public static PaymentEvent refunded(String address, BigDecimal amount, String recipient) {
+        return new PaymentEvent(Type.REFUNDED, address, amount, recipient);
+    }
+
+    public static PaymentEvent expired(String address) {
+        return new PaymentEvent(Type.EXPIRED, address, null, null);
+    }
+
+    public static PaymentEvent cancelled(String address) {
+        return new PaymentEvent(Type.CANCELLED, address, null, null);
+    }
+
+    public enum Type {
+        /**
+         * A wallet was created for the payment, the amount is the required amount.
+         */
+        CREATED,
+        /**
+         * A transaction to the wallet was confirmed, but the wallet hasn't received the required amount yet. The
+         * amount is the total received so far.
+         */
+        PARTIALLY_PAID,
+        /**
+         * The wallet's balance reached the required amount, the amount is the balance. The wallet's death is handled
+         * afterwards, i.e. its funds are swept and any extra is refunded.
+         */
+        PAID,
+        /**
+         * Funds were sent from the wallet to the storage wallet, the amount is the amount sent.
+         */
+        SWEPT,
+        /**
+         * Funds were returned to a sender, either extra funds of a paid wallet or the funds of an expired, cancelled or
+         * dead wallet. The amount is the amount refunded.
+         */
+        REFUNDED,
+        /**
+         * The wallet expired before it was paid, and has been killed.
+         */
+        EXPIRED,
+        /**
+         * The payment was cancelled through {@link xyz.benanderson.nanopay.NanoPay#cancelPayment(String)}, and the
+         * wallet has been killed.
+         */
+        CANCELLED
+    }
+
+}
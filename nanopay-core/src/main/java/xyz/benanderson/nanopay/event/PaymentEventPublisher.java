@@ -0,0 +1,99 @@
+package xyz.benanderson.nanopay.event;
+
+import xyz.benanderson.nanopay.NanoPay;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes {@link PaymentEvent}s to any number of {@link Flow.Subscriber}s. Each subscriber has its own buffer and
+ * receives events on the event executor, so a slow subscriber only holds up the threads handling payments once its
+ * buffer is full, and then only if the overflow policy is {@link NanoPay.OverflowPolicy#BLOCK}. Subscribers control
+ * how many events they're sent using {@link Flow.Subscription#request(long)}.
+ */
+public final class PaymentEventPublisher implements Flow.Publisher<PaymentEvent>, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_CAPACITY = Flow.defaultBufferSize();
+
+    private final SubmissionPublisher<PaymentEvent> publisher;
+    private final NanoPay.OverflowPolicy overflowPolicy;
+    private final Instrumentation instrumentation;
+    private final LongAdder droppedEvents = new LongAdder();
+
+    /**
+     * @param executor executor events are delivered to subscribers on
+     * @param bufferCapacity maximum amount of events buffered per subscriber, rounded up to a power of two
+     * @param overflowPolicy action to take when a subscriber's buffer is full, {@link NanoPay.OverflowPolicy#BLOCK}
+     *                       waits for space (holding up the thread publishing the event) whilst
+     *                       {@link NanoPay.OverflowPolicy#DISCARD} drops the event for that subscriber
+     * @param instrumentation counts dropped events
+     */
+    public PaymentEventPublisher(Executor executor, int bufferCapacity, NanoPay.OverflowPolicy overflowPolicy,
+                                 Instrumentation instrumentation) {
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PaymentEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Offers the event to all current subscribers. Events published without subscribers, or after the publisher has
+     * been closed, are ignored.
+     */
+    public void publish(PaymentEvent event) {
+        if (!publisher.hasSubscribers()) return;
+        try {
+            if (overflowPolicy == NanoPay.OverflowPolicy.BLOCK) {
+                publisher.submit(event);
+            } else {
+                publisher.offer(event, (subscriber, droppedEvent) -> {
+                    droppedEvents.increment();
+                    instrumentation.incrementCounter(MetricNames.PAYMENT_EVENTS_DROPPED);
+                    NanoPay.LOGGER.warn("Payment event buffer is full, dropped " + droppedEvent.type()
+                            + " event for wallet (" + droppedEvent.address() + ")");
+                    return false;
+                });
+            }
+        } catch (IllegalStateException ignored) {
+            //closed concurrently
+        }
+    }
+
+    /**
+     * @return amount of events dropped due to full subscriber buffers, counted once per subscriber
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * @return amount of current subscribers
+     */
+    public int getSubscriberCount() {
+        return publisher.getNumberOfSubscribers();
+    }
+
+    /**
+     * @return the most events buffered for any one subscriber
+     */
+    public int getMaxBufferedEvents() {
+        return publisher.estimateMaximumLag();
+    }
+
+    /**
+     * Completes all subscribers once they've been sent the events already buffered for them.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+}
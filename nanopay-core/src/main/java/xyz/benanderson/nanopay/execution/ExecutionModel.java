@@ -0,0 +1,230 @@
+package xyz.benanderson.nanopay.execution;
+
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Supplies the executors NanoPay runs its work on:
+ * <ul>
+ *     <li>{@link #getRequestExecutor()} runs the asynchronous API calls of {@link NanoPay} (e.g.
+ *     {@link NanoPay#getBalanceAsync(xyz.benanderson.nanopay.wallet.Wallet)}), so callers aren't blocked on them</li>
+ *     <li>{@link #getWebSocketExecutor()} catches up on payments which may have been missed whilst the WebSockets were
+ *     disconnected. Transactions themselves are handed from the WebSocket threads straight to NanoPay's bounded wallet
+ *     check queue, so a backlog slows down reading from the WebSocket rather than growing without bound</li>
+ *     <li>{@link #getDeathExecutor()} runs the RPC-bound death of paid and expired wallets (receiving funds, sending
+ *     them on and refunding), so wallet checks and scheduled expiries aren't held up by it</li>
+ *     <li>{@link #getStorageExecutor()} mirrors writes to the backing storage of
+ *     {@link xyz.benanderson.nanopay.storage.CacheWrappedWalletStorage}s</li>
+ *     <li>{@link #getScheduledExecutor()} runs scheduled scans, i.e. wallet expiry and dead wallet refunds</li>
+ *     <li>{@link #getEventExecutor()} delivers {@link xyz.benanderson.nanopay.event.PaymentEvent}s to their
+ *     subscribers, so slow subscribers don't hold up the handling of payments</li>
+ * </ul>
+ * Almost all of this work blocks on RPC or storage I/O, so {@link #virtualThreads()} runs each task on its own virtual
+ * thread where the JVM supports them. Each executor exposes its queue depth and amount of running tasks.
+ */
+public final class ExecutionModel implements AutoCloseable {
+
+    public static final int DEFAULT_REQUEST_THREADS = 8, DEFAULT_DEATH_THREADS = 8, DEFAULT_STORAGE_THREADS = 2,
+            DEFAULT_SCHEDULED_THREADS = 1;
+    //looked up reflectively, as virtual threads need a newer JVM than NanoPay is compiled for
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private final MonitoredExecutorService requestExecutor, webSocketExecutor, deathExecutor, storageExecutor,
+            eventExecutor;
+    private final MonitoredScheduledExecutorService scheduledExecutor;
+    private final boolean virtual;
+
+    private ExecutionModel(MonitoredExecutorService requestExecutor, MonitoredExecutorService webSocketExecutor,
+                           MonitoredExecutorService deathExecutor, MonitoredExecutorService storageExecutor,
+                           MonitoredScheduledExecutorService scheduledExecutor,
+                           MonitoredExecutorService eventExecutor, boolean virtual) {
+        this.requestExecutor = requestExecutor;
+        this.webSocketExecutor = webSocketExecutor;
+        this.deathExecutor = deathExecutor;
+        this.storageExecutor = storageExecutor;
+        this.scheduledExecutor = scheduledExecutor;
+        this.eventExecutor = eventExecutor;
+        this.virtual = virtual;
+    }
+
+    /**
+     * Runs each kind of work on its own pool of platform threads, with the default amount of threads. WebSocket
+     * reconnections are caught up on a single thread.
+     */
+    public static ExecutionModel platformThreads() {
+        return platformThreads(DEFAULT_DEATH_THREADS, DEFAULT_STORAGE_THREADS, DEFAULT_SCHEDULED_THREADS);
+    }
+
+    /**
+     * Runs each kind of work on its own pool of platform threads, with the default amount of threads for asynchronous
+     * API calls. WebSocket reconnections are caught up on a single thread.
+     * @param deathThreads amount of wallets whose death can be handled at once
+     * @param storageThreads amount of backing storage writes which can run at once
+     * @param scheduledThreads amount of scheduled tasks which can run at once
+     * @throws IllegalArgumentException if any amount of threads is not positive.
+     */
+    public static ExecutionModel platformThreads(int deathThreads, int storageThreads, int scheduledThreads) {
+        return platformThreads(DEFAULT_REQUEST_THREADS, deathThreads, storageThreads, scheduledThreads);
+    }
+
+    /**
+     * Runs each kind of work on its own pool of platform threads. WebSocket reconnections are caught up on a single
+     * thread.
+     * @param requestThreads amount of asynchronous API calls which can run at once
+     * @param deathThreads amount of wallets whose death can be handled at once
+     * @param storageThreads amount of backing storage writes which can run at once
+     * @param scheduledThreads amount of scheduled tasks which can run at once
+     * @throws IllegalArgumentException if any amount of threads is not positive.
+     */
+    public static ExecutionModel platformThreads(int requestThreads, int deathThreads, int storageThreads,
+                                                 int scheduledThreads) {
+        if (requestThreads <= 0 || deathThreads <= 0 || storageThreads <= 0 || scheduledThreads <= 0)
+            throw new IllegalArgumentException("Thread counts must be positive");
+        return new ExecutionModel(
+                new MonitoredExecutorService("nanopay-request",
+                        Executors.newFixedThreadPool(requestThreads, platformThreadFactory("nanopay-request"))),
+                new MonitoredExecutorService("nanopay-websocket-event",
+                        Executors.newSingleThreadExecutor(platformThreadFactory("nanopay-websocket-event"))),
+                new MonitoredExecutorService("nanopay-death",
+                        Executors.newFixedThreadPool(deathThreads, platformThreadFactory("nanopay-death"))),
+                new MonitoredExecutorService("nanopay-storage",
+                        Executors.newFixedThreadPool(storageThreads, platformThreadFactory("nanopay-storage"))),
+                new MonitoredScheduledExecutorService("nanopay-scheduler", scheduledThreads,
+                        platformThreadFactory("nanopay-scheduler")),
+                //a thread is only busy whilst a subscriber has events waiting, so threads are created as needed
+                cachedExecutor("nanopay-event"),
+                false);
+    }
+
+    /**
+     * Runs every task on its own virtual thread, so blocking RPC and storage calls don't tie up platform threads and
+     * tasks are never queued behind each other. Scheduled tasks are run by a single virtual thread, which only waits
+     * for tasks to become due. If the JVM doesn't support virtual threads, a cached pool of platform threads is used
+     * instead (see {@link #isVirtualThreadSupported()}).
+     */
+    public static ExecutionModel virtualThreads() {
+        if (!isVirtualThreadSupported()) {
+            NanoPay.LOGGER.warn("Virtual threads aren't supported by this JVM, using a cached thread pool instead");
+            return new ExecutionModel(
+                    cachedExecutor("nanopay-request"),
+                    cachedExecutor("nanopay-websocket-event"),
+                    cachedExecutor("nanopay-death"),
+                    cachedExecutor("nanopay-storage"),
+                    new MonitoredScheduledExecutorService("nanopay-scheduler", DEFAULT_SCHEDULED_THREADS,
+                            platformThreadFactory("nanopay-scheduler")),
+                    cachedExecutor("nanopay-event"),
+                    false);
+        }
+        return new ExecutionModel(
+                virtualExecutor("nanopay-request"),
+                virtualExecutor("nanopay-websocket-event"),
+                virtualExecutor("nanopay-death"),
+                virtualExecutor("nanopay-storage"),
+                new MonitoredScheduledExecutorService("nanopay-scheduler", DEFAULT_SCHEDULED_THREADS,
+                        virtualThreadFactory("nanopay-scheduler")),
+                virtualExecutor("nanopay-event"),
+                true);
+    }
+
+    /**
+     * @return boolean denoting whether the JVM supports virtual threads (Java 21 onwards)
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    public MonitoredExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public MonitoredExecutor getWebSocketExecutor() {
+        return webSocketExecutor;
+    }
+
+    public MonitoredExecutor getDeathExecutor() {
+        return deathExecutor;
+    }
+
+    public MonitoredExecutor getStorageExecutor() {
+        return storageExecutor;
+    }
+
+    public MonitoredScheduledExecutorService getScheduledExecutor() {
+        return scheduledExecutor;
+    }
+
+    public MonitoredExecutor getEventExecutor() {
+        return eventExecutor;
+    }
+
+    /**
+     * @return all executors of the model, e.g. for registering their queue depths as gauges
+     */
+    public List<MonitoredExecutor> getExecutors() {
+        return List.of(requestExecutor, webSocketExecutor, deathExecutor, storageExecutor, scheduledExecutor, eventExecutor);
+    }
+
+    /**
+     * @return boolean denoting whether tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Shuts down all executors, letting tasks which have already been submitted finish. Scheduled tasks which aren't
+     * yet due (e.g. wallet expiries) are discarded.
+     */
+    @Override
+    public void close() {
+        getExecutors().forEach(MonitoredExecutor::shutdown);
+    }
+
+    private static MonitoredExecutorService cachedExecutor(String name) {
+        return new MonitoredExecutorService(name, Executors.newCachedThreadPool(platformThreadFactory(name)));
+    }
+
+    private static MonitoredExecutorService virtualExecutor(String name) {
+        return new MonitoredExecutorService(name, new ThreadPerTaskExecutorService(virtualThreadFactory(name)));
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return {@code Thread.ofVirtual().name(name + "-", 1).factory()}
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            //JVMs with virtual threads as a preview feature throw here unless preview features are enabled
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a blocking task on an executor, completing a {@link CompletableFuture} with its result. Tasks whose future is
+ * completed before they start, i.e. it is cancelled or times out whilst queued, aren't run at all.
+ * <p>
+ * If the future is completed whilst a task started with {@link #supply(Callable, Executor, Duration)} is running, the
+ * thread running the task is interrupted, so a read-only task stops waiting on the node. An interrupt fails every
+ * later RPC request and may fail storage writes of the task, so tasks which change state must be started with
+ * {@link #supplyUninterruptibly(Callable, Executor, Duration)} - they run to completion, with only their future
+ * being completed early.
+ * @param <T> type of the task's result
+ */
+public final class InterruptibleTask<T> implements Runnable {
+
+    private final Callable<T> task;
+    private final boolean interruptible;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    //guarded by this, only interrupted whilst the task is running
+    private Thread runner;
+
+    private InterruptibleTask(Callable<T> task, boolean interruptible) {
+        this.task = task;
+        this.interruptible = interruptible;
+        if (interruptible) future.whenComplete((result, throwable) -> interruptRunner());
+    }
+
+    /**
+     * @param task blocking task to run
+     * @param executor executor to run the task on
+     * @param timeout maximum time for the task to complete (including time queued on the executor), after which the
+     *                future completes with a {@link java.util.concurrent.TimeoutException}, null for no timeout
+     * @return future completed with the result of the task, or the exception it threw
+     */
+    public static <T> CompletableFuture<T> supply(Callable<T> task, Executor executor, Duration timeout) {
+        return start(new InterruptibleTask<>(task, true), executor, timeout);
+    }
+
+    /**
+     * Variant of {@link #supply(Callable, Executor, Duration)} which never interrupts the task once it has started.
+     * If the future is cancelled or times out, the task still runs to completion but its result is discarded.
+     */
+    public static <T> CompletableFuture<T> supplyUninterruptibly(Callable<T> task, Executor executor,
+                                                                 Duration timeout) {
+        return start(new InterruptibleTask<>(task, false), executor, timeout);
+    }
+
+    private static <T> CompletableFuture<T> start(InterruptibleTask<T> interruptibleTask, Executor executor,
+                                                  Duration timeout) {
+        if (timeout != null) interruptibleTask.future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        try {
+            executor.execute(interruptibleTask);
+        } catch (RejectedExecutionException e) {
+            interruptibleTask.future.completeExceptionally(e);
+        }
+        return interruptibleTask.future;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (future.isDone()) return;
+            runner = Thread.currentThread();
+        }
+        try {
+            future.complete(task.call());
+        } catch (Throwable throwable) {
+            future.completeExceptionally(throwable);
+        } finally {
+            synchronized (this) {
+                runner = null;
+            }
+            //clear an interrupt which arrived as the task finished, so it doesn't leak into the executor's next task
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized void interruptRunner() {
+        if (runner != null && runner != Thread.currentThread()) runner.interrupt();
+    }
+
+}
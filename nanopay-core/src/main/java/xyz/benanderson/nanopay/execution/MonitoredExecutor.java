@@ -0,0 +1,25 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link ExecutorService} supplied by an {@link ExecutionModel}, exposing how much work is waiting and running.
+ */
+public interface MonitoredExecutor extends ExecutorService {
+
+    /**
+     * @return name of the executor, also the prefix of its thread names (e.g. {@code nanopay-death})
+     */
+    String getName();
+
+    /**
+     * @return amount of tasks submitted but not yet started, including scheduled tasks which aren't yet due
+     */
+    int getQueueDepth();
+
+    /**
+     * @return amount of tasks currently running
+     */
+    int getActiveCount();
+
+}
@@ -0,0 +1,90 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps another {@link ExecutorService}, counting the tasks waiting for and running on it. Counting is done by
+ * wrapping each task, so it works for executors without a queue to inspect (e.g. a thread per task).
+ */
+public final class MonitoredExecutorService extends AbstractExecutorService implements MonitoredExecutor {
+
+    private final String name;
+    private final ExecutorService executorService;
+    private final AtomicInteger queueDepth = new AtomicInteger(), activeCount = new AtomicInteger();
+
+    /**
+     * @param name name of the executor, reported by {@link #getName()}
+     * @param executorService executor the tasks are run on, which is shut down with this executor
+     */
+    public MonitoredExecutorService(String name, ExecutorService executorService) {
+        this.name = name;
+        this.executorService = executorService;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queueDepth.incrementAndGet();
+        try {
+            executorService.execute(() -> {
+                queueDepth.decrementAndGet();
+                activeCount.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queueDepth.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    @Override
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pendingTasks = executorService.shutdownNow();
+        queueDepth.addAndGet(-pendingTasks.size());
+        return pendingTasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+}
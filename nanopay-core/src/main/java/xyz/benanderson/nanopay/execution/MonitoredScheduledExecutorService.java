@@ -0,0 +1,37 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link ScheduledThreadPoolExecutor} which removes cancelled tasks from its queue straight away, so that the
+ * queue depth only counts tasks which will still run (e.g. the expiry tasks of wallets which haven't been paid).
+ * Delayed tasks which aren't yet due are discarded on shutdown, rather than being run after NanoPay has stopped.
+ */
+public final class MonitoredScheduledExecutorService extends ScheduledThreadPoolExecutor implements MonitoredExecutor {
+
+    private final String name;
+
+    /**
+     * @param name name of the executor, reported by {@link #getName()}
+     * @param threads amount of threads running due tasks
+     * @param threadFactory creates the executor's threads
+     */
+    public MonitoredScheduledExecutorService(String name, int threads, ThreadFactory threadFactory) {
+        super(threads, threadFactory);
+        this.name = name;
+        setRemoveOnCancelPolicy(true);
+        setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+}
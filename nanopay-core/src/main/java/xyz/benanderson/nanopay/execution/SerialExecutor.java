@@ -0,0 +1,53 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another (possibly shared and multi-threaded)
+ * executor. This lets e.g. each {@link xyz.benanderson.nanopay.storage.CacheWrappedWalletStorage} mirror writes to
+ * its backing storage in order, whilst sharing the storage executor of an {@link ExecutionModel}.
+ */
+public final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    //guarded by itself
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (tasks) {
+            tasks.add(() -> {
+                try {
+                    command.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        synchronized (tasks) {
+            active = tasks.poll();
+            if (active == null) return;
+            try {
+                executor.execute(active);
+            } catch (RejectedExecutionException e) {
+                //the underlying executor has been shut down, so the remaining tasks are dropped
+                tasks.clear();
+                active = null;
+                throw e;
+            }
+        }
+    }
+
+}
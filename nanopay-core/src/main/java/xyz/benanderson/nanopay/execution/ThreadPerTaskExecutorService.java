@@ -0,0 +1,92 @@
+package xyz.benanderson.nanopay.execution;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a new thread for every task, intended for virtual threads which are cheap to create and to block. Tasks are
+ * never queued, so tasks blocked on I/O don't hold up the tasks behind them.
+ */
+final class ThreadPerTaskExecutorService extends AbstractExecutorService {
+
+    private final ThreadFactory threadFactory;
+    //guarded by itself, notified when the last thread finishes after shutdown
+    private final Set<Thread> threads = new HashSet<>();
+    private boolean shutdown;
+
+    ThreadPerTaskExecutorService(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (threads) {
+            if (shutdown) throw new RejectedExecutionException("Executor has been shut down");
+            Thread thread = threadFactory.newThread(() -> {
+                try {
+                    command.run();
+                } finally {
+                    synchronized (threads) {
+                        threads.remove(Thread.currentThread());
+                        if (threads.isEmpty()) threads.notifyAll();
+                    }
+                }
+            });
+            if (thread == null) throw new RejectedExecutionException("Thread factory didn't create a thread");
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (threads) {
+            shutdown = true;
+        }
+    }
+
+    /**
+     * Interrupts the running tasks. As tasks are never queued, no tasks are returned.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized (threads) {
+            shutdown = true;
+            threads.forEach(Thread::interrupt);
+        }
+        return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (threads) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (threads) {
+            return shutdown && threads.isEmpty();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (threads) {
+            while (!(shutdown && threads.isEmpty())) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(threads, remaining);
+            }
+            return true;
+        }
+    }
+
+}
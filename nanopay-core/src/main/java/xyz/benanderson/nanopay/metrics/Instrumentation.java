@@ -0,0 +1,60 @@
+package xyz.benanderson.nanopay.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives counters, timers and gauges from NanoPay, to be forwarded to a metrics library. All methods do nothing by
+ * default, so implementations only override what they record. Metric names are listed in {@link MetricNames}.
+ * Implementations must be thread-safe and should not block, as they are called on NanoPay's hot paths.
+ */
+public interface Instrumentation {
+
+    /**
+     * Records nothing. Timers started against it don't read the clock, so instrumented code costs no more than a
+     * virtual call when instrumentation isn't enabled.
+     */
+    Instrumentation NOOP = new Instrumentation() {
+        @Override
+        public long startTimer() {
+            return 0;
+        }
+
+        @Override
+        public void stopTimer(String name, long startTime) {}
+    };
+
+    default void incrementCounter(String name) {
+        incrementCounter(name, 1);
+    }
+
+    default void incrementCounter(String name, long amount) {}
+
+    /**
+     * @param name name of the timer
+     * @param durationNanos duration of the timed call in nanoseconds
+     */
+    default void recordTime(String name, long durationNanos) {}
+
+    /**
+     * Registers a gauge, which is read whenever the metrics library samples it.
+     * @param name name of the gauge
+     * @param gauge supplies the current value of the gauge
+     */
+    default void registerGauge(String name, LongSupplier gauge) {}
+
+    /**
+     * @return start time to pass to {@link #stopTimer(String, long)}
+     */
+    default long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since {@code startTime} against the timer {@code name}.
+     * @param startTime time returned by {@link #startTimer()}
+     */
+    default void stopTimer(String name, long startTime) {
+        recordTime(name, System.nanoTime() - startTime);
+    }
+
+}
@@ -0,0 +1,72 @@
+package xyz.benanderson.nanopay.metrics;
+
+/**
+ * Names of the counters, timers and gauges reported to {@link Instrumentation}.
+ */
+public final class MetricNames {
+
+    /**
+     * Counter of payments requested.
+     */
+    public static final String PAYMENTS_REQUESTED = "nanopay.payment.requested";
+    /**
+     * Timer of creating and storing the wallets for a payment request (or a batch of payment requests).
+     */
+    public static final String PAYMENT_REQUEST = "nanopay.payment.request";
+    /**
+     * Counters of payments completed and failed (expired or cancelled).
+     */
+    public static final String PAYMENTS_SUCCEEDED = "nanopay.payment.succeeded",
+            PAYMENTS_FAILED = "nanopay.payment.failed";
+    /**
+     * Counter of payment events dropped as a subscriber's buffer was full, and gauge of the most events buffered for
+     * any one subscriber.
+     */
+    public static final String PAYMENT_EVENTS_DROPPED = "nanopay.payment_events.dropped",
+            PAYMENT_EVENTS_BUFFERED = "nanopay.payment_events.buffered";
+    /**
+     * Timer from the first WebSocket confirmation of a transaction to a wallet, to the wallet's success callback.
+     */
+    public static final String PAYMENT_DETECTION = "nanopay.payment.detection";
+
+    /**
+     * Timers of checking a wallet's balance over RPC, and of killing a wallet (including its death handler).
+     */
+    public static final String WALLET_CHECK = "nanopay.wallet.check", WALLET_KILL = "nanopay.wallet.kill";
+    /**
+     * Timers of each step of the default wallet death handler.
+     */
+    public static final String DEATH_HANDLE = "nanopay.death.handle",
+            DEATH_SEND_TO_STORAGE = "nanopay.death.send_to_storage",
+            DEATH_REFUND_EXTRA = "nanopay.death.refund_extra",
+            DEATH_REFUND_ALL = "nanopay.death.refund_all",
+            DEATH_CALLBACK = "nanopay.death.callback";
+
+    /**
+     * Prefix of the timers of each wallet storage call, followed by the storage type and the method name (e.g.
+     * {@code nanopay.storage.active.saveWallet}).
+     */
+    public static final String STORAGE_PREFIX = "nanopay.storage.";
+    /**
+     * Prefix of the timers of each RPC request, followed by the RPC action (e.g. {@code nanopay.rpc.account_info}).
+     * Failed requests are also counted by a counter with the {@link #ERROR_SUFFIX}.
+     */
+    public static final String RPC_PREFIX = "nanopay.rpc.";
+    public static final String ERROR_SUFFIX = ".error";
+
+    /**
+     * Gauges of the amount of active and dead wallets, and of wallet checks waiting to be run.
+     */
+    public static final String ACTIVE_WALLETS = "nanopay.wallets.active", DEAD_WALLETS = "nanopay.wallets.dead",
+            WALLET_CHECK_QUEUE_DEPTH = "nanopay.wallet_check.queue_depth";
+    /**
+     * Prefix and suffixes of the gauges of each executor of the
+     * {@link xyz.benanderson.nanopay.execution.ExecutionModel}, e.g. {@code nanopay.executor.nanopay-death.queue_depth}
+     * is the amount of wallet deaths waiting to be handled.
+     */
+    public static final String EXECUTOR_PREFIX = "nanopay.executor.", QUEUE_DEPTH_SUFFIX = ".queue_depth",
+            ACTIVE_SUFFIX = ".active";
+
+    private MetricNames() {}
+
+}
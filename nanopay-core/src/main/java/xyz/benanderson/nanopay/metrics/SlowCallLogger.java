@@ -0,0 +1,70 @@
+package xyz.benanderson.nanopay.metrics;
+
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps another {@link Instrumentation}, logging a warning whenever a timed call takes longer than its threshold.
+ * Thresholds are looked up by timer name, then by each of its parent names (e.g. {@code nanopay.rpc.account_info},
+ * then {@code nanopay.rpc}, then {@code nanopay}), falling back to the default threshold.
+ */
+public final class SlowCallLogger implements Instrumentation {
+
+    private final Instrumentation instrumentation;
+    private final Map<String, Long> thresholdNanos;
+    private final long defaultThresholdNanos;
+
+    /**
+     * @param instrumentation instrumentation to forward all metrics to
+     * @param defaultThreshold threshold of timers without their own threshold, or null to only log timers which have
+     *                         their own threshold
+     * @param thresholds thresholds keyed by timer name, or by a parent name to cover all timers below it
+     */
+    public SlowCallLogger(Instrumentation instrumentation, Duration defaultThreshold, Map<String, Duration> thresholds) {
+        this.instrumentation = instrumentation;
+        this.defaultThresholdNanos = defaultThreshold == null ? Long.MAX_VALUE : defaultThreshold.toNanos();
+        this.thresholdNanos = thresholds.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().toNanos()));
+    }
+
+    @Override
+    public void incrementCounter(String name, long amount) {
+        instrumentation.incrementCounter(name, amount);
+    }
+
+    @Override
+    public void recordTime(String name, long durationNanos) {
+        instrumentation.recordTime(name, durationNanos);
+        long threshold = getThresholdNanos(name);
+        if (durationNanos > threshold) {
+            NanoPay.LOGGER.warn("Slow call: " + name + " took " + Duration.ofNanos(durationNanos).toMillis()
+                    + "ms (threshold " + Duration.ofNanos(threshold).toMillis() + "ms)");
+        }
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        instrumentation.registerGauge(name, gauge);
+    }
+
+    /**
+     * @return the threshold after which a call to the timer {@code name} is logged, or {@link Long#MAX_VALUE} if it
+     * is never logged
+     */
+    long getThresholdNanos(String name) {
+        String key = name;
+        while (!thresholdNanos.isEmpty()) {
+            Long threshold = thresholdNanos.get(key);
+            if (threshold != null) return threshold;
+            int separator = key.lastIndexOf('.');
+            if (separator < 0) break;
+            key = key.substring(0, separator);
+        }
+        return defaultThresholdNanos;
+    }
+
+}
@@ -0,0 +1,217 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps another RPC transport, caching the state of each account (frontier, balance, representative and receivable
+ * balance) returned by {@code account_info} and {@code account_balance} requests. Each check of a wallet otherwise
+ * fetches the same state from the node again. Cached state is updated from the blocks published through this transport
+ * with {@code process}, and must be invalidated when a confirmation for the account is seen, as funds may have been
+ * sent to it. Entries expire after a short time to bound staleness for accounts which aren't watched, and the least
+ * recently used accounts are evicted first.
+ */
+public final class CachingRpcTransport implements RpcRequestExecutor {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofSeconds(10);
+    private static final Set<String> CACHED_ACTIONS = Set.of("account_info", "account_balance");
+
+    private final RpcRequestExecutor rpcTransport;
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final Map<String, AccountState> accountStates;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private long invalidations;
+
+    public CachingRpcTransport(RpcRequestExecutor rpcTransport, int capacity, Duration timeToLive) {
+        this(rpcTransport, capacity, timeToLive, Clock.systemUTC());
+    }
+
+    /**
+     * @param rpcTransport transport used to send requests which aren't cached
+     * @param capacity maximum amount of accounts whose state is cached
+     * @param timeToLive maximum time an account's state is cached for
+     * @param clock clock used to expire cached state
+     * @throws IllegalArgumentException if {@code capacity} is not positive.
+     */
+    public CachingRpcTransport(RpcRequestExecutor rpcTransport, int capacity, Duration timeToLive, Clock clock) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.rpcTransport = rpcTransport;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        this.accountStates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AccountState> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public String submit(URL address, String request) throws IOException {
+        JsonObject requestObject = parseObject(request);
+        String action = requestObject == null || !requestObject.has("action") ? null
+                : requestObject.get("action").getAsString();
+        if (action != null && CACHED_ACTIONS.contains(action) && requestObject.has("account")) {
+            return submitCached(address, requestObject.get("account").getAsString(), request);
+        }
+        String response = rpcTransport.submit(address, request);
+        if ("process".equals(action)) applyPublishedBlock(requestObject, response);
+        return response;
+    }
+
+    /**
+     * Discards the cached state of {@code account}, e.g. because a confirmation of a block sent to or from it was seen.
+     */
+    public void invalidate(String account) {
+        synchronized (accountStates) {
+            accountStates.remove(account);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Discards the cached state of all accounts, e.g. because confirmations may have been missed.
+     */
+    public void invalidateAll() {
+        synchronized (accountStates) {
+            accountStates.clear();
+            invalidations++;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return amount of accounts whose state is cached, including expired state which hasn't been evicted
+     */
+    public int getSize() {
+        synchronized (accountStates) {
+            return accountStates.size();
+        }
+    }
+
+    public RpcRequestExecutor getRpcTransport() {
+        return rpcTransport;
+    }
+
+    private String submitCached(URL address, String account, String request) throws IOException {
+        long invalidationsBeforeRequest;
+        synchronized (accountStates) {
+            invalidationsBeforeRequest = invalidations;
+            AccountState accountState = accountStates.get(account);
+            if (accountState != null && accountState.expiry.isAfter(clock.instant())) {
+                JsonObject cachedResponse = accountState.responses.get(request);
+                if (cachedResponse != null) {
+                    hits.increment();
+                    return cachedResponse.toString();
+                }
+            }
+        }
+        misses.increment();
+        String response = rpcTransport.submit(address, request);
+        JsonObject responseObject = parseObject(response);
+        //errors (e.g. an unopened account) aren't cached, as they say nothing about the account's state
+        if (responseObject == null || responseObject.has("error")) return response;
+        synchronized (accountStates) {
+            //the response may predate a confirmation seen whilst it was requested
+            if (invalidations != invalidationsBeforeRequest) return response;
+            AccountState accountState = accountStates.get(account);
+            if (accountState == null || !accountState.expiry.isAfter(clock.instant())) {
+                accountState = new AccountState(clock.instant().plus(timeToLive));
+                accountStates.put(account, accountState);
+            }
+            accountState.responses.put(request, responseObject);
+        }
+        return response;
+    }
+
+    /**
+     * Updates the cached state of the account which published a block, rather than discarding it, so the next
+     * operation on the account (e.g. sending funds it just received) doesn't have to fetch it again.
+     */
+    private void applyPublishedBlock(JsonObject request, String response) {
+        JsonObject responseObject = parseObject(response);
+        if (responseObject == null || !responseObject.has("hash") || !request.has("block")) return;
+        JsonElement blockElement = request.get("block");
+        JsonObject block = blockElement.isJsonObject() ? blockElement.getAsJsonObject()
+                : parseObject(blockElement.getAsString());
+        if (block == null || !block.has("account") || !block.has("balance")) return;
+        String account = block.get("account").getAsString();
+        synchronized (accountStates) {
+            AccountState accountState = accountStates.get(account);
+            if (accountState == null) return;
+            try {
+                BigInteger newBalance = new BigInteger(block.get("balance").getAsString());
+                accountState.responses.values().forEach(cachedResponse -> applyBlock(cachedResponse, block,
+                        responseObject.get("hash").getAsString(), newBalance));
+            } catch (RuntimeException e) {
+                //the block couldn't be applied, so the state is re-fetched instead
+                accountStates.remove(account);
+            }
+        }
+    }
+
+    private static void applyBlock(JsonObject cachedResponse, JsonObject block, String hash, BigInteger newBalance) {
+        if (cachedResponse.has("balance")) {
+            BigInteger received = newBalance.subtract(new BigInteger(cachedResponse.get("balance").getAsString()));
+            //a receive block moves funds from the receivable balance into the balance
+            for (String receivableField : new String[] {"receivable", "pending"}) {
+                if (received.signum() > 0 && cachedResponse.has(receivableField)) {
+                    BigInteger receivable = new BigInteger(cachedResponse.get(receivableField).getAsString());
+                    cachedResponse.addProperty(receivableField, receivable.subtract(received).max(BigInteger.ZERO).toString());
+                }
+            }
+            cachedResponse.addProperty("balance", newBalance.toString());
+        }
+        if (cachedResponse.has("frontier")) cachedResponse.addProperty("frontier", hash);
+        if (cachedResponse.has("representative") && block.has("representative"))
+            cachedResponse.add("representative", block.get("representative"));
+        if (cachedResponse.has("block_count"))
+            cachedResponse.addProperty("block_count", String.valueOf(cachedResponse.get("block_count").getAsLong() + 1));
+    }
+
+    private static JsonObject parseObject(String json) {
+        try {
+            JsonElement element = JsonParser.parseString(json);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static final class AccountState {
+
+        private final Instant expiry;
+        //cached responses keyed by request, as requests for the same account may include different options
+        private final Map<String, JsonObject> responses = new HashMap<>();
+
+        private AccountState(Instant expiry) {
+            this.expiry = expiry;
+        }
+
+    }
+
+}
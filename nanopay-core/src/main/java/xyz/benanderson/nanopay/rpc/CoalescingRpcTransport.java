@@ -0,0 +1,227 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps another RPC transport, coalescing {@code account_balance} requests which arrive within a short window into a
+ * single {@code accounts_balances} request. Each caller still receives the response to its own request, taken from
+ * the batched response. Requests for other actions, and balance requests with options, are passed straight through.
+ * If the batched request fails, or its response is missing an account, the affected requests are sent individually.
+ * Closing the transport stops its threads and fails the requests waiting for their batch to be sent, but not the
+ * wrapped transport.
+ */
+public final class CoalescingRpcTransport implements RpcRequestExecutor, AutoCloseable {
+
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(5);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final RpcRequestExecutor rpcTransport;
+    private final Duration window;
+    private final int maxBatchSize;
+    //keyed by the address' string form, as URL equality resolves hosts
+    private final Map<String, Batch> pendingBatches = new HashMap<>();
+    private final ScheduledExecutorService flushService;
+    private final ExecutorService batchService;
+    private final LongAdder coalescedRequests = new LongAdder(), batchesSent = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param rpcTransport transport used to send batched and passed through requests
+     * @param window time to wait for further requests after the first request of a batch arrives
+     * @param maxBatchSize maximum amount of requests in a batch, a full batch is sent without waiting for the window
+     * @throws IllegalArgumentException if {@code maxBatchSize} is not positive.
+     */
+    public CoalescingRpcTransport(RpcRequestExecutor rpcTransport, Duration window, int maxBatchSize) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("Max batch size must be positive");
+        this.rpcTransport = rpcTransport;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.flushService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-rpc-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        this.batchService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-rpc-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String submit(URL address, String request) throws IOException {
+        if (closed) throw new IOException("RPC transport is closed");
+        String account = parseCoalescableAccount(request);
+        if (account == null) return rpcTransport.submit(address, request);
+        CompletableFuture<String> response = new CompletableFuture<>();
+        Batch fullBatch = null;
+        synchronized (pendingBatches) {
+            if (closed) throw new IOException("RPC transport is closed");
+            Batch batch = pendingBatches.get(address.toExternalForm());
+            if (batch == null) {
+                Batch newBatch = new Batch(address);
+                pendingBatches.put(address.toExternalForm(), newBatch);
+                flushService.schedule(() -> batchService.execute(() -> flush(newBatch)),
+                        window.toNanos(), TimeUnit.NANOSECONDS);
+                batch = newBatch;
+            }
+            batch.requests.add(new PendingRequest(account, request, response));
+            if (batch.requests.size() >= maxBatchSize) {
+                pendingBatches.remove(address.toExternalForm());
+                fullBatch = batch;
+            }
+        }
+        //a full batch is sent on the thread which filled it, as it has to wait for the response anyway
+        if (fullBatch != null) send(fullBatch);
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for coalesced RPC response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException("Coalesced RPC request failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return amount of requests which were sent as part of a batch
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    /**
+     * @return amount of batched requests sent
+     */
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    public RpcRequestExecutor getRpcTransport() {
+        return rpcTransport;
+    }
+
+    /**
+     * Stops the threads sending batches, failing the requests in batches which haven't been sent. Batches already
+     * being sent are left to finish.
+     */
+    @Override
+    public void close() {
+        List<Batch> unsentBatches;
+        synchronized (pendingBatches) {
+            closed = true;
+            unsentBatches = List.copyOf(pendingBatches.values());
+            pendingBatches.clear();
+        }
+        IOException closedException = new IOException("RPC transport is closed");
+        unsentBatches.forEach(batch -> batch.requests
+                .forEach(request -> request.response().completeExceptionally(closedException)));
+        flushService.shutdownNow();
+        batchService.shutdownNow();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pendingBatches) {
+            //the batch may already have been sent when it filled up
+            if (!pendingBatches.remove(batch.address.toExternalForm(), batch)) return;
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        List<PendingRequest> requests = batch.requests;
+        if (requests.size() == 1) {
+            sendIndividually(batch.address, requests.get(0));
+            return;
+        }
+        Set<String> accounts = new LinkedHashSet<>();
+        requests.forEach(request -> accounts.add(request.account()));
+        JsonObject batchRequest = new JsonObject();
+        batchRequest.addProperty("action", "accounts_balances");
+        JsonArray accountsArray = new JsonArray();
+        accounts.forEach(accountsArray::add);
+        batchRequest.add("accounts", accountsArray);
+        JsonObject balances = null;
+        try {
+            JsonObject batchResponse = JsonParser.parseString(rpcTransport.submit(batch.address, batchRequest.toString()))
+                    .getAsJsonObject();
+            batchesSent.increment();
+            if (batchResponse.has("balances")) balances = batchResponse.getAsJsonObject("balances");
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            NanoPay.LOGGER.warn("Batched balance request for " + accounts.size() + " accounts failed, "
+                    + "sending requests individually", e);
+        }
+        for (PendingRequest request : requests) {
+            JsonElement balance = balances == null ? null : balances.get(request.account());
+            if (balance != null && balance.isJsonObject()) {
+                coalescedRequests.increment();
+                request.response().complete(balance.toString());
+            } else {
+                sendIndividually(batch.address, request);
+            }
+        }
+    }
+
+    private void sendIndividually(URL address, PendingRequest request) {
+        try {
+            request.response().complete(rpcTransport.submit(address, request.request()));
+        } catch (IOException | RuntimeException e) {
+            request.response().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the account of a plain {@code account_balance} request, or null if the request can't be coalesced
+     */
+    static String parseCoalescableAccount(String request) {
+        if (!request.contains("account_balance")) return null;
+        try {
+            JsonObject requestObject = JsonParser.parseString(request).getAsJsonObject();
+            if (requestObject.size() != 2 || !requestObject.has("action") || !requestObject.has("account")) return null;
+            if (!requestObject.get("action").getAsString().equals("account_balance")) return null;
+            return requestObject.get("account").getAsString();
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private record PendingRequest(String account, String request, CompletableFuture<String> response) {}
+
+    private static final class Batch {
+
+        private final URL address;
+        private final List<PendingRequest> requests = new ArrayList<>();
+
+        private Batch(URL address) {
+            this.address = address;
+        }
+
+    }
+
+}
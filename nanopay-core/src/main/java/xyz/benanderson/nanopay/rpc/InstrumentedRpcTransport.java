@@ -0,0 +1,48 @@
+package xyz.benanderson.nanopay.rpc;
+
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps another RPC transport, timing each request by its RPC action (e.g. {@code nanopay.rpc.account_info}) and
+ * counting requests whose transport failed. As the outermost transport, it measures the latency NanoPay sees,
+ * including requests answered by a cache or coalesced into a batch.
+ */
+public final class InstrumentedRpcTransport implements RpcRequestExecutor {
+
+    private final RpcRequestExecutor rpcTransport;
+    private final Instrumentation instrumentation;
+    //metric names are built once per action, rather than concatenated on every request
+    private final Map<String, String> timerNames = new ConcurrentHashMap<>();
+
+    public InstrumentedRpcTransport(RpcRequestExecutor rpcTransport, Instrumentation instrumentation) {
+        this.rpcTransport = rpcTransport;
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public String submit(URL address, String request) throws IOException {
+        String timerName = timerNames.computeIfAbsent(PooledRpcTransport.parseAction(request),
+                action -> MetricNames.RPC_PREFIX + action);
+        long startTime = instrumentation.startTimer();
+        try {
+            return rpcTransport.submit(address, request);
+        } catch (IOException e) {
+            instrumentation.incrementCounter(timerName + MetricNames.ERROR_SUFFIX);
+            throw e;
+        } finally {
+            instrumentation.stopTimer(timerName, startTime);
+        }
+    }
+
+    public RpcRequestExecutor getRpcTransport() {
+        return rpcTransport;
+    }
+
+}
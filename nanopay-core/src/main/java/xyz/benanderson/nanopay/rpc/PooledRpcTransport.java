@@ -0,0 +1,149 @@
+package xyz.benanderson.nanopay.rpc;
+
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transport for RPC requests which reuses keep-alive connections to the node from a shared {@link HttpClient}, rather
+ * than opening a connection per request. Requests are bounded by connect and request timeouts, and by a maximum
+ * amount of requests in flight at once. The latency of each request is recorded in a histogram per RPC action
+ * (e.g. {@code account_info}, {@code work_generate}, {@code process}). Closing the transport stops the threads of its
+ * {@link HttpClient}.
+ */
+public final class PooledRpcTransport implements RpcRequestExecutor, AutoCloseable {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5),
+            DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    //error responses are included in exception messages, so are truncated in case the node returns a large page
+    private static final int MAX_ERROR_BODY_LENGTH = 512;
+    private static final Pattern ACTION_PATTERN = Pattern.compile("\"action\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final HttpClient httpClient;
+    private final ExecutorService httpExecutor;
+    private final Duration requestTimeout;
+    private final Semaphore inFlightPermits;
+    private final int maxInFlight;
+    private final Map<String, LatencyHistogram> latencyHistograms = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public PooledRpcTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param connectTimeout maximum time to wait for a connection to the node to be established
+     * @param requestTimeout maximum time to wait for a response, after which the request fails. Also bounds the time
+     *                       spent waiting for a request to be allowed in flight.
+     * @param maxInFlight maximum amount of requests sent to the node at once
+     * @throws IllegalArgumentException if {@code maxInFlight} is not positive.
+     */
+    public PooledRpcTransport(Duration connectTimeout, Duration requestTimeout, int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Max in flight must be positive");
+        this.requestTimeout = requestTimeout;
+        this.maxInFlight = maxInFlight;
+        this.inFlightPermits = new Semaphore(maxInFlight, true);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.httpExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-rpc-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .executor(httpExecutor)
+                .build();
+    }
+
+    @Override
+    public String submit(URL address, String request) throws IOException {
+        if (closed) throw new IOException("RPC transport is closed");
+        HttpRequest httpRequest;
+        try {
+            httpRequest = HttpRequest.newBuilder(address.toURI())
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(request, StandardCharsets.UTF_8))
+                    .build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid RPC address: " + address, e);
+        }
+        try {
+            if (!inFlightPermits.tryAcquire(requestTimeout.toNanos(), TimeUnit.NANOSECONDS))
+                throw new IOException("Timed out waiting for one of " + maxInFlight + " RPC requests in flight");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to send RPC request", e);
+        }
+        long startTime = System.nanoTime();
+        try {
+            HttpResponse<String> response = httpClient.send(httpRequest,
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() != 200)
+                throw new IOException("RPC request (" + parseAction(request) + ") to " + address
+                        + " failed with HTTP status " + response.statusCode() + ": " + truncate(response.body()));
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for RPC response", e);
+        } finally {
+            inFlightPermits.release();
+            latencyHistograms.computeIfAbsent(parseAction(request), action -> new LatencyHistogram())
+                    .record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * @return latency histograms keyed by RPC action, including failed requests
+     */
+    public Map<String, LatencyHistogram> getLatencyHistograms() {
+        return Collections.unmodifiableMap(latencyHistograms);
+    }
+
+    /**
+     * @return amount of requests currently sent to the node and awaiting a response
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+
+    /**
+     * Stops the threads of the transport's {@link HttpClient}, after which requests fail. Requests already in flight
+     * are left to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        httpExecutor.shutdown();
+    }
+
+    private static String truncate(String body) {
+        if (body == null || body.isEmpty()) return "(empty body)";
+        return body.length() <= MAX_ERROR_BODY_LENGTH ? body : body.substring(0, MAX_ERROR_BODY_LENGTH) + "...";
+    }
+
+    static String parseAction(String request) {
+        Matcher matcher = ACTION_PATTERN.matcher(request);
+        return matcher.find() ? matcher.group(1) : "unknown";
+    }
+
+}
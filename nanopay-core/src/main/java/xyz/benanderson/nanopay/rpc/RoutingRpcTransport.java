@@ -0,0 +1,267 @@
+package xyz.benanderson.nanopay.rpc;
+
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps another RPC transport, routing each request to one of several nodes rather than the address it was submitted
+ * to. Nodes are ranked by an exponentially weighted moving average of their latency, penalised by their recent error
+ * rate. Read-only requests may be hedged: if the fastest node hasn't answered within a percentile of its observed
+ * latency, the request is also sent to the next node and the first answer is used. Other requests (e.g. publishing
+ * blocks with {@code process}, or {@code work_generate}) are never hedged. They fail over to the next node only when
+ * the transport fails, which is safe as re-publishing a block or regenerating work for it has no further effect.
+ * Closing the router stops the threads sending hedged requests, but not the wrapped transport.
+ */
+public final class RoutingRpcTransport implements RpcRequestExecutor, AutoCloseable {
+
+    public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final long ERROR_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int EXPLORATION_INTERVAL = 20, MIN_HEDGE_SAMPLES = 20;
+    private static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(5), DEFAULT_HEDGE_DELAY = Duration.ofMillis(250);
+    private static final Set<String> READ_ACTIONS = Set.of("account_info", "account_balance", "accounts_balances",
+            "account_history", "account_representative", "accounts_frontiers", "accounts_pending",
+            "accounts_receivable", "block_info", "blocks_info", "block_count", "pending", "receivable",
+            "version", "telemetry", "active_difficulty");
+
+    private final List<Endpoint> endpoints;
+    private final RpcRequestExecutor rpcTransport;
+    private final double hedgePercentile;
+    private final ExecutorService hedgeService;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final LongAdder hedgedRequests = new LongAdder(), failovers = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a router which doesn't hedge requests.
+     */
+    public RoutingRpcTransport(List<URL> addresses, RpcRequestExecutor rpcTransport) {
+        this(addresses, rpcTransport, 0);
+    }
+
+    /**
+     * @param addresses RPC addresses of the nodes to route requests between
+     * @param rpcTransport transport used to send requests to each node
+     * @param hedgePercentile percentile (between 0 and 100) of the fastest node's latency after which read-only
+     *                        requests are also sent to the next node, or 0 to disable hedging
+     * @throws IllegalArgumentException if {@code addresses} is empty or {@code hedgePercentile} is out of range.
+     */
+    public RoutingRpcTransport(List<URL> addresses, RpcRequestExecutor rpcTransport, double hedgePercentile) {
+        if (addresses.isEmpty()) throw new IllegalArgumentException("At least one RPC address is required");
+        if (hedgePercentile < 0 || hedgePercentile > 100)
+            throw new IllegalArgumentException("Hedge percentile must be between 0 and 100");
+        this.endpoints = addresses.stream().map(Endpoint::new).toList();
+        this.rpcTransport = rpcTransport;
+        this.hedgePercentile = hedgePercentile;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.hedgeService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-rpc-hedge-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String submit(URL address, String request) throws IOException {
+        if (closed) throw new IOException("RPC transport is closed");
+        List<Endpoint> rankedEndpoints = rankEndpoints();
+        boolean readOnly = READ_ACTIONS.contains(PooledRpcTransport.parseAction(request));
+        if (readOnly && hedgePercentile > 0 && rankedEndpoints.size() > 1) {
+            return submitHedged(rankedEndpoints.get(0), rankedEndpoints.get(1), request);
+        }
+        return submitWithFailover(rankedEndpoints, request);
+    }
+
+    /**
+     * @return the routing statistics of each node, in the order their addresses were given
+     */
+    public List<EndpointStats> getEndpointStats() {
+        return endpoints.stream().map(Endpoint::getStats).toList();
+    }
+
+    /**
+     * @return amount of read-only requests which were also sent to a second node
+     */
+    public long getHedgedRequests() {
+        return hedgedRequests.sum();
+    }
+
+    /**
+     * @return amount of times a request was retried on another node after the transport failed
+     */
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    /**
+     * Stops the threads sending hedged requests, after which requests fail. Hedged requests waiting on them are
+     * interrupted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        hedgeService.shutdownNow();
+    }
+
+    private List<Endpoint> rankEndpoints() {
+        List<Endpoint> rankedEndpoints = new ArrayList<>(endpoints);
+        rankedEndpoints.sort(Comparator.comparingDouble(Endpoint::getScore));
+        //periodically route to another node first, so the statistics of slower (or recovering) nodes stay current
+        if (rankedEndpoints.size() > 1 && requestCount.incrementAndGet() % EXPLORATION_INTERVAL == 0) {
+            Endpoint explored = rankedEndpoints.remove(ThreadLocalRandom.current().nextInt(1, rankedEndpoints.size()));
+            rankedEndpoints.add(0, explored);
+        }
+        return rankedEndpoints;
+    }
+
+    private String submitWithFailover(List<Endpoint> rankedEndpoints, String request) throws IOException {
+        IOException lastException = null;
+        for (Endpoint endpoint : rankedEndpoints) {
+            if (lastException != null) failovers.increment();
+            try {
+                return endpoint.submit(request);
+            } catch (IOException e) {
+                NanoPay.LOGGER.warn("RPC request to " + endpoint.address + " failed", e);
+                lastException = e;
+            }
+        }
+        throw lastException;
+    }
+
+    private String submitHedged(Endpoint primary, Endpoint secondary, String request) throws IOException {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicInteger pendingAttempts = new AtomicInteger(2);
+        AtomicBoolean secondaryStarted = new AtomicBoolean();
+        Runnable startSecondary = () -> {
+            if (secondaryStarted.compareAndSet(false, true))
+                startAttempt(secondary, request, response, pendingAttempts, null);
+        };
+        //if the primary fails before the hedge delay, the secondary is started straight away
+        startAttempt(primary, request, response, pendingAttempts, startSecondary);
+        try {
+            return response.get(primary.getHedgeDelay(hedgePercentile).toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            hedgedRequests.increment();
+            startSecondary.run();
+            return awaitResponse(response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for RPC response", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private void startAttempt(Endpoint endpoint, String request, CompletableFuture<String> response,
+                              AtomicInteger pendingAttempts, Runnable onFailure) {
+        try {
+            hedgeService.execute(() -> {
+                try {
+                    response.complete(endpoint.submit(request));
+                } catch (IOException e) {
+                    NanoPay.LOGGER.warn("RPC request to " + endpoint.address + " failed", e);
+                    if (onFailure != null) onFailure.run();
+                    if (pendingAttempts.decrementAndGet() == 0) response.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //the router was closed, which interrupts any attempt already started
+            response.completeExceptionally(new IOException("RPC transport is closed", e));
+        }
+    }
+
+    private static String awaitResponse(CompletableFuture<String> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for RPC response", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        return e.getCause() instanceof IOException ioException ? ioException
+                : new IOException("RPC request failed", e.getCause());
+    }
+
+    /**
+     * Routing statistics of a single node.
+     * @param address RPC address of the node
+     * @param latency moving average of the node's latency
+     * @param errorRate moving average of the proportion of requests to the node which failed
+     * @param requests total amount of requests sent to the node
+     */
+    public record EndpointStats(URL address, Duration latency, double errorRate, long requests) {}
+
+    private final class Endpoint {
+
+        private final URL address;
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+        private double latencyNanos, errorRate;
+        private long requests;
+
+        private Endpoint(URL address) {
+            this.address = address;
+        }
+
+        private String submit(String request) throws IOException {
+            long startTime = System.nanoTime();
+            try {
+                String response = rpcTransport.submit(address, request);
+                record(System.nanoTime() - startTime, false);
+                return response;
+            } catch (IOException e) {
+                record(System.nanoTime() - startTime, true);
+                throw e;
+            }
+        }
+
+        private synchronized void record(long latencyNanos, boolean failed) {
+            requests++;
+            if (!failed) {
+                latencyHistogram.record(latencyNanos);
+                this.latencyNanos = this.latencyNanos == 0 ? latencyNanos
+                        : EWMA_WEIGHT * latencyNanos + (1 - EWMA_WEIGHT) * this.latencyNanos;
+            }
+            this.errorRate = EWMA_WEIGHT * (failed ? 1 : 0) + (1 - EWMA_WEIGHT) * this.errorRate;
+        }
+
+        private synchronized double getScore() {
+            return latencyNanos + errorRate * ERROR_PENALTY_NANOS;
+        }
+
+        private Duration getHedgeDelay(double percentile) {
+            if (latencyHistogram.getCount() < MIN_HEDGE_SAMPLES) return DEFAULT_HEDGE_DELAY;
+            Duration delay = latencyHistogram.getPercentile(percentile);
+            return delay.compareTo(MIN_HEDGE_DELAY) < 0 ? MIN_HEDGE_DELAY : delay;
+        }
+
+        private synchronized EndpointStats getStats() {
+            return new EndpointStats(address, Duration.ofNanos((long) latencyNanos), errorRate, requests);
+        }
+
+    }
+
+}
@@ -1,19 +1,25 @@
 package xyz.benanderson.nanopay.storage;
 
+import xyz.benanderson.nanopay.NanoPay;
+import xyz.benanderson.nanopay.execution.SerialExecutor;
 import xyz.benanderson.nanopay.wallet.Wallet;
 import lombok.Getter;
 
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class is intended to work as a cache layer with storage solutions such as file storage and databases.
  * However, this class does not attempt to constantly refresh data from the backing wallet storage, it stores
  * all data in memory and simply mirrors all reads/writes to the backing wallet storage asynchronously
  * {@link ExecutorService} passed into the constructor. All 'find' or 'get' operations only access the cache.
+ * Operations on the backing storage run one at a time in the order they were made, so the executor can be shared
+ * between storages (e.g. the storage executor of an {@link xyz.benanderson.nanopay.execution.ExecutionModel}).
  *
  * This class should <strong>not</strong> be used with databases or file systems which are externally modified during
  * the execution of the program - external data changes will not be reflected in the cache.
@@ -22,7 +28,7 @@ public class CacheWrappedWalletStorage implements WalletStorage {
 
     private final WalletStorage cache;
     private final WalletStorage backingStorage;
-    private final ExecutorService backingOperationService;
+    private final SerialExecutor backingOperations;
     @Getter
     private final CacheSearchPolicy cachePolicy;
 
@@ -35,7 +41,7 @@ public class CacheWrappedWalletStorage implements WalletStorage {
                                      CacheSearchPolicy cachePolicy) {
         this.cache = new MemoryWalletStorage(backingStorage.getWalletExpirationTime());
         this.backingStorage = backingStorage;
-        this.backingOperationService = backingOperationService;
+        this.backingOperations = new SerialExecutor(backingOperationService);
         this.cachePolicy = cachePolicy;
         backingStorage.getAllWallets().forEach(cache::saveWallet);
     }
@@ -57,6 +63,11 @@ public class CacheWrappedWalletStorage implements WalletStorage {
         return cache.getAllWallets();
     }
 
+    @Override
+    public int countWallets() {
+        return cache.countWallets();
+    }
+
     @Override
     public Optional<Wallet> findWalletByAddress(String address) {
         Optional<Wallet> walletOptional = cache.findWalletByAddress(address);
@@ -65,8 +76,10 @@ public class CacheWrappedWalletStorage implements WalletStorage {
             case CACHE_ONLY -> walletOptional;
             case BACKING_IF_MISS -> {
                 try {
-                    yield backingOperationService.submit(() -> backingStorage.findWalletByAddress(address)).get();
-                } catch (InterruptedException | ExecutionException ignored) {}
+                    //queued behind pending writes, so a wallet which was just saved is found
+                    yield CompletableFuture.supplyAsync(() -> backingStorage.findWalletByAddress(address),
+                            backingOperations).get();
+                } catch (InterruptedException | ExecutionException | RejectedExecutionException ignored) {}
                 yield Optional.empty();
             }
         };
@@ -75,13 +88,33 @@ public class CacheWrappedWalletStorage implements WalletStorage {
     @Override
     public void saveWallet(Wallet wallet) {
         cache.saveWallet(wallet);
-        backingOperationService.submit(() -> backingStorage.saveWallet(wallet));
+        mirror("save wallet (" + wallet.address() + ")", () -> backingStorage.saveWallet(wallet));
+    }
+
+    @Override
+    public void saveWallets(Collection<Wallet> wallets) {
+        cache.saveWallets(wallets);
+        mirror("save " + wallets.size() + " wallets", () -> backingStorage.saveWallets(wallets));
     }
 
     @Override
     public void deleteWallet(Wallet wallet) {
         cache.deleteWallet(wallet);
-        backingOperationService.submit(() -> backingStorage.deleteWallet(wallet));
+        mirror("delete wallet (" + wallet.address() + ")", () -> backingStorage.deleteWallet(wallet));
+    }
+
+    private void mirror(String operation, Runnable backingOperation) {
+        try {
+            backingOperations.execute(() -> {
+                try {
+                    backingOperation.run();
+                } catch (RuntimeException e) {
+                    NanoPay.LOGGER.error("Failed to " + operation + " in backing storage", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            NanoPay.LOGGER.error("Failed to " + operation + " in backing storage, executor has been shut down", e);
+        }
     }
 
     @Override
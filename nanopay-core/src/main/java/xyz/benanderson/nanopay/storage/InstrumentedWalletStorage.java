@@ -0,0 +1,100 @@
+package xyz.benanderson.nanopay.storage;
+
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.metrics.MetricNames;
+import xyz.benanderson.nanopay.wallet.Wallet;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Wraps another {@link WalletStorage}, timing each call to it. Timers are named by the storage's {@link WalletType}
+ * and the method called, e.g. {@code nanopay.storage.active.findWalletByAddress}.
+ */
+public class InstrumentedWalletStorage implements WalletStorage {
+
+    private final WalletStorage walletStorage;
+    private final Instrumentation instrumentation;
+    private final String getAllWalletsTimer, countWalletsTimer, findWalletTimer, saveWalletTimer, saveWalletsTimer,
+            deleteWalletTimer;
+
+    public InstrumentedWalletStorage(WalletStorage walletStorage, WalletType walletType,
+                                     Instrumentation instrumentation) {
+        this.walletStorage = walletStorage;
+        this.instrumentation = instrumentation;
+        String prefix = MetricNames.STORAGE_PREFIX + walletType.name().toLowerCase() + ".";
+        this.getAllWalletsTimer = prefix + "getAllWallets";
+        this.countWalletsTimer = prefix + "countWallets";
+        this.findWalletTimer = prefix + "findWalletByAddress";
+        this.saveWalletTimer = prefix + "saveWallet";
+        this.saveWalletsTimer = prefix + "saveWallets";
+        this.deleteWalletTimer = prefix + "deleteWallet";
+    }
+
+    @Override
+    public Collection<Wallet> getAllWallets() {
+        long startTime = instrumentation.startTimer();
+        try {
+            return walletStorage.getAllWallets();
+        } finally {
+            instrumentation.stopTimer(getAllWalletsTimer, startTime);
+        }
+    }
+
+    @Override
+    public int countWallets() {
+        long startTime = instrumentation.startTimer();
+        try {
+            return walletStorage.countWallets();
+        } finally {
+            instrumentation.stopTimer(countWalletsTimer, startTime);
+        }
+    }
+
+    @Override
+    public Optional<Wallet> findWalletByAddress(String address) {
+        long startTime = instrumentation.startTimer();
+        try {
+            return walletStorage.findWalletByAddress(address);
+        } finally {
+            instrumentation.stopTimer(findWalletTimer, startTime);
+        }
+    }
+
+    @Override
+    public void saveWallet(Wallet wallet) {
+        long startTime = instrumentation.startTimer();
+        try {
+            walletStorage.saveWallet(wallet);
+        } finally {
+            instrumentation.stopTimer(saveWalletTimer, startTime);
+        }
+    }
+
+    @Override
+    public void saveWallets(Collection<Wallet> wallets) {
+        long startTime = instrumentation.startTimer();
+        try {
+            walletStorage.saveWallets(wallets);
+        } finally {
+            instrumentation.stopTimer(saveWalletsTimer, startTime);
+        }
+    }
+
+    @Override
+    public void deleteWallet(Wallet wallet) {
+        long startTime = instrumentation.startTimer();
+        try {
+            walletStorage.deleteWallet(wallet);
+        } finally {
+            instrumentation.stopTimer(deleteWalletTimer, startTime);
+        }
+    }
+
+    @Override
+    public Duration getWalletExpirationTime() {
+        return walletStorage.getWalletExpirationTime();
+    }
+
+}
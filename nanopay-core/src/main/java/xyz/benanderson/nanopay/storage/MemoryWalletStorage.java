@@ -24,7 +24,15 @@ public class MemoryWalletStorage implements WalletStorage {
 
     @Override
     public Collection<Wallet> getAllWallets() {
-        return wallets.values();
+        //copied so callers can iterate whilst wallets are concurrently saved or deleted
+        synchronized (wallets) {
+            return new ArrayList<>(wallets.values());
+        }
+    }
+
+    @Override
+    public int countWallets() {
+        return wallets.size();
     }
 
     @Override
@@ -37,6 +45,13 @@ public class MemoryWalletStorage implements WalletStorage {
         wallets.put(wallet.address(), wallet);
     }
 
+    @Override
+    public void saveWallets(Collection<Wallet> walletCollection) {
+        Map<String, Wallet> walletsMap = new HashMap<>();
+        walletCollection.forEach(wallet -> walletsMap.put(wallet.address(), wallet));
+        wallets.putAll(walletsMap);
+    }
+
     @Override
     public void deleteWallet(Wallet wallet) {
         wallets.remove(wallet.address());
@@ -67,6 +67,18 @@ public class MultipleFileWalletStorage implements WalletStorage {
         return Collections.emptySet();
     }
 
+    @Override
+    public int countWallets() {
+        try (Stream<Path> directoryContents = Files.list(storageFolder)) {
+            return (int) directoryContents.filter(item -> !Files.isDirectory(item))
+                    .filter(file -> NanoAccount.isValidNano(file.getFileName().toString()))
+                    .count();
+        } catch (IOException e) {
+            NanoPay.LOGGER.error("Could not list files in wallet storage folder", e);
+        }
+        return 0;
+    }
+
     @Override
     public Optional<Wallet> findWalletByAddress(String address) {
         Path walletPath = storageFolder.resolve(address);
@@ -19,6 +19,11 @@ public class ReadOnlyWalletStorage implements WalletStorage {
         return Collections.unmodifiableCollection(walletStorage.getAllWallets());
     }
 
+    @Override
+    public int countWallets() {
+        return walletStorage.countWallets();
+    }
+
     @Override
     public Optional<Wallet> findWalletByAddress(String address) {
         return walletStorage.findWalletByAddress(address);
@@ -29,6 +34,11 @@ public class ReadOnlyWalletStorage implements WalletStorage {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void saveWallets(Collection<Wallet> wallets) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void deleteWallet(Wallet wallet) {
         throw new UnsupportedOperationException();
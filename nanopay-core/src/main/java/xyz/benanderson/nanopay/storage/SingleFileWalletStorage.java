@@ -12,9 +12,13 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 /**
  * Operations have an O(n) time complexity, it is recommended that you wrap this class with CacheWrappedWalletStorage
+ * <p>
+ * Each write reads, updates and rewrites the whole file whilst holding the storage's lock, so concurrent writes (e.g.
+ * from the wallet check pipeline) don't overwrite each other.
  */
 public class SingleFileWalletStorage implements WalletStorage {
 
@@ -81,28 +85,44 @@ public class SingleFileWalletStorage implements WalletStorage {
 
     @Override
     public void saveWallet(Wallet wallet) {
-        Collection<Wallet> wallets = new HashSet<>(getAllWallets());
-        wallets.add(wallet);
-        save(wallets);
+        update(wallets -> {
+            //replaces a stored copy of the wallet, which may have fewer inbound payments
+            wallets.remove(wallet);
+            wallets.add(wallet);
+        });
+    }
+
+    @Override
+    public void saveWallets(Collection<Wallet> walletCollection) {
+        update(wallets -> {
+            wallets.removeAll(walletCollection);
+            wallets.addAll(walletCollection);
+        });
     }
 
     @Override
     public void deleteWallet(Wallet wallet) {
-        Collection<Wallet> wallets = new HashSet<>(getAllWallets());
-        wallets.remove(wallet);
-        save(wallets);
+        update(wallets -> wallets.remove(wallet));
     }
 
-    private void save(Collection<Wallet> wallets) {
-        try {
-            semaphore.acquire();
-        } catch (InterruptedException ignored) {}
+    /**
+     * Reads the stored wallets, applies the update and writes them back, without letting any other operation run in
+     * between. Nothing is written if the file couldn't be read, so a read failure doesn't wipe the stored wallets.
+     */
+    private void update(Consumer<Set<Wallet>> update) {
+        semaphore.acquireUninterruptibly();
         try {
+            Set<Wallet> wallets;
+            try (BufferedReader reader = Files.newBufferedReader(storageFile)) {
+                wallets = new HashSet<>(Arrays.asList(gson.fromJson(reader, Wallet[].class)));
+            }
+            update.accept(wallets);
             Files.writeString(storageFile, gson.toJson(wallets.toArray()));
         } catch (IOException e) {
             NanoPay.LOGGER.error("IO Exception occurred when saving the wallet storage file", e);
+        } finally {
+            semaphore.release();
         }
-        semaphore.release();
     }
 
     @Override
@@ -18,10 +18,27 @@ public interface WalletStorage {
      */
     Collection<Wallet> getAllWallets();
 
+    /**
+     * @return the amount of wallets stored in the wallet storage. Implementations backed by files or databases should
+     * override this to count the wallets without loading them; the default implementation loads all wallets.
+     */
+    default int countWallets() {
+        return getAllWallets().size();
+    }
+
     Optional<Wallet> findWalletByAddress(String address);
 
     void saveWallet(Wallet wallet);
 
+    /**
+     * Saves a batch of wallets. Implementations backed by files or databases should override this to write the
+     * whole batch in a single operation; the default implementation saves each wallet individually.
+     * @param wallets wallets to save
+     */
+    default void saveWallets(Collection<Wallet> wallets) {
+        wallets.forEach(this::saveWallet);
+    }
+
     void deleteWallet(Wallet wallet);
 
     Duration getWalletExpirationTime();
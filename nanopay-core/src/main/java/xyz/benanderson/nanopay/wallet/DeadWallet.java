@@ -7,21 +7,29 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Objects;
 
 @JsonAdapter(value = DeadWalletGsonAdapter.class)
-public record DeadWallet(String address, String privateKey, Instant deathTime, BigDecimal requiredAmount, boolean success)
-        implements Serializable {
+public record DeadWallet(String address, String privateKey, Instant deathTime, BigDecimal requiredAmount, boolean success,
+                         Integer derivationIndex) implements Serializable {
 
     public DeadWallet {
         if (!NanoAccount.isValidNano(address))
             throw new IllegalArgumentException("Invalid wallet address");
         if (requiredAmount.equals(BigDecimal.ZERO))
             throw new IllegalArgumentException("Required amount cannot be zero");
+        if (privateKey == null && derivationIndex == null)
+            throw new IllegalArgumentException("Wallet must have either a private key or a derivation index");
         deathTime = deathTime.truncatedTo(ChronoUnit.MILLIS);
     }
 
+    public DeadWallet(String address, String privateKey, Instant deathTime, BigDecimal requiredAmount, boolean success) {
+        this(address, privateKey, deathTime, requiredAmount, success, null);
+    }
+
     public static DeadWallet kill(Wallet wallet, boolean success) {
-        return new DeadWallet(wallet.address(), wallet.privateKey(), Instant.now(), wallet.requiredAmount(), success);
+        return new DeadWallet(wallet.address(), wallet.privateKey(), Instant.now(), wallet.requiredAmount(), success,
+                wallet.derivationIndex());
     }
 
     @Override
@@ -30,7 +38,8 @@ public record DeadWallet(String address, String privateKey, Instant deathTime, B
         if (o == null || getClass() != o.getClass()) return false;
         DeadWallet deadWallet = (DeadWallet) o;
         return address.equals(deadWallet.address)
-                && privateKey.equals(deadWallet.privateKey)
+                && Objects.equals(privateKey, deadWallet.privateKey)
+                && Objects.equals(derivationIndex, deadWallet.derivationIndex)
                 && deathTime.equals(deadWallet.deathTime)
                 && (requiredAmount.compareTo(deadWallet.requiredAmount) == 0)
                 && success == deadWallet.success;
@@ -15,8 +15,13 @@ class DeadWalletGsonAdapter extends TypeAdapter<DeadWallet> {
         jsonWriter.beginObject();
         jsonWriter.name("address");
         jsonWriter.value(deadWallet.address());
-        jsonWriter.name("private_key");
-        jsonWriter.value(deadWallet.privateKey());
+        if (deadWallet.privateKey() == null) {
+            jsonWriter.name("derivation_index");
+            jsonWriter.value(deadWallet.derivationIndex());
+        } else {
+            jsonWriter.name("private_key");
+            jsonWriter.value(deadWallet.privateKey());
+        }
         jsonWriter.name("death_time");
         jsonWriter.value(deadWallet.deathTime().toEpochMilli());
         jsonWriter.name("required_amount");
@@ -28,19 +33,25 @@ class DeadWalletGsonAdapter extends TypeAdapter<DeadWallet> {
 
     @Override
     public DeadWallet read(JsonReader jsonReader) throws IOException {
+        String address = null, privateKey = null;
+        Integer derivationIndex = null;
+        Instant deathTime = null;
+        BigDecimal requiredAmount = null;
+        boolean success = false;
         jsonReader.beginObject();
-        jsonReader.nextName();
-        String address = jsonReader.nextString();
-        jsonReader.nextName();
-        String privateKey = jsonReader.nextString();
-        jsonReader.nextName();
-        Instant deadTime = Instant.ofEpochMilli(jsonReader.nextLong());
-        jsonReader.nextName();
-        BigDecimal requiredAmount = new BigDecimal(jsonReader.nextString());
-        jsonReader.nextName();
-        boolean success = jsonReader.nextBoolean();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "address" -> address = jsonReader.nextString();
+                case "private_key" -> privateKey = jsonReader.nextString();
+                case "derivation_index" -> derivationIndex = jsonReader.nextInt();
+                case "death_time" -> deathTime = Instant.ofEpochMilli(jsonReader.nextLong());
+                case "required_amount" -> requiredAmount = new BigDecimal(jsonReader.nextString());
+                case "success" -> success = jsonReader.nextBoolean();
+                default -> jsonReader.skipValue();
+            }
+        }
         jsonReader.endObject();
-        return new DeadWallet(address, privateKey, deadTime, requiredAmount, success);
+        return new DeadWallet(address, privateKey, deathTime, requiredAmount, success, derivationIndex);
     }
 
 }
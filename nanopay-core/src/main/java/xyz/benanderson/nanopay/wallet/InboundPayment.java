@@ -0,0 +1,23 @@
+package xyz.benanderson.nanopay.wallet;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A payment received by a {@link Wallet}, recorded from its WebSocket confirmation (or from the wallet's account
+ * history), so that refunds can be worked out without asking the node who sent what.
+ * @param sender address of the account which sent the payment
+ * @param amount amount of NANO sent
+ * @param blockHash hash of the send block, identifying the payment
+ * @param timestamp when the payment was confirmed
+ */
+public record InboundPayment(String sender, BigDecimal amount, String blockHash, Instant timestamp)
+        implements Serializable {
+
+    public InboundPayment {
+        timestamp = timestamp.truncatedTo(ChronoUnit.MILLIS);
+    }
+
+}
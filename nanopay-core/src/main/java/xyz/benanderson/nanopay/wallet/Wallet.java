@@ -7,17 +7,68 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
+/**
+ * A wallet waiting for (or having waited for) a payment. Wallets either store a random private key, or the index
+ * used to derive their private key from a {@link WalletSeed} - in which case {@link #privateKey()} is {@code null}.
+ * The {@link InboundPayment}s a wallet has received are stored with it, in the order they arrived, but aren't part of
+ * its identity, so they're ignored by {@link #equals(Object)}.
+ */
 @JsonAdapter(value = WalletGsonAdapter.class)
-public record Wallet(String address, String privateKey, Instant creationTime, BigDecimal requiredAmount)
-        implements Serializable {
+public record Wallet(String address, String privateKey, Instant creationTime, BigDecimal requiredAmount,
+                     Integer derivationIndex, List<InboundPayment> inboundPayments) implements Serializable {
 
     public Wallet {
         if (!NanoAccount.isValidNano(address))
             throw new IllegalArgumentException("Invalid wallet address");
         if (requiredAmount.equals(BigDecimal.ZERO))
             throw new IllegalArgumentException("Required amount cannot be zero");
+        if (privateKey == null && derivationIndex == null)
+            throw new IllegalArgumentException("Wallet must have either a private key or a derivation index");
         creationTime = creationTime.truncatedTo(ChronoUnit.MILLIS);
+        inboundPayments = inboundPayments == null ? List.of() : List.copyOf(inboundPayments);
+    }
+
+    public Wallet(String address, String privateKey, Instant creationTime, BigDecimal requiredAmount,
+                  Integer derivationIndex) {
+        this(address, privateKey, creationTime, requiredAmount, derivationIndex, List.of());
+    }
+
+    public Wallet(String address, String privateKey, Instant creationTime, BigDecimal requiredAmount) {
+        this(address, privateKey, creationTime, requiredAmount, null);
+    }
+
+    public static Wallet derived(String address, int derivationIndex, Instant creationTime, BigDecimal requiredAmount) {
+        return new Wallet(address, null, creationTime, requiredAmount, derivationIndex);
+    }
+
+    /**
+     * @return whether the private key of this wallet is derived from a {@link WalletSeed}
+     */
+    public boolean isDerived() {
+        return privateKey == null;
+    }
+
+    /**
+     * @return copy of this wallet with the payment added to its inbound payments, or this wallet if a payment with the
+     * same block hash has already been recorded
+     */
+    public Wallet withInboundPayment(InboundPayment inboundPayment) {
+        if (inboundPayments.stream().anyMatch(payment -> payment.blockHash().equals(inboundPayment.blockHash())))
+            return this;
+        List<InboundPayment> payments = new ArrayList<>(inboundPayments);
+        payments.add(inboundPayment);
+        return new Wallet(address, privateKey, creationTime, requiredAmount, derivationIndex, payments);
+    }
+
+    /**
+     * @return total amount of NANO of the recorded inbound payments
+     */
+    public BigDecimal getInboundTotal() {
+        return inboundPayments.stream().map(InboundPayment::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
     }
 
     @Override
@@ -26,9 +77,15 @@ public record Wallet(String address, String privateKey, Instant creationTime, Bi
         if (o == null || getClass() != o.getClass()) return false;
         Wallet wallet = (Wallet) o;
         return address.equals(wallet.address)
-                && privateKey.equals(wallet.privateKey)
+                && Objects.equals(privateKey, wallet.privateKey)
+                && Objects.equals(derivationIndex, wallet.derivationIndex)
                 && creationTime.equals(wallet.creationTime)
                 && (requiredAmount.compareTo(wallet.requiredAmount) == 0);
     }
 
+    @Override
+    public int hashCode() {
+        return address.hashCode();
+    }
+
 }
@@ -7,6 +7,8 @@ import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 class WalletGsonAdapter extends TypeAdapter<Wallet> {
 
@@ -15,28 +17,80 @@ class WalletGsonAdapter extends TypeAdapter<Wallet> {
         jsonWriter.beginObject();
         jsonWriter.name("address");
         jsonWriter.value(wallet.address());
-        jsonWriter.name("private_key");
-        jsonWriter.value(wallet.privateKey());
+        if (wallet.isDerived()) {
+            jsonWriter.name("derivation_index");
+            jsonWriter.value(wallet.derivationIndex());
+        } else {
+            jsonWriter.name("private_key");
+            jsonWriter.value(wallet.privateKey());
+        }
         jsonWriter.name("creation_time");
         jsonWriter.value(wallet.creationTime().toEpochMilli());
         jsonWriter.name("required_amount");
         jsonWriter.value(wallet.requiredAmount());
+        if (!wallet.inboundPayments().isEmpty()) {
+            jsonWriter.name("inbound_payments");
+            jsonWriter.beginArray();
+            for (InboundPayment inboundPayment : wallet.inboundPayments()) {
+                jsonWriter.beginObject();
+                jsonWriter.name("sender");
+                jsonWriter.value(inboundPayment.sender());
+                jsonWriter.name("amount");
+                jsonWriter.value(inboundPayment.amount());
+                jsonWriter.name("block_hash");
+                jsonWriter.value(inboundPayment.blockHash());
+                jsonWriter.name("timestamp");
+                jsonWriter.value(inboundPayment.timestamp().toEpochMilli());
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+        }
         jsonWriter.endObject();
     }
 
     @Override
     public Wallet read(JsonReader jsonReader) throws IOException {
+        String address = null, privateKey = null;
+        Integer derivationIndex = null;
+        Instant creationTime = null;
+        BigDecimal requiredAmount = null;
+        List<InboundPayment> inboundPayments = new ArrayList<>();
         jsonReader.beginObject();
-        jsonReader.nextName();
-        String address = jsonReader.nextString();
-        jsonReader.nextName();
-        String privateKey = jsonReader.nextString();
-        jsonReader.nextName();
-        Instant creationTime = Instant.ofEpochMilli(jsonReader.nextLong());
-        jsonReader.nextName();
-        BigDecimal requiredAmount = new BigDecimal(jsonReader.nextString());
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "address" -> address = jsonReader.nextString();
+                case "private_key" -> privateKey = jsonReader.nextString();
+                case "derivation_index" -> derivationIndex = jsonReader.nextInt();
+                case "creation_time" -> creationTime = Instant.ofEpochMilli(jsonReader.nextLong());
+                case "required_amount" -> requiredAmount = new BigDecimal(jsonReader.nextString());
+                case "inbound_payments" -> {
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) inboundPayments.add(readInboundPayment(jsonReader));
+                    jsonReader.endArray();
+                }
+                default -> jsonReader.skipValue();
+            }
+        }
         jsonReader.endObject();
-        return new Wallet(address, privateKey, creationTime, requiredAmount);
+        return new Wallet(address, privateKey, creationTime, requiredAmount, derivationIndex, inboundPayments);
+    }
+
+    private InboundPayment readInboundPayment(JsonReader jsonReader) throws IOException {
+        String sender = null, blockHash = null;
+        BigDecimal amount = null;
+        Instant timestamp = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "sender" -> sender = jsonReader.nextString();
+                case "amount" -> amount = new BigDecimal(jsonReader.nextString());
+                case "block_hash" -> blockHash = jsonReader.nextString();
+                case "timestamp" -> timestamp = Instant.ofEpochMilli(jsonReader.nextLong());
+                default -> jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return new InboundPayment(sender, amount, blockHash, timestamp);
     }
 
 }
@@ -0,0 +1,187 @@
+package xyz.benanderson.nanopay.wallet;
+
+import lombok.SneakyThrows;
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import uk.oczadly.karl.jnano.util.WalletUtil;
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.security.SecureRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of pre-generated wallet keys. Background producer threads refill the pool whenever its depth drops
+ * below the low watermark, and stop once the high watermark is reached. When the pool is empty, keys are generated
+ * inline on the caller's thread instead.
+ */
+public class WalletKeyPool implements AutoCloseable {
+
+    public record WalletKey(String privateKey, String address) {}
+
+    private final BlockingQueue<WalletKey> keys;
+    private final int lowWatermark, highWatermark;
+    private final ExecutorService producerService;
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private final Condition refillRequired = refillLock.newCondition();
+    private final LongAdder pooledKeysTaken = new LongAdder(), inlineKeysGenerated = new LongAdder();
+    private final LongAdder refillKeysGenerated = new LongAdder(), refillNanos = new LongAdder();
+    private final ThreadLocal<SecureRandom> inlineSecureRandom = ThreadLocal.withInitial(WalletKeyPool::newSecureRandom);
+    private volatile boolean refilling = true, running = true;
+    private volatile long refillStartNanos = System.nanoTime();
+
+    /**
+     * @param lowWatermark pool depth below which the producers start refilling the pool
+     * @param highWatermark pool depth at which the producers stop refilling the pool (also the pool capacity)
+     * @param producerThreads amount of background threads generating keys
+     * @throws IllegalArgumentException if the watermarks are not {@code 0 <= lowWatermark < highWatermark} or
+     * {@code producerThreads} is not positive.
+     */
+    public WalletKeyPool(int lowWatermark, int highWatermark, int producerThreads) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark)
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= lowWatermark < highWatermark");
+        if (producerThreads <= 0)
+            throw new IllegalArgumentException("Producer thread count must be positive");
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.keys = new ArrayBlockingQueue<>(highWatermark);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.producerService = Executors.newFixedThreadPool(producerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-key-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < producerThreads; i++) {
+            producerService.submit(this::produceKeys);
+        }
+    }
+
+    /**
+     * @return a pre-generated key from the pool, or a key generated on the calling thread if the pool is empty
+     */
+    public WalletKey takeKey() {
+        WalletKey walletKey = keys.poll();
+        if (keys.size() < lowWatermark) requestRefill();
+        if (walletKey != null) {
+            pooledKeysTaken.increment();
+            return walletKey;
+        }
+        inlineKeysGenerated.increment();
+        return generateKey(inlineSecureRandom.get());
+    }
+
+    public int getPoolDepth() {
+        return keys.size();
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getPooledKeysTaken() {
+        return pooledKeysTaken.sum();
+    }
+
+    /**
+     * @return amount of keys that had to be generated on the caller's thread because the pool was empty
+     */
+    public long getInlineKeysGenerated() {
+        return inlineKeysGenerated.sum();
+    }
+
+    /**
+     * @return average amount of keys generated per second by the producers whilst refilling the pool
+     */
+    public double getRefillRate() {
+        long nanos = refillNanos.sum();
+        if (refilling) nanos += System.nanoTime() - refillStartNanos;
+        if (nanos <= 0) return 0;
+        return refillKeysGenerated.sum() / (nanos / 1_000_000_000d);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        producerService.shutdownNow();
+        try {
+            if (!producerService.awaitTermination(5, TimeUnit.SECONDS))
+                NanoPay.LOGGER.warn("Wallet key pool producers did not terminate in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void produceKeys() {
+        SecureRandom secureRandom = newSecureRandom();
+        while (running) {
+            try {
+                awaitRefill();
+                if (!keys.offer(generateKey(secureRandom))) {
+                    finishRefill();
+                    continue;
+                }
+                refillKeysGenerated.increment();
+                if (keys.size() >= highWatermark) finishRefill();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.error("Exception occurred generating pooled wallet key", e);
+            }
+        }
+    }
+
+    private void awaitRefill() throws InterruptedException {
+        if (refilling) return;
+        refillLock.lock();
+        try {
+            while (!refilling) refillRequired.await();
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    private void requestRefill() {
+        if (refilling) return;
+        refillLock.lock();
+        try {
+            if (!refilling) {
+                refillStartNanos = System.nanoTime();
+                refilling = true;
+                refillRequired.signalAll();
+            }
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    private void finishRefill() {
+        refillLock.lock();
+        try {
+            if (refilling) {
+                refilling = false;
+                refillNanos.add(System.nanoTime() - refillStartNanos);
+            }
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    public static WalletKey generateKey(SecureRandom secureRandom) {
+        HexData privateKey = WalletUtil.generateRandomKey(secureRandom);
+        return new WalletKey(privateKey.toString(), NanoAccount.fromPrivateKey(privateKey).toAddress());
+    }
+
+    @SneakyThrows
+    private static SecureRandom newSecureRandom() {
+        return SecureRandomUtil.getSecureRandom();
+    }
+
+}
@@ -0,0 +1,135 @@
+package xyz.benanderson.nanopay.wallet;
+
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.util.WalletUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A master seed from which wallet private keys are deterministically derived using a monotonically increasing index.
+ * Wallets derived from a seed only need to store their index, with the private key being re-derived when needed.
+ *
+ * Indexes must never be re-used, as a re-used index gives a new payment the address of an old one. Wallets are
+ * deleted from dead storage (and lost entirely from memory storage on restart), so the highest index found in storage
+ * can go backwards. A seed created with an index file persists a high-water mark before issuing any index below it,
+ * so it never goes backwards. A seed without an index file relies on the caller providing a first index beyond any
+ * index previously issued.
+ */
+public class WalletSeed {
+
+    /**
+     * Amount of indexes reserved by each write of the index file, so that the file isn't written for every wallet.
+     * Reserved indexes which weren't issued before a restart are skipped.
+     */
+    public static final int INDEX_RESERVATION_SIZE = 100;
+
+    private final HexData seed;
+    private final Path indexFile;
+    //guarded by this
+    private int nextIndex, reservedIndex;
+
+    /**
+     * @param seed 64 character hex string denoting the 32 byte master seed
+     * @throws IllegalArgumentException if the seed is not a 32 byte hex string
+     */
+    public WalletSeed(String seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * @param seed 64 character hex string denoting the 32 byte master seed
+     * @param firstIndex the lowest index to derive wallets from
+     * @throws IllegalArgumentException if the seed is not a 32 byte hex string or the first index is negative
+     */
+    public WalletSeed(String seed, int firstIndex) {
+        this(seed, firstIndex, null);
+    }
+
+    /**
+     * Creates a seed whose high-water mark is persisted to the index file, so indexes are never re-used across
+     * restarts. The file is created if it doesn't exist.
+     * @param seed 64 character hex string denoting the 32 byte master seed
+     * @param indexFile file storing the lowest index which may be derived after a restart
+     * @throws IllegalArgumentException if the seed is not a 32 byte hex string or the index file is invalid
+     * @throws UncheckedIOException if the index file can't be read
+     */
+    public WalletSeed(String seed, Path indexFile) {
+        this(seed, readIndexFile(indexFile), indexFile);
+    }
+
+    private WalletSeed(String seed, int firstIndex, Path indexFile) {
+        if (seed == null || !seed.matches("[0-9a-fA-F]{64}"))
+            throw new IllegalArgumentException("Seed must be a 64 character hex string");
+        if (firstIndex < 0)
+            throw new IllegalArgumentException("First index cannot be negative");
+        this.seed = new HexData(seed);
+        this.indexFile = indexFile;
+        this.nextIndex = firstIndex;
+        this.reservedIndex = indexFile == null ? Integer.MAX_VALUE : firstIndex;
+    }
+
+    /**
+     * @return a new index that has not previously been returned by this seed
+     * @throws IllegalStateException if all indexes have been used
+     * @throws UncheckedIOException if the high-water mark couldn't be persisted to the index file
+     */
+    public synchronized int reserveIndex() {
+        if (nextIndex == Integer.MAX_VALUE) throw new IllegalStateException("Wallet seed has no remaining indexes");
+        if (nextIndex >= reservedIndex) {
+            int newReservedIndex = (int) Math.min((long) nextIndex + INDEX_RESERVATION_SIZE, Integer.MAX_VALUE);
+            writeIndexFile(newReservedIndex);
+            reservedIndex = newReservedIndex;
+        }
+        return nextIndex++;
+    }
+
+    /**
+     * Ensures that indexes up to and including {@code usedIndex} are never returned by {@link #reserveIndex()}.
+     */
+    public synchronized void advancePast(int usedIndex) {
+        nextIndex = Math.max(nextIndex, usedIndex + 1);
+    }
+
+    public synchronized int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return whether the seed persists its high-water mark to an index file
+     */
+    public boolean isDurable() {
+        return indexFile != null;
+    }
+
+    public HexData deriveKey(int index) {
+        return WalletUtil.deriveKeyFromSeed(seed, index);
+    }
+
+    private void writeIndexFile(int index) {
+        try {
+            //written to a temporary file and moved, so a crash mid-write can't leave a truncated mark
+            Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            Files.writeString(tempFile, Integer.toString(index));
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist wallet seed index to " + indexFile, e);
+        }
+    }
+
+    private static int readIndexFile(Path indexFile) {
+        if (indexFile == null) throw new IllegalArgumentException("Index file cannot be null");
+        if (!Files.exists(indexFile)) return 0;
+        try {
+            return Integer.parseInt(Files.readString(indexFile).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wallet seed index file " + indexFile + " is corrupt", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read wallet seed index file " + indexFile, e);
+        }
+    }
+
+}
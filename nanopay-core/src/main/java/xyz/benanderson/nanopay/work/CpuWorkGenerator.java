@@ -0,0 +1,142 @@
+package xyz.benanderson.nanopay.work;
+
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.work.WorkDifficulty;
+import uk.oczadly.karl.jnano.model.work.WorkSolution;
+import uk.oczadly.karl.jnano.util.NetworkConstants;
+import uk.oczadly.karl.jnano.util.workgen.AbstractWorkGenerator;
+import uk.oczadly.karl.jnano.util.workgen.policy.WorkDifficultyPolicy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates proof of work locally on the CPU, rather than requesting it from the node. Each work request is split
+ * across every thread of a fork-join pool, with each thread searching its own region of the nonce space until one of
+ * them finds a nonce meeting the difficulty threshold of the block (which differs for send and receive blocks).
+ * Requests are cancelled by interrupting the thread waiting on them, e.g. by cancelling the returned future.
+ */
+public final class CpuWorkGenerator extends AbstractWorkGenerator implements AutoCloseable {
+
+    public static final long SEND_THRESHOLD = 0xfffffff800000000L, RECEIVE_THRESHOLD = 0xfffffe0000000000L;
+    private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
+    private final ForkJoinPool workerPool;
+    private final int threads;
+    private final LongAdder hashCount = new LongAdder();
+
+    /**
+     * Creates a work generator using every available processor.
+     */
+    public CpuWorkGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads amount of threads searching for work in parallel
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public CpuWorkGenerator(int threads) {
+        this(threads, NetworkConstants.NANO.getWorkDifficulties());
+    }
+
+    /**
+     * @param threads amount of threads searching for work in parallel
+     * @param difficultyPolicy policy providing the difficulty threshold of each block
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public CpuWorkGenerator(int threads, WorkDifficultyPolicy difficultyPolicy) {
+        super(difficultyPolicy);
+        if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+        this.threads = threads;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workerPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("nanopay-workgen-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    protected WorkSolution generateWork(HexData root, WorkDifficulty difficulty, WorkRequestContext context)
+            throws Exception {
+        CompletableFuture<Long> search = search(root.toByteArray(), difficulty.getAsLong());
+        try {
+            return new WorkSolution(search.get());
+        } catch (InterruptedException e) {
+            search.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Override
+    protected void cleanup() {
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Shuts down the generator, stopping its threads. Equivalent to {@link #shutdown()}.
+     */
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * Searches for a nonce whose work value is at least {@code threshold}. Cancelling the returned future stops every
+     * thread searching for it.
+     *
+     * @param root the 32 byte block root (or previous block hash) to search work for
+     * @param threshold the minimum work value, compared unsigned
+     * @return future completed with the first nonce found
+     * @throws IllegalArgumentException if {@code root} is not 32 bytes.
+     */
+    public CompletableFuture<Long> search(byte[] root, long threshold) {
+        if (root.length != 32) throw new IllegalArgumentException("Work root must be 32 bytes");
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        //each thread starts in its own evenly sized region, offset randomly so concurrent searches don't overlap
+        long regionSize = Long.divideUnsigned(-1L, threads), start = ThreadLocalRandom.current().nextLong();
+        for (int i = 0; i < threads; i++) {
+            long regionStart = start + i * regionSize;
+            workerPool.execute(() -> searchRegion(root, threshold, regionStart, result));
+        }
+        return result;
+    }
+
+    /**
+     * @return the amount of threads searching for work in parallel
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the total amount of nonces hashed by this generator
+     */
+    public long getHashCount() {
+        return hashCount.sum();
+    }
+
+    private void searchRegion(byte[] root, long threshold, long nonce, CompletableFuture<Long> result) {
+        WorkHasher workHasher = new WorkHasher(root);
+        while (!result.isDone()) {
+            for (int i = 0; i < CANCELLATION_CHECK_INTERVAL; i++, nonce++) {
+                if (Long.compareUnsigned(workHasher.hash(nonce), threshold) >= 0) {
+                    hashCount.add(i + 1);
+                    result.complete(nonce);
+                    return;
+                }
+            }
+            hashCount.add(CANCELLATION_CHECK_INTERVAL);
+        }
+    }
+
+}
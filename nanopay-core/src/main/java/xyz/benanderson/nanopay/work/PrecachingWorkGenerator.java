@@ -0,0 +1,207 @@
+package xyz.benanderson.nanopay.work;
+
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import uk.oczadly.karl.jnano.model.block.StateBlock;
+import uk.oczadly.karl.jnano.model.work.WorkDifficulty;
+import uk.oczadly.karl.jnano.model.work.WorkSolution;
+import uk.oczadly.karl.jnano.util.workgen.AbstractWorkGenerator;
+import uk.oczadly.karl.jnano.util.workgen.GeneratedWork;
+import uk.oczadly.karl.jnano.util.workgen.WorkGenerator;
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps another {@link WorkGenerator}, generating work for a wallet's next block in the background so it is ready
+ * by the time the block is created. Work is cached by its root (the previous block hash, or the account's public key
+ * for an open block) and each cached solution is used once. Requests for a root which isn't cached, or whose cached
+ * solution doesn't meet the requested difficulty, are passed to the wrapped generator.
+ * <p>
+ * The block work is precached for isn't known yet, so work is precached at the difficulty the wrapped generator's
+ * {@link uk.oczadly.karl.jnano.util.workgen.policy.WorkDifficultyPolicy} gives for any block, which satisfies both
+ * sends and receives. Work evicted from the cache before it is used is cancelled.
+ */
+public final class PrecachingWorkGenerator extends AbstractWorkGenerator implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final WorkGenerator workGenerator;
+    private final boolean shutdownWorkGenerator;
+    private final Map<HexData, Future<WorkSolution>> cache;
+    private final ExecutorService precacheService;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     * Creates a generator which shuts down the wrapped generator when it is shut down.
+     * @param workGenerator generator used to create the precached work, and work which wasn't precached
+     * @param capacity maximum amount of cached solutions, the least recently precached are evicted first
+     * @param threads amount of threads waiting on the wrapped generator to precache work
+     * @throws IllegalArgumentException if {@code capacity} or {@code threads} is not positive.
+     */
+    public PrecachingWorkGenerator(WorkGenerator workGenerator, int capacity, int threads) {
+        this(workGenerator, capacity, threads, true);
+    }
+
+    /**
+     * @param workGenerator generator used to create the precached work, and work which wasn't precached
+     * @param capacity maximum amount of cached solutions, the least recently precached are evicted first
+     * @param threads amount of threads waiting on the wrapped generator to precache work
+     * @param shutdownWorkGenerator whether the wrapped generator is shut down when this generator is, which should be
+     *                              false if it is shared
+     * @throws IllegalArgumentException if {@code capacity} or {@code threads} is not positive.
+     */
+    public PrecachingWorkGenerator(WorkGenerator workGenerator, int capacity, int threads,
+                                   boolean shutdownWorkGenerator) {
+        super(workGenerator.getDifficultyPolicy());
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        if (threads <= 0) throw new IllegalArgumentException("Thread count must be positive");
+        this.workGenerator = workGenerator;
+        this.shutdownWorkGenerator = shutdownWorkGenerator;
+        this.cache = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HexData, Future<WorkSolution>> eldest) {
+                if (size() <= capacity) return false;
+                //interrupts the precache thread, which cancels the request to the wrapped generator
+                eldest.getValue().cancel(true);
+                return true;
+            }
+        };
+        AtomicInteger threadCount = new AtomicInteger();
+        this.precacheService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-work-precache-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts generating work for the open block of {@code account}.
+     */
+    public void precacheOpenBlock(NanoAccount account) {
+        precache(new HexData(account.getPublicKeyBytes()));
+    }
+
+    /**
+     * Starts generating work for the block following the newest of {@code blocks}.
+     * @param blocks blocks which were just created for a single account, e.g. by receiving all pending funds
+     */
+    public void precacheNextBlock(Collection<StateBlock> blocks) {
+        Set<HexData> previousHashes = blocks.stream().map(StateBlock::getPreviousBlockHash).collect(Collectors.toSet());
+        blocks.stream()
+                .map(StateBlock::getHash)
+                .filter(hash -> !previousHashes.contains(hash))
+                .findFirst()
+                .ifPresent(this::precache);
+    }
+
+    /**
+     * Starts generating work for {@code root} in the background at the difficulty of any block, unless work for it is
+     * already cached.
+     */
+    public void precache(HexData root) {
+        precache(root, null);
+    }
+
+    /**
+     * Starts generating work for {@code root} in the background, unless work for it is already cached.
+     * @param difficulty difficulty of the work, or {@code null} for the difficulty of any block
+     */
+    public void precache(HexData root, WorkDifficulty difficulty) {
+        synchronized (cache) {
+            if (cache.containsKey(root)) return;
+            cache.put(root, precacheService.submit(() -> {
+                //the policy may ask the node, so it's only consulted on the precache thread
+                Future<GeneratedWork> generatedWork = workGenerator.generate(root, difficulty != null ? difficulty
+                        : workGenerator.getDifficultyPolicy().forAny());
+                try {
+                    return generatedWork.get().getWork();
+                } catch (InterruptedException e) {
+                    generatedWork.cancel(true);
+                    throw e;
+                }
+            }));
+        }
+    }
+
+    @Override
+    protected WorkSolution generateWork(HexData root, WorkDifficulty difficulty, WorkRequestContext context)
+            throws Exception {
+        Optional<WorkSolution> cachedWork = takeCachedWork(root);
+        if (cachedWork.isPresent() && meetsDifficulty(root, cachedWork.get(), difficulty)) {
+            hits.increment();
+            return cachedWork.get();
+        }
+        misses.increment();
+        return workGenerator.generate(root, difficulty).get().getWork();
+    }
+
+    @Override
+    protected void cleanup() {
+        precacheService.shutdownNow();
+        if (shutdownWorkGenerator) workGenerator.shutdown();
+    }
+
+    /**
+     * Shuts down the generator, stopping its threads. Equivalent to {@link #shutdown()}.
+     */
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * @return amount of work requests served from the cache (including work which was still being precached)
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return amount of work requests passed to the wrapped generator
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return amount of cached solutions, including those still being generated
+     */
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private Optional<WorkSolution> takeCachedWork(HexData root) throws InterruptedException {
+        Future<WorkSolution> cachedWork;
+        synchronized (cache) {
+            cachedWork = cache.remove(root);
+        }
+        if (cachedWork == null) return Optional.empty();
+        try {
+            //work still being precached is waited on, rather than generated a second time
+            return Optional.of(cachedWork.get());
+        } catch (ExecutionException e) {
+            NanoPay.LOGGER.warn("Precached work failed, generating work for root " + root, e.getCause());
+            return Optional.empty();
+        }
+    }
+
+    private static boolean meetsDifficulty(HexData root, WorkSolution workSolution, WorkDifficulty difficulty) {
+        long value = new WorkHasher(root.toByteArray()).hash(workSolution.getAsLong());
+        return Long.compareUnsigned(value, difficulty.getAsLong()) >= 0;
+    }
+
+}
@@ -0,0 +1,90 @@
+package xyz.benanderson.nanopay.work;
+
+/**
+ * BLAKE2b implementation specialised for proof of work, hashing the 8 byte nonce followed by the 32 byte root into an
+ * 8 byte digest. As the input always fits in a single block, only one compression is needed per nonce and the root's
+ * message words are decoded once rather than for every hash. Instances are not thread safe, each search worker owns
+ * its own hasher.
+ */
+final class WorkHasher {
+
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+    private static final byte[][] SIGMA = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+            {11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+            {7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+            {9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+            {2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+            {12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+            {13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+            {6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+            {10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0}
+    };
+    private static final int ROUNDS = 12, INPUT_LENGTH = 40;
+    //parameter block for an unkeyed 8 byte digest
+    private static final long H0 = IV[0] ^ 0x01010008L;
+
+    private final long[] message = new long[16];
+    private final long[] state = new long[16];
+
+    /**
+     * @param root the 32 byte block root (or previous block hash) to search work for
+     * @throws IllegalArgumentException if {@code root} is not 32 bytes.
+     */
+    WorkHasher(byte[] root) {
+        if (root.length != 32) throw new IllegalArgumentException("Work root must be 32 bytes");
+        for (int i = 0; i < 4; i++) {
+            message[i + 1] = readLongLittleEndian(root, i * 8);
+        }
+    }
+
+    /**
+     * @param nonce the work nonce
+     * @return the work value of {@code nonce}, to be compared (unsigned) against the difficulty threshold
+     */
+    long hash(long nonce) {
+        long[] v = state, m = message;
+        m[0] = nonce;
+        v[0] = H0;
+        System.arraycopy(IV, 1, v, 1, 7);
+        System.arraycopy(IV, 0, v, 8, 8);
+        v[12] ^= INPUT_LENGTH;
+        v[14] = ~v[14];
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] s = SIGMA[round % 10];
+            mix(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+            mix(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+            mix(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+            mix(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+            mix(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+            mix(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+            mix(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+            mix(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+        }
+        return H0 ^ v[0] ^ v[8];
+    }
+
+    private static void mix(long[] v, int a, int b, int c, int d, long x, long y) {
+        v[a] += v[b] + x;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] += v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] += v[b] + y;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] += v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static long readLongLittleEndian(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+}
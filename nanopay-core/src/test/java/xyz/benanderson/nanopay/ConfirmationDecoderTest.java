@@ -0,0 +1,69 @@
+package xyz.benanderson.nanopay;
+
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import uk.oczadly.karl.jnano.model.NanoAmount;
+import xyz.benanderson.nanopay.wallet.Transaction;
+
+import java.math.BigInteger;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ConfirmationDecoderTest {
+
+    final static String SENDER = "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674";
+    final static String WATCHED = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+    final static String HASH = "82D68AE43E3E04CBBF9ED150999A347C2ABBE74B38D6E506C18DF7B1994E06C2";
+    final static String UNWATCHED = "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac";
+
+    final ConfirmationDecoder confirmationDecoder = new ConfirmationDecoder(Set.of(WATCHED)::contains);
+
+    private static String createMessage(String topic, String subtype, String receiver) {
+        return "{\"topic\":\"" + topic + "\",\"time\":\"1656108512000\",\"message\":{"
+                + "\"account\":\"" + SENDER + "\",\"amount\":\"1000000000000000000000000\","
+                + "\"hash\":\"" + HASH + "\","
+                + "\"confirmation_type\":\"active_quorum\",\"block\":{\"type\":\"state\","
+                + "\"account\":\"" + SENDER + "\",\"balance\":\"5000000000000000000000000\","
+                + "\"link_as_account\":\"" + receiver + "\",\"subtype\":\"" + subtype + "\"}}}";
+    }
+
+    @Test
+    void decodeWatchedSend() {
+        ConfirmationDecoder.Confirmation confirmation = confirmationDecoder.decode(
+                createMessage("confirmation", "send", WATCHED));
+        assertEquals(new ConfirmationDecoder.Confirmation(HASH, new Transaction(
+                NanoAccount.parseAddress(SENDER),
+                NanoAccount.parseAddress(WATCHED),
+                NanoAmount.valueOfRaw(new BigInteger("1000000000000000000000000"))
+        )), confirmation);
+    }
+
+    @Test
+    void rejectUnwatchedSend() {
+        assertNull(confirmationDecoder.decode(createMessage("confirmation", "send", UNWATCHED)));
+    }
+
+    @Test
+    void rejectNonSendBlock() {
+        assertNull(confirmationDecoder.decode(createMessage("confirmation", "receive", WATCHED)));
+    }
+
+    @Test
+    void rejectOtherTopic() {
+        assertNull(confirmationDecoder.decode(createMessage("vote", "send", WATCHED)));
+    }
+
+    @Test
+    void rejectAcknowledgement() {
+        assertNull(confirmationDecoder.decode("{\"ack\":\"subscribe\",\"time\":\"1656108512000\"}"));
+    }
+
+    @Test
+    void rejectMalformedMessage() {
+        assertNull(confirmationDecoder.decode("{\"topic\":\"confirmation\",\"message\":"));
+        assertNull(confirmationDecoder.decode("not json"));
+    }
+
+}
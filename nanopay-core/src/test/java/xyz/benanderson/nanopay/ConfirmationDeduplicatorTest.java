@@ -0,0 +1,75 @@
+package xyz.benanderson.nanopay;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfirmationDeduplicatorTest {
+
+    final static URI FAST_FEED = URI.create("ws://127.0.0.1:7078"), SLOW_FEED = URI.create("wss://socket.nanos.cc/");
+    final static String HASH = "82D68AE43E3E04CBBF9ED150999A347C2ABBE74B38D6E506C18DF7B1994E06C2";
+    final static String OTHER_HASH = "AABFE228F219E9CB0EB53F16947CCF25EC84D8DBC74254770F58904DBA41ECCC";
+
+    final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void acceptFirstDeliveryOnly() {
+        ConfirmationDeduplicator deduplicator = new ConfirmationDeduplicator(List.of(FAST_FEED, SLOW_FEED), 16,
+                nanoTime::get);
+
+        assertTrue(deduplicator.accept(0, HASH));
+        assertFalse(deduplicator.accept(1, HASH));
+        assertFalse(deduplicator.accept(0, HASH));
+        assertTrue(deduplicator.accept(1, OTHER_HASH));
+    }
+
+    @Test
+    void recordLeadAndLag() {
+        ConfirmationDeduplicator deduplicator = new ConfirmationDeduplicator(List.of(FAST_FEED, SLOW_FEED), 16,
+                nanoTime::get);
+
+        deduplicator.accept(0, HASH);
+        nanoTime.addAndGet(Duration.ofMillis(40).toNanos());
+        deduplicator.accept(1, HASH);
+
+        List<NanoPay.WebSocketFeedStats> feedStats = deduplicator.getFeedStats();
+        NanoPay.WebSocketFeedStats fastStats = feedStats.get(0), slowStats = feedStats.get(1);
+        assertEquals(FAST_FEED, fastStats.address());
+        assertEquals(1, fastStats.firstDeliveries());
+        assertEquals(0, fastStats.lateDeliveries());
+        assertEquals(Duration.ofMillis(40), fastStats.lead().getMax());
+        assertEquals(0, fastStats.lag().getCount());
+        assertEquals(SLOW_FEED, slowStats.address());
+        assertEquals(0, slowStats.firstDeliveries());
+        assertEquals(1, slowStats.lateDeliveries());
+        assertEquals(Duration.ofMillis(40), slowStats.lag().getMax());
+        assertEquals(0, slowStats.lead().getCount());
+    }
+
+    @Test
+    void ignoreRepeatFromSameFeed() {
+        ConfirmationDeduplicator deduplicator = new ConfirmationDeduplicator(List.of(FAST_FEED, SLOW_FEED), 16,
+                nanoTime::get);
+
+        deduplicator.accept(0, HASH);
+        deduplicator.accept(0, HASH);
+
+        assertEquals(0, deduplicator.getFeedStats().get(0).lateDeliveries());
+        assertEquals(0, deduplicator.getFeedStats().get(0).lead().getCount());
+    }
+
+    @Test
+    void evictOldestHash() {
+        ConfirmationDeduplicator deduplicator = new ConfirmationDeduplicator(List.of(FAST_FEED), 1, nanoTime::get);
+
+        assertTrue(deduplicator.accept(0, HASH));
+        assertTrue(deduplicator.accept(0, OTHER_HASH));
+        assertTrue(deduplicator.accept(0, HASH));
+    }
+
+}
@@ -0,0 +1,98 @@
+package xyz.benanderson.nanopay;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalletCheckPipelineTest {
+
+    final static String ADDRESS_ONE = "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674";
+    final static String ADDRESS_TWO = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+
+    @Test
+    void checksForSameWalletRunInOrder() throws InterruptedException {
+        try (WalletCheckPipeline walletCheckPipeline = new WalletCheckPipeline(4, 128, NanoPay.OverflowPolicy.BLOCK)) {
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch completed = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                int index = i;
+                walletCheckPipeline.submit(ADDRESS_ONE, () -> {
+                    order.add(index);
+                    completed.countDown();
+                });
+            }
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertEquals(IntStream.range(0, 100).boxed().toList(), order);
+        }
+    }
+
+    @Test
+    void checksForDifferentWalletsRunInParallel() throws InterruptedException {
+        //with two workers, ADDRESS_ONE and ADDRESS_TWO are assigned to different lanes
+        assertNotEquals(Math.floorMod(ADDRESS_ONE.hashCode(), 2), Math.floorMod(ADDRESS_TWO.hashCode(), 2));
+        try (WalletCheckPipeline walletCheckPipeline = new WalletCheckPipeline(2, 16, NanoPay.OverflowPolicy.BLOCK)) {
+            CountDownLatch blockingCheckStarted = new CountDownLatch(1), release = new CountDownLatch(1);
+            CountDownLatch otherCheckCompleted = new CountDownLatch(1);
+            walletCheckPipeline.submit(ADDRESS_ONE, () -> {
+                blockingCheckStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(blockingCheckStarted.await(10, TimeUnit.SECONDS));
+            walletCheckPipeline.submit(ADDRESS_TWO, otherCheckCompleted::countDown);
+            assertTrue(otherCheckCompleted.await(10, TimeUnit.SECONDS));
+            release.countDown();
+        }
+    }
+
+    @Test
+    void discardPolicyDropsChecksWhenFull() throws InterruptedException {
+        try (WalletCheckPipeline walletCheckPipeline = new WalletCheckPipeline(1, 2, NanoPay.OverflowPolicy.DISCARD)) {
+            CountDownLatch blockingCheckStarted = new CountDownLatch(1), release = new CountDownLatch(1);
+            walletCheckPipeline.submit(ADDRESS_ONE, () -> {
+                blockingCheckStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(blockingCheckStarted.await(10, TimeUnit.SECONDS));
+            assertTrue(walletCheckPipeline.submit(ADDRESS_ONE, () -> {}));
+            assertTrue(walletCheckPipeline.submit(ADDRESS_ONE, () -> {}));
+            assertFalse(walletCheckPipeline.submit(ADDRESS_ONE, () -> {}));
+            assertEquals(2, walletCheckPipeline.getQueueDepth());
+            assertEquals(1, walletCheckPipeline.getDiscardedChecks());
+            release.countDown();
+        }
+    }
+
+    @Test
+    void exceptionDoesNotStopWorker() throws InterruptedException {
+        try (WalletCheckPipeline walletCheckPipeline = new WalletCheckPipeline(1, 16, NanoPay.OverflowPolicy.BLOCK)) {
+            CountDownLatch completed = new CountDownLatch(1);
+            walletCheckPipeline.submit(ADDRESS_ONE, () -> {
+                throw new IllegalStateException("Check failed");
+            });
+            walletCheckPipeline.submit(ADDRESS_ONE, completed::countDown);
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new WalletCheckPipeline(0, 16, NanoPay.OverflowPolicy.BLOCK));
+        assertThrows(IllegalArgumentException.class, () -> new WalletCheckPipeline(1, 0, NanoPay.OverflowPolicy.BLOCK));
+    }
+
+}
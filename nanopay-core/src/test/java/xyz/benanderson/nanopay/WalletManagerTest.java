@@ -10,27 +10,40 @@ import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.model.NanoAmount;
 import uk.oczadly.karl.jnano.model.block.StateBlock;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
+import uk.oczadly.karl.jnano.rpc.exception.RpcException;
+import uk.oczadly.karl.jnano.rpc.request.node.RequestMultiAccountBalances;
+import uk.oczadly.karl.jnano.rpc.response.ResponseBalance;
+import uk.oczadly.karl.jnano.rpc.response.ResponseMultiAccountBalances;
 import uk.oczadly.karl.jnano.util.WalletUtil;
 import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import uk.oczadly.karl.jnano.util.wallet.WalletActionException;
 import xyz.benanderson.nanopay.death.*;
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.execution.MonitoredScheduledExecutorService;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+import xyz.benanderson.nanopay.storage.MemoryWalletStorage;
 import xyz.benanderson.nanopay.storage.WalletStorage;
 import xyz.benanderson.nanopay.storage.WalletStorageProvider;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.SecureRandomUtil;
+import xyz.benanderson.nanopay.wallet.Transaction;
 import xyz.benanderson.nanopay.wallet.Wallet;
+import xyz.benanderson.nanopay.wallet.WalletSeed;
+import xyz.benanderson.nanopay.work.PrecachingWorkGenerator;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class WalletManagerTest {
@@ -83,29 +96,35 @@ class WalletManagerTest {
         );
     }
 
+    private void storeActiveWallet(Wallet wallet) {
+        when(walletStorageProvider.activeWalletStorage().findWalletByAddress(wallet.address()))
+                .thenReturn(Optional.of(wallet));
+    }
+
     @Test
     void killWalletReceivedExtra() throws WalletActionException {
         ArgumentCaptor<NanoAccount> sendWalletCaptor = ArgumentCaptor.forClass(NanoAccount.class);
         ArgumentCaptor<NanoAmount> sendAmountCaptor = ArgumentCaptor.forClass(NanoAmount.class);
         ArgumentCaptor<Wallet> activeWalletStorageDeleteCaptor = ArgumentCaptor.forClass(Wallet.class);
         ArgumentCaptor<Wallet> deadWalletStorageSaveCaptor = ArgumentCaptor.forClass(Wallet.class);
-        ArgumentCaptor<BigDecimal> refundExtraBalanceRequiredAmountCaptor = ArgumentCaptor.forClass(BigDecimal.class);
+        ArgumentCaptor<Wallet> refundExtraBalanceWalletCaptor = ArgumentCaptor.forClass(Wallet.class);
         @SuppressWarnings("unchecked")
         ArgumentCaptor<LocalRpcWalletAccount<StateBlock>> refundExtraBalanceRpcWalletCaptor
                 = ArgumentCaptor.forClass(LocalRpcWalletAccount.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(null).when(rpcWallet).send(any(), any());
         doReturn(NanoAmount.valueOfNano(MORE_THAN_REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
         WalletDeathState walletDeathState = WalletDeathState.success(true);
-        doNothing().when(walletDeathHandler).refundExtraBalance(any(), any());
+        doNothing().when(walletDeathHandler).refundExtraBalance(any(), any(Wallet.class));
         doNothing().when(walletDeathLogger).log(any());
         walletManager.killWallet(rpcWallet, wallet, walletDeathState);
 
         verify(rpcWallet, times(1)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
         verify(walletDeathHandler, times(1)).refundExtraBalance(refundExtraBalanceRpcWalletCaptor.capture(),
-                refundExtraBalanceRequiredAmountCaptor.capture());
+                refundExtraBalanceWalletCaptor.capture());
         verify(walletDeathHandler.getPaymentSuccessListener(), times(1)).accept(wallet.address());
         verify(walletDeathHandler.getPaymentFailListener(), times(0)).accept(wallet.address());
         verify(walletStorageProvider.activeWalletStorage()).deleteWallet(activeWalletStorageDeleteCaptor.capture());
@@ -115,7 +134,7 @@ class WalletManagerTest {
         assertEquals(wallet, activeWalletStorageDeleteCaptor.getValue());
         assertEquals(wallet, deadWalletStorageSaveCaptor.getValue());
         assertEquals(rpcWallet, refundExtraBalanceRpcWalletCaptor.getValue());
-        assertEquals(wallet.requiredAmount(), refundExtraBalanceRequiredAmountCaptor.getValue());
+        assertEquals(wallet, refundExtraBalanceWalletCaptor.getValue());
     }
 
     @Test
@@ -126,6 +145,7 @@ class WalletManagerTest {
         ArgumentCaptor<Wallet> deadWalletStorageSaveCaptor = ArgumentCaptor.forClass(Wallet.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(null).when(rpcWallet).send(any(), any());
         doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
@@ -134,7 +154,7 @@ class WalletManagerTest {
         walletManager.killWallet(rpcWallet, wallet, walletDeathState);
 
         verify(rpcWallet, times(1)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
-        verify(walletDeathHandler, times(0)).refundExtraBalance(any(), any());
+        verify(walletDeathHandler, times(0)).refundExtraBalance(any(), any(Wallet.class));
         verify(walletDeathHandler.getPaymentSuccessListener(), times(1)).accept(wallet.address());
         verify(walletDeathHandler.getPaymentFailListener(), times(0)).accept(wallet.address());
         verify(walletStorageProvider.activeWalletStorage()).deleteWallet(activeWalletStorageDeleteCaptor.capture());
@@ -154,14 +174,15 @@ class WalletManagerTest {
                 = ArgumentCaptor.forClass(LocalRpcWalletAccount.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
         WalletDeathState walletDeathState = WalletDeathState.failure();
-        doNothing().when(walletDeathHandler).refundAllBalance(any());
+        doNothing().when(walletDeathHandler).refundAllBalance(any(), any());
         doNothing().when(walletDeathLogger).log(any());
         walletManager.killWallet(rpcWallet, wallet, walletDeathState);
 
-        verify(walletDeathHandler, times(1)).refundAllBalance(refundAllBalanceRpcWalletCaptor.capture());
+        verify(walletDeathHandler, times(1)).refundAllBalance(refundAllBalanceRpcWalletCaptor.capture(), eq(wallet));
         verify(walletDeathHandler.getPaymentSuccessListener(), times(0)).accept(wallet.address());
         verify(walletDeathHandler.getPaymentFailListener(), times(1)).accept(wallet.address());
         verify(walletStorageProvider.activeWalletStorage()).deleteWallet(activeWalletStorageDeleteCaptor.capture());
@@ -177,13 +198,14 @@ class WalletManagerTest {
         ArgumentCaptor<Wallet> deadWalletStorageSaveCaptor = ArgumentCaptor.forClass(Wallet.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(NanoAmount.ZERO).when(rpcWallet).getBalance();
         WalletDeathState walletDeathState = WalletDeathState.failure();
         doNothing().when(walletDeathLogger).log(any());
         walletManager.killWallet(rpcWallet, wallet, walletDeathState);
 
-        verify(walletDeathHandler, times(0)).refundAllBalance(rpcWallet);
+        verify(walletDeathHandler, times(0)).refundAllBalance(rpcWallet, wallet);
         verify(walletDeathHandler.getPaymentSuccessListener(), times(0)).accept(wallet.address());
         verify(walletDeathHandler.getPaymentFailListener(), times(1)).accept(wallet.address());
         verify(walletStorageProvider.activeWalletStorage()).deleteWallet(activeWalletStorageDeleteCaptor.capture());
@@ -192,6 +214,202 @@ class WalletManagerTest {
         assertEquals(wallet, deadWalletStorageSaveCaptor.getValue());
     }
 
+    @Test
+    void killWalletAlreadyKilled() {
+        Wallet wallet = generateTestWallet();
+        LocalRpcWalletAccount<StateBlock> rpcWallet = walletManager.getLocalRpcWallet(wallet);
+
+        assertFalse(walletManager.killWallet(rpcWallet, wallet, WalletDeathState.failure()));
+        verify(walletDeathLogger, times(0)).log(any());
+        verify(walletDeathHandler, times(0)).handleDeath(any(), any(), any());
+        verify(walletStorageProvider.deadWalletStorage(), times(0)).saveWallet(any());
+    }
+
+    @Test
+    void concurrentDeathIsHandledOnce() throws InterruptedException, WalletActionException {
+        WalletStorageProvider memoryStorageProvider = new WalletStorageProvider(
+                new MemoryWalletStorage(Duration.ofMinutes(15)), new MemoryWalletStorage(Duration.ofMinutes(60)));
+        WalletDeathHandler mockDeathHandler = mock(WalletDeathHandler.class);
+        WalletManager concurrentWalletManager = new WalletManager(memoryStorageProvider, mockDeathHandler,
+                walletDeathLogger, webSocketListener, rpcClient, representative, clock);
+        ExecutorService executorService = Executors.newFixedThreadPool(12);
+
+        for (int round = 0; round < 20; round++) {
+            Wallet wallet = generateTestWallet();
+            memoryStorageProvider.activeWalletStorage().saveWallet(wallet);
+            LocalRpcWalletAccount<StateBlock> rpcWallet = spy(concurrentWalletManager.getLocalRpcWallet(wallet));
+            doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+            doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+
+            //cancellation, expiry and websocket-triggered checks all racing to kill the same wallet
+            CountDownLatch start = new CountDownLatch(1);
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                tasks.add(() -> {
+                    start.await();
+                    return concurrentWalletManager.killWallet(rpcWallet, wallet, WalletDeathState.failure());
+                });
+                tasks.add(() -> {
+                    start.await();
+                    concurrentWalletManager.expireWallet(wallet);
+                    return null;
+                });
+                tasks.add(() -> {
+                    start.await();
+                    concurrentWalletManager.checkWallet(rpcWallet, wallet);
+                    return null;
+                });
+            }
+            List<Future<Object>> futures = tasks.stream().map(task -> executorService.submit(task)).toList();
+            start.countDown();
+            for (Future<Object> future : futures) {
+                assertDoesNotThrow(() -> future.get(10, TimeUnit.SECONDS));
+            }
+
+            verify(mockDeathHandler, times(1)).handleDeath(any(), eq(wallet), any());
+            verify(walletDeathLogger, times(1)).log(argThat(deadWallet -> deadWallet.address().equals(wallet.address())));
+            verify(webSocketListener, times(1)).removeWalletFilter(wallet.address());
+            assertTrue(memoryStorageProvider.activeWalletStorage().findWalletByAddress(wallet.address()).isEmpty());
+        }
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void walletExpiresAtDeadline() {
+        ScheduledExecutorService walletPruneService = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(walletPruneService).schedule(any(Runnable.class), anyLong(), any());
+        when(walletStorageProvider.activeWalletStorage().getWalletExpirationTime()).thenReturn(Duration.ofMinutes(15));
+        ArgumentCaptor<Runnable> expiryTaskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> expiryDelayCaptor = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Wallet> walletStorageCaptor = ArgumentCaptor.forClass(Wallet.class);
+        walletManager.startWalletPruneService(walletPruneService);
+
+        walletManager.requestPayment(REQUIRED_AMOUNT);
+        verify(walletStorageProvider.activeWalletStorage()).saveWallet(walletStorageCaptor.capture());
+        verify(walletPruneService, times(1)).schedule(expiryTaskCaptor.capture(), expiryDelayCaptor.capture(),
+                eq(TimeUnit.MILLISECONDS));
+        assertEquals(Duration.ofMinutes(15).toMillis(), expiryDelayCaptor.getValue(), 1d);
+
+        doReturn(true).when(walletManager).killWallet(any(), any(), any());
+        expiryTaskCaptor.getValue().run();
+        verify(walletManager, times(1)).killWallet(any(), eq(walletStorageCaptor.getValue()),
+                eq(WalletDeathState.failure()));
+    }
+
+    @Test
+    void walletExpiryScheduledBeforeCloseNeverKillsWallet() throws InterruptedException {
+        MonitoredScheduledExecutorService walletPruneService = new MonitoredScheduledExecutorService("test", 1,
+                Executors.defaultThreadFactory());
+        when(walletStorageProvider.activeWalletStorage().getWalletExpirationTime()).thenReturn(Duration.ofMillis(100));
+        walletManager.startWalletPruneService(walletPruneService);
+        walletManager.requestPayment(REQUIRED_AMOUNT);
+        assertEquals(1, walletPruneService.getQueueDepth());
+
+        //the prune service may be shared, so it carries on running after the wallet manager is closed
+        walletManager.close();
+        Thread.sleep(300);
+        assertEquals(0, walletPruneService.getQueueDepth());
+        verify(walletManager, never()).expireWallet(any());
+        verify(walletManager, never()).killWallet(any(), any(), any());
+        walletPruneService.shutdownNow();
+    }
+
+    @Test
+    void expiringWalletWhichWasPaidDiesAsSuccess() throws WalletActionException {
+        List<PaymentEvent> paymentEvents = new ArrayList<>();
+        walletManager.setPaymentEventListener(paymentEvents::add);
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
+        doReturn(rpcWallet).when(walletManager).getLocalRpcWallet(wallet);
+        doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+        doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+        doReturn(true).when(walletManager).killWallet(any(), any(), any());
+
+        walletManager.expireWallet(wallet);
+
+        verify(walletManager, times(1)).killWallet(rpcWallet, wallet, WalletDeathState.success(false));
+        assertEquals(List.of(PaymentEvent.Type.PAID), paymentEvents.stream().map(PaymentEvent::type).toList());
+    }
+
+    @Test
+    void killWalletSchedulesDeadWalletDeletion() {
+        ScheduledExecutorService walletPruneService = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(walletPruneService).schedule(any(Runnable.class), anyLong(), any());
+        when(walletStorageProvider.deadWalletStorage().getWalletExpirationTime()).thenReturn(Duration.ofMinutes(60));
+        ArgumentCaptor<Runnable> deletionTaskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> deletionDelayCaptor = ArgumentCaptor.forClass(Long.class);
+        walletManager.startWalletPruneService(walletPruneService);
+
+        //the wallet was created well before it died, but is kept for the full expiration time after its death
+        Wallet testWallet = generateTestWallet();
+        Wallet wallet = new Wallet(testWallet.address(), testWallet.privateKey(),
+                clock.instant().minus(Duration.ofMinutes(45)), REQUIRED_AMOUNT);
+        storeActiveWallet(wallet);
+        doNothing().when(walletDeathHandler).handleDeath(any(), any(), any());
+        walletManager.killWallet(walletManager.getLocalRpcWallet(wallet), wallet, WalletDeathState.failure());
+        verify(walletPruneService, times(1)).schedule(deletionTaskCaptor.capture(), deletionDelayCaptor.capture(),
+                eq(TimeUnit.MILLISECONDS));
+        assertEquals(Duration.ofMinutes(60).toMillis(), deletionDelayCaptor.getValue(), 1d);
+
+        deletionTaskCaptor.getValue().run();
+        verify(walletStorageProvider.deadWalletStorage(), times(1)).deleteWallet(wallet);
+    }
+
+    @Test
+    void deadWalletDeletionDeadlinesAreKeptAcrossRestarts() {
+        ScheduledExecutorService walletPruneService = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(walletPruneService).schedule(any(Runnable.class), anyLong(), any());
+        when(walletStorageProvider.activeWalletStorage().getWalletExpirationTime()).thenReturn(Duration.ofMinutes(15));
+        when(walletStorageProvider.deadWalletStorage().getWalletExpirationTime()).thenReturn(Duration.ofMinutes(60));
+        //the first wallet expired 75 minutes after its creation, so its deletion is overdue after the restart
+        Wallet testWallet = generateTestWallet();
+        Wallet overdueWallet = new Wallet(testWallet.address(), testWallet.privateKey(),
+                clock.instant().minus(Duration.ofMinutes(90)), REQUIRED_AMOUNT);
+        Wallet recentWallet = generateTestWallet();
+        when(walletStorageProvider.deadWalletStorage().getAllWallets())
+                .thenReturn(List.of(overdueWallet, recentWallet));
+        ArgumentCaptor<Runnable> deletionTaskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Long> deletionDelayCaptor = ArgumentCaptor.forClass(Long.class);
+
+        walletManager.startWalletPruneService(walletPruneService);
+        verify(walletPruneService, times(2)).schedule(deletionTaskCaptor.capture(), deletionDelayCaptor.capture(),
+                eq(TimeUnit.MILLISECONDS));
+        assertEquals(List.of(0L, Duration.ofMinutes(75).toMillis()), deletionDelayCaptor.getAllValues());
+
+        deletionTaskCaptor.getAllValues().get(0).run();
+        verify(walletStorageProvider.deadWalletStorage(), times(1)).deleteWallet(overdueWallet);
+        verify(walletStorageProvider.deadWalletStorage(), never()).deleteWallet(recentWallet);
+    }
+
+    @Test
+    void refundDeadWalletsSkipsEmptyWallets() throws WalletActionException, IOException, RpcException {
+        List<Wallet> deadWallets = List.of(generateTestWallet(), generateTestWallet(), generateTestWallet());
+        Map<NanoAccount, ResponseBalance> balances = new HashMap<>();
+        for (int i = 0; i < deadWallets.size(); i++) {
+            ResponseBalance balance = mock(ResponseBalance.class);
+            when(balance.getTotal()).thenReturn(i == 0 ? NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT) : NanoAmount.ZERO);
+            balances.put(NanoAccount.parseAddress(deadWallets.get(i).address()), balance);
+        }
+        ResponseMultiAccountBalances response = mock(ResponseMultiAccountBalances.class);
+        when(response.getBalances()).thenReturn(balances);
+        when(walletStorageProvider.deadWalletStorage().getAllWallets()).thenReturn(deadWallets);
+        when(rpcClient.processRequest(any(RequestMultiAccountBalances.class))).thenReturn(response);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(deadWallets.get(0)));
+        doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+        doReturn(rpcWallet).when(walletManager).getLocalRpcWallet(deadWallets.get(0));
+        doNothing().when(walletDeathHandler).refundAllBalance(any(), any());
+
+        NanoPay.RefundCycle refundCycle = walletManager.refundDeadWallets();
+
+        verify(rpcWallet, times(1)).receiveAll();
+        //the stored wallet is passed on, so its recorded payments can be refunded without fetching its history
+        verify(walletDeathHandler, times(1)).refundAllBalance(rpcWallet, deadWallets.get(0));
+        verify(walletDeathHandler, never()).refundAllBalance(rpcWallet);
+        assertEquals(new NanoPay.RefundCycle(3, 2, 1), refundCycle);
+        assertEquals(refundCycle, walletManager.getLastRefundCycle());
+    }
+
     @Test
     void requestPayment() {
         ArgumentCaptor<String> webSocketFilterCaptor = ArgumentCaptor.forClass(String.class);
@@ -208,8 +426,59 @@ class WalletManagerTest {
     }
 
     @Test
-    void loadWallets() throws WalletActionException {
-        ArgumentCaptor<String> webSocketFilterCaptor = ArgumentCaptor.forClass(String.class);
+    void requestPayments() {
+        @SuppressWarnings("unchecked") ArgumentCaptor<Collection<String>> webSocketFilterCaptor
+                = ArgumentCaptor.forClass(Collection.class);
+        @SuppressWarnings("unchecked") ArgumentCaptor<Collection<Wallet>> walletStorageCaptor
+                = ArgumentCaptor.forClass(Collection.class);
+
+        List<BigDecimal> amounts = List.of(REQUIRED_AMOUNT, MORE_THAN_REQUIRED_AMOUNT, LESS_THAN_REQUIRED_AMOUNT);
+        List<String> addresses = walletManager.requestPayments(amounts);
+        verify(webSocketListener, times(1)).addWalletFilters(webSocketFilterCaptor.capture());
+        verify(webSocketListener, times(0)).addWalletFilter(any());
+        verify(walletStorageProvider.activeWalletStorage(), times(1)).saveWallets(walletStorageCaptor.capture());
+        verify(walletStorageProvider.activeWalletStorage(), times(0)).saveWallet(any());
+
+        assertEquals(amounts.size(), addresses.size());
+        CustomAssertions.assertUnorderedCollectionEquals(addresses, webSocketFilterCaptor.getValue());
+        List<Wallet> savedWallets = List.copyOf(walletStorageCaptor.getValue());
+        for (int i = 0; i < amounts.size(); i++) {
+            assertEquals(addresses.get(i), savedWallets.get(i).address());
+            assertEquals(amounts.get(i), savedWallets.get(i).requiredAmount());
+        }
+    }
+
+    @Test
+    void createDerivedWallet() {
+        WalletSeed walletSeed = new WalletSeed("9F1D53E732E48F25F94711D5B22086778278624F715D9B2BEC8FB81134E7C904");
+        walletManager.setWalletSeed(walletSeed);
+
+        Wallet firstWallet = walletManager.createWallet(REQUIRED_AMOUNT);
+        Wallet secondWallet = walletManager.createWallet(REQUIRED_AMOUNT);
+
+        assertTrue(firstWallet.isDerived());
+        assertEquals(0, firstWallet.derivationIndex());
+        assertEquals(1, secondWallet.derivationIndex());
+        assertEquals(NanoAccount.fromPrivateKey(walletSeed.deriveKey(0)).toAddress(), firstWallet.address());
+        assertEquals(firstWallet.address(), walletManager.getLocalRpcWallet(firstWallet).getAccount().toAddress());
+    }
+
+    @Test
+    void setWalletSeedAdvancesPastStoredIndexes() {
+        Wallet activeWallet = Wallet.derived(storageWallet.toAddress(), 7, clock.instant(), REQUIRED_AMOUNT);
+        Wallet deadWallet = Wallet.derived(storageWallet.toAddress(), 11, clock.instant(), REQUIRED_AMOUNT);
+        when(walletStorageProvider.activeWalletStorage().getAllWallets()).thenReturn(List.of(activeWallet));
+        when(walletStorageProvider.deadWalletStorage().getAllWallets()).thenReturn(List.of(deadWallet, generateTestWallet()));
+        WalletSeed walletSeed = new WalletSeed("9F1D53E732E48F25F94711D5B22086778278624F715D9B2BEC8FB81134E7C904");
+
+        walletManager.setWalletSeed(walletSeed);
+        assertEquals(12, walletSeed.getNextIndex());
+    }
+
+    @Test
+    void loadWalletsWithoutBalancesChecksAll() throws WalletActionException, IOException, RpcException {
+        @SuppressWarnings("unchecked") ArgumentCaptor<Collection<String>> webSocketFilterCaptor
+                = ArgumentCaptor.forClass(Collection.class);
         ArgumentCaptor<Wallet> walletManagerWalletCheckCaptor = ArgumentCaptor.forClass(Wallet.class);
         @SuppressWarnings("unchecked") ArgumentCaptor<LocalRpcWalletAccount<StateBlock>>
                 walletManagerRpcWalletCheckCaptor = ArgumentCaptor.forClass(LocalRpcWalletAccount.class);
@@ -220,21 +489,158 @@ class WalletManagerTest {
         }
         Collection<String> testAddresses = testWallets.stream().map(Wallet::address).collect(Collectors.toSet());
         when(walletStorageProvider.activeWalletStorage().getAllWallets()).thenReturn(testWallets);
+        when(rpcClient.processRequest(any(RequestMultiAccountBalances.class))).thenThrow(new IOException());
         doNothing().when(walletManager).checkWallet(any(), any());
 
-        walletManager.loadWallets();
+        walletManager.loadWallets(4);
 
-        verify(webSocketListener, times(10)).addWalletFilter(webSocketFilterCaptor.capture());
+        verify(webSocketListener, times(1)).addWalletFilters(webSocketFilterCaptor.capture());
+        verify(webSocketListener, times(0)).addWalletFilter(any());
         verify(walletManager, times(10))
                 .checkWallet(walletManagerRpcWalletCheckCaptor.capture(), walletManagerWalletCheckCaptor.capture());
 
-        CustomAssertions.assertUnorderedCollectionEquals(testAddresses, webSocketFilterCaptor.getAllValues());
+        CustomAssertions.assertUnorderedCollectionEquals(testAddresses, webSocketFilterCaptor.getValue());
         CustomAssertions.assertUnorderedCollectionEquals(testWallets, walletManagerWalletCheckCaptor.getAllValues());
     }
 
+    @Test
+    void loadWalletsChecksOnlyFundedWallets() throws WalletActionException, IOException, RpcException {
+        ArgumentCaptor<Wallet> walletManagerWalletCheckCaptor = ArgumentCaptor.forClass(Wallet.class);
+
+        List<Wallet> testWallets = new ArrayList<>();
+        Map<NanoAccount, ResponseBalance> balances = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            Wallet wallet = generateTestWallet();
+            testWallets.add(wallet);
+            ResponseBalance balance = mock(ResponseBalance.class);
+            when(balance.getTotal()).thenReturn(i < 3 ? NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT) : NanoAmount.ZERO);
+            balances.put(NanoAccount.parseAddress(wallet.address()), balance);
+        }
+        ResponseMultiAccountBalances response = mock(ResponseMultiAccountBalances.class);
+        when(response.getBalances()).thenReturn(balances);
+        when(walletStorageProvider.activeWalletStorage().getAllWallets()).thenReturn(testWallets);
+        when(rpcClient.processRequest(any(RequestMultiAccountBalances.class))).thenReturn(response);
+        doNothing().when(walletManager).checkWallet(any(), any());
+
+        walletManager.loadWallets(4);
+
+        verify(walletManager, times(3)).checkWallet(any(), walletManagerWalletCheckCaptor.capture());
+        CustomAssertions.assertUnorderedCollectionEquals(testWallets.subList(0, 3),
+                walletManagerWalletCheckCaptor.getAllValues());
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(
+                walletManager.getReceivedAmount(testWallets.get(0).address())));
+    }
+
+    @Test
+    void handleTransactionBelowRequiredSkipsCheck() throws WalletActionException {
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        verify(walletManager, times(0)).checkWallet(any(), any());
+        assertEquals(LESS_THAN_REQUIRED_AMOUNT.add(LESS_THAN_REQUIRED_AMOUNT),
+                walletManager.getReceivedAmount(wallet.address()));
+    }
+
+    @Test
+    void handleTransactionReachingRequiredChecks() throws WalletActionException {
+        ArgumentCaptor<Wallet> checkWalletCaptor = ArgumentCaptor.forClass(Wallet.class);
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        doNothing().when(walletManager).checkWallet(any(), any());
+
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        walletManager.handleTransaction(wallet, REQUIRED_AMOUNT.subtract(LESS_THAN_REQUIRED_AMOUNT));
+        verify(walletManager, times(1)).checkWallet(any(), checkWalletCaptor.capture());
+        assertEquals(wallet, checkWalletCaptor.getValue());
+    }
+
+    @Test
+    void handleConfirmationRecordsInboundPayment() throws WalletActionException {
+        ArgumentCaptor<Wallet> activeWalletStorageSaveCaptor = ArgumentCaptor.forClass(Wallet.class);
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        String blockHash = "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617";
+        ConfirmationDecoder.Confirmation confirmation = new ConfirmationDecoder.Confirmation(blockHash,
+                new Transaction(storageWallet, NanoAccount.parseAddress(wallet.address()),
+                        NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT)));
+
+        walletManager.handleConfirmation(wallet, confirmation);
+        verify(walletStorageProvider.activeWalletStorage()).saveWallet(activeWalletStorageSaveCaptor.capture());
+        List<InboundPayment> inboundPayments = activeWalletStorageSaveCaptor.getValue().inboundPayments();
+        assertEquals(1, inboundPayments.size());
+        assertEquals(storageWallet.toAddress(), inboundPayments.get(0).sender());
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(inboundPayments.get(0).amount()));
+        assertEquals(blockHash, inboundPayments.get(0).blockHash());
+        assertEquals(clock.instant().truncatedTo(ChronoUnit.MILLIS), inboundPayments.get(0).timestamp());
+
+        //a payment which has already been recorded isn't counted again
+        storeActiveWallet(activeWalletStorageSaveCaptor.getValue());
+        walletManager.handleConfirmation(wallet, confirmation);
+        verify(walletStorageProvider.activeWalletStorage(), times(1)).saveWallet(any());
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(walletManager.getReceivedAmount(wallet.address())));
+    }
+
+    @Test
+    void detectionTimerIsOnlyStartedForActiveWallets() throws WalletActionException {
+        walletManager.setInstrumentation(mock(Instrumentation.class));
+        doNothing().when(walletDeathHandler).handleDeath(any(), any(), any());
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        ConfirmationDecoder.Confirmation confirmation = new ConfirmationDecoder.Confirmation(
+                "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                new Transaction(storageWallet, NanoAccount.parseAddress(wallet.address()),
+                        NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT)));
+
+        walletManager.handleConfirmation(wallet, confirmation);
+        assertTrue(walletManager.hasDetectionTimer(wallet.address()));
+        walletManager.killWallet(walletManager.getLocalRpcWallet(wallet), wallet, WalletDeathState.failure());
+        assertFalse(walletManager.hasDetectionTimer(wallet.address()));
+
+        //a confirmation arriving after the wallet died mustn't start a timer which is never stopped
+        when(walletStorageProvider.activeWalletStorage().findWalletByAddress(wallet.address()))
+                .thenReturn(Optional.empty());
+        walletManager.handleConfirmation(wallet, confirmation);
+        assertFalse(walletManager.hasDetectionTimer(wallet.address()));
+    }
+
+    @Test
+    void killWalletUsesStoredInboundPayments() throws WalletActionException {
+        ArgumentCaptor<Wallet> deadWalletStorageSaveCaptor = ArgumentCaptor.forClass(Wallet.class);
+        Wallet wallet = generateTestWallet();
+        Wallet paidWallet = wallet.withInboundPayment(new InboundPayment(storageWallet.toAddress(),
+                LESS_THAN_REQUIRED_AMOUNT, "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                clock.instant()));
+        storeActiveWallet(paidWallet);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
+        doReturn(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+        doNothing().when(walletDeathHandler).refundAllBalance(any(), any());
+        doNothing().when(walletDeathLogger).log(any());
+
+        //the wallet passed in was read before its payment was recorded
+        walletManager.killWallet(rpcWallet, wallet, WalletDeathState.failure());
+        verify(walletDeathHandler, times(1)).handleDeath(eq(rpcWallet), same(paidWallet), any());
+        verify(walletStorageProvider.deadWalletStorage()).saveWallet(deadWalletStorageSaveCaptor.capture());
+        assertEquals(paidWallet.inboundPayments(), deadWalletStorageSaveCaptor.getValue().inboundPayments());
+    }
+
+    @Test
+    void checkWalletCorrectsReceivedAmount() throws WalletActionException {
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
+        doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+        doReturn(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+
+        walletManager.checkWallet(rpcWallet, wallet);
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(walletManager.getReceivedAmount(wallet.address())));
+    }
+
     @Test
     void checkWalletReceivedNotEnough() throws WalletActionException {
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
         NanoAmount nanoAmount = NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT);
@@ -244,6 +650,89 @@ class WalletManagerTest {
         verify(walletManager, times(0)).killWallet(any(), any(), any());
     }
 
+    @Test
+    void paidWalletIsKilledOnDeathExecutor() throws WalletActionException {
+        List<Runnable> deaths = new ArrayList<>();
+        walletManager.setDeathExecutor(deaths::add);
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
+        doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+        doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+
+        walletManager.checkWallet(rpcWallet, wallet);
+        //a wallet waiting to be killed isn't checked again
+        walletManager.checkWallet(rpcWallet, wallet);
+        verify(rpcWallet, times(1)).receiveAll();
+        verify(walletManager, times(0)).killWallet(any(), any(), any());
+        assertEquals(1, deaths.size());
+
+        deaths.get(0).run();
+        verify(walletManager, times(1)).killWallet(rpcWallet, wallet, WalletDeathState.success(false));
+    }
+
+    @Test
+    void paymentEventsArePublishedAsWalletIsPaid() throws WalletActionException {
+        List<PaymentEvent> paymentEvents = new ArrayList<>();
+        walletManager.setPaymentEventListener(paymentEvents::add);
+        walletManager.setDeathExecutor(death -> {});
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
+        doReturn(rpcWallet).when(walletManager).getLocalRpcWallet(wallet);
+        doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
+        doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        walletManager.handleTransaction(wallet, REQUIRED_AMOUNT.subtract(LESS_THAN_REQUIRED_AMOUNT));
+
+        assertEquals(List.of(PaymentEvent.Type.PARTIALLY_PAID, PaymentEvent.Type.PAID),
+                paymentEvents.stream().map(PaymentEvent::type).toList());
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(paymentEvents.get(0).amount()));
+        assertEquals(0, REQUIRED_AMOUNT.compareTo(paymentEvents.get(1).amount()));
+        assertTrue(paymentEvents.stream().allMatch(paymentEvent -> paymentEvent.address().equals(wallet.address())));
+    }
+
+    @Test
+    void openBlockWorkIsPrecachedOnFirstPayment() throws WalletActionException {
+        PrecachingWorkGenerator workPrecache = mock(PrecachingWorkGenerator.class);
+        walletManager.setWorkGenerator(workPrecache);
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+
+        walletManager.handleTransaction(wallet, BigDecimal.ZERO);
+        verify(workPrecache, never()).precacheOpenBlock(any());
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        verify(workPrecache, times(1)).precacheOpenBlock(NanoAccount.parseAddress(wallet.address()));
+    }
+
+    @Test
+    void paymentEventsArePublishedAfterWalletLockIsReleased() throws WalletActionException {
+        Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
+        List<Boolean> walletUnlocked = new ArrayList<>();
+        walletManager.setPaymentEventListener(paymentEvent -> {
+            //another thread can only handle a transaction to the wallet whilst its lock isn't held
+            CompletableFuture<Void> otherTransaction = CompletableFuture.runAsync(() -> {
+                try {
+                    walletManager.handleTransaction(wallet, BigDecimal.ZERO);
+                } catch (WalletActionException e) {
+                    throw new CompletionException(e);
+                }
+            });
+            try {
+                otherTransaction.get(5, TimeUnit.SECONDS);
+                walletUnlocked.add(true);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                walletUnlocked.add(false);
+            }
+        });
+
+        walletManager.handleTransaction(wallet, LESS_THAN_REQUIRED_AMOUNT);
+        assertEquals(List.of(true), walletUnlocked);
+    }
+
     @Test
     void checkWalletReceivedExact() throws WalletActionException {
         @SuppressWarnings("unchecked") ArgumentCaptor<LocalRpcWalletAccount<StateBlock>>
@@ -253,6 +742,7 @@ class WalletManagerTest {
                 = ArgumentCaptor.forClass(WalletDeathState.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
         NanoAmount nanoAmount = NanoAmount.valueOfNano(REQUIRED_AMOUNT);
@@ -279,11 +769,12 @@ class WalletManagerTest {
                 = ArgumentCaptor.forClass(WalletDeathState.class);
 
         Wallet wallet = generateTestWallet();
+        storeActiveWallet(wallet);
         LocalRpcWalletAccount<StateBlock> rpcWallet = spy(walletManager.getLocalRpcWallet(wallet));
         doReturn(Collections.emptySet()).when(rpcWallet).receiveAll();
         NanoAmount nanoAmount = NanoAmount.valueOfNano(MORE_THAN_REQUIRED_AMOUNT);
         doReturn(nanoAmount).when(rpcWallet).getBalance();
-        doNothing().when(walletManager).killWallet(any(), any(), any());
+        doReturn(true).when(walletManager).killWallet(any(), any(), any());
 
         walletManager.checkWallet(rpcWallet, wallet);
         verify(walletManager, times(1)).killWallet(
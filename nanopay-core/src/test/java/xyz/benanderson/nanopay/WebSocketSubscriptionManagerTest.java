@@ -0,0 +1,101 @@
+package xyz.benanderson.nanopay;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+class WebSocketSubscriptionManagerTest {
+
+    List<String> sentMessages;
+    ScheduledExecutorService flushService;
+    WebSocketSubscriptionManager subscriptionManager;
+
+    final static String ADDRESS_ONE = "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674";
+    final static String ADDRESS_TWO = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+    final static String ADDRESS_THREE = "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac";
+
+    @BeforeEach
+    void setup() {
+        sentMessages = new ArrayList<>();
+        flushService = mock(ScheduledExecutorService.class);
+        subscriptionManager = new WebSocketSubscriptionManager(sentMessages::add, flushService, Duration.ofMillis(100));
+    }
+
+    private void runScheduledFlushes(int expectedFlushes) {
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(flushService, times(expectedFlushes)).schedule(flushCaptor.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+        flushCaptor.getAllValues().forEach(Runnable::run);
+        clearInvocations(flushService);
+    }
+
+    private long countSentMessages(String action) {
+        return sentMessages.stream()
+                .filter(message -> message.contains("\"action\":\"" + action + "\""))
+                .count();
+    }
+
+    @Test
+    void resubscribeWithoutAccountsDoesNotSubscribe() {
+        subscriptionManager.resubscribe();
+        assertEquals(0, countSentMessages("subscribe"));
+    }
+
+    @Test
+    void coalescesChangesWithinWindow() {
+        subscriptionManager.resubscribe();
+        subscriptionManager.addAccounts(List.of(ADDRESS_ONE, ADDRESS_TWO));
+        subscriptionManager.addAccounts(List.of(ADDRESS_THREE));
+        runScheduledFlushes(1);
+
+        assertEquals(1, countSentMessages("subscribe"));
+        assertEquals(0, countSentMessages("update"));
+
+        subscriptionManager.removeAccounts(List.of(ADDRESS_ONE));
+        subscriptionManager.addAccounts(List.of(ADDRESS_ONE));
+        subscriptionManager.removeAccounts(List.of(ADDRESS_TWO));
+        runScheduledFlushes(1);
+
+        assertEquals(1, countSentMessages("subscribe"));
+        assertEquals(1, countSentMessages("update"));
+        String updateMessage = sentMessages.get(1);
+        assertTrue(updateMessage.contains("\"accounts_del\":[\"" + ADDRESS_TWO + "\"]"));
+        assertFalse(updateMessage.contains("accounts_add"));
+        assertTrue(subscriptionManager.isWatched(ADDRESS_ONE));
+        assertFalse(subscriptionManager.isWatched(ADDRESS_TWO));
+        assertEquals(2, subscriptionManager.getWatchedAccountCount());
+    }
+
+    @Test
+    void cancellingChangesSendNoUpdate() {
+        subscriptionManager.addAccounts(List.of(ADDRESS_ONE));
+        runScheduledFlushes(1);
+        subscriptionManager.addAccounts(List.of(ADDRESS_TWO));
+        subscriptionManager.removeAccounts(List.of(ADDRESS_TWO));
+        runScheduledFlushes(1);
+
+        assertEquals(1, countSentMessages("subscribe"));
+        assertEquals(0, countSentMessages("update"));
+    }
+
+    @Test
+    void resubscribeSendsFullAccountSet() {
+        subscriptionManager.addAccounts(List.of(ADDRESS_ONE, ADDRESS_TWO));
+        runScheduledFlushes(1);
+        subscriptionManager.resubscribe();
+
+        assertEquals(2, countSentMessages("subscribe"));
+        assertEquals(0, countSentMessages("update"));
+    }
+
+}
@@ -1,5 +1,7 @@
 package xyz.benanderson.nanopay.death;
 
+import xyz.benanderson.nanopay.event.PaymentEvent;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.SecureRandomUtil;
 import xyz.benanderson.nanopay.wallet.Wallet;
 import lombok.SneakyThrows;
@@ -15,7 +17,9 @@ import uk.oczadly.karl.jnano.rpc.JsonResponseDeserializer;
 import uk.oczadly.karl.jnano.rpc.RpcQueryNode;
 import uk.oczadly.karl.jnano.rpc.exception.RpcException;
 import uk.oczadly.karl.jnano.rpc.request.node.RequestAccountHistory;
+import uk.oczadly.karl.jnano.rpc.request.node.RequestAccountInfo;
 import uk.oczadly.karl.jnano.rpc.response.ResponseAccountHistory;
+import uk.oczadly.karl.jnano.rpc.response.ResponseAccountInfo;
 import uk.oczadly.karl.jnano.util.WalletUtil;
 import uk.oczadly.karl.jnano.util.wallet.LocalRpcWalletAccount;
 import uk.oczadly.karl.jnano.util.wallet.WalletActionException;
@@ -25,6 +29,9 @@ import java.math.BigDecimal;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 
@@ -251,6 +258,8 @@ class DefaultWalletDeathHandlerTest {
         doReturn(null).when(rpcWallet).send(any(), any());
         doReturn(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT.add(REQUIRED_AMOUNT))).when(rpcWallet).getBalance();
         doReturn(Optional.empty()).when(rpcWallet).sendAll(any());
+        List<PaymentEvent> paymentEvents = new ArrayList<>();
+        walletDeathHandler.setPaymentEventListener(paymentEvents::add);
 
         walletDeathHandler.refundAllBalance(rpcWallet);
         verify(rpcWallet, times(2)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
@@ -262,6 +271,218 @@ class DefaultWalletDeathHandlerTest {
                 sendWalletCaptor.getAllValues().get(1).toAddress());
         assertEquals(NanoAmount.valueOfNano(REQUIRED_AMOUNT),
                 sendAmountCaptor.getAllValues().get(1));
+        assertEquals(2, paymentEvents.size());
+        assertEquals(PaymentEvent.Type.REFUNDED, paymentEvents.get(0).type());
+        assertEquals(wallet.address(), paymentEvents.get(0).address());
+        assertEquals("nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                paymentEvents.get(0).counterparty());
+        assertEquals(0, LESS_THAN_REQUIRED_AMOUNT.compareTo(paymentEvents.get(0).amount()));
+        assertEquals(0, REQUIRED_AMOUNT.compareTo(paymentEvents.get(1).amount()));
+    }
+
+    @Test
+    void refundExtraBalanceFromInboundPayments() throws RpcException, IOException, WalletActionException {
+        //the recorded payments add up to the required amount plus the balance left after it was sent on,
+        //so the refunds are worked out without fetching the account history
+        Wallet wallet = generateTestWallet()
+                .withInboundPayment(new InboundPayment(
+                        "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                        MORE_THAN_REQUIRED_AMOUNT,
+                        "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                        Instant.ofEpochSecond(1649277656)))
+                .withInboundPayment(new InboundPayment(
+                        "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                        LESS_THAN_REQUIRED_AMOUNT,
+                        "A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C09",
+                        Instant.ofEpochSecond(1649277683)));
+
+        ArgumentCaptor<NanoAccount> sendWalletCaptor = ArgumentCaptor.forClass(NanoAccount.class);
+        ArgumentCaptor<NanoAmount> sendAmountCaptor = ArgumentCaptor.forClass(NanoAmount.class);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(new LocalRpcWalletAccount<>(
+                new HexData(wallet.privateKey()), rpcClient, blockFactory));
+        doReturn(null).when(rpcWallet).send(any(), any());
+        doReturn(NanoAmount.valueOfNano(MORE_THAN_REQUIRED_AMOUNT.add(LESS_THAN_REQUIRED_AMOUNT)
+                .subtract(REQUIRED_AMOUNT))).when(rpcWallet).getBalance();
+
+        walletDeathHandler.refundExtraBalance(rpcWallet, wallet);
+        verify(rpcClient, never()).processRequest(any(RequestAccountHistory.class));
+        verify(rpcWallet, times(2)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
+        assertEquals("nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                sendWalletCaptor.getAllValues().get(0).toAddress());
+        assertEquals(NanoAmount.valueOfNano(MORE_THAN_REQUIRED_AMOUNT.subtract(REQUIRED_AMOUNT)),
+                sendAmountCaptor.getAllValues().get(0));
+        assertEquals("nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                sendWalletCaptor.getAllValues().get(1).toAddress());
+        assertEquals(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT),
+                sendAmountCaptor.getAllValues().get(1));
+    }
+
+    private ResponseAccountInfo accountInfo(NanoAmount balance, int blockCount) {
+        String responseAccountInfoJson = """
+                {
+                  "frontier": "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                  "open_block": "A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C09",
+                  "representative_block": "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                  "balance": "%s",
+                  "modified_timestamp": "1649277683",
+                  "block_count": "%d",
+                  "account_version": "2",
+                  "confirmation_height": "%d"
+                }""".formatted(balance.getAsRaw(), blockCount, blockCount);
+        return new JsonResponseDeserializer().deserialize(responseAccountInfoJson, ResponseAccountInfo.class);
+    }
+
+    private Wallet walletWithRecordedPayments() {
+        return generateTestWallet()
+                .withInboundPayment(new InboundPayment(
+                        "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                        REQUIRED_AMOUNT,
+                        "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                        Instant.ofEpochSecond(1649277656)))
+                .withInboundPayment(new InboundPayment(
+                        "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                        LESS_THAN_REQUIRED_AMOUNT,
+                        "A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C09",
+                        Instant.ofEpochSecond(1649277683)));
+    }
+
+    @Test
+    void refundAllBalanceFromInboundPayments() throws RpcException, IOException, WalletActionException {
+        //the wallet's only blocks are the receipts of the recorded payments, which add up to its balance
+        Wallet wallet = walletWithRecordedPayments();
+        NanoAmount balance = NanoAmount.valueOfNano(REQUIRED_AMOUNT.add(LESS_THAN_REQUIRED_AMOUNT));
+        doReturn(accountInfo(balance, 2)).when(rpcClient).processRequest(any(RequestAccountInfo.class));
+
+        ArgumentCaptor<NanoAccount> sendWalletCaptor = ArgumentCaptor.forClass(NanoAccount.class);
+        ArgumentCaptor<NanoAmount> sendAmountCaptor = ArgumentCaptor.forClass(NanoAmount.class);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(new LocalRpcWalletAccount<>(
+                new HexData(wallet.privateKey()), rpcClient, blockFactory));
+        doReturn(null).when(rpcWallet).send(any(), any());
+        doReturn(balance).when(rpcWallet).getBalance();
+
+        walletDeathHandler.refundAllBalance(rpcWallet, wallet);
+        verify(rpcClient, never()).processRequest(any(RequestAccountHistory.class));
+        verify(rpcWallet, times(2)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
+        assertEquals("nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                sendWalletCaptor.getAllValues().get(0).toAddress());
+        assertEquals(NanoAmount.valueOfNano(REQUIRED_AMOUNT), sendAmountCaptor.getAllValues().get(0));
+        assertEquals("nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                sendWalletCaptor.getAllValues().get(1).toAddress());
+        assertEquals(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT), sendAmountCaptor.getAllValues().get(1));
+    }
+
+    @Test
+    void refundAllBalanceFetchesHistoryWhenWalletHasSent() throws RpcException, IOException,
+            WalletActionException {
+        //the recorded payments were sent on, then the same amount was paid to the wallet by another sender
+        String responseAccountHistoryJson = """
+                {
+                  "history": [
+                    {
+                      "type": "receive",
+                      "account": "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                      "amount": "%s",
+                      "local_timestamp": "1649277700",
+                      "height": "5",
+                      "hash": "9A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C0",
+                      "confirmed": "true"
+                    }
+                  ]
+                }""".formatted(NanoAmount.valueOfNano(REQUIRED_AMOUNT.add(LESS_THAN_REQUIRED_AMOUNT)).getAsRaw());
+        ResponseAccountHistory responseAccountHistory
+                = new JsonResponseDeserializer().deserialize(responseAccountHistoryJson, ResponseAccountHistory.class);
+        doReturn(responseAccountHistory).when(rpcClient).processRequest(any(RequestAccountHistory.class));
+        Wallet wallet = walletWithRecordedPayments();
+        NanoAmount balance = NanoAmount.valueOfNano(REQUIRED_AMOUNT.add(LESS_THAN_REQUIRED_AMOUNT));
+        doReturn(accountInfo(balance, 5)).when(rpcClient).processRequest(any(RequestAccountInfo.class));
+
+        ArgumentCaptor<NanoAccount> sendWalletCaptor = ArgumentCaptor.forClass(NanoAccount.class);
+        ArgumentCaptor<NanoAmount> sendAmountCaptor = ArgumentCaptor.forClass(NanoAmount.class);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(new LocalRpcWalletAccount<>(
+                new HexData(wallet.privateKey()), rpcClient, blockFactory));
+        doReturn(null).when(rpcWallet).send(any(), any());
+        doReturn(balance).when(rpcWallet).getBalance();
+
+        walletDeathHandler.refundAllBalance(rpcWallet, wallet);
+        verify(rpcClient, times(1)).processRequest(any(RequestAccountHistory.class));
+        verify(rpcWallet, times(1)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
+        assertEquals("nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                sendWalletCaptor.getValue().toAddress());
+        assertEquals(balance, sendAmountCaptor.getValue());
+    }
+
+    @Test
+    void refundAllBalanceSweepsToStorageWhenHistoryTooLong() throws RpcException, IOException, WalletActionException {
+        //every page of the history is full, so the payments can't all be fetched to plan the refunds from
+        String block = """
+                    {
+                      "type": "receive",
+                      "account": "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                      "amount": "%s",
+                      "local_timestamp": "1649277683",
+                      "height": "73",
+                      "hash": "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                      "confirmed": "true"
+                    }""".formatted(NanoAmount.valueOfNano(LESS_THAN_REQUIRED_AMOUNT).getAsRaw());
+        String responseAccountHistoryJson = "{\"history\": ["
+                + String.join(",", Collections.nCopies(100, block)) + "]}";
+        ResponseAccountHistory responseAccountHistory
+                = new JsonResponseDeserializer().deserialize(responseAccountHistoryJson, ResponseAccountHistory.class);
+        doReturn(responseAccountHistory).when(rpcClient).processRequest(any(RequestAccountHistory.class));
+
+        Wallet wallet = generateTestWallet();
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(new LocalRpcWalletAccount<>(
+                new HexData(wallet.privateKey()), rpcClient, blockFactory));
+        doReturn(null).when(rpcWallet).send(any(), any());
+        doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+        doReturn(Optional.empty()).when(rpcWallet).sendAll(any());
+
+        walletDeathHandler.refundAllBalance(rpcWallet);
+        verify(rpcClient, times(10)).processRequest(any(RequestAccountHistory.class));
+        verify(rpcWallet, never()).send(any(), any());
+        verify(rpcWallet, times(1)).sendAll(storageWallet);
+    }
+
+    @Test
+    void refundAllBalanceFetchesHistoryWhenInboundPaymentsIncomplete() throws RpcException, IOException,
+            WalletActionException {
+        String responseAccountHistoryJson = """
+                {
+                  "history": [
+                    {
+                      "type": "receive",
+                      "account": "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                      "amount": "%d",
+                      "local_timestamp": "1649277683",
+                      "height": "73",
+                      "hash": "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                      "confirmed": "true"
+                    }
+                  ]
+                }""".formatted(NanoAmount.valueOfNano(REQUIRED_AMOUNT).getAsRaw());
+        ResponseAccountHistory responseAccountHistory
+                = new JsonResponseDeserializer().deserialize(responseAccountHistoryJson, ResponseAccountHistory.class);
+        doReturn(responseAccountHistory).when(rpcClient).processRequest(any(RequestAccountHistory.class));
+
+        //only part of the balance was recorded, e.g. as the wallet was created before payments were recorded
+        Wallet wallet = generateTestWallet().withInboundPayment(new InboundPayment(
+                "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                LESS_THAN_REQUIRED_AMOUNT,
+                "A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C09",
+                Instant.ofEpochSecond(1649277656)));
+        ArgumentCaptor<NanoAccount> sendWalletCaptor = ArgumentCaptor.forClass(NanoAccount.class);
+        ArgumentCaptor<NanoAmount> sendAmountCaptor = ArgumentCaptor.forClass(NanoAmount.class);
+        LocalRpcWalletAccount<StateBlock> rpcWallet = spy(new LocalRpcWalletAccount<>(
+                new HexData(wallet.privateKey()), rpcClient, blockFactory));
+        doReturn(null).when(rpcWallet).send(any(), any());
+        doReturn(NanoAmount.valueOfNano(REQUIRED_AMOUNT)).when(rpcWallet).getBalance();
+
+        walletDeathHandler.refundAllBalance(rpcWallet, wallet);
+        verify(rpcClient, times(1)).processRequest(any(RequestAccountHistory.class));
+        verify(rpcWallet, times(1)).send(sendWalletCaptor.capture(), sendAmountCaptor.capture());
+        assertEquals("nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                sendWalletCaptor.getValue().toAddress());
+        assertEquals(NanoAmount.valueOfNano(REQUIRED_AMOUNT), sendAmountCaptor.getValue());
     }
 
 }
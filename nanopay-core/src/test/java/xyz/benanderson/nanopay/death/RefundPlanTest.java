@@ -0,0 +1,81 @@
+package xyz.benanderson.nanopay.death;
+
+import org.junit.jupiter.api.Test;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefundPlanTest {
+
+    final static String OLDER_SENDER = "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac";
+    final static String NEWER_SENDER = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+    final static BigDecimal REQUIRED_AMOUNT = new BigDecimal("5.0");
+
+    private static InboundPayment payment(String sender, String amount, long timestamp) {
+        return new InboundPayment(sender, new BigDecimal(amount), sender + timestamp, Instant.ofEpochSecond(timestamp));
+    }
+
+    @Test
+    void forExtraOverflowingPaymentAndExtraPayment() {
+        RefundPlan refundPlan = RefundPlan.forExtra(List.of(
+                payment(OLDER_SENDER, "8.0", 1649277656),
+                payment(NEWER_SENDER, "1.0", 1649277683)
+        ), REQUIRED_AMOUNT);
+
+        assertEquals(List.of(
+                new RefundPlan.Refund(OLDER_SENDER, new BigDecimal("3.0")),
+                new RefundPlan.Refund(NEWER_SENDER, new BigDecimal("1.0"))
+        ), refundPlan.refunds());
+        assertEquals(0, new BigDecimal("4.0").compareTo(refundPlan.total()));
+    }
+
+    @Test
+    void forExtraUsesArrivalOrderOverTimestamps() {
+        //the older payment was handled after the newer one, so has the later timestamp
+        RefundPlan refundPlan = RefundPlan.forExtra(List.of(
+                payment(OLDER_SENDER, "4.0", 1649277683),
+                payment(NEWER_SENDER, "3.0", 1649277656)
+        ), REQUIRED_AMOUNT);
+
+        assertEquals(List.of(new RefundPlan.Refund(NEWER_SENDER, new BigDecimal("2.0"))), refundPlan.refunds());
+    }
+
+    @Test
+    void forExtraExactPayments() {
+        RefundPlan refundPlan = RefundPlan.forExtra(List.of(
+                payment(OLDER_SENDER, "1.0", 1649277656),
+                payment(NEWER_SENDER, "4.0", 1649277683)
+        ), REQUIRED_AMOUNT);
+
+        assertTrue(refundPlan.refunds().isEmpty());
+    }
+
+    @Test
+    void forAllSkipsPaymentsNotCoveredByBalance() {
+        RefundPlan refundPlan = RefundPlan.forAll(List.of(
+                payment(OLDER_SENDER, "5.0", 1649277656),
+                payment(NEWER_SENDER, "1.0", 1649277683)
+        ), new BigDecimal("4.0"));
+
+        assertEquals(List.of(new RefundPlan.Refund(NEWER_SENDER, new BigDecimal("1.0"))), refundPlan.refunds());
+    }
+
+    @Test
+    void forAllNewestFirst() {
+        RefundPlan refundPlan = RefundPlan.forAll(List.of(
+                payment(OLDER_SENDER, "5.0", 1649277656),
+                payment(NEWER_SENDER, "1.0", 1649277683)
+        ), new BigDecimal("6.0"));
+
+        assertEquals(List.of(
+                new RefundPlan.Refund(NEWER_SENDER, new BigDecimal("1.0")),
+                new RefundPlan.Refund(OLDER_SENDER, new BigDecimal("5.0"))
+        ), refundPlan.refunds());
+    }
+
+}
@@ -0,0 +1,117 @@
+package xyz.benanderson.nanopay.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.benanderson.nanopay.NanoPay;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentEventPublisherTest {
+
+    ExecutorService executor;
+
+    @BeforeEach
+    void setup() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void eventsAreDeliveredInOrderOffThePublishingThread() throws InterruptedException {
+        PaymentEventPublisher publisher = new PaymentEventPublisher(executor,
+                PaymentEventPublisher.DEFAULT_BUFFER_CAPACITY, NanoPay.OverflowPolicy.BLOCK, Instrumentation.NOOP);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+
+        publisher.publish(PaymentEvent.created("nano_1", BigDecimal.ONE));
+        publisher.publish(PaymentEvent.paid("nano_1", BigDecimal.ONE));
+        publisher.close();
+
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(PaymentEvent.created("nano_1", BigDecimal.ONE),
+                PaymentEvent.paid("nano_1", BigDecimal.ONE)), List.copyOf(subscriber.events));
+        assertNotEquals(Thread.currentThread(), subscriber.deliveryThread);
+    }
+
+    @Test
+    void fullBufferDiscardsEventsForSlowSubscriber() throws InterruptedException {
+        PaymentEventPublisher publisher = new PaymentEventPublisher(executor, 2, NanoPay.OverflowPolicy.DISCARD,
+                Instrumentation.NOOP);
+        //requests nothing, so every event is buffered
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(PaymentEvent.expired("nano_" + i));
+        }
+
+        assertEquals(3, publisher.getDroppedEvents());
+        assertEquals(2, publisher.getMaxBufferedEvents());
+        subscriber.subscription.request(Long.MAX_VALUE);
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(PaymentEvent.expired("nano_0"), PaymentEvent.expired("nano_1")),
+                List.copyOf(subscriber.events));
+    }
+
+    @Test
+    void eventsWithoutSubscribersAreIgnored() {
+        PaymentEventPublisher publisher = new PaymentEventPublisher(executor, 1, NanoPay.OverflowPolicy.BLOCK,
+                Instrumentation.NOOP);
+        publisher.publish(PaymentEvent.cancelled("nano_1"));
+        publisher.publish(PaymentEvent.cancelled("nano_2"));
+        publisher.close();
+        publisher.publish(PaymentEvent.cancelled("nano_3"));
+        assertEquals(0, publisher.getSubscriberCount());
+        assertEquals(0, publisher.getDroppedEvents());
+    }
+
+    static class RecordingSubscriber implements Flow.Subscriber<PaymentEvent> {
+
+        final long initialRequest;
+        final BlockingQueue<PaymentEvent> events = new LinkedBlockingQueue<>();
+        final CountDownLatch subscribed = new CountDownLatch(1), completed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Thread deliveryThread;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) subscription.request(initialRequest);
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(PaymentEvent item) {
+            deliveryThread = Thread.currentThread();
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+    }
+
+}
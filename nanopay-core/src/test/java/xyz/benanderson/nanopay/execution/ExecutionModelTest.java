@@ -0,0 +1,95 @@
+package xyz.benanderson.nanopay.execution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionModelTest {
+
+    @Test
+    void monitoredExecutorCountsQueuedAndActiveTasks() throws InterruptedException {
+        MonitoredExecutorService executor = new MonitoredExecutorService("test", Executors.newSingleThreadExecutor());
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> {});
+        executor.execute(() -> {});
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals("test", executor.getName());
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(2, executor.getQueueDepth());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getActiveCount());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    void serialExecutorRunsTasksInOrder() throws InterruptedException {
+        MonitoredExecutorService pool = new MonitoredExecutorService("test", Executors.newFixedThreadPool(4));
+        SerialExecutor serialExecutor = new SerialExecutor(pool);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            serialExecutor.execute(() -> {
+                order.add(task);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, order.get(i));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void delayedTasksAreDiscardedOnClose() throws InterruptedException {
+        ExecutionModel executionModel = ExecutionModel.platformThreads();
+        CountDownLatch ran = new CountDownLatch(1);
+        executionModel.getScheduledExecutor().schedule(ran::countDown, 100, TimeUnit.MILLISECONDS);
+
+        executionModel.close();
+        assertTrue(executionModel.getScheduledExecutor().awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, ran.getCount());
+    }
+
+    @Test
+    void virtualThreadsFallBackWhenUnsupported() throws InterruptedException {
+        try (ExecutionModel executionModel = ExecutionModel.virtualThreads()) {
+            assertEquals(ExecutionModel.isVirtualThreadSupported(), executionModel.isVirtual());
+            CountDownLatch ran = new CountDownLatch(1);
+            executionModel.getDeathExecutor().execute(ran::countDown);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void platformThreadsNamesExecutors() {
+        try (ExecutionModel executionModel = ExecutionModel.platformThreads()) {
+            assertFalse(executionModel.isVirtual());
+            assertEquals(List.of("nanopay-request", "nanopay-websocket-event", "nanopay-death", "nanopay-storage",
+                            "nanopay-scheduler", "nanopay-event"),
+                    executionModel.getExecutors().stream().map(MonitoredExecutor::getName).toList());
+        }
+        assertThrows(IllegalArgumentException.class, () -> ExecutionModel.platformThreads(0, 1, 1));
+    }
+
+}
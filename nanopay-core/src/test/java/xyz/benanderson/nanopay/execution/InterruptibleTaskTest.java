@@ -0,0 +1,129 @@
+package xyz.benanderson.nanopay.execution;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InterruptibleTaskTest {
+
+    ExecutorService executor;
+
+    @BeforeEach
+    void setup() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void completesWithResult() throws Exception {
+        assertEquals("result", InterruptibleTask.supply(() -> "result", executor, null).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void completesExceptionallyWithThrownException() {
+        CompletableFuture<String> future = InterruptibleTask.supply(() -> {
+            throw new IllegalArgumentException("failed");
+        }, executor, null);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    void cancellationInterruptsRunningTask() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1), interrupted = new CountDownLatch(1);
+        CompletableFuture<String> future = InterruptibleTask.supply(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "result";
+        }, executor, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    void timeoutInterruptsRunningTask() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> future = InterruptibleTask.supply(() -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "result";
+        }, executor, Duration.ofMillis(50));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void uninterruptibleTaskRunsToCompletionAfterTimeout() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1), finished = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CompletableFuture<String> future = InterruptibleTask.supplyUninterruptibly(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            finished.countDown();
+            return "result";
+        }, executor, Duration.ofMillis(50));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+    }
+
+    @Test
+    void cancelledTaskIsNotRunAndDoesNotLeakInterrupt() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<String> future = InterruptibleTask.supply(() -> {
+            ran.set(true);
+            return "result";
+        }, executor, null);
+        future.cancel(true);
+        release.countDown();
+
+        assertFalse(InterruptibleTask.supply(() -> Thread.currentThread().isInterrupted(), executor, null)
+                .get(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void rejectedTaskCompletesExceptionally() {
+        executor.shutdown();
+        CompletableFuture<String> future = InterruptibleTask.supply(() -> "result", executor, null);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+}
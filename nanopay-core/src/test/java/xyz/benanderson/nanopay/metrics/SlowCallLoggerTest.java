@@ -0,0 +1,48 @@
+package xyz.benanderson.nanopay.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class SlowCallLoggerTest {
+
+    @Test
+    void thresholdIsFoundByNameThenParentName() {
+        SlowCallLogger slowCallLogger = new SlowCallLogger(Instrumentation.NOOP, Duration.ofSeconds(1), Map.of(
+                "nanopay.rpc", Duration.ofMillis(200),
+                "nanopay.rpc.work_generate", Duration.ofSeconds(10)));
+
+        assertEquals(Duration.ofSeconds(10).toNanos(), slowCallLogger.getThresholdNanos("nanopay.rpc.work_generate"));
+        assertEquals(Duration.ofMillis(200).toNanos(), slowCallLogger.getThresholdNanos("nanopay.rpc.account_info"));
+        assertEquals(Duration.ofSeconds(1).toNanos(), slowCallLogger.getThresholdNanos("nanopay.wallet.check"));
+    }
+
+    @Test
+    void timersWithoutThresholdAreNeverLogged() {
+        SlowCallLogger slowCallLogger = new SlowCallLogger(Instrumentation.NOOP, null,
+                Map.of("nanopay.rpc", Duration.ofMillis(200)));
+
+        assertEquals(Long.MAX_VALUE, slowCallLogger.getThresholdNanos("nanopay.wallet.check"));
+    }
+
+    @Test
+    void metricsAreForwarded() {
+        Instrumentation instrumentation = mock(Instrumentation.class);
+        SlowCallLogger slowCallLogger = new SlowCallLogger(instrumentation, Duration.ofMillis(1), Map.of());
+        LongSupplier gauge = () -> 1;
+
+        slowCallLogger.incrementCounter(MetricNames.PAYMENTS_REQUESTED, 3);
+        slowCallLogger.recordTime(MetricNames.WALLET_CHECK, Duration.ofMillis(5).toNanos());
+        slowCallLogger.registerGauge(MetricNames.ACTIVE_WALLETS, gauge);
+
+        verify(instrumentation).incrementCounter(MetricNames.PAYMENTS_REQUESTED, 3);
+        verify(instrumentation).recordTime(MetricNames.WALLET_CHECK, Duration.ofMillis(5).toNanos());
+        verify(instrumentation).registerGauge(MetricNames.ACTIVE_WALLETS, gauge);
+    }
+
+}
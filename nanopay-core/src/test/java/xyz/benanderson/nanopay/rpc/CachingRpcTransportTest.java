@@ -0,0 +1,127 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CachingRpcTransportTest {
+
+    final static String ACCOUNT = "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674";
+    final static String OTHER_ACCOUNT = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+    final static String ACCOUNT_INFO_REQUEST = "{\"action\":\"account_info\",\"account\":\"" + ACCOUNT + "\"}";
+    final static String ACCOUNT_BALANCE_REQUEST = "{\"action\":\"account_balance\",\"account\":\"" + ACCOUNT + "\"}";
+
+    RpcRequestExecutor rpcTransport;
+    URL address;
+
+    @BeforeEach
+    void setup() throws IOException {
+        address = new URL("http://127.0.0.1:7076/");
+        rpcTransport = mock(RpcRequestExecutor.class);
+        doReturn("{\"frontier\":\"AA\",\"balance\":\"100\",\"representative\":\"" + OTHER_ACCOUNT + "\",\"block_count\":\"1\"}")
+                .when(rpcTransport).submit(any(), eq(ACCOUNT_INFO_REQUEST));
+        doReturn("{\"balance\":\"100\",\"receivable\":\"50\"}").when(rpcTransport).submit(any(), eq(ACCOUNT_BALANCE_REQUEST));
+        doReturn("{\"hash\":\"BB\"}").when(rpcTransport).submit(any(), contains("\"process\""));
+    }
+
+    @Test
+    void repeatedRequestsAreCached() throws IOException {
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 16, Duration.ofMinutes(1));
+        String response = cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        assertEquals(JsonParser.parseString(response), JsonParser.parseString(
+                cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST)));
+        verify(rpcTransport, times(1)).submit(address, ACCOUNT_INFO_REQUEST);
+        assertEquals(1, cachingRpcTransport.getHits());
+        assertEquals(1, cachingRpcTransport.getMisses());
+    }
+
+    @Test
+    void invalidatedStateIsRefetched() throws IOException {
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 16, Duration.ofMinutes(1));
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        cachingRpcTransport.invalidate(ACCOUNT);
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        verify(rpcTransport, times(2)).submit(address, ACCOUNT_INFO_REQUEST);
+    }
+
+    @Test
+    void expiredStateIsRefetched() throws IOException {
+        Clock clock = mock(Clock.class);
+        Instant now = Instant.now();
+        doReturn(now).when(clock).instant();
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 16, Duration.ofSeconds(10), clock);
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        doReturn(now.plusSeconds(11)).when(clock).instant();
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        verify(rpcTransport, times(2)).submit(address, ACCOUNT_INFO_REQUEST);
+    }
+
+    @Test
+    void leastRecentlyUsedAccountIsEvicted() throws IOException {
+        String otherRequest = "{\"action\":\"account_info\",\"account\":\"" + OTHER_ACCOUNT + "\"}";
+        doReturn("{\"frontier\":\"CC\",\"balance\":\"1\"}").when(rpcTransport).submit(any(), eq(otherRequest));
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 1, Duration.ofMinutes(1));
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        cachingRpcTransport.submit(address, otherRequest);
+        assertEquals(1, cachingRpcTransport.getSize());
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        verify(rpcTransport, times(2)).submit(address, ACCOUNT_INFO_REQUEST);
+    }
+
+    @Test
+    void publishedBlockUpdatesState() throws IOException {
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 16, Duration.ofMinutes(1));
+        cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST);
+        cachingRpcTransport.submit(address, ACCOUNT_BALANCE_REQUEST);
+
+        JsonObject block = new JsonObject();
+        block.addProperty("type", "state");
+        block.addProperty("account", ACCOUNT);
+        block.addProperty("previous", "AA");
+        block.addProperty("representative", ACCOUNT);
+        block.addProperty("balance", "130");
+        JsonObject processRequest = new JsonObject();
+        processRequest.addProperty("action", "process");
+        processRequest.addProperty("json_block", "true");
+        processRequest.add("block", block);
+        cachingRpcTransport.submit(address, processRequest.toString());
+
+        JsonObject accountInfo = JsonParser.parseString(cachingRpcTransport.submit(address, ACCOUNT_INFO_REQUEST))
+                .getAsJsonObject();
+        assertEquals("BB", accountInfo.get("frontier").getAsString());
+        assertEquals("130", accountInfo.get("balance").getAsString());
+        assertEquals(ACCOUNT, accountInfo.get("representative").getAsString());
+        assertEquals("2", accountInfo.get("block_count").getAsString());
+        JsonObject accountBalance = JsonParser.parseString(cachingRpcTransport.submit(address, ACCOUNT_BALANCE_REQUEST))
+                .getAsJsonObject();
+        assertEquals("130", accountBalance.get("balance").getAsString());
+        assertEquals("20", accountBalance.get("receivable").getAsString());
+        verify(rpcTransport, times(1)).submit(address, ACCOUNT_INFO_REQUEST);
+        verify(rpcTransport, times(1)).submit(address, ACCOUNT_BALANCE_REQUEST);
+    }
+
+    @Test
+    void errorsAreNotCached() throws IOException {
+        String unopenedRequest = "{\"action\":\"account_info\",\"account\":\"" + OTHER_ACCOUNT + "\"}";
+        doReturn("{\"error\":\"Account not found\"}").when(rpcTransport).submit(any(), eq(unopenedRequest));
+        CachingRpcTransport cachingRpcTransport = new CachingRpcTransport(rpcTransport, 16, Duration.ofMinutes(1));
+        cachingRpcTransport.submit(address, unopenedRequest);
+        cachingRpcTransport.submit(address, unopenedRequest);
+        verify(rpcTransport, times(2)).submit(address, unopenedRequest);
+    }
+
+}
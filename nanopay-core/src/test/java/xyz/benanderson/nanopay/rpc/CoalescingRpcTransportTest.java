@@ -0,0 +1,140 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class CoalescingRpcTransportTest {
+
+    final static String ACCOUNT_ONE = "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674";
+    final static String ACCOUNT_TWO = "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto";
+    final static String ACCOUNT_THREE = "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac";
+
+    RpcRequestExecutor rpcTransport;
+    URL address;
+
+    @BeforeEach
+    void setup() throws IOException {
+        address = new URL("http://127.0.0.1:7076/");
+        rpcTransport = mock(RpcRequestExecutor.class);
+        //responds to batched requests with a balance of 1 raw for every account except ACCOUNT_THREE
+        doAnswer(invocation -> {
+            JsonObject request = JsonParser.parseString(invocation.getArgument(1, String.class)).getAsJsonObject();
+            if (request.get("action").getAsString().equals("accounts_balances")) {
+                JsonObject balances = new JsonObject();
+                request.getAsJsonArray("accounts").forEach(account -> {
+                    if (account.getAsString().equals(ACCOUNT_THREE)) return;
+                    JsonObject balance = new JsonObject();
+                    balance.addProperty("balance", "1");
+                    balance.addProperty("receivable", "0");
+                    balances.add(account.getAsString(), balance);
+                });
+                JsonObject response = new JsonObject();
+                response.add("balances", balances);
+                return response.toString();
+            }
+            return "{\"balance\":\"2\",\"receivable\":\"0\"}";
+        }).when(rpcTransport).submit(any(), any());
+    }
+
+    @Test
+    void concurrentBalanceRequestsAreCoalesced() throws Exception {
+        CoalescingRpcTransport coalescingRpcTransport = new CoalescingRpcTransport(rpcTransport, Duration.ofSeconds(5), 2);
+        List<CompletableFuture<String>> responses = List.of(ACCOUNT_ONE, ACCOUNT_TWO).stream()
+                .map(account -> CompletableFuture.supplyAsync(() -> submitBalanceRequest(coalescingRpcTransport, account)))
+                .toList();
+        for (CompletableFuture<String> response : responses) {
+            assertEquals("{\"balance\":\"1\",\"receivable\":\"0\"}", response.get(10, TimeUnit.SECONDS));
+        }
+        verify(rpcTransport, times(1)).submit(any(), contains("accounts_balances"));
+        verify(rpcTransport, times(1)).submit(any(), any());
+        assertEquals(1, coalescingRpcTransport.getBatchesSent());
+        assertEquals(2, coalescingRpcTransport.getCoalescedRequests());
+    }
+
+    @Test
+    void batchIsSentAfterWindow() throws Exception {
+        CoalescingRpcTransport coalescingRpcTransport = new CoalescingRpcTransport(rpcTransport, Duration.ofMillis(500), 100);
+        List<CompletableFuture<String>> responses = IntStream.range(0, 10)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> submitBalanceRequest(coalescingRpcTransport,
+                        i % 2 == 0 ? ACCOUNT_ONE : ACCOUNT_TWO)))
+                .toList();
+        for (CompletableFuture<String> response : responses) {
+            assertEquals("{\"balance\":\"1\",\"receivable\":\"0\"}", response.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(coalescingRpcTransport.getBatchesSent() < 10);
+        assertEquals(10, coalescingRpcTransport.getCoalescedRequests());
+    }
+
+    @Test
+    void missingAccountIsRequestedIndividually() throws Exception {
+        CoalescingRpcTransport coalescingRpcTransport = new CoalescingRpcTransport(rpcTransport, Duration.ofSeconds(5), 2);
+        CompletableFuture<String> presentResponse = CompletableFuture.supplyAsync(
+                () -> submitBalanceRequest(coalescingRpcTransport, ACCOUNT_ONE));
+        CompletableFuture<String> missingResponse = CompletableFuture.supplyAsync(
+                () -> submitBalanceRequest(coalescingRpcTransport, ACCOUNT_THREE));
+        assertEquals("{\"balance\":\"1\",\"receivable\":\"0\"}", presentResponse.get(10, TimeUnit.SECONDS));
+        assertEquals("{\"balance\":\"2\",\"receivable\":\"0\"}", missingResponse.get(10, TimeUnit.SECONDS));
+        verify(rpcTransport, times(1)).submit(any(), contains(ACCOUNT_THREE + "\"}"));
+    }
+
+    @Test
+    void otherRequestsArePassedThrough() throws IOException {
+        CoalescingRpcTransport coalescingRpcTransport = new CoalescingRpcTransport(rpcTransport, Duration.ofSeconds(5), 2);
+        String request = "{\"action\":\"account_info\",\"account\":\"" + ACCOUNT_ONE + "\"}";
+        coalescingRpcTransport.submit(address, request);
+        verify(rpcTransport, times(1)).submit(address, request);
+        assertEquals(0, coalescingRpcTransport.getBatchesSent());
+    }
+
+    @Test
+    void closeFailsUnsentRequests() throws Exception {
+        CoalescingRpcTransport coalescingRpcTransport = new CoalescingRpcTransport(rpcTransport, Duration.ofSeconds(5), 2);
+        CompletableFuture<String> response = CompletableFuture.supplyAsync(
+                () -> submitBalanceRequest(coalescingRpcTransport, ACCOUNT_ONE));
+        //waits for the request to join a batch, which isn't sent until the window ends
+        Thread.sleep(200);
+
+        coalescingRpcTransport.close();
+        assertThrows(ExecutionException.class, () -> response.get(10, TimeUnit.SECONDS));
+        assertThrows(IOException.class, () -> coalescingRpcTransport.submit(address,
+                "{\"action\":\"account_balance\",\"account\":\"" + ACCOUNT_TWO + "\"}"));
+        verify(rpcTransport, never()).submit(any(), any());
+    }
+
+    @Test
+    void parseCoalescableAccount() {
+        assertEquals(ACCOUNT_ONE, CoalescingRpcTransport.parseCoalescableAccount(
+                "{\"action\":\"account_balance\",\"account\":\"" + ACCOUNT_ONE + "\"}"));
+        assertNull(CoalescingRpcTransport.parseCoalescableAccount(
+                "{\"action\":\"account_balance\",\"account\":\"" + ACCOUNT_ONE + "\",\"include_only_confirmed\":\"false\"}"));
+        assertNull(CoalescingRpcTransport.parseCoalescableAccount("{\"action\":\"accounts_balances\"}"));
+        assertNull(CoalescingRpcTransport.parseCoalescableAccount("account_balance"));
+    }
+
+    String submitBalanceRequest(CoalescingRpcTransport coalescingRpcTransport, String account) {
+        try {
+            return coalescingRpcTransport.submit(address,
+                    "{\"action\":\"account_balance\",\"account\":\"" + account + "\"}");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
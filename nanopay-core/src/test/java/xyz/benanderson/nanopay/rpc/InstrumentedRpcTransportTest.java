@@ -0,0 +1,55 @@
+package xyz.benanderson.nanopay.rpc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.rpc.RpcRequestExecutor;
+import xyz.benanderson.nanopay.metrics.Instrumentation;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InstrumentedRpcTransportTest {
+
+    final static String ACCOUNT_INFO_REQUEST = "{\"action\":\"account_info\","
+            + "\"account\":\"nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674\"}";
+
+    RpcRequestExecutor rpcTransport;
+    Instrumentation instrumentation;
+    URL address;
+
+    @BeforeEach
+    void setup() throws IOException {
+        address = new URL("http://127.0.0.1:7076/");
+        rpcTransport = mock(RpcRequestExecutor.class);
+        instrumentation = mock(Instrumentation.class);
+        doCallRealMethod().when(instrumentation).startTimer();
+        doCallRealMethod().when(instrumentation).stopTimer(any(), anyLong());
+        doCallRealMethod().when(instrumentation).incrementCounter(any());
+    }
+
+    @Test
+    void requestIsTimedByAction() throws IOException {
+        doReturn("{\"balance\":\"100\"}").when(rpcTransport).submit(address, ACCOUNT_INFO_REQUEST);
+        InstrumentedRpcTransport instrumentedRpcTransport = new InstrumentedRpcTransport(rpcTransport, instrumentation);
+
+        assertEquals("{\"balance\":\"100\"}", instrumentedRpcTransport.submit(address, ACCOUNT_INFO_REQUEST));
+        verify(instrumentation).recordTime(eq("nanopay.rpc.account_info"), anyLong());
+        verify(instrumentation, never()).incrementCounter(any(), anyLong());
+    }
+
+    @Test
+    void failedRequestIsCounted() throws IOException {
+        doThrow(new IOException("Connection refused")).when(rpcTransport).submit(address, ACCOUNT_INFO_REQUEST);
+        InstrumentedRpcTransport instrumentedRpcTransport = new InstrumentedRpcTransport(rpcTransport, instrumentation);
+
+        assertThrows(IOException.class, () -> instrumentedRpcTransport.submit(address, ACCOUNT_INFO_REQUEST));
+        verify(instrumentation).recordTime(eq("nanopay.rpc.account_info"), anyLong());
+        verify(instrumentation).incrementCounter("nanopay.rpc.account_info.error", 1);
+    }
+
+}
@@ -0,0 +1,142 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledRpcTransportTest {
+
+    HttpServer server;
+    URL address;
+    CountDownLatch release;
+
+    @BeforeEach
+    void setup() throws IOException {
+        release = new CountDownLatch(0);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] response = (request.contains("fail") ? "{\"error\":\"Node is busy\"}" : "{\"balance\":\"1000\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(request.contains("fail") ? 500 : 200, response.length == 0 ? -1 : response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        address = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void submitRecordsLatencyPerAction() throws IOException {
+        PooledRpcTransport transport = new PooledRpcTransport();
+        assertEquals("{\"balance\":\"1000\"}",
+                transport.submit(address, "{\"action\":\"account_balance\",\"account\":\"nano_1\"}"));
+        transport.submit(address, "{\"action\":\"account_balance\",\"account\":\"nano_2\"}");
+        transport.submit(address, "{\"action\":\"account_info\",\"account\":\"nano_1\"}");
+
+        assertEquals(2, transport.getLatencyHistograms().get("account_balance").getCount());
+        assertEquals(1, transport.getLatencyHistograms().get("account_info").getCount());
+        assertEquals(0, transport.getInFlight());
+    }
+
+    @Test
+    void httpErrorFails() {
+        PooledRpcTransport transport = new PooledRpcTransport();
+        IOException exception = assertThrows(IOException.class,
+                () -> transport.submit(address, "{\"action\":\"fail\"}"));
+        assertTrue(exception.getMessage().contains("500"));
+        assertTrue(exception.getMessage().contains("Node is busy"));
+        assertEquals(1, transport.getLatencyHistograms().get("fail").getCount());
+    }
+
+    @Test
+    void closedTransportFails() {
+        PooledRpcTransport transport = new PooledRpcTransport();
+        transport.close();
+        assertThrows(IOException.class, () -> transport.submit(address, "{\"action\":\"account_info\"}"));
+    }
+
+    @Test
+    void requestTimesOut() {
+        release = new CountDownLatch(1);
+        PooledRpcTransport transport = new PooledRpcTransport(Duration.ofSeconds(5), Duration.ofMillis(200), 4);
+        assertThrows(IOException.class, () -> transport.submit(address, "{\"action\":\"account_info\"}"));
+    }
+
+    @Test
+    void inFlightRequestsAreLimited() throws Exception {
+        release = new CountDownLatch(1);
+        PooledRpcTransport transport = new PooledRpcTransport(Duration.ofSeconds(5), Duration.ofSeconds(10), 1);
+        CompletableFuture<String> blockedRequest = CompletableFuture.supplyAsync(() -> {
+            try {
+                return transport.submit(address, "{\"action\":\"account_info\"}");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.getInFlight() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, transport.getInFlight());
+        CompletableFuture<String> queuedRequest = CompletableFuture.supplyAsync(() -> {
+            try {
+                return transport.submit(address, "{\"action\":\"account_balance\"}");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(queuedRequest.isDone());
+        release.countDown();
+        assertNotNull(blockedRequest.get(10, TimeUnit.SECONDS));
+        assertNotNull(queuedRequest.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void parseAction() {
+        assertEquals("work_generate", PooledRpcTransport.parseAction("{\"action\": \"work_generate\", \"hash\":\"00\"}"));
+        assertEquals("unknown", PooledRpcTransport.parseAction("{}"));
+    }
+
+    @Test
+    void histogramPercentiles() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            latencyHistogram.record(Duration.ofMillis(1));
+        }
+        latencyHistogram.record(Duration.ofSeconds(1));
+        assertEquals(100, latencyHistogram.getCount());
+        assertTrue(latencyHistogram.getPercentile(50).compareTo(Duration.ofMillis(3)) < 0);
+        assertEquals(Duration.ofSeconds(1), latencyHistogram.getPercentile(100));
+        assertEquals(Duration.ofSeconds(1), latencyHistogram.getMax());
+    }
+
+}
@@ -0,0 +1,143 @@
+package xyz.benanderson.nanopay.rpc;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingRpcTransportTest {
+
+    final static String READ_REQUEST = "{\"action\":\"account_info\",\"account\":\"nano_1\"}";
+    final static String PUBLISH_REQUEST = "{\"action\":\"process\",\"block\":{}}";
+
+    final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void readsAreRoutedToFasterNode() throws IOException {
+        AtomicInteger slowRequests = new AtomicInteger(), fastRequests = new AtomicInteger();
+        URL slowNode = startNode("slow", Duration.ofMillis(200), slowRequests);
+        URL fastNode = startNode("fast", Duration.ZERO, fastRequests);
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(slowNode, fastNode),
+                new PooledRpcTransport());
+        for (int i = 0; i < 10; i++) {
+            routingRpcTransport.submit(slowNode, READ_REQUEST);
+        }
+        assertTrue(fastRequests.get() >= 8);
+        assertEquals(10, routingRpcTransport.getEndpointStats().stream()
+                .mapToLong(RoutingRpcTransport.EndpointStats::requests).sum());
+    }
+
+    @Test
+    void publishFailsOverToNextNode() throws IOException {
+        URL deadNode = deadNode();
+        URL liveNode = startNode("live", Duration.ZERO, new AtomicInteger());
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(deadNode, liveNode),
+                new PooledRpcTransport());
+        assertEquals("{\"node\":\"live\"}", routingRpcTransport.submit(deadNode, PUBLISH_REQUEST));
+        assertEquals(1, routingRpcTransport.getFailovers());
+        assertTrue(routingRpcTransport.getEndpointStats().get(0).errorRate() > 0);
+        //the failed node is now ranked last
+        routingRpcTransport.submit(deadNode, PUBLISH_REQUEST);
+        assertEquals(1, routingRpcTransport.getFailovers());
+    }
+
+    @Test
+    void slowReadIsHedged() throws IOException {
+        URL slowNode = startNode("slow", Duration.ofSeconds(2), new AtomicInteger());
+        URL fastNode = startNode("fast", Duration.ZERO, new AtomicInteger());
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(slowNode, fastNode),
+                new PooledRpcTransport(), RoutingRpcTransport.DEFAULT_HEDGE_PERCENTILE);
+        long startTime = System.currentTimeMillis();
+        //neither node has latency statistics yet, so the first node is tried first
+        assertEquals("{\"node\":\"fast\"}", routingRpcTransport.submit(slowNode, READ_REQUEST));
+        assertTrue(System.currentTimeMillis() - startTime < 1500);
+        assertEquals(1, routingRpcTransport.getHedgedRequests());
+    }
+
+    @Test
+    void publishIsNotHedged() throws IOException {
+        AtomicInteger slowRequests = new AtomicInteger(), fastRequests = new AtomicInteger();
+        URL slowNode = startNode("slow", Duration.ofMillis(500), slowRequests);
+        URL fastNode = startNode("fast", Duration.ZERO, fastRequests);
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(slowNode, fastNode),
+                new PooledRpcTransport(), RoutingRpcTransport.DEFAULT_HEDGE_PERCENTILE);
+        assertEquals("{\"node\":\"slow\"}", routingRpcTransport.submit(slowNode, PUBLISH_REQUEST));
+        assertEquals(0, fastRequests.get());
+        assertEquals(0, routingRpcTransport.getHedgedRequests());
+    }
+
+    @Test
+    void allNodesFailing() throws IOException {
+        URL deadNode = deadNode(), otherDeadNode = deadNode();
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(deadNode, otherDeadNode),
+                new PooledRpcTransport(), RoutingRpcTransport.DEFAULT_HEDGE_PERCENTILE);
+        assertThrows(IOException.class, () -> routingRpcTransport.submit(deadNode, READ_REQUEST));
+        assertThrows(IOException.class, () -> routingRpcTransport.submit(deadNode, PUBLISH_REQUEST));
+    }
+
+    @Test
+    void closedRouterFailsRequests() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        URL node = startNode("live", Duration.ZERO, requests), otherNode = startNode("other", Duration.ZERO, requests);
+        RoutingRpcTransport routingRpcTransport = new RoutingRpcTransport(List.of(node, otherNode),
+                new PooledRpcTransport(), RoutingRpcTransport.DEFAULT_HEDGE_PERCENTILE);
+        routingRpcTransport.submit(node, READ_REQUEST);
+        assertEquals(1, requests.get());
+
+        routingRpcTransport.close();
+        assertThrows(IOException.class, () -> routingRpcTransport.submit(node, READ_REQUEST));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new RoutingRpcTransport(List.of(), new PooledRpcTransport()));
+    }
+
+    URL startNode(String name, Duration latency, AtomicInteger requests) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(latency.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] response = ("{\"node\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        servers.add(server);
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    URL deadNode() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        return new URL("http://127.0.0.1:" + port + "/");
+    }
+
+}
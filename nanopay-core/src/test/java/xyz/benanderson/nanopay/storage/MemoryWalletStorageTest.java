@@ -24,6 +24,13 @@ class MemoryWalletStorageTest {
             new BigDecimal("1.2")
     );
 
+    @Test
+    void countWallets() {
+        Map<String, Wallet> walletsMap = Map.of(testWalletOne.address(), testWalletOne, testWalletTwo.address(), testWalletTwo);
+        MemoryWalletStorage walletStorage = new MemoryWalletStorage(walletsMap, Duration.ofMinutes(10));
+        assertEquals(2, walletStorage.countWallets());
+    }
+
     @Test
     void failGetAllWallets() {
         MemoryWalletStorage walletStorage = new MemoryWalletStorage(Map.of(), Duration.ofMinutes(10));
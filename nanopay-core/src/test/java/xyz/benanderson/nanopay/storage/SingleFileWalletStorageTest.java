@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import xyz.benanderson.nanopay.CustomAssertions;
 import xyz.benanderson.nanopay.wallet.Wallet;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -11,9 +12,14 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -110,6 +116,29 @@ class SingleFileWalletStorageTest {
         assertTrue(foundJson.equals(firstPossibleExpectedJson) || foundJson.equals(secondPossibleExpectedJson));
     }
 
+    @Test
+    void concurrentSavesAreAllKept(@TempDir Path tempFolder) throws Exception {
+        Path storageFile = tempFolder.resolve("wallet-file-storage.json");
+        SingleFileWalletStorage walletStorage = new SingleFileWalletStorage(storageFile, Duration.ofMinutes(10));
+        List<Wallet> wallets = new ArrayList<>();
+        SecureRandom secureRandom = new SecureRandom();
+        for (int i = 0; i < 50; i++) {
+            WalletKeyPool.WalletKey walletKey = WalletKeyPool.generateKey(secureRandom);
+            wallets.add(new Wallet(walletKey.address(), walletKey.privateKey(), testWalletOne.creationTime(),
+                    testWalletOne.requiredAmount()));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            wallets.forEach(wallet -> saves.add(executorService.submit(() -> walletStorage.saveWallet(wallet))));
+            for (Future<?> save : saves) save.get(30, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+        CustomAssertions.assertUnorderedCollectionEquals(wallets, walletStorage.getAllWallets());
+    }
+
     @Test
     void deleteWallet(@TempDir Path tempFolder) throws IOException {
         Path storageFile = tempFolder.resolve("wallet-file-storage.json");
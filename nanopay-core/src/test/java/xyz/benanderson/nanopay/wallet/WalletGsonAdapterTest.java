@@ -9,6 +9,7 @@ import java.math.BigDecimal;
 import java.time.Instant;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class WalletGsonAdapterTest {
 
@@ -58,4 +59,86 @@ class WalletGsonAdapterTest {
         assertEquals(expectedWallet, readWallet);
     }
 
-}
\ No newline at end of file
+    @Test
+    void writeDerived() {
+        Wallet wallet = Wallet.derived(
+                "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                42,
+                Instant.ofEpochMilli(1649247684032L),
+                new BigDecimal("0.1")
+        );
+
+        String expectedJson = """
+                {
+                  "address": "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                  "derivation_index": 42,
+                  "creation_time": 1649247684032,
+                  "required_amount": 0.1
+                }""";
+        String actualJson = gson.toJson(wallet);
+
+        assertEquals(expectedJson, actualJson);
+    }
+
+    @Test
+    void readDerived() {
+        String json = """
+                {
+                  "address":"nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                  "derivation_index":42,
+                  "creation_time":1649247684032,
+                  "required_amount":0.1
+                }
+                """;
+        StringReader stringReader = new StringReader(json);
+
+        Wallet expectedWallet = Wallet.derived(
+                "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                42,
+                Instant.ofEpochMilli(1649247684032L),
+                new BigDecimal("0.1")
+        );
+        Wallet readWallet = gson.fromJson(stringReader, Wallet.class);
+
+        assertEquals(expectedWallet, readWallet);
+        assertTrue(readWallet.isDerived());
+    }
+
+    @Test
+    void writeAndReadInboundPayments() {
+        Wallet wallet = new Wallet(
+                "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                "B18852DAB11E34B4C0BEE3C53FCABF75560791E13EC7A5D5F9B7670277DD4643",
+                Instant.ofEpochMilli(1649247684032L),
+                new BigDecimal("0.1")
+        ).withInboundPayment(new InboundPayment(
+                "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                new BigDecimal("0.15"),
+                "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                Instant.ofEpochMilli(1649247694032L)
+        ));
+
+        String expectedJson = """
+                {
+                  "address": "nano_18xbfx1czna9178ah7gkyg6ukrdg919ebn9xt7j6fkq31kh4qwia4r3i7674",
+                  "private_key": "B18852DAB11E34B4C0BEE3C53FCABF75560791E13EC7A5D5F9B7670277DD4643",
+                  "creation_time": 1649247684032,
+                  "required_amount": 0.1,
+                  "inbound_payments": [
+                    {
+                      "sender": "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                      "amount": 0.15,
+                      "block_hash": "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617",
+                      "timestamp": 1649247694032
+                    }
+                  ]
+                }""";
+        String actualJson = gson.toJson(wallet);
+        Wallet readWallet = gson.fromJson(new StringReader(actualJson), Wallet.class);
+
+        assertEquals(expectedJson, actualJson);
+        assertEquals(wallet, readWallet);
+        assertEquals(wallet.inboundPayments(), readWallet.inboundPayments());
+    }
+
+}
@@ -0,0 +1,76 @@
+package xyz.benanderson.nanopay.wallet;
+
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalletKeyPoolTest {
+
+    private static void awaitPoolDepth(WalletKeyPool walletKeyPool, int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (walletKeyPool.getPoolDepth() < depth && System.nanoTime() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void fillsToHighWatermark() throws InterruptedException {
+        try (WalletKeyPool walletKeyPool = new WalletKeyPool(2, 8, 2)) {
+            awaitPoolDepth(walletKeyPool, 8);
+            assertEquals(8, walletKeyPool.getPoolDepth());
+            assertTrue(walletKeyPool.getRefillRate() > 0);
+        }
+    }
+
+    @Test
+    void takeKeyReturnsMatchingAddress() throws InterruptedException {
+        try (WalletKeyPool walletKeyPool = new WalletKeyPool(2, 8, 1)) {
+            awaitPoolDepth(walletKeyPool, 8);
+            WalletKeyPool.WalletKey walletKey = walletKeyPool.takeKey();
+            assertEquals(NanoAccount.fromPrivateKey(new HexData(walletKey.privateKey())).toAddress(),
+                    walletKey.address());
+            assertEquals(1, walletKeyPool.getPooledKeysTaken());
+            assertEquals(0, walletKeyPool.getInlineKeysGenerated());
+        }
+    }
+
+    @Test
+    void takeKeyFallsBackToInlineGeneration() {
+        WalletKeyPool walletKeyPool = new WalletKeyPool(2, 8, 1);
+        walletKeyPool.close();
+        //drain anything generated before the producer was stopped
+        while (walletKeyPool.getPoolDepth() > 0) walletKeyPool.takeKey();
+        long pooledKeysTaken = walletKeyPool.getPooledKeysTaken();
+
+        WalletKeyPool.WalletKey walletKey = walletKeyPool.takeKey();
+        assertNotNull(walletKey);
+        assertEquals(pooledKeysTaken, walletKeyPool.getPooledKeysTaken());
+        assertEquals(1, walletKeyPool.getInlineKeysGenerated());
+    }
+
+    @Test
+    void keysAreUnique() {
+        try (WalletKeyPool walletKeyPool = new WalletKeyPool(4, 16, 2)) {
+            Set<String> addresses = new HashSet<>();
+            for (int i = 0; i < 64; i++) {
+                addresses.add(walletKeyPool.takeKey().address());
+            }
+            assertEquals(64, addresses.size());
+        }
+    }
+
+    @Test
+    void invalidWatermarks() {
+        assertThrows(IllegalArgumentException.class, () -> new WalletKeyPool(8, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WalletKeyPool(-1, 8, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WalletKeyPool(2, 8, 0));
+    }
+
+}
@@ -0,0 +1,57 @@
+package xyz.benanderson.nanopay.wallet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalletSeedTest {
+
+    final static String SEED = "9F1D53E732E48F25F94711D5B22086778278624F715D9B2BEC8FB81134E7C904";
+
+    @Test
+    void indexesAreNotReusedAfterRestart(@TempDir Path folder) throws IOException {
+        Path indexFile = folder.resolve("seed-index");
+        WalletSeed walletSeed = new WalletSeed(SEED, indexFile);
+        assertTrue(walletSeed.isDurable());
+        assertEquals(0, walletSeed.reserveIndex());
+        assertEquals(1, walletSeed.reserveIndex());
+        assertEquals(WalletSeed.INDEX_RESERVATION_SIZE, Integer.parseInt(Files.readString(indexFile)));
+
+        //no wallets are left in storage to advance the restarted seed past
+        WalletSeed restartedSeed = new WalletSeed(SEED, indexFile);
+        assertEquals(WalletSeed.INDEX_RESERVATION_SIZE, restartedSeed.reserveIndex());
+    }
+
+    @Test
+    void advancingPastReservationPersistsNewMark(@TempDir Path folder) throws IOException {
+        Path indexFile = folder.resolve("seed-index");
+        WalletSeed walletSeed = new WalletSeed(SEED, indexFile);
+        walletSeed.advancePast(500);
+
+        assertEquals(501, walletSeed.reserveIndex());
+        assertEquals(501 + WalletSeed.INDEX_RESERVATION_SIZE, Integer.parseInt(Files.readString(indexFile)));
+    }
+
+    @Test
+    void corruptIndexFileIsRejected(@TempDir Path folder) throws IOException {
+        Path indexFile = folder.resolve("seed-index");
+        Files.writeString(indexFile, "not an index");
+
+        assertThrows(IllegalArgumentException.class, () -> new WalletSeed(SEED, indexFile));
+    }
+
+    @Test
+    void seedWithoutIndexFileIsNotDurable() {
+        WalletSeed walletSeed = new WalletSeed(SEED, 5);
+
+        assertFalse(walletSeed.isDurable());
+        assertEquals(5, walletSeed.reserveIndex());
+        assertEquals(6, walletSeed.getNextIndex());
+    }
+
+}
@@ -0,0 +1,73 @@
+package xyz.benanderson.nanopay.work;
+
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.model.HexData;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CpuWorkGeneratorTest {
+
+    final static byte[] ROOT = new HexData("718CC2121C3E641059BC1C2CFC45666C99E8AE922F7A807B7D07B62C995D79E2")
+            .toByteArray();
+
+    @Test
+    void hashMatchesBlake2b() {
+        WorkHasher workHasher = new WorkHasher(ROOT);
+        assertEquals(0x6b90c9aab5d66034L, workHasher.hash(0));
+        assertEquals(0xffffffd21c3933f4L, workHasher.hash(0x2bf29ef00786a6bcL));
+        assertEquals(0x3576b625163c8256L, workHasher.hash(0xffffffffffffffffL));
+    }
+
+    @Test
+    void searchFindsWorkMeetingThreshold() throws Exception {
+        CpuWorkGenerator workGenerator = new CpuWorkGenerator(4);
+        try {
+            long threshold = 0xfff0000000000000L;
+            long nonce = workGenerator.search(ROOT, threshold).get(30, TimeUnit.SECONDS);
+            assertTrue(Long.compareUnsigned(new WorkHasher(ROOT).hash(nonce), threshold) >= 0);
+            assertTrue(workGenerator.getHashCount() > 0);
+        } finally {
+            workGenerator.shutdown();
+        }
+    }
+
+    @Test
+    void cancelledSearchStops() throws InterruptedException {
+        CpuWorkGenerator workGenerator = new CpuWorkGenerator(2);
+        try {
+            //a threshold which is practically unreachable
+            CompletableFuture<Long> search = workGenerator.search(ROOT, -1L);
+            Thread.sleep(100);
+            search.cancel(false);
+            Thread.sleep(100);
+            long hashCount = workGenerator.getHashCount();
+            Thread.sleep(100);
+            assertEquals(hashCount, workGenerator.getHashCount());
+        } finally {
+            workGenerator.shutdown();
+        }
+    }
+
+    @Test
+    void closeStopsSearching() {
+        CpuWorkGenerator workGenerator = new CpuWorkGenerator(2);
+        workGenerator.close();
+        assertThrows(RejectedExecutionException.class, () -> workGenerator.search(ROOT, -1L));
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new CpuWorkGenerator(0));
+        CpuWorkGenerator workGenerator = new CpuWorkGenerator(1);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> workGenerator.search(new byte[16], 0));
+        } finally {
+            workGenerator.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package xyz.benanderson.nanopay.work;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.block.StateBlock;
+import uk.oczadly.karl.jnano.model.work.WorkDifficulty;
+import uk.oczadly.karl.jnano.model.work.WorkSolution;
+import uk.oczadly.karl.jnano.util.workgen.GeneratedWork;
+import uk.oczadly.karl.jnano.util.workgen.WorkGenerator;
+import uk.oczadly.karl.jnano.util.workgen.policy.WorkDifficultyPolicy;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PrecachingWorkGeneratorTest {
+
+    final static HexData ROOT = new HexData("718CC2121C3E641059BC1C2CFC45666C99E8AE922F7A807B7D07B62C995D79E2");
+    final static WorkDifficulty SEND_DIFFICULTY = new WorkDifficulty(CpuWorkGenerator.SEND_THRESHOLD),
+            RECEIVE_DIFFICULTY = new WorkDifficulty(CpuWorkGenerator.RECEIVE_THRESHOLD);
+    //meets the receive difficulty for ROOT, but not the send difficulty
+    final static WorkSolution RECEIVE_WORK = new WorkSolution(0x2bf29ef00786a6bcL);
+
+    WorkGenerator workGenerator;
+
+    @BeforeEach
+    void setup() throws Exception {
+        workGenerator = mock(WorkGenerator.class);
+        WorkDifficultyPolicy difficultyPolicy = mock(WorkDifficultyPolicy.class);
+        doReturn(SEND_DIFFICULTY).when(difficultyPolicy).forAny();
+        doReturn(difficultyPolicy).when(workGenerator).getDifficultyPolicy();
+        GeneratedWork generatedWork = mock(GeneratedWork.class);
+        doReturn(RECEIVE_WORK).when(generatedWork).getWork();
+        doReturn(CompletableFuture.completedFuture(generatedWork)).when(workGenerator).generate(any(HexData.class), any());
+    }
+
+    @Test
+    void precachedWorkIsUsedOnce() throws Exception {
+        PrecachingWorkGenerator precachingWorkGenerator = new PrecachingWorkGenerator(workGenerator, 16, 1);
+        precachingWorkGenerator.precache(ROOT, RECEIVE_DIFFICULTY);
+
+        assertEquals(RECEIVE_WORK, precachingWorkGenerator.generateWork(ROOT,
+                RECEIVE_DIFFICULTY, null));
+        assertEquals(1, precachingWorkGenerator.getHits());
+        assertEquals(0, precachingWorkGenerator.getMisses());
+        assertEquals(0, precachingWorkGenerator.getCacheSize());
+
+        precachingWorkGenerator.generateWork(ROOT, RECEIVE_DIFFICULTY, null);
+        assertEquals(1, precachingWorkGenerator.getMisses());
+        verify(workGenerator, times(2)).generate(eq(ROOT), any());
+    }
+
+    @Test
+    void cachedWorkBelowDifficultyIsRegenerated() throws Exception {
+        PrecachingWorkGenerator precachingWorkGenerator = new PrecachingWorkGenerator(workGenerator, 16, 1);
+        precachingWorkGenerator.precache(ROOT, RECEIVE_DIFFICULTY);
+
+        precachingWorkGenerator.generateWork(ROOT, SEND_DIFFICULTY, null);
+        assertEquals(0, precachingWorkGenerator.getHits());
+        assertEquals(1, precachingWorkGenerator.getMisses());
+        verify(workGenerator, times(1)).generate(ROOT, SEND_DIFFICULTY);
+    }
+
+    @Test
+    void nextBlockIsPrecachedFromFrontier() {
+        HexData openHash = new HexData("0000000000000000000000000000000000000000000000000000000000000001");
+        HexData frontierHash = new HexData("0000000000000000000000000000000000000000000000000000000000000002");
+        StateBlock openBlock = mock(StateBlock.class), frontierBlock = mock(StateBlock.class);
+        doReturn(openHash).when(openBlock).getHash();
+        doReturn(ROOT).when(openBlock).getPreviousBlockHash();
+        doReturn(frontierHash).when(frontierBlock).getHash();
+        doReturn(openHash).when(frontierBlock).getPreviousBlockHash();
+
+        PrecachingWorkGenerator precachingWorkGenerator = new PrecachingWorkGenerator(workGenerator, 16, 1);
+        precachingWorkGenerator.precacheNextBlock(List.of(frontierBlock, openBlock));
+
+        verify(workGenerator, timeout(5000).times(1)).generate(frontierHash, SEND_DIFFICULTY);
+        assertEquals(1, precachingWorkGenerator.getCacheSize());
+    }
+
+    @Test
+    void cacheIsBounded() {
+        PrecachingWorkGenerator precachingWorkGenerator = new PrecachingWorkGenerator(workGenerator, 2, 1);
+        for (int i = 1; i <= 3; i++) {
+            precachingWorkGenerator.precache(new HexData("00000000000000000000000000000000000000000000000000000000000000"
+                    + String.format("%02d", i)), RECEIVE_DIFFICULTY);
+        }
+        assertEquals(2, precachingWorkGenerator.getCacheSize());
+    }
+
+    @Test
+    void closeShutsDownWrappedGeneratorOnlyIfOwned() {
+        new PrecachingWorkGenerator(workGenerator, 1, 1, false).close();
+        verify(workGenerator, never()).shutdown();
+        new PrecachingWorkGenerator(workGenerator, 1, 1).close();
+        verify(workGenerator, times(1)).shutdown();
+    }
+
+    @Test
+    void evictedWorkIsCancelled() {
+        CompletableFuture<GeneratedWork> pendingWork = new CompletableFuture<>();
+        doReturn(pendingWork).when(workGenerator).generate(eq(ROOT), any());
+        PrecachingWorkGenerator precachingWorkGenerator = new PrecachingWorkGenerator(workGenerator, 1, 1);
+        precachingWorkGenerator.precache(ROOT, RECEIVE_DIFFICULTY);
+        verify(workGenerator, timeout(5000).times(1)).generate(eq(ROOT), any());
+
+        precachingWorkGenerator.precache(new HexData(
+                "0000000000000000000000000000000000000000000000000000000000000001"), RECEIVE_DIFFICULTY);
+        assertEquals(1, precachingWorkGenerator.getCacheSize());
+        assertThrows(CancellationException.class, () -> pendingWork.get(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -28,6 +28,7 @@ public class HibernateWalletStorage extends DatabaseAccessor implements WalletSt
         this(walletType, walletExpiryTime, databaseConfiguration
                 .addAnnotatedClass(WalletEntity.class)
                 .addAnnotatedClass(WalletEntity.WalletEntityId.class)
+                .addAnnotatedClass(WalletEntity.InboundPaymentEmbeddable.class)
                 .buildSessionFactory());
     }
 
@@ -57,6 +58,23 @@ public class HibernateWalletStorage extends DatabaseAccessor implements WalletSt
         }
     }
 
+    @Override
+    public int countWallets() {
+        Callable<Optional<Long>> countCallable = createCallable(session -> {
+            CriteriaBuilder cb = session.getCriteriaBuilder();
+            CriteriaQuery<Long> cr = cb.createQuery(Long.class);
+            Root<WalletEntity> root = cr.from(WalletEntity.class);
+            cr.select(cb.count(root)).where(cb.equal(root.get("walletEntityId").get("walletType"), walletType));
+            return session.createQuery(cr).getSingleResult();
+        });
+        try {
+            return countCallable.call().map(Long::intValue).orElse(0);
+        } catch (Exception e) {
+            NanoPay.LOGGER.error("Hibernate error occurred when counting wallets.", e);
+            return 0;
+        }
+    }
+
     @Override
     public Optional<Wallet> findWalletByAddress(String address) {
         Callable<Optional<WalletEntity>> findCallable = createCallable(session ->
@@ -74,7 +92,8 @@ public class HibernateWalletStorage extends DatabaseAccessor implements WalletSt
         Runnable saveRunnable = createRunnable(session -> {
             session.beginTransaction();
             try {
-                session.persist(new WalletEntity(wallet, walletType));
+                //merged rather than persisted, as wallets are saved again when they receive payments
+                session.merge(new WalletEntity(wallet, walletType));
             } catch (HibernateException e) {
                 NanoPay.LOGGER.error("Hibernate error occurred when saving wallet '" + wallet.address() + "'.", e);
             }
@@ -83,6 +102,22 @@ public class HibernateWalletStorage extends DatabaseAccessor implements WalletSt
         saveRunnable.run();
     }
 
+    @Override
+    public void saveWallets(Collection<Wallet> wallets) {
+        Runnable saveRunnable = createRunnable(session -> {
+            session.beginTransaction();
+            for (Wallet wallet : wallets) {
+                try {
+                    session.merge(new WalletEntity(wallet, walletType));
+                } catch (HibernateException e) {
+                    NanoPay.LOGGER.error("Hibernate error occurred when saving wallet '" + wallet.address() + "'.", e);
+                }
+            }
+            session.getTransaction().commit();
+        });
+        saveRunnable.run();
+    }
+
     @Override
     public void deleteWallet(Wallet wallet) {
         Runnable deleteRunnable = createRunnable(session -> {
@@ -20,14 +20,14 @@ public class DeadWalletEntity {
 
     public DeadWalletEntity(DeadWallet deadWallet) {
         this(deadWallet.address(), deadWallet.privateKey(), deadWallet.deathTime(),
-                deadWallet.requiredAmount(), deadWallet.success());
+                deadWallet.requiredAmount(), deadWallet.success(), deadWallet.derivationIndex());
     }
 
     @Id
     @Column(name = "address", nullable = false, unique = true, updatable = false)
     private String address;
 
-    @Column(name = "private_key", nullable = false, unique = true, updatable = false)
+    @Column(name = "private_key", unique = true, updatable = false)
     private String privateKey;
 
     @Column(name = "death_time", nullable = false, updatable = false)
@@ -39,8 +39,11 @@ public class DeadWalletEntity {
     @Column(name = "success", nullable = false, updatable = false)
     private boolean success;
 
+    @Column(name = "derivation_index", updatable = false)
+    private Integer derivationIndex;
+
     public DeadWallet asDeadWallet() {
-        return new DeadWallet(address, privateKey, deathTime, requiredAmount, success);
+        return new DeadWallet(address, privateKey, deathTime, requiredAmount, success, derivationIndex);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package xyz.benanderson.nanopay.hibernate.entity;
 
 import xyz.benanderson.nanopay.storage.WalletType;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.Wallet;
 import jakarta.persistence.*;
 import lombok.*;
@@ -9,6 +10,8 @@ import org.hibernate.Hibernate;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 @Getter
@@ -33,14 +36,45 @@ public class WalletEntity {
         private WalletType walletType;
     }
 
+    @Getter
+    @Setter
+    @Embeddable
+    @AllArgsConstructor
+    @NoArgsConstructor(access = AccessLevel.PROTECTED)
+    public static class InboundPaymentEmbeddable {
+        @Column(name = "sender", nullable = false)
+        private String sender;
+
+        //NANO amounts have 30 decimal places, which the default scale would truncate
+        @Column(name = "amount", nullable = false, precision = 40, scale = 30)
+        private BigDecimal amount;
+
+        @Column(name = "block_hash", nullable = false)
+        private String blockHash;
+
+        @Column(name = "received_time", nullable = false)
+        private Instant timestamp;
+
+        public InboundPaymentEmbeddable(InboundPayment inboundPayment) {
+            this(inboundPayment.sender(), inboundPayment.amount(), inboundPayment.blockHash(),
+                    inboundPayment.timestamp());
+        }
+
+        public InboundPayment asInboundPayment() {
+            return new InboundPayment(sender, amount, blockHash, timestamp);
+        }
+    }
+
     public WalletEntity(Wallet wallet, WalletType walletType) {
-        this(new WalletEntityId(wallet.address(), walletType), wallet.privateKey(), wallet.creationTime(), wallet.requiredAmount());
+        this(new WalletEntityId(wallet.address(), walletType), wallet.privateKey(), wallet.creationTime(),
+                wallet.requiredAmount(), wallet.derivationIndex(),
+                new ArrayList<>(wallet.inboundPayments().stream().map(InboundPaymentEmbeddable::new).toList()));
     }
 
     @EmbeddedId
     private WalletEntityId walletEntityId;
 
-    @Column(name = "private_key", nullable = false, unique = true, updatable = false)
+    @Column(name = "private_key", unique = true, updatable = false)
     private String privateKey;
 
     @Column(name = "creation_time", nullable = false, updatable = false)
@@ -49,8 +83,20 @@ public class WalletEntity {
     @Column(name = "required_amount", nullable = false, updatable = false)
     private BigDecimal requiredAmount;
 
+    @Column(name = "derivation_index", updatable = false)
+    private Integer derivationIndex;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "wallet_inbound_payments", joinColumns = {
+            @JoinColumn(name = "address", referencedColumnName = "address"),
+            @JoinColumn(name = "type", referencedColumnName = "type")
+    })
+    @OrderColumn(name = "payment_index")
+    private List<InboundPaymentEmbeddable> inboundPayments = new ArrayList<>();
+
     public Wallet asWallet() {
-        return new Wallet(walletEntityId.getAddress(), privateKey, creationTime, requiredAmount);
+        return new Wallet(walletEntityId.getAddress(), privateKey, creationTime, requiredAmount, derivationIndex,
+                inboundPayments.stream().map(InboundPaymentEmbeddable::asInboundPayment).toList());
     }
 
     @Override
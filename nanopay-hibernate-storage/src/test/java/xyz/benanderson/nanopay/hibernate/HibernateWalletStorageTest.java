@@ -2,6 +2,7 @@ package xyz.benanderson.nanopay.hibernate;
 
 import xyz.benanderson.nanopay.hibernate.entity.WalletEntity;
 import xyz.benanderson.nanopay.storage.WalletType;
+import xyz.benanderson.nanopay.wallet.InboundPayment;
 import xyz.benanderson.nanopay.wallet.SecureRandomUtil;
 import xyz.benanderson.nanopay.wallet.Wallet;
 import lombok.SneakyThrows;
@@ -10,7 +11,6 @@ import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.function.Executable;
 import uk.oczadly.karl.jnano.model.HexData;
 import uk.oczadly.karl.jnano.model.NanoAccount;
 import uk.oczadly.karl.jnano.util.WalletUtil;
@@ -39,6 +39,7 @@ class HibernateWalletStorageTest {
         Configuration configuration = new Configuration()
                 .addAnnotatedClass(WalletEntity.class)
                 .addAnnotatedClass(WalletEntity.WalletEntityId.class)
+                .addAnnotatedClass(WalletEntity.InboundPaymentEmbeddable.class)
                 .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
                 .setProperty("hibernate.connection.url", "jdbc:h2:mem:testdb")
                 .setProperty("hibernate.hbm2ddl.auto", "create-drop")
@@ -123,6 +124,46 @@ class HibernateWalletStorageTest {
         }
     }
 
+    @Test
+    void inboundPaymentsAreSavedAndUpdated() {
+        //the second payment arrived later, but was handled with an earlier timestamp. Both amounts have raw
+        //(30th decimal place) precision, which must survive the round trip for the ledger to match the balance
+        InboundPayment firstPayment = new InboundPayment(
+                "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac",
+                new BigDecimal("2.000000000000000000000000000001"),
+                "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617", clock.instant());
+        InboundPayment secondPayment = new InboundPayment(
+                "nano_3texgo63bs89jhtj4f6fn51nmsbh899nyfxxt51k66o8umhb931dz4bf9eto",
+                new BigDecimal("0.000000000000000000000000000001"),
+                "A2C1714C488BBA4B67D8726EE11A6171F6A944D9C2B8D84816388E846A850C09",
+                clock.instant().minusSeconds(1));
+        Wallet wallet = generateTestWallet().withInboundPayment(firstPayment);
+        try (HibernateWalletStorage walletStorage = getHibernateWalletStorage(WalletType.ACTIVE)) {
+            walletStorage.saveWallet(wallet);
+            Optional<Wallet> foundWallet = walletStorage.findWalletByAddress(wallet.address());
+            assertTrue(foundWallet.isPresent());
+            assertInboundPayments(List.of(firstPayment), foundWallet.get().inboundPayments());
+
+            //saving the wallet again updates its payments, rather than adding a second wallet
+            walletStorage.saveWallet(foundWallet.get().withInboundPayment(secondPayment));
+            foundWallet = walletStorage.findWalletByAddress(wallet.address());
+            assertTrue(foundWallet.isPresent());
+            assertInboundPayments(List.of(firstPayment, secondPayment), foundWallet.get().inboundPayments());
+            assertEquals(1, walletStorage.countWallets());
+        }
+    }
+
+    private static void assertInboundPayments(List<InboundPayment> expected, List<InboundPayment> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).sender(), actual.get(i).sender());
+            //the database may return the amount with a different scale
+            assertEquals(0, expected.get(i).amount().compareTo(actual.get(i).amount()));
+            assertEquals(expected.get(i).blockHash(), actual.get(i).blockHash());
+            assertEquals(expected.get(i).timestamp(), actual.get(i).timestamp());
+        }
+    }
+
     @Test
     void saveActiveWallet() {
         //try save a wallet in active storage
@@ -144,12 +185,32 @@ class HibernateWalletStorageTest {
     }
 
     @Test
-    void failSaveDuplicateWalletSameState() throws Throwable {
-        //try save two duplicate wallets and ensure an exception is thrown
+    void saveDuplicateWalletSameStateUpdatesWallet() {
+        //wallets are saved again when they receive payments, which updates the stored wallet
         Wallet wallet = generateTestWallet();
-        Executable saveExecutable = () -> saveWallet(wallet, WalletType.ACTIVE);
-        saveExecutable.execute();
-        assertThrows(IllegalStateException.class, saveExecutable);
+        saveWallet(wallet, WalletType.ACTIVE);
+        saveWallet(wallet, WalletType.ACTIVE);
+        try (HibernateWalletStorage walletStorage = getHibernateWalletStorage(WalletType.ACTIVE)) {
+            assertEquals(1, walletStorage.countWallets());
+        }
+    }
+
+    @Test
+    void saveWalletsThenResave() {
+        List<Wallet> wallets = List.of(generateTestWallet(), generateTestWallet());
+        try (HibernateWalletStorage walletStorage = getHibernateWalletStorage(WalletType.ACTIVE)) {
+            walletStorage.saveWallets(wallets);
+            //a batch-created wallet is saved again like any other once it receives a payment
+            Wallet paidWallet = wallets.get(0).withInboundPayment(new InboundPayment(
+                    "nano_3kaq71n6i4ndbkjiwjoj9747s74wtf586hu1fobzu7h6wkz86731eug3j3ac", REQUIRED_AMOUNT,
+                    "1F6A944D9C2B8D84816388E846A850C09A2C1714C488BBA4B67D8726EE11A617", clock.instant()));
+            walletStorage.saveWallets(List.of(paidWallet));
+
+            assertEquals(2, walletStorage.countWallets());
+            Optional<Wallet> foundWallet = walletStorage.findWalletByAddress(paidWallet.address());
+            assertTrue(foundWallet.isPresent());
+            assertInboundPayments(paidWallet.inboundPayments(), foundWallet.get().inboundPayments());
+        }
     }
 
     void saveWallet(Wallet wallet, WalletType walletType) {
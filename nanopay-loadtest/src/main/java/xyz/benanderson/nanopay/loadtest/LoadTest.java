@@ -0,0 +1,204 @@
+package xyz.benanderson.nanopay.loadtest;
+
+import xyz.benanderson.nanopay.NanoPay;
+import xyz.benanderson.nanopay.rpc.LatencyHistogram;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Drives simulated customers through NanoPay against a {@link MockNanoNode}. Each customer requests a payment, waits
+ * for {@code paymentDelay} (as a real customer would, giving NanoPay time to subscribe to the wallet) and then pays
+ * it in full, in two parts, or overpays it. Payments complete end-to-end: NanoPay receives the funds, forwards them to
+ * the storage wallet and refunds any overpayment through the mock node's ledger.
+ * <p>
+ * Run with {@code mvn -P loadtest -pl nanopay-loadtest -am -DskipTests verify}, optionally passing
+ * {@code -Dcustomers}, {@code -Dconcurrency} and {@code -DconfigurationName} (one of {@link #CONFIGURATIONS}).
+ */
+public final class LoadTest {
+
+    public static final int DEFAULT_CUSTOMERS = 1000, DEFAULT_CONCURRENCY = 16;
+    public static final Duration DEFAULT_PAYMENT_DELAY = Duration.ofMillis(500), DEFAULT_TIMEOUT = Duration.ofMinutes(5);
+    /**
+     * Named configurations selectable from the command line, each applied to a default {@link NanoPay.Builder}.
+     */
+    public static final Map<String, UnaryOperator<NanoPay.Builder>> CONFIGURATIONS = Map.of(
+            "default", UnaryOperator.identity(),
+            "pooled", builder -> builder.enablePooledRpcTransport(Duration.ofSeconds(5), Duration.ofSeconds(30), 64),
+            "coalescing", builder -> builder.enableRpcCoalescing(Duration.ofMillis(5), 256),
+            "cached", builder -> builder.enableAccountStateCache(100_000, Duration.ofMinutes(1)),
+            "all", builder -> builder
+                    .enablePooledRpcTransport(Duration.ofSeconds(5), Duration.ofSeconds(30), 64)
+                    .enableRpcCoalescing(Duration.ofMillis(5), 256)
+                    .enableAccountStateCache(100_000, Duration.ofMinutes(1))
+                    .enableWalletKeyPool(1000, 5000, 2));
+    private static final int CUSTOMER_ACCOUNTS = 64;
+    private static final Duration SUBSCRIPTION_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * How a simulated customer pays for their payment.
+     */
+    public enum CustomerBehaviour {
+        /** Sends the exact amount in one block. */
+        FULL,
+        /** Sends 40% of the amount, then the remainder in a second block. */
+        PARTIAL,
+        /** Sends 150% of the amount in one block, so the extra is refunded. */
+        OVERPAID;
+
+        /**
+         * @return the behaviour of the customer at {@code index}, three in five customers pay in full
+         */
+        static CustomerBehaviour of(int index) {
+            return switch (index % 5) {
+                case 3 -> PARTIAL;
+                case 4 -> OVERPAID;
+                default -> FULL;
+            };
+        }
+    }
+
+    private final int customers, concurrency;
+    private final Duration paymentDelay, timeout;
+
+    /**
+     * @param customers amount of customers, each making one payment
+     * @param concurrency amount of threads requesting and paying payments
+     * @param paymentDelay time each customer waits between requesting a payment and paying it
+     * @param timeout maximum time to wait for all payments to complete
+     * @throws IllegalArgumentException if {@code customers} or {@code concurrency} is not positive.
+     */
+    public LoadTest(int customers, int concurrency, Duration paymentDelay, Duration timeout) {
+        if (customers <= 0) throw new IllegalArgumentException("Customers must be positive");
+        if (concurrency <= 0) throw new IllegalArgumentException("Concurrency must be positive");
+        this.customers = customers;
+        this.concurrency = concurrency;
+        this.paymentDelay = paymentDelay;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts a {@link MockNanoNode}, builds NanoPay against it and runs the customers.
+     * @param configuration applied to the {@link NanoPay.Builder} before it's built, the mock node's RPC and WebSocket
+     *                      addresses replace any set by the configuration
+     * @return the results, including payments which didn't complete within the timeout
+     * @throws IOException if the mock node couldn't be started, or NanoPay didn't subscribe to its WebSocket.
+     */
+    public LoadTestReport run(UnaryOperator<NanoPay.Builder> configuration) throws IOException, InterruptedException {
+        SecureRandom secureRandom = new SecureRandom();
+        String storageWallet = WalletKeyPool.generateKey(secureRandom).address();
+        List<String> customerAccounts = IntStream.range(0, CUSTOMER_ACCOUNTS)
+                .mapToObj(i -> WalletKeyPool.generateKey(secureRandom).address())
+                .toList();
+        //time at which the confirmation completing each payment was pushed, keyed by the payment's address
+        Map<String, Long> paidTimes = new ConcurrentHashMap<>();
+        LatencyHistogram detectionToCallbackLatency = new LatencyHistogram();
+        AtomicInteger succeeded = new AtomicInteger(), failed = new AtomicInteger();
+        CountDownLatch remaining = new CountDownLatch(customers);
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledExecutorService customerService = Executors.newScheduledThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-loadtest-customer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (MockNanoNode node = new MockNanoNode()) {
+            NanoPay nanoPay = configuration.apply(new NanoPay.Builder(storageWallet, address -> {
+                        Long paidTime = paidTimes.remove(address);
+                        if (paidTime != null) detectionToCallbackLatency.record(System.nanoTime() - paidTime);
+                        succeeded.incrementAndGet();
+                        remaining.countDown();
+                    }, address -> {
+                        failed.incrementAndGet();
+                        remaining.countDown();
+                    }))
+                    .setRpcAddress(node.getRpcAddress())
+                    .setWebSocketAddress(node.getWebSocketAddress())
+                    .build();
+            if (!node.awaitSubscription(SUBSCRIPTION_TIMEOUT)) {
+                throw new IOException("NanoPay didn't subscribe to the mock node's WebSocket");
+            }
+            node.resetRpcCalls();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < customers; i++) {
+                String customerAccount = customerAccounts.get(i % customerAccounts.size());
+                CustomerBehaviour behaviour = CustomerBehaviour.of(i);
+                customerService.execute(() -> {
+                    BigDecimal amount = BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 1001), 3);
+                    String address;
+                    try {
+                        address = nanoPay.requestPayment(amount);
+                    } catch (RuntimeException e) {
+                        NanoPay.LOGGER.error("Load test customer failed to request payment", e);
+                        failed.incrementAndGet();
+                        remaining.countDown();
+                        return;
+                    }
+                    customerService.schedule(() -> pay(node, customerAccount, address, amount, behaviour, paidTimes),
+                            paymentDelay.toMillis(), TimeUnit.MILLISECONDS);
+                });
+            }
+            //noinspection ResultOfMethodCallIgnored
+            remaining.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+            return new LoadTestReport(customers, succeeded.get(), failed.get(), elapsed, detectionToCallbackLatency,
+                    node.getRpcCalls());
+        } finally {
+            customerService.shutdownNow();
+        }
+    }
+
+    private static void pay(MockNanoNode node, String customerAccount, String address, BigDecimal amount,
+                            CustomerBehaviour behaviour, Map<String, Long> paidTimes) {
+        BigInteger rawAmount = amount.movePointRight(30).toBigIntegerExact();
+        switch (behaviour) {
+            case FULL -> {
+                paidTimes.put(address, System.nanoTime());
+                node.send(customerAccount, address, rawAmount);
+            }
+            case PARTIAL -> {
+                BigInteger firstPart = rawAmount.multiply(BigInteger.TWO).divide(BigInteger.valueOf(5));
+                node.send(customerAccount, address, firstPart);
+                paidTimes.put(address, System.nanoTime());
+                node.send(customerAccount, address, rawAmount.subtract(firstPart));
+            }
+            case OVERPAID -> {
+                paidTimes.put(address, System.nanoTime());
+                node.send(customerAccount, address, rawAmount.add(rawAmount.divide(BigInteger.TWO)));
+            }
+        }
+    }
+
+    /**
+     * @param args optional amount of customers, concurrency and name of one of the {@link #CONFIGURATIONS}
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CUSTOMERS;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+        String configurationName = args.length > 2 ? args[2] : "default";
+        UnaryOperator<NanoPay.Builder> configuration = CONFIGURATIONS.get(configurationName);
+        if (configuration == null) {
+            throw new IllegalArgumentException("Unknown configuration '" + configurationName + "', expected one of "
+                    + CONFIGURATIONS.keySet());
+        }
+        LoadTestReport report = new LoadTest(customers, concurrency, DEFAULT_PAYMENT_DELAY, DEFAULT_TIMEOUT)
+                .run(configuration);
+        System.out.println("Configuration: " + configurationName);
+        System.out.print(report);
+    }
+
+}
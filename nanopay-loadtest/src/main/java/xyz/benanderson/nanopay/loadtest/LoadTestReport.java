@@ -0,0 +1,53 @@
+package xyz.benanderson.nanopay.loadtest;
+
+import xyz.benanderson.nanopay.rpc.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of a {@link LoadTest} run.
+ * @param payments amount of payments requested
+ * @param succeeded amount of payments whose success callback was called
+ * @param failed amount of payments which failed to be requested, or whose failure callback was called
+ * @param elapsed time from the first payment being requested to the last callback, or the timeout being reached
+ * @param detectionToCallbackLatency time from the confirmation completing each payment being pushed over the
+ *                                   WebSocket to the payment's success callback
+ * @param rpcCalls amount of RPC requests the mock node received for each action whilst the payments were processed
+ */
+public record LoadTestReport(int payments, int succeeded, int failed, Duration elapsed,
+                             LatencyHistogram detectionToCallbackLatency, Map<String, Long> rpcCalls) {
+
+    public double getPaymentsPerSecond() {
+        return elapsed.isZero() ? 0 : succeeded / (elapsed.toNanos() / 1e9);
+    }
+
+    public long getRpcCallCount() {
+        return rpcCalls.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public double getRpcCallsPerPayment() {
+        return succeeded == 0 ? 0 : (double) getRpcCallCount() / succeeded;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder()
+                .append(String.format(Locale.ROOT, "Payments: %d requested, %d succeeded, %d failed, %d incomplete%n",
+                        payments, succeeded, failed, payments - succeeded - failed))
+                .append(String.format(Locale.ROOT, "Throughput: %.1f payments/sec over %.3fs%n",
+                        getPaymentsPerSecond(), elapsed.toNanos() / 1e9))
+                .append(String.format(Locale.ROOT, "Detection to callback: p50=%dms p90=%dms p99=%dms max=%dms%n",
+                        detectionToCallbackLatency.getPercentile(50).toMillis(),
+                        detectionToCallbackLatency.getPercentile(90).toMillis(),
+                        detectionToCallbackLatency.getPercentile(99).toMillis(),
+                        detectionToCallbackLatency.getMax().toMillis()))
+                .append(String.format(Locale.ROOT, "RPC calls: %d (%.2f per payment)%n",
+                        getRpcCallCount(), getRpcCallsPerPayment()));
+        rpcCalls.forEach((action, count) -> report.append(String.format(Locale.ROOT, "  %s: %d (%.2f per payment)%n",
+                action, count, succeeded == 0 ? 0 : (double) count / succeeded)));
+        return report.toString();
+    }
+
+}
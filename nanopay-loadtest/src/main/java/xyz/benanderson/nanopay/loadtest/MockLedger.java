@@ -0,0 +1,404 @@
+package xyz.benanderson.nanopay.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.rfksystems.blake2b.Blake2b;
+import com.rfksystems.blake2b.security.Blake2bProvider;
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-memory ledger behind {@link MockNanoNode}, answering the RPC actions used by NanoPay. Blocks published with
+ * {@code process} are applied to the ledger and hashed like a real node would, so the frontiers jNano computes locally
+ * match the ledger. Signatures and proof of work aren't checked, and {@code work_generate} returns placeholder work.
+ * Only send blocks are confirmed, as they're the only confirmations NanoPay acts on.
+ */
+final class MockLedger {
+
+    static final String ZERO_HASH = "0".repeat(64);
+    static final String DEFAULT_REPRESENTATIVE = "nano_1natrium1o3z5519ifou7xii8crpxpk8y65qmkih8e8bpsjri651oza8imdd";
+    private static final byte[] STATE_BLOCK_PREAMBLE = new byte[32];
+    private static final int BALANCE_LENGTH = 16;
+
+    static {
+        STATE_BLOCK_PREAMBLE[31] = 6;
+        Security.addProvider(new Blake2bProvider());
+    }
+
+    private final Map<String, AccountState> accounts = new HashMap<>();
+    private final Map<String, LongAdder> rpcCalls = new ConcurrentHashMap<>();
+    private final LongAdder confirmations = new LongAdder();
+    private final Consumer<Confirmation> confirmationListener;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param confirmationListener called with each confirmed send block, outside of the ledger's lock
+     */
+    MockLedger(Consumer<Confirmation> confirmationListener) {
+        this.confirmationListener = confirmationListener;
+    }
+
+    /**
+     * @param request raw JSON RPC request
+     * @return raw JSON RPC response, an {@code error} response if the request failed
+     */
+    String handle(String request) {
+        JsonObject requestObject;
+        try {
+            requestObject = JsonParser.parseString(request).getAsJsonObject();
+        } catch (RuntimeException e) {
+            return error("Unable to parse JSON").toString();
+        }
+        if (!requestObject.has("action")) return error("Unable to parse JSON").toString();
+        String action = requestObject.get("action").getAsString();
+        rpcCalls.computeIfAbsent(action, key -> new LongAdder()).increment();
+        try {
+            return (switch (action) {
+                case "account_info" -> accountInfo(requestObject.get("account").getAsString());
+                case "account_balance" -> balance(requestObject.get("account").getAsString());
+                case "accounts_balances" -> accountsBalances(requestObject.getAsJsonArray("accounts"));
+                case "account_history" -> accountHistory(requestObject);
+                case "receivable", "pending" -> receivable(requestObject);
+                case "accounts_receivable", "accounts_pending" -> accountsReceivable(requestObject);
+                case "work_generate" -> workGenerate(requestObject);
+                case "process" -> process(requestObject);
+                case "block_count" -> blockCount();
+                default -> error("Unknown command");
+            }).toString();
+        } catch (RuntimeException e) {
+            return error("Bad request: " + e.getMessage()).toString();
+        }
+    }
+
+    /**
+     * Sends funds from an account outside of the ledger (e.g. a customer), which become receivable by
+     * {@code destination}, and confirms the send block.
+     * @return hash of the send block
+     */
+    String send(String source, String destination, BigInteger amount) {
+        byte[] hashBytes = new byte[32];
+        random.nextBytes(hashBytes);
+        String hash = new HexData(hashBytes).toString().toUpperCase();
+        JsonObject block = new JsonObject();
+        block.addProperty("type", "state");
+        block.addProperty("account", source);
+        block.addProperty("previous", ZERO_HASH);
+        block.addProperty("representative", DEFAULT_REPRESENTATIVE);
+        block.addProperty("balance", "0");
+        block.addProperty("link", new HexData(NanoAccount.parseAddress(destination).getPublicKeyBytes()).toString());
+        block.addProperty("link_as_account", destination);
+        block.addProperty("signature", "0".repeat(128));
+        block.addProperty("work", "0".repeat(16));
+        block.addProperty("subtype", "send");
+        synchronized (this) {
+            getAccount(destination).receivable.put(hash, new Receivable(source, amount));
+        }
+        confirm(source, destination, amount, hash, block);
+        return hash;
+    }
+
+    synchronized BigInteger getBalance(String account) {
+        AccountState accountState = accounts.get(account);
+        return accountState == null ? BigInteger.ZERO : accountState.balance;
+    }
+
+    /**
+     * @return amount of RPC requests received for each action
+     */
+    Map<String, Long> getRpcCalls() {
+        Map<String, Long> calls = new TreeMap<>();
+        rpcCalls.forEach((action, count) -> calls.put(action, count.sum()));
+        return calls;
+    }
+
+    void resetRpcCalls() {
+        rpcCalls.clear();
+    }
+
+    long getConfirmations() {
+        return confirmations.sum();
+    }
+
+    private synchronized JsonObject accountInfo(String account) {
+        AccountState accountState = accounts.get(account);
+        if (accountState == null || accountState.frontier == null) return error("Account not found");
+        JsonObject response = new JsonObject();
+        response.addProperty("frontier", accountState.frontier);
+        response.addProperty("open_block", accountState.openBlock);
+        response.addProperty("representative_block", accountState.openBlock);
+        response.addProperty("balance", accountState.balance.toString());
+        response.addProperty("modified_timestamp", String.valueOf(accountState.modifiedTimestamp));
+        response.addProperty("block_count", String.valueOf(accountState.blockCount));
+        response.addProperty("account_version", "2");
+        response.addProperty("confirmation_height", String.valueOf(accountState.blockCount));
+        response.addProperty("confirmation_height_frontier", accountState.frontier);
+        response.addProperty("representative", accountState.representative);
+        response.addProperty("weight", "0");
+        String receivable = accountState.getReceivableBalance().toString();
+        response.addProperty("pending", receivable);
+        response.addProperty("receivable", receivable);
+        return response;
+    }
+
+    private synchronized JsonObject balance(String account) {
+        AccountState accountState = accounts.get(account);
+        String balance = accountState == null ? "0" : accountState.balance.toString();
+        String receivable = accountState == null ? "0" : accountState.getReceivableBalance().toString();
+        JsonObject response = new JsonObject();
+        response.addProperty("balance", balance);
+        response.addProperty("pending", receivable);
+        response.addProperty("receivable", receivable);
+        return response;
+    }
+
+    private JsonObject accountsBalances(JsonArray accountsArray) {
+        JsonObject balances = new JsonObject();
+        for (JsonElement account : accountsArray) {
+            balances.add(account.getAsString(), balance(account.getAsString()));
+        }
+        JsonObject response = new JsonObject();
+        response.add("balances", balances);
+        return response;
+    }
+
+    private synchronized JsonObject accountHistory(JsonObject request) {
+        String account = request.get("account").getAsString();
+        int count = request.has("count") ? request.get("count").getAsInt() : Integer.MAX_VALUE;
+        AccountState accountState = accounts.get(account);
+        List<HistoryEntry> history = accountState == null ? List.of() : accountState.history;
+        JsonArray entries = new JsonArray();
+        //newest first, like a real node
+        for (int i = history.size() - 1; i >= 0 && entries.size() < count; i--) {
+            HistoryEntry historyEntry = history.get(i);
+            JsonObject entry = new JsonObject();
+            entry.addProperty("type", historyEntry.type());
+            entry.addProperty("account", historyEntry.account());
+            entry.addProperty("amount", historyEntry.amount().toString());
+            entry.addProperty("local_timestamp", String.valueOf(historyEntry.timestamp()));
+            entry.addProperty("height", String.valueOf(historyEntry.height()));
+            entry.addProperty("hash", historyEntry.hash());
+            entry.addProperty("confirmed", "true");
+            entries.add(entry);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("account", account);
+        response.add("history", entries);
+        if (entries.size() < history.size()) {
+            response.addProperty("previous", history.get(history.size() - entries.size() - 1).hash());
+        }
+        return response;
+    }
+
+    private JsonObject receivable(JsonObject request) {
+        JsonObject response = new JsonObject();
+        response.add("blocks", receivableBlocks(request.get("account").getAsString(), request));
+        return response;
+    }
+
+    private JsonObject accountsReceivable(JsonObject request) {
+        JsonObject blocks = new JsonObject();
+        for (JsonElement account : request.getAsJsonArray("accounts")) {
+            JsonElement accountBlocks = receivableBlocks(account.getAsString(), request);
+            boolean empty = accountBlocks.isJsonArray() ? accountBlocks.getAsJsonArray().size() == 0
+                    : accountBlocks.getAsJsonObject().size() == 0;
+            if (!empty) blocks.add(account.getAsString(), accountBlocks);
+        }
+        JsonObject response = new JsonObject();
+        response.add("blocks", blocks);
+        return response;
+    }
+
+    /**
+     * @return the receivable blocks of the account, in the shape the request's {@code source} and {@code threshold}
+     * options ask for: hashes, hashes to amounts, or hashes to amounts and sources
+     */
+    private synchronized JsonElement receivableBlocks(String account, JsonObject request) {
+        int count = request.has("count") ? request.get("count").getAsInt() : Integer.MAX_VALUE;
+        BigInteger threshold = request.has("threshold") ? new BigInteger(request.get("threshold").getAsString())
+                : BigInteger.ZERO;
+        boolean includeSource = request.has("source") && request.get("source").getAsBoolean();
+        boolean includeAmount = includeSource || request.has("threshold");
+        AccountState accountState = accounts.get(account);
+        Map<String, Receivable> receivable = accountState == null ? Map.of() : accountState.receivable;
+        JsonArray hashes = new JsonArray();
+        JsonObject blocks = new JsonObject();
+        for (Map.Entry<String, Receivable> entry : receivable.entrySet()) {
+            if (hashes.size() + blocks.size() >= count) break;
+            if (entry.getValue().amount().compareTo(threshold) < 0) continue;
+            if (includeSource) {
+                JsonObject block = new JsonObject();
+                block.addProperty("amount", entry.getValue().amount().toString());
+                block.addProperty("source", entry.getValue().source());
+                blocks.add(entry.getKey(), block);
+            } else if (includeAmount) {
+                blocks.addProperty(entry.getKey(), entry.getValue().amount().toString());
+            } else {
+                hashes.add(entry.getKey());
+            }
+        }
+        return includeAmount ? blocks : hashes;
+    }
+
+    private JsonObject workGenerate(JsonObject request) {
+        JsonObject response = new JsonObject();
+        response.addProperty("work", "0".repeat(16));
+        response.addProperty("difficulty", request.has("difficulty") ? request.get("difficulty").getAsString()
+                : "fffffff800000000");
+        response.addProperty("multiplier", "1.0");
+        response.addProperty("hash", request.get("hash").getAsString());
+        return response;
+    }
+
+    private JsonObject process(JsonObject request) {
+        JsonElement blockElement = request.get("block");
+        JsonObject block = blockElement.isJsonObject() ? blockElement.getAsJsonObject()
+                : JsonParser.parseString(blockElement.getAsString()).getAsJsonObject();
+        if (!"state".equals(block.get("type").getAsString())) return error("Block is invalid");
+        String account = block.get("account").getAsString();
+        String previous = block.get("previous").getAsString();
+        String representative = block.has("representative") ? block.get("representative").getAsString()
+                : DEFAULT_REPRESENTATIVE;
+        BigInteger balance = new BigInteger(block.get("balance").getAsString());
+        String link = block.get("link").getAsString();
+        String hash = hashStateBlock(account, previous, representative, balance, link);
+        String destination = null;
+        BigInteger sent;
+        synchronized (this) {
+            AccountState accountState = getAccount(account);
+            String frontier = accountState.frontier == null ? ZERO_HASH : accountState.frontier;
+            if (!frontier.equalsIgnoreCase(previous)) {
+                return error(accountState.frontier == null ? "Gap previous block" : "Fork");
+            }
+            BigInteger change = balance.subtract(accountState.balance);
+            sent = change.negate();
+            if (change.signum() > 0) {
+                Receivable receivable = accountState.receivable.get(link.toUpperCase());
+                if (receivable == null || !receivable.amount().equals(change)) return error("Unreceivable");
+                accountState.receivable.remove(link.toUpperCase());
+                accountState.history.add(new HistoryEntry("receive", receivable.source(), change, hash,
+                        Instant.now().getEpochSecond(), accountState.blockCount + 1));
+            } else if (change.signum() < 0) {
+                destination = block.has("link_as_account") ? block.get("link_as_account").getAsString()
+                        : new NanoAccount(new HexData(link).toByteArray()).toAddress();
+                accountState.history.add(new HistoryEntry("send", destination, sent, hash,
+                        Instant.now().getEpochSecond(), accountState.blockCount + 1));
+                getAccount(destination).receivable.put(hash, new Receivable(account, sent));
+            }
+            if (accountState.openBlock == null) accountState.openBlock = hash;
+            accountState.frontier = hash;
+            accountState.representative = representative;
+            accountState.balance = balance;
+            accountState.blockCount++;
+            accountState.modifiedTimestamp = Instant.now().getEpochSecond();
+        }
+        if (destination != null) {
+            JsonObject confirmedBlock = block.deepCopy();
+            confirmedBlock.addProperty("link_as_account", destination);
+            confirmedBlock.addProperty("subtype", "send");
+            confirm(account, destination, sent, hash, confirmedBlock);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("hash", hash);
+        return response;
+    }
+
+    private synchronized JsonObject blockCount() {
+        long count = accounts.values().stream().mapToLong(accountState -> accountState.blockCount).sum();
+        JsonObject response = new JsonObject();
+        response.addProperty("count", String.valueOf(count));
+        response.addProperty("unchecked", "0");
+        response.addProperty("cemented", String.valueOf(count));
+        return response;
+    }
+
+    private void confirm(String account, String destination, BigInteger amount, String hash, JsonObject block) {
+        JsonObject message = new JsonObject();
+        message.addProperty("account", account);
+        message.addProperty("amount", amount.toString());
+        message.addProperty("hash", hash);
+        message.addProperty("confirmation_type", "active_quorum");
+        message.add("block", block);
+        JsonObject confirmation = new JsonObject();
+        confirmation.addProperty("topic", "confirmation");
+        confirmation.addProperty("time", String.valueOf(System.currentTimeMillis()));
+        confirmation.add("message", message);
+        confirmations.increment();
+        confirmationListener.accept(new Confirmation(account, destination, confirmation.toString()));
+    }
+
+    private AccountState getAccount(String account) {
+        return accounts.computeIfAbsent(account, key -> new AccountState());
+    }
+
+    static String hashStateBlock(String account, String previous, String representative, BigInteger balance,
+                                 String link) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(Blake2b.BLAKE2_B_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Blake2b provider is not registered", e);
+        }
+        byte[] balanceBytes = new byte[BALANCE_LENGTH], rawBalance = balance.toByteArray();
+        int length = Math.min(rawBalance.length, BALANCE_LENGTH);
+        System.arraycopy(rawBalance, rawBalance.length - length, balanceBytes, BALANCE_LENGTH - length, length);
+        digest.update(STATE_BLOCK_PREAMBLE);
+        digest.update(NanoAccount.parseAddress(account).getPublicKeyBytes());
+        digest.update(new HexData(previous).toByteArray());
+        digest.update(NanoAccount.parseAddress(representative).getPublicKeyBytes());
+        digest.update(balanceBytes);
+        digest.update(new HexData(link).toByteArray());
+        return new HexData(digest.digest()).toString().toUpperCase();
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", message);
+        return response;
+    }
+
+    /**
+     * @param account account which sent the funds
+     * @param destination account the funds were sent to
+     * @param message raw JSON confirmation, as sent by a node's WebSocket
+     */
+    record Confirmation(String account, String destination, String message) {}
+
+    private record Receivable(String source, BigInteger amount) {}
+
+    private record HistoryEntry(String type, String account, BigInteger amount, String hash, long timestamp,
+                                long height) {}
+
+    private static final class AccountState {
+
+        private String frontier, openBlock, representative = DEFAULT_REPRESENTATIVE;
+        private BigInteger balance = BigInteger.ZERO;
+        private long blockCount, modifiedTimestamp;
+        //keyed by the upper case hash of the send block
+        private final Map<String, Receivable> receivable = new LinkedHashMap<>();
+        private final List<HistoryEntry> history = new ArrayList<>();
+
+        private BigInteger getReceivableBalance() {
+            return receivable.values().stream().map(Receivable::amount).reduce(BigInteger.ZERO, BigInteger::add);
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+package xyz.benanderson.nanopay.loadtest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import xyz.benanderson.nanopay.NanoPay;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for a Nano node, serving the RPC actions NanoPay uses over HTTP and pushing {@code confirmation}
+ * messages over a WebSocket to the clients subscribed to the accounts involved. Both servers listen on ephemeral ports
+ * of the loopback address. The node holds its own ledger, so wallets can receive, forward and refund funds like on the
+ * real network, but signatures and proof of work aren't checked.
+ */
+public final class MockNanoNode implements AutoCloseable {
+
+    private static final Duration START_TIMEOUT = Duration.ofSeconds(10);
+
+    private final MockLedger ledger;
+    private final HttpServer rpcServer;
+    private final ExecutorService rpcService;
+    private final ConfirmationServer webSocketServer;
+
+    /**
+     * Starts the RPC and WebSocket servers.
+     * @throws IOException if either server couldn't be started.
+     */
+    public MockNanoNode() throws IOException {
+        this.ledger = new MockLedger(this::pushConfirmation);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.rpcService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nanopay-mock-rpc-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rpcServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        rpcServer.createContext("/", exchange -> {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] response = ledger.handle(request).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        rpcServer.setExecutor(rpcService);
+        rpcServer.start();
+        this.webSocketServer = new ConfirmationServer();
+        webSocketServer.setReuseAddr(true);
+        webSocketServer.start();
+        try {
+            if (!webSocketServer.started.await(START_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                close();
+                throw new IOException("WebSocket server didn't start within " + START_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted starting WebSocket server", e);
+        }
+    }
+
+    public String getRpcAddress() {
+        return "http://127.0.0.1:" + rpcServer.getAddress().getPort() + "/";
+    }
+
+    public String getWebSocketAddress() {
+        return "ws://127.0.0.1:" + webSocketServer.getPort();
+    }
+
+    /**
+     * Sends funds from an account outside of the node's ledger (e.g. a customer) to {@code destination}, confirming
+     * the send block to subscribed WebSocket clients before returning.
+     * @return hash of the send block
+     */
+    public String send(String source, String destination, BigInteger amount) {
+        return ledger.send(source, destination, amount);
+    }
+
+    /**
+     * @return balance of the account in raw, excluding receivable funds
+     */
+    public BigInteger getBalance(String account) {
+        return ledger.getBalance(account);
+    }
+
+    /**
+     * @return amount of RPC requests received for each action since the node started, or was last reset
+     */
+    public Map<String, Long> getRpcCalls() {
+        return ledger.getRpcCalls();
+    }
+
+    public void resetRpcCalls() {
+        ledger.resetRpcCalls();
+    }
+
+    /**
+     * @return amount of send blocks confirmed, whether or not a WebSocket client was subscribed to them
+     */
+    public long getConfirmations() {
+        return ledger.getConfirmations();
+    }
+
+    /**
+     * Waits for a WebSocket client to subscribe to confirmations.
+     * @return whether a client subscribed within the timeout
+     */
+    public boolean awaitSubscription(Duration timeout) throws InterruptedException {
+        return webSocketServer.subscribed.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        rpcServer.stop(0);
+        rpcService.shutdownNow();
+        try {
+            webSocketServer.stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pushConfirmation(MockLedger.Confirmation confirmation) {
+        webSocketServer.push(confirmation);
+    }
+
+    private static final class Subscription {
+
+        private volatile boolean allAccounts;
+        private final Set<String> accounts = ConcurrentHashMap.newKeySet();
+
+        private boolean matches(MockLedger.Confirmation confirmation) {
+            return allAccounts || accounts.contains(confirmation.account())
+                    || accounts.contains(confirmation.destination());
+        }
+
+    }
+
+    private static final class ConfirmationServer extends WebSocketServer {
+
+        private final Map<WebSocket, Subscription> subscriptions = new ConcurrentHashMap<>();
+        private final CountDownLatch started = new CountDownLatch(1), subscribed = new CountDownLatch(1);
+
+        private ConfirmationServer() {
+            super(new InetSocketAddress("127.0.0.1", 0));
+        }
+
+        private void push(MockLedger.Confirmation confirmation) {
+            subscriptions.forEach((connection, subscription) -> {
+                if (!subscription.matches(confirmation)) return;
+                try {
+                    connection.send(confirmation.message());
+                } catch (WebsocketNotConnectedException e) {
+                    subscriptions.remove(connection);
+                }
+            });
+        }
+
+        @Override
+        public void onOpen(WebSocket connection, ClientHandshake handshake) {
+        }
+
+        @Override
+        public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+            subscriptions.remove(connection);
+        }
+
+        /**
+         * Handles the node's {@code subscribe}, {@code update} and {@code unsubscribe} actions for the
+         * {@code confirmation} topic.
+         */
+        @Override
+        public void onMessage(WebSocket connection, String message) {
+            JsonObject request;
+            try {
+                request = JsonParser.parseString(message).getAsJsonObject();
+            } catch (RuntimeException e) {
+                NanoPay.LOGGER.debug("Mock node received malformed WebSocket message: " + message, e);
+                return;
+            }
+            if (!request.has("action") || !request.has("topic")
+                    || !"confirmation".equals(request.get("topic").getAsString())) return;
+            JsonObject options = request.has("options") ? request.getAsJsonObject("options") : new JsonObject();
+            switch (request.get("action").getAsString()) {
+                case "subscribe" -> {
+                    Subscription subscription = new Subscription();
+                    subscription.allAccounts = !options.has("accounts");
+                    if (options.has("accounts")) addAccounts(subscription, options.get("accounts"));
+                    subscriptions.put(connection, subscription);
+                    subscribed.countDown();
+                }
+                case "update" -> {
+                    Subscription subscription = subscriptions.get(connection);
+                    if (subscription == null) return;
+                    if (options.has("accounts_add")) addAccounts(subscription, options.get("accounts_add"));
+                    if (options.has("accounts_del")) {
+                        options.getAsJsonArray("accounts_del")
+                                .forEach(account -> subscription.accounts.remove(account.getAsString()));
+                    }
+                }
+                case "unsubscribe" -> subscriptions.remove(connection);
+                default -> {
+                    return;
+                }
+            }
+            if (request.has("ack") && request.get("ack").getAsBoolean()) {
+                JsonObject ack = new JsonObject();
+                ack.addProperty("ack", request.get("action").getAsString());
+                ack.addProperty("time", String.valueOf(System.currentTimeMillis()));
+                connection.send(ack.toString());
+            }
+        }
+
+        private static void addAccounts(Subscription subscription, JsonElement accounts) {
+            accounts.getAsJsonArray().forEach(account -> subscription.accounts.add(account.getAsString()));
+        }
+
+        @Override
+        public void onError(WebSocket connection, Exception e) {
+            NanoPay.LOGGER.warn("Mock node WebSocket error", e);
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package xyz.benanderson.nanopay.loadtest;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.oczadly.karl.jnano.model.HexData;
+import uk.oczadly.karl.jnano.model.NanoAccount;
+import xyz.benanderson.nanopay.wallet.WalletKeyPool;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MockLedgerTest {
+
+    final static BigInteger AMOUNT = new BigInteger("1000000000000000000000000000000");
+
+    MockLedger ledger;
+    List<MockLedger.Confirmation> confirmations;
+    String customer, wallet, storage;
+
+    @BeforeEach
+    void setup() {
+        confirmations = new ArrayList<>();
+        ledger = new MockLedger(confirmations::add);
+        SecureRandom secureRandom = new SecureRandom();
+        customer = WalletKeyPool.generateKey(secureRandom).address();
+        wallet = WalletKeyPool.generateKey(secureRandom).address();
+        storage = WalletKeyPool.generateKey(secureRandom).address();
+    }
+
+    JsonObject request(String request) {
+        return JsonParser.parseString(ledger.handle(request)).getAsJsonObject();
+    }
+
+    String process(String account, String previous, BigInteger balance, String link) {
+        JsonObject block = new JsonObject();
+        block.addProperty("type", "state");
+        block.addProperty("account", account);
+        block.addProperty("previous", previous);
+        block.addProperty("representative", MockLedger.DEFAULT_REPRESENTATIVE);
+        block.addProperty("balance", balance.toString());
+        block.addProperty("link", link);
+        JsonObject request = new JsonObject();
+        request.addProperty("action", "process");
+        request.addProperty("json_block", "true");
+        request.add("block", block);
+        return ledger.handle(request.toString());
+    }
+
+    String receive(String account, String previous, BigInteger balance, String sendHash) {
+        JsonObject response = JsonParser.parseString(process(account, previous, balance, sendHash)).getAsJsonObject();
+        assertFalse(response.has("error"), () -> response.get("error").getAsString());
+        return response.get("hash").getAsString();
+    }
+
+    @Test
+    void externalSendIsReceivableAndConfirmed() {
+        String hash = ledger.send(customer, wallet, AMOUNT);
+
+        JsonObject blocks = request("{\"action\":\"receivable\",\"account\":\"" + wallet + "\",\"source\":true}")
+                .getAsJsonObject("blocks");
+        assertEquals(AMOUNT.toString(), blocks.getAsJsonObject(hash).get("amount").getAsString());
+        assertEquals(customer, blocks.getAsJsonObject(hash).get("source").getAsString());
+        assertEquals(hash, request("{\"action\":\"receivable\",\"account\":\"" + wallet + "\"}")
+                .getAsJsonArray("blocks").get(0).getAsString());
+        assertEquals(AMOUNT.toString(), request("{\"action\":\"account_balance\",\"account\":\"" + wallet + "\"}")
+                .get("receivable").getAsString());
+
+        assertEquals(1, confirmations.size());
+        assertEquals(wallet, confirmations.get(0).destination());
+        JsonObject message = JsonParser.parseString(confirmations.get(0).message()).getAsJsonObject();
+        assertEquals("confirmation", message.get("topic").getAsString());
+        assertEquals(hash, message.getAsJsonObject("message").get("hash").getAsString());
+        assertEquals("send", message.getAsJsonObject("message").getAsJsonObject("block").get("subtype").getAsString());
+        assertEquals(wallet, message.getAsJsonObject("message").getAsJsonObject("block")
+                .get("link_as_account").getAsString());
+    }
+
+    @Test
+    void receiveOpensAccount() {
+        assertEquals("Account not found",
+                request("{\"action\":\"account_info\",\"account\":\"" + wallet + "\"}").get("error").getAsString());
+        String sendHash = ledger.send(customer, wallet, AMOUNT);
+
+        String openHash = receive(wallet, MockLedger.ZERO_HASH, AMOUNT, sendHash);
+
+        JsonObject accountInfo = request("{\"action\":\"account_info\",\"account\":\"" + wallet + "\"}");
+        assertEquals(openHash, accountInfo.get("frontier").getAsString());
+        assertEquals(AMOUNT.toString(), accountInfo.get("balance").getAsString());
+        assertEquals("0", accountInfo.get("receivable").getAsString());
+        assertEquals("1", accountInfo.get("block_count").getAsString());
+        JsonObject history = request("{\"action\":\"account_history\",\"account\":\"" + wallet + "\",\"count\":10}")
+                .getAsJsonArray("history").get(0).getAsJsonObject();
+        assertEquals("receive", history.get("type").getAsString());
+        assertEquals(customer, history.get("account").getAsString());
+        assertEquals(AMOUNT, ledger.getBalance(wallet));
+    }
+
+    @Test
+    void sendMakesFundsReceivableByDestination() {
+        String openHash = receive(wallet, MockLedger.ZERO_HASH, AMOUNT, ledger.send(customer, wallet, AMOUNT));
+        String storageLink = new HexData(NanoAccount.parseAddress(storage).getPublicKeyBytes()).toString();
+
+        String sendHash = JsonParser.parseString(process(wallet, openHash, BigInteger.ZERO, storageLink))
+                .getAsJsonObject().get("hash").getAsString();
+
+        assertEquals(2, confirmations.size());
+        assertEquals(wallet, confirmations.get(1).account());
+        assertEquals(storage, confirmations.get(1).destination());
+        assertEquals(AMOUNT.toString(), request("{\"action\":\"accounts_balances\",\"accounts\":[\"" + storage + "\"]}")
+                .getAsJsonObject("balances").getAsJsonObject(storage).get("receivable").getAsString());
+        receive(storage, MockLedger.ZERO_HASH, AMOUNT, sendHash);
+        assertEquals(AMOUNT, ledger.getBalance(storage));
+        assertEquals(BigInteger.ZERO, ledger.getBalance(wallet));
+    }
+
+    @Test
+    void blockNotOnFrontierIsRejected() {
+        String sendHash = ledger.send(customer, wallet, AMOUNT);
+        receive(wallet, MockLedger.ZERO_HASH, AMOUNT, sendHash);
+
+        JsonObject response = JsonParser.parseString(process(wallet, MockLedger.ZERO_HASH, BigInteger.ZERO,
+                MockLedger.ZERO_HASH)).getAsJsonObject();
+
+        assertEquals("Fork", response.get("error").getAsString());
+        assertEquals(AMOUNT, ledger.getBalance(wallet));
+    }
+
+    @Test
+    void receiveOfUnknownBlockIsRejected() {
+        JsonObject response = JsonParser.parseString(process(wallet, MockLedger.ZERO_HASH, AMOUNT,
+                MockLedger.ZERO_HASH)).getAsJsonObject();
+
+        assertEquals("Unreceivable", response.get("error").getAsString());
+        assertEquals(BigInteger.ZERO, ledger.getBalance(wallet));
+    }
+
+    @Test
+    void rpcCallsAreCountedByAction() {
+        request("{\"action\":\"account_info\",\"account\":\"" + wallet + "\"}");
+        request("{\"action\":\"account_info\",\"account\":\"" + wallet + "\"}");
+        request("{\"action\":\"work_generate\",\"hash\":\"" + MockLedger.ZERO_HASH + "\"}");
+
+        assertEquals(2, ledger.getRpcCalls().get("account_info"));
+        assertEquals(1, ledger.getRpcCalls().get("work_generate"));
+        ledger.resetRpcCalls();
+        assertTrue(ledger.getRpcCalls().isEmpty());
+    }
+
+}
@@ -3,6 +3,7 @@ package xyz.benanderson.nanopay.web;
 import xyz.benanderson.nanopay.NanoPay;
 import xyz.benanderson.nanopay.death.DefaultWalletDeathLogger;
 import xyz.benanderson.nanopay.death.WalletDeathLogger;
+import xyz.benanderson.nanopay.execution.ExecutionModel;
 import xyz.benanderson.nanopay.hibernate.HibernateWalletDeathLogger;
 import xyz.benanderson.nanopay.hibernate.HibernateWalletStorage;
 import xyz.benanderson.nanopay.storage.*;
@@ -12,14 +13,17 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class ConfigurationParser {
 
     private final Configuration configuration;
+    //created on first use, as it's shared by the builder and any cache wrapped storages
+    private ExecutionModel executionModel;
 
     public ConfigurationParser(Configuration configuration) {
         this.configuration = configuration;
@@ -30,10 +34,26 @@ public class ConfigurationParser {
                 paymentSuccessListener, paymentFailureListener);
         //representative
         builder.setRepresentativeWallet(configuration.getRequiredString("nanopay.representative_wallet"));
-        //rpc address
-        builder.setRpcAddress(configuration.getRequiredString("nanopay.rpc_address"));
-        //websocket
-        builder.setWebSocketAddress(configuration.getRequiredString("nanopay.websocket_address"));
+        //rpc addresses, comma separated
+        builder.setRpcAddresses(parseRpcAddresses());
+        if (configuration.getString("nanopay.rpc.hedge_percentile").isPresent())
+            builder.enableRpcHedging(configuration.getRequiredInt("nanopay.rpc.hedge_percentile"));
+        //pooled rpc transport
+        if (configuration.getString("nanopay.rpc.max_in_flight").isPresent())
+            builder.enablePooledRpcTransport(
+                    Duration.ofMillis(configuration.getRequiredInt("nanopay.rpc.connect_timeout_ms")),
+                    Duration.ofMillis(configuration.getRequiredInt("nanopay.rpc.request_timeout_ms")),
+                    configuration.getRequiredInt("nanopay.rpc.max_in_flight"));
+        //rpc request coalescing
+        if (configuration.getString("nanopay.rpc.coalesce.window_ms").isPresent())
+            builder.enableRpcCoalescing(Duration.ofMillis(configuration.getRequiredInt("nanopay.rpc.coalesce.window_ms")),
+                    configuration.getRequiredInt("nanopay.rpc.coalesce.max_batch_size"));
+        //account state cache
+        if (configuration.getString("nanopay.rpc.account_cache.capacity").isPresent())
+            builder.enableAccountStateCache(configuration.getRequiredInt("nanopay.rpc.account_cache.capacity"),
+                    Duration.ofMillis(configuration.getRequiredInt("nanopay.rpc.account_cache.ttl_ms")));
+        //websocket addresses, comma separated
+        builder.setWebSocketAddresses(parseWebSocketAddresses());
         //disable websocket reconnect
         if (configuration.getBoolean("nanopay.disable_websocket_reconnect", false))
             builder.disableWebSocketReconnect();
@@ -43,10 +63,23 @@ public class ConfigurationParser {
         //disable wallet refund service
         if (configuration.getBoolean("nanopay.disable_wallet_refund_service", false))
             builder.disableRefundService();
-        //wallet prune delay
-        builder.setWalletPruneDelay(parseRepeatingDelay("nanopay.delay.wallet_prune."));
         //wallet refund delay
         builder.setWalletRefundDelay(parseRepeatingDelay("nanopay.delay.wallet_refund."));
+        //wallet check pipeline
+        if (configuration.getString("nanopay.wallet_check.workers").isPresent())
+            builder.setWalletCheckPipeline(configuration.getRequiredInt("nanopay.wallet_check.workers"),
+                    configuration.getRequiredInt("nanopay.wallet_check.queue_depth"),
+                    NanoPay.OverflowPolicy.valueOf(configuration.getRequiredString("nanopay.wallet_check.overflow_policy").toUpperCase()));
+        //local cpu work generator
+        if (configuration.getString("nanopay.work.cpu_threads").isPresent())
+            builder.enableCpuWorkGenerator(configuration.getRequiredInt("nanopay.work.cpu_threads"));
+        //slow call logging
+        if (configuration.getString("nanopay.slow_call_threshold_ms").isPresent())
+            builder.setSlowCallThreshold(Duration.ofMillis(configuration.getRequiredInt("nanopay.slow_call_threshold_ms")));
+        //execution model
+        builder.setExecutionModel(parseExecutionModel());
+        if (configuration.getString("nanopay.async_timeout_ms").isPresent())
+            builder.setAsyncTimeout(Duration.ofMillis(configuration.getRequiredInt("nanopay.async_timeout_ms")));
         //wallet storages
         WalletStorage activeStorage = parseWalletStorage(WalletType.ACTIVE)
                 .orElse(new MemoryWalletStorage(Duration.ofMinutes(30)));
@@ -59,6 +92,39 @@ public class ConfigurationParser {
         return builder.build();
     }
 
+    ExecutionModel parseExecutionModel() {
+        if (executionModel != null) return executionModel;
+        String model = configuration.getString("nanopay.execution_model").orElse("platform");
+        if (model.equalsIgnoreCase("virtual")) {
+            executionModel = ExecutionModel.virtualThreads();
+        } else if (configuration.getString("nanopay.execution.death_threads").isPresent()) {
+            executionModel = ExecutionModel.platformThreads(
+                    configuration.getInt("nanopay.execution.request_threads")
+                            .orElse(ExecutionModel.DEFAULT_REQUEST_THREADS),
+                    configuration.getRequiredInt("nanopay.execution.death_threads"),
+                    configuration.getRequiredInt("nanopay.execution.storage_threads"),
+                    configuration.getRequiredInt("nanopay.execution.scheduled_threads"));
+        } else {
+            executionModel = ExecutionModel.platformThreads();
+        }
+        return executionModel;
+    }
+
+    List<String> parseRpcAddresses() {
+        return parseAddresses("nanopay.rpc_address");
+    }
+
+    List<String> parseWebSocketAddresses() {
+        return parseAddresses("nanopay.websocket_address");
+    }
+
+    private List<String> parseAddresses(String key) {
+        return Arrays.stream(configuration.getRequiredString(key).split(","))
+                .map(String::trim)
+                .filter(address -> !address.isEmpty())
+                .toList();
+    }
+
     NanoPay.RepeatingDelay parseRepeatingDelay(String prefix) {
         int initialDelayAmount = configuration.getRequiredInt(prefix + "initial_amount");
         int repeatingDelayAmount = configuration.getRequiredInt(prefix + "repeating_amount");
@@ -130,7 +196,7 @@ public class ConfigurationParser {
                 break;
         }
         if (walletStorage != null && configuration.getBoolean(prefix + "cache", false))
-            walletStorage = new CacheWrappedWalletStorage(walletStorage, Executors.newSingleThreadExecutor(),
+            walletStorage = new CacheWrappedWalletStorage(walletStorage, parseExecutionModel().getStorageExecutor(),
                     CacheWrappedWalletStorage.CacheSearchPolicy.valueOf(configuration.getRequiredString(prefix + "cache.policy").toUpperCase()));
         return Optional.ofNullable(walletStorage);
     }
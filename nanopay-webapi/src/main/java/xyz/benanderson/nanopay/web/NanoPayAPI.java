@@ -15,7 +15,9 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 import static io.javalin.apibuilder.ApiBuilder.*;
 
@@ -29,6 +31,8 @@ public class NanoPayAPI {
 
     public record JsonResponse(boolean success, String message) {
     }
+    public record JsonListResponse(boolean success, List<String> message) {
+    }
     public record PaymentResult(String result, String walletAddress) {
         public static PaymentResult success(String walletAddress) {
             return new PaymentResult("success", walletAddress);
@@ -77,13 +81,17 @@ public class NanoPayAPI {
     }
 
     private void applyHandlers() {
-        PaymentController paymentController = new PaymentController(nanoPay);
+        PaymentController paymentController = new PaymentController(nanoPay,
+                config.getRequiredInt("api.max_batch_size"));
         EventAccessController eventAccessController = new EventAccessController(nanoPay);
 
         javalin.routes(() -> {
             path("payments", () -> {
                 get(paymentController::getAllWallets);
                 post(paymentController::createWallet);
+                path("batch", () -> {
+                    post(paymentController::createWallets);
+                });
                 path("{wallet}", () -> {
                     get(paymentController::getWallet);
                     delete(paymentController::deleteWallet);
@@ -93,6 +101,8 @@ public class NanoPayAPI {
                 get(eventAccessController::getEvents);
             });
         });
+        javalin.exception(TimeoutException.class, (e, ctx) -> ctx.status(HttpCode.GATEWAY_TIMEOUT)
+                .json(new JsonResponse(false, "timed out waiting for the node")));
     }
 
     private void applyEventsWebsocketHandler() {
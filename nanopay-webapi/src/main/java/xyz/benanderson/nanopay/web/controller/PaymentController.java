@@ -9,46 +9,59 @@ import io.javalin.http.NotFoundResponse;
 import uk.oczadly.karl.jnano.model.NanoAccount;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-public record PaymentController(NanoPay nanoPay) {
+/**
+ * @param maxBatchSize maximum amount of payments which can be requested at once, larger batches are rejected
+ */
+public record PaymentController(NanoPay nanoPay, int maxBatchSize) {
 
     public void getWallet(Context ctx) {
         NanoAccount walletAccount = ctx.pathParamAsClass("wallet", NanoAccount.class).get();
         Wallet wallet = nanoPay.getWalletStorage().activeWalletStorage().findWalletByAddress(walletAccount.toAddress())
                 .orElseThrow(() -> new NotFoundResponse("wallet not found in active storage"));
-        BigDecimal walletBalance = nanoPay.getBalance(wallet).orElse(BigDecimal.ZERO);
-        ctx.status(HttpCode.OK).json(new NanoPayAPI.ViewableWallet(wallet.address(), wallet.creationTime().toEpochMilli(),
-                wallet.requiredAmount(), walletBalance));
+        ctx.status(HttpCode.OK).future(nanoPay.getBalanceAsync(wallet).thenApply(walletBalance ->
+                new NanoPayAPI.ViewableWallet(wallet.address(), wallet.creationTime().toEpochMilli(),
+                        wallet.requiredAmount(), walletBalance.orElse(BigDecimal.ZERO))));
     }
 
     public void getAllWallets(Context ctx) {
         Collection<Wallet> wallets = nanoPay.getWalletStorage().activeWalletStorage().getAllWallets();
-        Map<String, Optional<BigDecimal>> balances = nanoPay.getBalances(wallets);
-        ctx.status(HttpCode.OK).json(wallets.stream()
+        ctx.status(HttpCode.OK).future(nanoPay.getBalancesAsync(wallets).thenApply(balances -> wallets.stream()
                 .map(wallet -> new NanoPayAPI.ViewableWallet(wallet.address(), wallet.creationTime().toEpochMilli(),
-                        wallet.requiredAmount(), balances.get(wallet.address()).orElse(BigDecimal.ZERO)))
-                .collect(Collectors.toSet()));
+                        wallet.requiredAmount(),
+                        balances.getOrDefault(wallet.address(), Optional.empty()).orElse(BigDecimal.ZERO)))
+                .collect(Collectors.toSet())));
     }
 
     public void createWallet(Context ctx) {
         BigDecimal amount = ctx.queryParamAsClass("amount", BigDecimal.class)
                 .check(val -> val != null && !val.equals(BigDecimal.ZERO), "'amount' cannot be zero")
                 .get();
-        ctx.status(HttpCode.OK).json(new NanoPayAPI.JsonResponse(true, nanoPay.requestPayment(amount)));
+        ctx.status(HttpCode.OK).future(nanoPay.requestPaymentAsync(amount)
+                .thenApply(address -> new NanoPayAPI.JsonResponse(true, address)));
     }
 
+    public void createWallets(Context ctx) {
+        BigDecimal[] amounts = ctx.bodyValidator(BigDecimal[].class)
+                .check(vals -> vals.length > 0, "body must contain at least one amount")
+                .check(vals -> vals.length <= maxBatchSize, "body must contain at most " + maxBatchSize + " amounts")
+                .check(vals -> Arrays.stream(vals).allMatch(val -> val != null && val.compareTo(BigDecimal.ZERO) > 0),
+                        "amounts must be greater than zero")
+                .get();
+        ctx.status(HttpCode.OK).future(nanoPay.requestPaymentsAsync(Arrays.asList(amounts))
+                .thenApply(addresses -> new NanoPayAPI.JsonListResponse(true, addresses)));
+    }
 
     public void deleteWallet(Context ctx) {
         NanoAccount walletAccount = ctx.pathParamAsClass("wallet", NanoAccount.class).get();
-        if (nanoPay.cancelPayment(walletAccount.toAddress())) {
-            ctx.status(HttpCode.OK).json(new NanoPayAPI.JsonResponse(true, "wallet killed"));
-        } else {
-            throw new NotFoundResponse("wallet not found in active storage");
-        }
+        ctx.status(HttpCode.OK).future(nanoPay.cancelPaymentAsync(walletAccount.toAddress()).thenApply(killed -> {
+            if (!killed) throw new NotFoundResponse("wallet not found in active storage");
+            return new NanoPayAPI.JsonResponse(true, "wallet killed");
+        }));
     }
 
 }
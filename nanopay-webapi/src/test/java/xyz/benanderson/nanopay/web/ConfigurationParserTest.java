@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 import xyz.benanderson.nanopay.death.WalletDeathLogger;
+import xyz.benanderson.nanopay.execution.ExecutionModel;
 import xyz.benanderson.nanopay.hibernate.HibernateWalletDeathLogger;
 import xyz.benanderson.nanopay.hibernate.HibernateWalletStorage;
 import xyz.benanderson.nanopay.storage.*;
@@ -14,6 +15,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -42,6 +44,41 @@ class ConfigurationParserTest {
         assertInstanceOf(HibernateWalletDeathLogger.class, walletDeathLogger);
     }
 
+    @Test
+    void testParseRpcAddresses() {
+        doReturn(Optional.of("http://127.0.0.1:7076, https://proxy.nanos.cc/proxy,")).when(configuration)
+                .getString("nanopay.rpc_address");
+
+        ConfigurationParser configurationParser = new ConfigurationParser(configuration);
+        assertEquals(List.of("http://127.0.0.1:7076", "https://proxy.nanos.cc/proxy"),
+                configurationParser.parseRpcAddresses());
+    }
+
+    @Test
+    void testParseExecutionModel() {
+        ConfigurationParser configurationParser = new ConfigurationParser(configuration);
+        ExecutionModel executionModel = configurationParser.parseExecutionModel();
+        assertFalse(executionModel.isVirtual());
+        assertSame(executionModel, configurationParser.parseExecutionModel());
+        executionModel.close();
+
+        doReturn(Optional.of("virtual")).when(configuration).getString("nanopay.execution_model");
+        configurationParser = new ConfigurationParser(configuration);
+        executionModel = configurationParser.parseExecutionModel();
+        assertEquals(ExecutionModel.isVirtualThreadSupported(), executionModel.isVirtual());
+        executionModel.close();
+    }
+
+    @Test
+    void testParseWebSocketAddresses() {
+        doReturn(Optional.of("ws://127.0.0.1:7078,wss://socket.nanos.cc/")).when(configuration)
+                .getString("nanopay.websocket_address");
+
+        ConfigurationParser configurationParser = new ConfigurationParser(configuration);
+        assertEquals(List.of("ws://127.0.0.1:7078", "wss://socket.nanos.cc/"),
+                configurationParser.parseWebSocketAddresses());
+    }
+
     @Test
     void testParseDatabaseWalletStorage() {
         doReturn(Optional.of("database")).when(configuration).getString("nanopay.storage.active.type");